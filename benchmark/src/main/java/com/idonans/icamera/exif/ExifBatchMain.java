@@ -0,0 +1,71 @@
+package com.idonans.icamera.exif;
+
+import java.io.File;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Prints the given tags of all JPEG files under a directory, one file per
+ * line, using {@link ExifBatchReader}.
+ * <p/>
+ * Usage: ExifBatchMain &lt;directory&gt; [TAG_NAME ...], tag names are the
+ * names of the tag constants in {@link ExifInterface} with or without the
+ * TAG_ prefix, e.g. ORIENTATION or TAG_DATE_TIME.
+ */
+public class ExifBatchMain {
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 1) {
+            System.err.println("Usage: ExifBatchMain <directory> [TAG_NAME ...]");
+            System.exit(2);
+        }
+        List<String> names = new ArrayList<>();
+        for (int i = 1; i < args.length; i++) {
+            String name = args[i].toUpperCase(Locale.US);
+            names.add(name.startsWith("TAG_") ? name : "TAG_" + name);
+        }
+        if (names.isEmpty()) {
+            names.addAll(Arrays.asList("TAG_DATE_TIME", "TAG_MAKE", "TAG_MODEL",
+                    "TAG_ORIENTATION"));
+        }
+        final int[] tags = new int[names.size()];
+        for (int i = 0; i < tags.length; i++) {
+            Field field = ExifInterface.class.getField(names.get(i));
+            if (field.getType() != int.class || !Modifier.isStatic(field.getModifiers())) {
+                throw new IllegalArgumentException("Not a tag: " + names.get(i));
+            }
+            tags[i] = field.getInt(null);
+        }
+        final List<String> columns = names;
+
+        long start = System.nanoTime();
+        int count = new ExifBatchReader(tags).readDirectory(new File(args[0]),
+                new ExifBatchReader.Callback() {
+                    @Override
+                    public void onResult(ExifSnapshot snapshot) {
+                        StringBuilder line = new StringBuilder(snapshot.getFile().getPath());
+                        for (int i = 0; i < tags.length; i++) {
+                            line.append('\t').append(columns.get(i)).append('=')
+                                    .append(snapshot.getValueAsString(tags[i]));
+                        }
+                        synchronized (System.out) {
+                            System.out.println(line);
+                        }
+                    }
+
+                    @Override
+                    public void onError(File file, Exception e) {
+                        synchronized (System.out) {
+                            System.err.println(file.getPath() + "\terror=" + e);
+                        }
+                    }
+                });
+        System.err.println(count + " files in "
+                + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + " ms");
+    }
+}
@@ -0,0 +1,315 @@
+package com.idonans.icamera.exif;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Builds synthetic JPEG files for the benchmarks. The same seed always gives
+ * the same bytes, so results of different runs and different parser versions
+ * can be compared.
+ * <p/>
+ * The image data is random entropy coded bytes behind valid headers, nothing
+ * here decodes pixels. The exif data is big or little endian, with a few
+ * typical camera tags or with every defined tag that can be built, with or
+ * without a compressed thumbnail. {@link #malform(byte[], int)} breaks the
+ * exif data of a file in the ways seen in the wild.
+ */
+final class ExifCorpus {
+
+    static final int TAGS_SMALL = 0;
+    static final int TAGS_LARGE = 1;
+
+    /**
+     * The APP1 segment ends in the middle of IFD0.
+     */
+    static final int MALFORMED_TRUNCATED = 0;
+    /**
+     * The TIFF header has no valid byte order.
+     */
+    static final int MALFORMED_BYTE_ORDER = 1;
+    /**
+     * IFD0 is past the end of the APP1 segment.
+     */
+    static final int MALFORMED_IFD_OFFSET = 2;
+    /**
+     * The first entry of IFD0 claims 2^31 - 1 values.
+     */
+    static final int MALFORMED_COUNT = 3;
+    /**
+     * The link to the next IFD of IFD0 points to IFD0 again.
+     */
+    static final int MALFORMED_IFD_LOOP = 4;
+    static final int MALFORMED_KINDS = 5;
+
+    // Marker, length and "Exif\0\0" before the TIFF header
+    private static final int TIFF_OFFSET = 10;
+
+    private ExifCorpus() {
+    }
+
+    /**
+     * Returns a JPEG of the given byte order, tag set and about the given
+     * size, with a thumbnail if requested.
+     *
+     * @param tags {@link #TAGS_SMALL} or {@link #TAGS_LARGE}.
+     */
+    static byte[] build(long seed, ByteOrder order, int tags, boolean thumbnail, int size)
+            throws IOException {
+        Random random = new Random(seed);
+        ExifInterface exif = new ExifInterface();
+        ExifData data = new ExifData(order);
+        for (ExifTag tag : tags == TAGS_LARGE ? buildAllTags(exif, random) : buildCameraTags(exif)) {
+            data.addTag(tag);
+        }
+        if (thumbnail) {
+            data.setCompressedThumbnail(plainJpeg(random, 160, 120, 8 * 1024));
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream(size + 64 * 1024);
+        ExifOutputStream exifOut = new ExifOutputStream(out, exif);
+        exifOut.setExifData(data);
+        exifOut.write(plainJpeg(random, 4000, 3000, size));
+        exifOut.flush();
+        return out.toByteArray();
+    }
+
+    /**
+     * Returns every combination of byte order, tag set and thumbnail, followed
+     * by each malformed kind of each of them.
+     */
+    static List<byte[]> corpus(long seed, int size) throws IOException {
+        List<byte[]> valid = new ArrayList<>();
+        ByteOrder[] orders = {ByteOrder.BIG_ENDIAN, ByteOrder.LITTLE_ENDIAN};
+        for (ByteOrder order : orders) {
+            for (int tags = TAGS_SMALL; tags <= TAGS_LARGE; tags++) {
+                valid.add(build(seed++, order, tags, false, size));
+                valid.add(build(seed++, order, tags, true, size));
+            }
+        }
+        List<byte[]> corpus = new ArrayList<>(valid);
+        for (byte[] jpeg : valid) {
+            for (int kind = 0; kind < MALFORMED_KINDS; kind++) {
+                corpus.add(malform(jpeg, kind));
+            }
+        }
+        return corpus;
+    }
+
+    /**
+     * Returns a copy of the JPEG with its exif data broken, see the
+     * MALFORMED_ constants.
+     */
+    static byte[] malform(byte[] jpeg, int kind) {
+        ByteBuffer buffer = ByteBuffer.wrap(jpeg.clone());
+        JpegSegmentIndex index = JpegSegmentIndex.scan(buffer);
+        int segment = index.getExifSegment();
+        if (segment < 0) {
+            throw new IllegalArgumentException("No exif data");
+        }
+        int tiff = (int) index.getOffset(segment) + TIFF_OFFSET;
+        buffer.order(buffer.get(tiff) == 'I' ? ByteOrder.LITTLE_ENDIAN : ByteOrder.BIG_ENDIAN);
+        int ifd0 = tiff + buffer.getInt(tiff + 4);
+        switch (kind) {
+            case MALFORMED_TRUNCATED: {
+                int end = ifd0 + 2 + (buffer.getShort(ifd0) & 0xffff) * 6;
+                byte[] truncated = new byte[end];
+                System.arraycopy(jpeg, 0, truncated, 0, end);
+                return truncated;
+            }
+            case MALFORMED_BYTE_ORDER:
+                buffer.putShort(tiff, (short) 0x5858);
+                break;
+            case MALFORMED_IFD_OFFSET:
+                buffer.putInt(tiff + 4, index.getLength(segment) + 0x100);
+                break;
+            case MALFORMED_COUNT:
+                buffer.putInt(ifd0 + 2 + 4, Integer.MAX_VALUE);
+                break;
+            case MALFORMED_IFD_LOOP:
+                buffer.putInt(ifd0 + 2 + (buffer.getShort(ifd0) & 0xffff) * 12, ifd0 - tiff);
+                break;
+            default:
+                throw new IllegalArgumentException("Invalid kind " + kind);
+        }
+        return buffer.array();
+    }
+
+    /**
+     * Returns a baseline JPEG header for the given dimensions followed by
+     * random entropy coded data, of the given total size.
+     */
+    static byte[] plainJpeg(Random random, int width, int height, int size) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(size);
+        writeShort(out, JpegHeader.SOI);
+        // DQT, one table of ones
+        writeShort(out, JpegHeader.DQT);
+        writeShort(out, 2 + 1 + 64);
+        out.write(0);
+        for (int i = 0; i < 64; i++) {
+            out.write(1);
+        }
+        // SOF0, YCbCr 4:2:0
+        writeShort(out, JpegHeader.SOF0);
+        writeShort(out, 2 + 6 + 3 * 3);
+        out.write(8);
+        writeShort(out, height);
+        writeShort(out, width);
+        out.write(3);
+        for (int i = 1; i <= 3; i++) {
+            out.write(i);
+            out.write(i == 1 ? 0x22 : 0x11);
+            out.write(0);
+        }
+        // DHT, a DC and an AC table of one code each
+        for (int tableClass = 0; tableClass <= 1; tableClass++) {
+            writeShort(out, JpegHeader.DHT);
+            writeShort(out, 2 + 1 + 16 + 1);
+            out.write(tableClass << 4);
+            out.write(1);
+            for (int i = 1; i < 16; i++) {
+                out.write(0);
+            }
+            out.write(0);
+        }
+        writeShort(out, JpegHeader.SOS);
+        writeShort(out, 2 + 1 + 2 * 3 + 3);
+        out.write(3);
+        for (int i = 1; i <= 3; i++) {
+            out.write(i);
+            out.write(0);
+        }
+        out.write(0);
+        out.write(63);
+        out.write(0);
+        // Entropy coded data never holds 0xFF without stuffing
+        for (int i = out.size(); i < size - 2; i++) {
+            out.write(random.nextInt(0xff));
+        }
+        writeShort(out, JpegHeader.EOI);
+        return out.toByteArray();
+    }
+
+    private static void writeShort(ByteArrayOutputStream out, int value) {
+        out.write(value >> 8);
+        out.write(value);
+    }
+
+    private static List<ExifTag> buildCameraTags(ExifInterface exif) {
+        List<ExifTag> tags = new ArrayList<>();
+        tags.add(exif.buildTag(ExifInterface.TAG_MAKE, "idonans"));
+        tags.add(exif.buildTag(ExifInterface.TAG_MODEL, "icamera"));
+        tags.add(exif.buildTag(ExifInterface.TAG_ORIENTATION,
+                ExifInterface.Orientation.RIGHT_TOP));
+        tags.add(exif.buildTag(ExifInterface.TAG_X_RESOLUTION, new Rational(72, 1)));
+        tags.add(exif.buildTag(ExifInterface.TAG_Y_RESOLUTION, new Rational(72, 1)));
+        tags.add(exif.buildTag(ExifInterface.TAG_DATE_TIME, "2016:10:14 12:00:00"));
+        tags.add(exif.buildTag(ExifInterface.TAG_DATE_TIME_ORIGINAL, "2016:10:14 12:00:00"));
+        tags.add(exif.buildTag(ExifInterface.TAG_EXPOSURE_TIME, new Rational(1, 120)));
+        tags.add(exif.buildTag(ExifInterface.TAG_F_NUMBER, new Rational(22, 10)));
+        tags.add(exif.buildTag(ExifInterface.TAG_ISO_SPEED_RATINGS, 100));
+        tags.add(exif.buildTag(ExifInterface.TAG_FOCAL_LENGTH, new Rational(4200, 1000)));
+        tags.add(exif.buildTag(ExifInterface.TAG_PIXEL_X_DIMENSION, 4000));
+        tags.add(exif.buildTag(ExifInterface.TAG_PIXEL_Y_DIMENSION, 3000));
+        exif.setTags(tags);
+        exif.addGpsTags(31.2304, 121.4737);
+        List<ExifTag> all = exif.getAllTags();
+        exif.clearExif();
+        return all;
+    }
+
+    /**
+     * Returns a tag with a random value for each defined tag constant, in the
+     * order of their names. Tags of IFD1 and the offset tags written by
+     * {@link ExifOutputStream} are left out.
+     */
+    private static List<ExifTag> buildAllTags(ExifInterface exif, Random random) {
+        List<String> names = new ArrayList<>();
+        for (Field field : ExifInterface.class.getFields()) {
+            if (field.getName().startsWith("TAG_") && field.getType() == int.class
+                    && Modifier.isStatic(field.getModifiers())) {
+                names.add(field.getName());
+            }
+        }
+        Collections.sort(names);
+        List<ExifTag> tags = new ArrayList<>();
+        for (String name : names) {
+            int tagId;
+            try {
+                tagId = ExifInterface.class.getField(name).getInt(null);
+            } catch (ReflectiveOperationException e) {
+                throw new AssertionError(e);
+            }
+            int ifd = exif.getDefinedTagDefaultIfd(tagId);
+            short trueTag = ExifInterface.getTrueTagKey(tagId);
+            if (ifd == IfdId.TYPE_IFD_1 || ExifInterface.isOffsetTag(trueTag)
+                    || tagId == ExifInterface.TAG_JPEG_INTERCHANGE_FORMAT_LENGTH
+                    || tagId == ExifInterface.TAG_STRIP_BYTE_COUNTS) {
+                continue;
+            }
+            int count = exif.isTagCountDefined(tagId) ? exif.getDefinedTagCount(tagId)
+                    : 1 + random.nextInt(8);
+            ExifTag tag = exif.buildTag(tagId,
+                    randomValue(exif.getDefinedTagType(tagId), count, random));
+            if (tag != null) {
+                tags.add(tag);
+            }
+        }
+        return tags;
+    }
+
+    private static Object randomValue(short type, int count, Random random) {
+        switch (type) {
+            case ExifTag.TYPE_ASCII: {
+                char[] chars = new char[Math.max(count - 1, 1)];
+                for (int i = 0; i < chars.length; i++) {
+                    chars[i] = (char) ('a' + random.nextInt(26));
+                }
+                return new String(chars);
+            }
+            case ExifTag.TYPE_UNSIGNED_BYTE:
+            case ExifTag.TYPE_UNDEFINED: {
+                byte[] value = new byte[count];
+                random.nextBytes(value);
+                return value;
+            }
+            case ExifTag.TYPE_UNSIGNED_SHORT: {
+                int[] value = new int[count];
+                for (int i = 0; i < count; i++) {
+                    value[i] = random.nextInt(0x10000);
+                }
+                return value;
+            }
+            case ExifTag.TYPE_UNSIGNED_LONG: {
+                long[] value = new long[count];
+                for (int i = 0; i < count; i++) {
+                    value[i] = random.nextInt() & 0xffffffffL;
+                }
+                return value;
+            }
+            case ExifTag.TYPE_LONG: {
+                int[] value = new int[count];
+                for (int i = 0; i < count; i++) {
+                    value[i] = random.nextInt();
+                }
+                return value;
+            }
+            case ExifTag.TYPE_RATIONAL:
+            case ExifTag.TYPE_UNSIGNED_RATIONAL: {
+                Rational[] value = new Rational[count];
+                for (int i = 0; i < count; i++) {
+                    value[i] = new Rational(random.nextInt(10000), 1 + random.nextInt(10000));
+                }
+                return value;
+            }
+            default:
+                return null;
+        }
+    }
+}
@@ -0,0 +1,64 @@
+package com.idonans.icamera.exif;
+
+import java.io.ByteArrayInputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Locale;
+
+/**
+ * Prints the heap retained by one parsed {@link ExifData} for each kind of
+ * file of {@link ExifCorpus}, with eagerly and lazily decoded values. Many
+ * copies are parsed and kept, the growth of the used heap after full
+ * collections is divided by their number. Lazy values point into the shared
+ * source array, which is not counted.
+ */
+public class ExifDataFootprint {
+
+    private static final int COPIES = 5000;
+
+    public static void main(String[] args) throws Exception {
+        System.out.println("order          tags   thumbnail  eager B  lazy B");
+        ByteOrder[] orders = {ByteOrder.BIG_ENDIAN, ByteOrder.LITTLE_ENDIAN};
+        for (ByteOrder order : orders) {
+            for (int tags = ExifCorpus.TAGS_SMALL; tags <= ExifCorpus.TAGS_LARGE; tags++) {
+                for (int thumbnail = 0; thumbnail <= 1; thumbnail++) {
+                    byte[] jpeg = ExifCorpus.build(1, order, tags, thumbnail == 1, 64 * 1024);
+                    System.out.println(String.format(Locale.US, "%-14s %-6s %-10s %7d %7d",
+                            order, tags == ExifCorpus.TAGS_LARGE ? "large" : "small",
+                            thumbnail == 1, retainedSize(jpeg, false),
+                            retainedSize(jpeg, true)));
+                }
+            }
+        }
+    }
+
+    private static long retainedSize(byte[] jpeg, boolean lazy) throws Exception {
+        ExifInterface exif = new ExifInterface();
+        ByteBuffer buffer = ByteBuffer.wrap(jpeg);
+        int options = ExifBufferParser.OPTION_ALL;
+        if (lazy) {
+            options |= ExifBufferParser.OPTION_LAZY_VALUES;
+        }
+        ExifData[] copies = new ExifData[COPIES];
+        // Warms up the parser so its classes and caches are not counted
+        new ExifReader(exif).read(new ByteArrayInputStream(jpeg));
+        long before = usedHeap();
+        for (int i = 0; i < COPIES; i++) {
+            copies[i] = new ExifReader(exif).read(buffer, options);
+        }
+        long after = usedHeap();
+        if (copies[COPIES - 1] == null) {
+            throw new IllegalStateException("No exif data");
+        }
+        return (after - before) / COPIES;
+    }
+
+    private static long usedHeap() throws InterruptedException {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 4; i++) {
+            System.gc();
+            Thread.sleep(50);
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
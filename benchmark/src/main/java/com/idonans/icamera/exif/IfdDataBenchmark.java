@@ -0,0 +1,84 @@
+package com.idonans.icamera.exif;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.ByteArrayInputStream;
+import java.nio.ByteOrder;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tag lookup and iteration over the {@link IfdData} of a file holding every
+ * defined tag. Both should allocate nothing, see the gc.alloc.rate.norm
+ * results. The retained size of an {@link ExifData} is measured by
+ * {@link ExifDataFootprint}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class IfdDataBenchmark {
+
+    private static final int[] TAGS = {
+            ExifInterface.TAG_MAKE,
+            ExifInterface.TAG_MODEL,
+            ExifInterface.TAG_ORIENTATION,
+            ExifInterface.TAG_DATE_TIME_ORIGINAL,
+            ExifInterface.TAG_EXPOSURE_TIME,
+            ExifInterface.TAG_ISO_SPEED_RATINGS,
+            ExifInterface.TAG_GPS_LATITUDE,
+            ExifInterface.TAG_INTEROPERABILITY_INDEX};
+
+    private ExifData mData;
+    private short[] mTagIds;
+    private int[] mIfds;
+
+    @Setup
+    public void setUp() throws Exception {
+        byte[] jpeg = ExifCorpus.build(1, ByteOrder.BIG_ENDIAN, ExifCorpus.TAGS_LARGE, true,
+                64 * 1024);
+        ExifInterface exif = new ExifInterface();
+        mData = new ExifReader(exif).read(new ByteArrayInputStream(jpeg));
+        mTagIds = new short[TAGS.length];
+        mIfds = new int[TAGS.length];
+        for (int i = 0; i < TAGS.length; i++) {
+            mTagIds[i] = ExifInterface.getTrueTagKey(TAGS[i]);
+            mIfds[i] = ExifInterface.getTrueIfd(TAGS[i]);
+        }
+    }
+
+    @Benchmark
+    public int lookup() {
+        int found = 0;
+        for (int i = 0; i < mTagIds.length; i++) {
+            if (mData.getTag(mTagIds[i], mIfds[i]) != null) {
+                found++;
+            }
+        }
+        return found;
+    }
+
+    @Benchmark
+    public void iterate(Blackhole blackhole) {
+        for (int ifdId : IfdData.getIfds()) {
+            IfdData ifd = mData.getIfdData(ifdId);
+            if (ifd == null) {
+                continue;
+            }
+            for (int i = 0, count = ifd.getTagCount(); i < count; i++) {
+                blackhole.consume(ifd.getTagAt(i));
+            }
+        }
+    }
+}
@@ -0,0 +1,64 @@
+package com.idonans.icamera.exif;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reads the whole {@link ExifCorpus} corpus, the malformed files included,
+ * to measure how much work and garbage broken exif data costs.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class MalformedBenchmark {
+
+    private List<byte[]> mCorpus;
+
+    @Setup
+    public void setUp() throws IOException {
+        mCorpus = ExifCorpus.corpus(1, 64 * 1024);
+    }
+
+    @Benchmark
+    public void readBytes(Blackhole blackhole) {
+        for (byte[] jpeg : mCorpus) {
+            ExifInterface exif = new ExifInterface();
+            try {
+                exif.readExif(jpeg);
+                blackhole.consume(exif.getAllTags());
+            } catch (IOException e) {
+                blackhole.consume(e);
+            }
+        }
+    }
+
+    @Benchmark
+    public void readStream(Blackhole blackhole) {
+        for (byte[] jpeg : mCorpus) {
+            ExifInterface exif = new ExifInterface();
+            try {
+                exif.readExif(new ByteArrayInputStream(jpeg));
+                blackhole.consume(exif.getAllTags());
+            } catch (IOException e) {
+                blackhole.consume(e);
+            }
+        }
+    }
+}
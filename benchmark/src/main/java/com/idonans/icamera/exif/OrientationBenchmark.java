@@ -0,0 +1,61 @@
+package com.idonans.icamera.exif;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reading the orientation of a camera picture with {@link ExifProbe} against
+ * the full {@link ExifInterface#readExif(byte[])} that
+ * {@link com.idonans.icamera.ExifUtil#getRotation(byte[])} used before. The
+ * probe should allocate nothing, see the gc.alloc.rate.norm results.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class OrientationBenchmark {
+
+    @Param({"BIG_ENDIAN", "LITTLE_ENDIAN"})
+    public String order;
+
+    @Param({"small", "large"})
+    public String tags;
+
+    private byte[] mJpeg;
+
+    @Setup
+    public void setUp() throws IOException {
+        ByteOrder byteOrder = "BIG_ENDIAN".equals(order) ? ByteOrder.BIG_ENDIAN
+                : ByteOrder.LITTLE_ENDIAN;
+        int tagSet = "large".equals(tags) ? ExifCorpus.TAGS_LARGE : ExifCorpus.TAGS_SMALL;
+        mJpeg = ExifCorpus.build(1, byteOrder, tagSet, true, 1024 * 1024);
+    }
+
+    @Benchmark
+    public int probe() {
+        return ExifProbe.readOrientation(mJpeg);
+    }
+
+    @Benchmark
+    public int fullRead() throws IOException {
+        ExifInterface exif = new ExifInterface();
+        exif.readExif(mJpeg);
+        Integer orientation = exif.getTagIntValue(ExifInterface.TAG_ORIENTATION);
+        return orientation == null ? 0 : orientation;
+    }
+}
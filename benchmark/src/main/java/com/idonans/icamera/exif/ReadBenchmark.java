@@ -0,0 +1,94 @@
+package com.idonans.icamera.exif;
+
+import com.idonans.icamera.ExifUtil;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The read paths of {@link ExifInterface} and {@link ExifUtil#getRotation(byte[])}
+ * over each kind of file of {@link ExifCorpus}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class ReadBenchmark {
+
+    @Param({"BIG_ENDIAN", "LITTLE_ENDIAN"})
+    public String order;
+
+    @Param({"small", "large"})
+    public String tags;
+
+    @Param({"false", "true"})
+    public boolean thumbnail;
+
+    private byte[] mJpeg;
+    private File mFile;
+
+    @Setup
+    public void setUp() throws IOException {
+        ByteOrder byteOrder = "BIG_ENDIAN".equals(order) ? ByteOrder.BIG_ENDIAN
+                : ByteOrder.LITTLE_ENDIAN;
+        int tagSet = "large".equals(tags) ? ExifCorpus.TAGS_LARGE : ExifCorpus.TAGS_SMALL;
+        mJpeg = ExifCorpus.build(1, byteOrder, tagSet, thumbnail, 1024 * 1024);
+        mFile = File.createTempFile("exif-benchmark", ".jpg");
+        FileOutputStream out = new FileOutputStream(mFile);
+        try {
+            out.write(mJpeg);
+        } finally {
+            out.close();
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        mFile.delete();
+    }
+
+    @Benchmark
+    public ExifInterface readBytes() throws IOException {
+        ExifInterface exif = new ExifInterface();
+        exif.readExif(mJpeg);
+        return exif;
+    }
+
+    @Benchmark
+    public ExifInterface readStream() throws IOException {
+        ExifInterface exif = new ExifInterface();
+        exif.readExif(new ByteArrayInputStream(mJpeg));
+        return exif;
+    }
+
+    @Benchmark
+    public ExifInterface readFile() throws IOException {
+        ExifInterface exif = new ExifInterface();
+        exif.readExif(mFile.getPath());
+        return exif;
+    }
+
+    @Benchmark
+    public int getRotation() {
+        return ExifUtil.getRotation(mJpeg);
+    }
+}
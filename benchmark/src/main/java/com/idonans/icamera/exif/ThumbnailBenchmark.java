@@ -0,0 +1,90 @@
+package com.idonans.icamera.exif;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Getting the compressed thumbnail with the {@link ExifProbe} slices against
+ * a full read followed by {@link ExifInterface#getThumbnailBytes()}, from a
+ * buffer and from a file.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class ThumbnailBenchmark {
+
+    @Param({"BIG_ENDIAN", "LITTLE_ENDIAN"})
+    public String order;
+
+    @Param({"small", "large"})
+    public String tags;
+
+    private byte[] mJpeg;
+    private ByteBuffer mBuffer;
+    private File mFile;
+
+    @Setup
+    public void setUp() throws IOException {
+        ByteOrder byteOrder = "BIG_ENDIAN".equals(order) ? ByteOrder.BIG_ENDIAN
+                : ByteOrder.LITTLE_ENDIAN;
+        int tagSet = "large".equals(tags) ? ExifCorpus.TAGS_LARGE : ExifCorpus.TAGS_SMALL;
+        mJpeg = ExifCorpus.build(1, byteOrder, tagSet, true, 1024 * 1024);
+        mBuffer = ByteBuffer.wrap(mJpeg);
+        mFile = File.createTempFile("exif-benchmark", ".jpg");
+        FileOutputStream out = new FileOutputStream(mFile);
+        try {
+            out.write(mJpeg);
+        } finally {
+            out.close();
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        mFile.delete();
+    }
+
+    @Benchmark
+    public ByteBuffer sliceBuffer() {
+        return ExifProbe.sliceThumbnail(mBuffer);
+    }
+
+    @Benchmark
+    public byte[] readBuffer() throws IOException {
+        ExifInterface exif = new ExifInterface();
+        exif.readExif(mJpeg);
+        return exif.getThumbnailBytes();
+    }
+
+    @Benchmark
+    public ByteBuffer mapFile() throws IOException {
+        return ExifProbe.mapThumbnail(mFile.getPath());
+    }
+
+    @Benchmark
+    public byte[] readFile() throws IOException {
+        ExifInterface exif = new ExifInterface();
+        exif.readExif(mFile.getPath());
+        return exif.getThumbnailBytes();
+    }
+}
@@ -0,0 +1,95 @@
+package com.idonans.icamera.exif;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The write paths of {@link ExifInterface}: writing all tags of a file into
+ * a new JPEG, patching the orientation in place and the fallback rewriting
+ * the whole file.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class WriteBenchmark {
+
+    @Param({"BIG_ENDIAN", "LITTLE_ENDIAN"})
+    public String order;
+
+    @Param({"small", "large"})
+    public String tags;
+
+    private byte[] mJpeg;
+    private List<ExifTag> mTags;
+    private ExifInterface mExif;
+    private ByteBuffer mBuffer;
+    private ExifTag[] mOrientations;
+    private int mCount;
+    private File mFile;
+
+    @Setup
+    public void setUp() throws IOException {
+        ByteOrder byteOrder = "BIG_ENDIAN".equals(order) ? ByteOrder.BIG_ENDIAN
+                : ByteOrder.LITTLE_ENDIAN;
+        int tagSet = "large".equals(tags) ? ExifCorpus.TAGS_LARGE : ExifCorpus.TAGS_SMALL;
+        mJpeg = ExifCorpus.build(1, byteOrder, tagSet, true, 2 * 1024 * 1024);
+        mExif = new ExifInterface();
+        mExif.readExif(mJpeg);
+        mTags = mExif.getAllTags();
+        mBuffer = ByteBuffer.wrap(mJpeg.clone());
+        mOrientations = new ExifTag[]{
+                mExif.buildTag(ExifInterface.TAG_ORIENTATION, ExifInterface.Orientation.TOP_LEFT),
+                mExif.buildTag(ExifInterface.TAG_ORIENTATION, ExifInterface.Orientation.RIGHT_TOP)};
+        mFile = File.createTempFile("exif-benchmark", ".jpg");
+        FileOutputStream out = new FileOutputStream(mFile);
+        try {
+            out.write(mJpeg);
+        } finally {
+            out.close();
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        mFile.delete();
+    }
+
+    @Benchmark
+    public byte[] writeExif() throws IOException {
+        return mExif.writeExif(mJpeg);
+    }
+
+    @Benchmark
+    public boolean rewriteExif() throws IOException {
+        ExifTag orientation = mOrientations[mCount++ & 1];
+        return mExif.rewriteExif(mBuffer, Collections.singletonList(orientation));
+    }
+
+    @Benchmark
+    public File forceRewriteExif() throws IOException {
+        mExif.forceRewriteExif(mFile.getPath(), mTags);
+        return mFile;
+    }
+}
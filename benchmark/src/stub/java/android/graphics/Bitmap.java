@@ -0,0 +1,21 @@
+package android.graphics;
+
+import java.io.OutputStream;
+
+/**
+ * JVM stand-in so the bitmap overloads of ExifInterface compile, bitmaps
+ * cannot be created or compressed.
+ */
+public final class Bitmap {
+
+    public enum CompressFormat {
+        JPEG, PNG, WEBP
+    }
+
+    private Bitmap() {
+    }
+
+    public boolean compress(CompressFormat format, int quality, OutputStream stream) {
+        throw new UnsupportedOperationException();
+    }
+}
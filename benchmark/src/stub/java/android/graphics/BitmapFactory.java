@@ -0,0 +1,14 @@
+package android.graphics;
+
+/**
+ * JVM stand-in, nothing is decoded.
+ */
+public final class BitmapFactory {
+
+    private BitmapFactory() {
+    }
+
+    public static Bitmap decodeByteArray(byte[] data, int offset, int length) {
+        return null;
+    }
+}
@@ -0,0 +1,16 @@
+package android.os;
+
+/**
+ * JVM stand-in for the Android build info, reports no API level so the
+ * API 21+ paths are skipped.
+ */
+public class Build {
+
+    public static class VERSION {
+        public static final int SDK_INT = 0;
+    }
+
+    public static class VERSION_CODES {
+        public static final int LOLLIPOP = 21;
+    }
+}
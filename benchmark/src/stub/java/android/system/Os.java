@@ -0,0 +1,19 @@
+package android.system;
+
+/**
+ * JVM stand-in for the Android system calls, never called since {@code
+ * Build.VERSION.SDK_INT} is 0.
+ */
+public final class Os {
+
+    private Os() {
+    }
+
+    public static StructStat stat(String path) throws ErrnoException {
+        throw new UnsupportedOperationException();
+    }
+
+    public static void chmod(String path, int mode) throws ErrnoException {
+        throw new UnsupportedOperationException();
+    }
+}
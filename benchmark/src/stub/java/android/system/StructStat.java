@@ -0,0 +1,9 @@
+package android.system;
+
+public final class StructStat {
+    public final int st_mode;
+
+    public StructStat(int mode) {
+        st_mode = mode;
+    }
+}
@@ -0,0 +1,36 @@
+package android.util;
+
+/**
+ * JVM stand-in for the Android log, warnings and errors go to stderr.
+ */
+public final class Log {
+
+    private Log() {
+    }
+
+    public static int v(String tag, String msg) {
+        return 0;
+    }
+
+    public static int d(String tag, String msg) {
+        return 0;
+    }
+
+    public static int w(String tag, String msg) {
+        System.err.println("W/" + tag + ": " + msg);
+        return 0;
+    }
+
+    public static int w(String tag, String msg, Throwable tr) {
+        return w(tag, msg + ": " + tr);
+    }
+
+    public static int e(String tag, String msg) {
+        System.err.println("E/" + tag + ": " + msg);
+        return 0;
+    }
+
+    public static int e(String tag, String msg, Throwable tr) {
+        return e(tag, msg + ": " + tr);
+    }
+}
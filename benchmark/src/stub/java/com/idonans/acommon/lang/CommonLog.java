@@ -0,0 +1,16 @@
+package com.idonans.acommon.lang;
+
+/**
+ * JVM stand-in for the acommon log, nothing is printed.
+ */
+public final class CommonLog {
+
+    private CommonLog() {
+    }
+
+    public static void d(String msg) {
+    }
+
+    public static void e(String msg) {
+    }
+}
@@ -0,0 +1,582 @@
+package com.idonans.icamera;
+
+import android.hardware.Camera;
+import android.os.Build;
+import android.support.annotation.CheckResult;
+import android.support.annotation.NonNull;
+
+import com.idonans.acommon.AppContext;
+import com.idonans.acommon.lang.CommonLog;
+import com.idonans.acommon.lang.ThreadPool;
+import com.idonans.acommon.util.IOUtil;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 相机能力的缓存: 每个相机的 CameraInfo, 支持的闪光灯模式, 对焦模式, 预览尺寸和拍照尺寸.
+ * <p/>
+ * 打开相机很慢, 读取一次后保存在文件中, 以系统的 fingerprint 和 sdk 版本作为 key, 系统升级后缓存失效.
+ * 只有缓存中没有该相机时才会打开相机读取. 预览时打开相机后用 {@link #verify(int, Camera.Parameters)} 校验缓存.
+ * <p/>
+ * 缓存文件在后台线程读写, UI 线程使用 {@link #peek(boolean)}, 既不打开相机也不读取文件.
+ */
+public class CameraCapabilities {
+
+    private static final String TAG = "CameraCapabilities";
+    private static final int VERSION = 1;
+    private static final String FILE_NAME = "icamera_capabilities";
+    // 文件中列表的最大长度, 超过时认为文件已损坏
+    private static final int MAX_COUNT = 1024;
+
+    /**
+     * 尺寸, Camera.Size 只能通过打开的 Camera 创建
+     */
+    public static class Size {
+        public final int width;
+        public final int height;
+
+        public Size(int width, int height) {
+            this.width = width;
+            this.height = height;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Size)) {
+                return false;
+            }
+            Size size = (Size) o;
+            return width == size.width && height == size.height;
+        }
+
+        @Override
+        public int hashCode() {
+            return width * 32713 + height;
+        }
+
+        @Override
+        public String toString() {
+            return width + "x" + height;
+        }
+    }
+
+    /**
+     * 相机信息和缓存文件的来源, 测试时替换为假的相机
+     */
+    interface Source {
+        /**
+         * 缓存的 key, 不同时缓存失效
+         */
+        String getKey();
+
+        File getFile();
+
+        int getNumberOfCameras();
+
+        void getCameraInfo(int cameraId, Camera.CameraInfo cameraInfo);
+
+        /**
+         * 打开相机读取参数并设置到 capabilities 中, 失败时返回 false.
+         */
+        boolean readParameters(CameraCapabilities capabilities);
+
+        /**
+         * 在后台线程中读写缓存文件
+         */
+        void runInBackground(Runnable runnable);
+    }
+
+    private static class CameraSource implements Source {
+
+        /**
+         * 系统升级后相机的能力可能改变
+         */
+        @Override
+        public String getKey() {
+            return makeKey(Build.FINGERPRINT, Build.VERSION.SDK_INT);
+        }
+
+        @Override
+        public File getFile() {
+            return new File(AppContext.getContext().getFilesDir(), FILE_NAME);
+        }
+
+        @Override
+        public int getNumberOfCameras() {
+            return Camera.getNumberOfCameras();
+        }
+
+        @Override
+        public void getCameraInfo(int cameraId, Camera.CameraInfo cameraInfo) {
+            Camera.getCameraInfo(cameraId, cameraInfo);
+        }
+
+        @Override
+        public boolean readParameters(CameraCapabilities capabilities) {
+            CommonLog.d(TAG + " open camera " + capabilities.cameraId + " to read capabilities");
+            Camera camera = null;
+            try {
+                camera = Camera.open(capabilities.cameraId);
+                capabilities.setParameters(camera.getParameters());
+                return true;
+            } catch (Throwable e) {
+                e.printStackTrace();
+                return false;
+            } finally {
+                if (camera != null) {
+                    try {
+                        camera.release();
+                    } catch (Throwable e) {
+                        // ignore
+                    }
+                }
+            }
+        }
+
+        @Override
+        public void runInBackground(Runnable runnable) {
+            ThreadPool.getInstance().post(runnable);
+        }
+    }
+
+    public final int cameraId;
+    public final int facing;
+    public final int orientation;
+    /**
+     * 以下在相机打开过之前为 null
+     */
+    List<String> flashModes;
+    List<String> focusModes;
+    List<Size> previewSizes;
+    List<Size> pictureSizes;
+
+    CameraCapabilities(int cameraId, int facing, int orientation) {
+        this.cameraId = cameraId;
+        this.facing = facing;
+        this.orientation = orientation;
+    }
+
+    public List<String> getSupportedFlashModes() {
+        return flashModes;
+    }
+
+    public List<String> getSupportedFocusModes() {
+        return focusModes;
+    }
+
+    public List<Size> getSupportedPreviewSizes() {
+        return previewSizes;
+    }
+
+    public List<Size> getSupportedPictureSizes() {
+        return pictureSizes;
+    }
+
+    public boolean isFaceFront() {
+        return facing == Camera.CameraInfo.CAMERA_FACING_FRONT;
+    }
+
+    @NonNull
+    public Camera.CameraInfo toCameraInfo() {
+        Camera.CameraInfo info = new Camera.CameraInfo();
+        info.facing = facing;
+        info.orientation = orientation;
+        return info;
+    }
+
+    /**
+     * 是否已读取过相机参数, 否则 flashModes 等为 null
+     */
+    boolean hasParameters() {
+        return previewSizes != null;
+    }
+
+    private void setParameters(Camera.Parameters parameters) {
+        setParameters(copyOf(parameters.getSupportedFlashModes()),
+                copyOf(parameters.getSupportedFocusModes()),
+                toSizes(parameters.getSupportedPreviewSizes()),
+                toSizes(parameters.getSupportedPictureSizes()));
+    }
+
+    void setParameters(List<String> flashModes, List<String> focusModes,
+                       List<Size> previewSizes, List<Size> pictureSizes) {
+        this.flashModes = flashModes;
+        this.focusModes = focusModes;
+        this.previewSizes = previewSizes;
+        this.pictureSizes = pictureSizes;
+    }
+
+    private boolean sameParameters(CameraCapabilities other) {
+        return other.flashModes.equals(flashModes)
+                && other.focusModes.equals(focusModes)
+                && other.previewSizes.equals(previewSizes)
+                && other.pictureSizes.equals(pictureSizes);
+    }
+
+    private static List<String> copyOf(List<String> list) {
+        if (list == null) {
+            return Collections.emptyList();
+        }
+        return new ArrayList<>(list);
+    }
+
+    private static List<Size> toSizes(List<Camera.Size> sizes) {
+        List<Size> result = new ArrayList<>();
+        if (sizes != null) {
+            for (Camera.Size size : sizes) {
+                result.add(new Size(size.width, size.height));
+            }
+        }
+        return result;
+    }
+
+    private static Source sSource = new CameraSource();
+    // 当前系统的缓存, 以 camera id 为下标
+    private static List<CameraCapabilities> sCapabilities;
+    // 缓存文件是否已读取过, 读取失败时也为 true
+    private static boolean sLoaded;
+    private static boolean sLoading;
+    // 每次保存时在类锁中加 1, 后台只写入最新的一次
+    private static volatile int sSaveCount;
+    // 读写文件时持有, 后台读写文件时不持有类锁, UI 线程不会等待文件 I/O. 需要两个锁时先持有类锁
+    private static final Object FILE_LOCK = new Object();
+
+    /**
+     * 替换相机信息的来源并清除内存中的缓存, 文件中的缓存保留. 用于测试.
+     */
+    static synchronized void setSource(Source source) {
+        sSource = source;
+        sCapabilities = null;
+        sLoaded = false;
+        sLoading = false;
+        sSaveCount++;
+    }
+
+    /**
+     * 获取指定朝向的第一个相机的能力, 缓存中没有时会打开相机读取. 失败时返回 null.
+     */
+    @CheckResult
+    public static synchronized CameraCapabilities get(boolean faceFront) {
+        List<CameraCapabilities> all = getCameras();
+        CameraCapabilities capabilities = find(all, faceFront);
+        if (capabilities != null && !capabilities.hasParameters()) {
+            if (!sSource.readParameters(capabilities)) {
+                return null;
+            }
+            save(all);
+        }
+        return capabilities;
+    }
+
+    /**
+     * 获取指定朝向的第一个相机的能力, 不打开相机也不读取缓存文件, 可以在 UI 线程中调用.
+     * 内存中还没有缓存时只有 CameraInfo, 参数为 null, 同时在后台加载缓存文件. 失败时返回 null.
+     */
+    @CheckResult
+    public static synchronized CameraCapabilities peek(boolean faceFront) {
+        if (sCapabilities != null) {
+            return find(sCapabilities, faceFront);
+        }
+        preload();
+        return find(readCameraInfos(), faceFront);
+    }
+
+    private static CameraCapabilities find(List<CameraCapabilities> all, boolean faceFront) {
+        int facing = faceFront ? Camera.CameraInfo.CAMERA_FACING_FRONT : Camera.CameraInfo.CAMERA_FACING_BACK;
+        for (CameraCapabilities capabilities : all) {
+            if (capabilities.facing == facing) {
+                return capabilities;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 在后台加载缓存文件, 可以在应用启动时调用, 使之后的 {@link #peek(boolean)} 得到相机参数
+     */
+    public static synchronized void preload() {
+        if (sCapabilities != null || sLoaded || sLoading) {
+            return;
+        }
+        sLoading = true;
+        final Source source = sSource;
+        source.runInBackground(new Runnable() {
+            @Override
+            public void run() {
+                List<CameraCapabilities> all = load(source);
+                synchronized (CameraCapabilities.class) {
+                    if (sSource != source || !sLoading) {
+                        return;
+                    }
+                    sLoading = false;
+                    if (!sLoaded) {
+                        sLoaded = true;
+                        sCapabilities = all;
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * 返回相机的数量, 不读取缓存文件
+     */
+    public static synchronized int getNumberOfCameras() {
+        if (sCapabilities != null) {
+            return sCapabilities.size();
+        }
+        try {
+            return sSource.getNumberOfCameras();
+        } catch (Throwable e) {
+            e.printStackTrace();
+            return 0;
+        }
+    }
+
+    /**
+     * 相机打开后用其实际参数校验缓存, 不一致时更新缓存并返回 false.
+     */
+    public static boolean verify(int cameraId, Camera.Parameters parameters) {
+        CameraCapabilities actual = new CameraCapabilities(cameraId, 0, 0);
+        actual.setParameters(parameters);
+        return verify(cameraId, actual);
+    }
+
+    /**
+     * 同 {@link #verify(int, Camera.Parameters)}, 使用 actual 中的参数
+     */
+    static synchronized boolean verify(int cameraId, CameraCapabilities actual) {
+        List<CameraCapabilities> all = getCameras();
+        if (cameraId < 0 || cameraId >= all.size()) {
+            return false;
+        }
+        CameraCapabilities capabilities = all.get(cameraId);
+        if (capabilities.hasParameters() && capabilities.sameParameters(actual)) {
+            return true;
+        }
+        CommonLog.d(TAG + " camera " + cameraId + " capabilities changed, update cache");
+        capabilities.setParameters(actual.flashModes, actual.focusModes,
+                actual.previewSizes, actual.pictureSizes);
+        save(all);
+        return false;
+    }
+
+    /**
+     * 清除内存和文件中的缓存
+     */
+    public static void invalidate() {
+        File file;
+        synchronized (CameraCapabilities.class) {
+            sCapabilities = null;
+            sLoaded = true;
+            sLoading = false;
+            // 放弃还没有写入的保存
+            sSaveCount++;
+            file = sSource.getFile();
+        }
+        synchronized (FILE_LOCK) {
+            if (file.exists() && !file.delete()) {
+                CommonLog.e(TAG + " fail to delete " + file);
+            }
+        }
+    }
+
+    /**
+     * 内存中没有缓存时读取缓存文件, {@link #preload()} 已读取过时不再读取
+     */
+    private static List<CameraCapabilities> getCameras() {
+        if (sCapabilities == null && !sLoaded) {
+            sCapabilities = load(sSource);
+            sLoaded = true;
+            sLoading = false;
+        }
+        if (sCapabilities == null) {
+            List<CameraCapabilities> all = readCameraInfos();
+            if (all.isEmpty()) {
+                // 读取失败时不缓存
+                return all;
+            }
+            sCapabilities = all;
+            save(all);
+        }
+        return sCapabilities;
+    }
+
+    /**
+     * 读取所有相机的 CameraInfo, 不需要打开相机. 失败时返回空列表.
+     */
+    private static List<CameraCapabilities> readCameraInfos() {
+        List<CameraCapabilities> all = new ArrayList<>();
+        try {
+            int numberOfCameras = sSource.getNumberOfCameras();
+            Camera.CameraInfo cameraInfo = new Camera.CameraInfo();
+            for (int i = 0; i < numberOfCameras; i++) {
+                sSource.getCameraInfo(i, cameraInfo);
+                all.add(new CameraCapabilities(i, cameraInfo.facing, cameraInfo.orientation));
+            }
+        } catch (Throwable e) {
+            e.printStackTrace();
+            all.clear();
+        }
+        return all;
+    }
+
+    /**
+     * 缓存的 key, 由系统的 fingerprint 和 sdk 版本组成
+     */
+    static String makeKey(String fingerprint, int sdkInt) {
+        return fingerprint + "|" + sdkInt;
+    }
+
+    private static List<CameraCapabilities> load(Source source) {
+        synchronized (FILE_LOCK) {
+            return read(source);
+        }
+    }
+
+    private static List<CameraCapabilities> read(Source source) {
+        File file = source.getFile();
+        if (!file.exists()) {
+            return null;
+        }
+        DataInputStream dis = null;
+        try {
+            dis = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            if (dis.readInt() != VERSION || !source.getKey().equals(dis.readUTF())) {
+                CommonLog.d(TAG + " cache outdated");
+                return null;
+            }
+            int count = readCount(dis);
+            List<CameraCapabilities> all = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                CameraCapabilities capabilities = new CameraCapabilities(i, dis.readInt(), dis.readInt());
+                if (dis.readBoolean()) {
+                    capabilities.flashModes = readStrings(dis);
+                    capabilities.focusModes = readStrings(dis);
+                    capabilities.previewSizes = readSizes(dis);
+                    capabilities.pictureSizes = readSizes(dis);
+                }
+                all.add(capabilities);
+            }
+            return all;
+        } catch (Throwable e) {
+            CommonLog.e(TAG + " fail to load cache " + e);
+            return null;
+        } finally {
+            IOUtil.closeQuietly(dis);
+        }
+    }
+
+    /**
+     * 复制当前的缓存, 在后台线程中写入文件. 调用时持有类锁.
+     */
+    private static void save(List<CameraCapabilities> all) {
+        // 参数列表设置后不再修改, 复制引用即可
+        final List<CameraCapabilities> snapshot = new ArrayList<>(all.size());
+        for (CameraCapabilities capabilities : all) {
+            CameraCapabilities copy = new CameraCapabilities(capabilities.cameraId,
+                    capabilities.facing, capabilities.orientation);
+            copy.setParameters(capabilities.flashModes, capabilities.focusModes,
+                    capabilities.previewSizes, capabilities.pictureSizes);
+            snapshot.add(copy);
+        }
+        final int saveCount = ++sSaveCount;
+        final Source source = sSource;
+        final String key = source.getKey();
+        source.runInBackground(new Runnable() {
+            @Override
+            public void run() {
+                synchronized (FILE_LOCK) {
+                    if (saveCount != sSaveCount) {
+                        // 已有更新的保存
+                        return;
+                    }
+                    write(source.getFile(), key, snapshot);
+                }
+            }
+        });
+    }
+
+    private static void write(File file, String key, List<CameraCapabilities> all) {
+        File tmp = new File(file.getPath() + ".tmp");
+        DataOutputStream dos = null;
+        try {
+            dos = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+            dos.writeInt(VERSION);
+            dos.writeUTF(key);
+            dos.writeInt(all.size());
+            for (CameraCapabilities capabilities : all) {
+                dos.writeInt(capabilities.facing);
+                dos.writeInt(capabilities.orientation);
+                dos.writeBoolean(capabilities.hasParameters());
+                if (capabilities.hasParameters()) {
+                    writeStrings(dos, capabilities.flashModes);
+                    writeStrings(dos, capabilities.focusModes);
+                    writeSizes(dos, capabilities.previewSizes);
+                    writeSizes(dos, capabilities.pictureSizes);
+                }
+            }
+            dos.close();
+            dos = null;
+            if (!tmp.renameTo(file)) {
+                throw new IOException("fail to rename " + tmp);
+            }
+        } catch (Throwable e) {
+            CommonLog.e(TAG + " fail to save cache " + e);
+            tmp.delete();
+        } finally {
+            IOUtil.closeQuietly(dos);
+        }
+    }
+
+    private static int readCount(DataInputStream dis) throws IOException {
+        int count = dis.readInt();
+        if (count < 0 || count > MAX_COUNT) {
+            throw new IOException("invalid count " + count);
+        }
+        return count;
+    }
+
+    private static List<String> readStrings(DataInputStream dis) throws IOException {
+        int count = readCount(dis);
+        List<String> list = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            list.add(dis.readUTF());
+        }
+        return list;
+    }
+
+    private static void writeStrings(DataOutputStream dos, List<String> list) throws IOException {
+        dos.writeInt(list.size());
+        for (String s : list) {
+            dos.writeUTF(s);
+        }
+    }
+
+    private static List<Size> readSizes(DataInputStream dis) throws IOException {
+        int count = readCount(dis);
+        List<Size> list = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            list.add(new Size(dis.readInt(), dis.readInt()));
+        }
+        return list;
+    }
+
+    private static void writeSizes(DataOutputStream dos, List<Size> list) throws IOException {
+        dos.writeInt(list.size());
+        for (Size size : list) {
+            dos.writeInt(size.width);
+            dos.writeInt(size.height);
+        }
+    }
+}
@@ -19,6 +19,9 @@ import com.idonans.acommon.lang.CommonLog;
 import com.idonans.acommon.lang.ThreadPool;
 import com.idonans.acommon.lang.Threads;
 import com.idonans.acommon.util.IOUtil;
+import com.idonans.icamera.exif.ExifInterface;
+import com.idonans.icamera.exif.ExifTransplant;
+import com.idonans.icamera.jpeg.JpegTransformer;
 
 import java.io.ByteArrayOutputStream;
 import java.io.Closeable;
@@ -42,8 +45,24 @@ public class CameraPreview extends TextureView implements Closeable {
         public static final int ASPECT_4x3 = 2;
         public static final int ASPECT_16x9 = 3;
 
+        /**
+         * 解码后按旋转角度旋转图像(前置摄像头再水平翻转), 重新压缩为 jpeg. 原有的 exif 信息会原样复制过来,
+         * 只修改 orientation 和图像尺寸, 并去掉缩略图
+         */
+        public static final int OUTPUT_ROTATE_BITMAP = 0;
+        /**
+         * 返回相机输出的原始 jpeg, 不解码, 只在 exif 中设置 orientation (前置摄像头使用镜像的 orientation)
+         */
+        public static final int OUTPUT_EXIF_ORIENTATION = 1;
+        /**
+         * 不解码图像, 在 DCT 系数上无损旋转(前置摄像头再水平翻转) jpeg, 保留原有的 exif 信息并将 orientation 置为正常.
+         * 图像右侧或下侧不足一个 MCU 的边缘会被裁掉(最多 15 像素), 不支持的 jpeg 会改为只设置 exif orientation
+         */
+        public static final int OUTPUT_TRANSFORM_JPEG = 2;
+
         private int[] mAspects = new int[]{ASPECT_AUTO};
         private boolean mUseFront = false;
+        private int mOutputMode = OUTPUT_ROTATE_BITMAP;
 
         /**
          * 设置拍照比例, 可以设置多个, 会选取第一个可用的
@@ -63,6 +82,18 @@ public class CameraPreview extends TextureView implements Closeable {
             mUseFront = useFront;
         }
 
+        /**
+         * 设置拍照结果的输出方式, 默认为 {@link #OUTPUT_ROTATE_BITMAP}
+         *
+         * @param outputMode
+         * @see #OUTPUT_ROTATE_BITMAP
+         * @see #OUTPUT_EXIF_ORIENTATION
+         * @see #OUTPUT_TRANSFORM_JPEG
+         */
+        public void setOutputMode(int outputMode) {
+            mOutputMode = outputMode;
+        }
+
     }
 
     /**
@@ -211,78 +242,79 @@ public class CameraPreview extends TextureView implements Closeable {
     }
 
     /**
-     * 预设置相机参数
+     * 预设置相机参数, 使用内存中缓存的相机能力, 不打开相机也不读取缓存文件.
+     * 还没有相机参数时只设置 CameraInfo, 闪光灯, 对焦方式和尺寸在打开相机后选择.
      *
      * @param params
      * @return
      */
     private CameraSettings preSetting(@NonNull Params params) {
-        CameraInfos cameraInfos = getCameraInfos(params.mUseFront);
-        if (cameraInfos == null) {
-            CommonLog.e(TAG + " CameraInfos is null");
+        CameraCapabilities capabilities = CameraCapabilities.peek(params.mUseFront);
+        if (capabilities == null) {
+            CommonLog.e(TAG + " CameraCapabilities is null");
             return null;
         }
 
         CameraSettings cameraSettings = new CameraSettings();
-        cameraSettings.cameraInfos = cameraInfos;
-
-        Camera camera = null;
-        try {
-            camera = Camera.open(cameraInfos.id);
-            Camera.Parameters parameters = camera.getParameters();
+        cameraSettings.cameraInfos = new CameraInfos(capabilities.toCameraInfo(), capabilities.cameraId,
+                CameraCapabilities.getNumberOfCameras());
+        if (capabilities.hasParameters() && !applyCapabilities(cameraSettings, capabilities, params)) {
+            return null;
+        }
+        cameraSettings.calculateDisplayOrientationAndRotation();
+        return cameraSettings;
+    }
 
-            // 闪光灯
-            List<String> supportedFlashModes = parameters.getSupportedFlashModes();
-            if (supportedFlashModes != null) {
-                // 支持自动闪光灯
-                if (supportedFlashModes.contains(Camera.Parameters.FLASH_MODE_AUTO)) {
-                    cameraSettings.flashMode = Camera.Parameters.FLASH_MODE_AUTO;
-                }
+    /**
+     * 按相机能力选择闪光灯, 对焦方式和尺寸
+     */
+    private static boolean applyCapabilities(CameraSettings cameraSettings, CameraCapabilities capabilities, @NonNull Params params) {
+        // 闪光灯
+        List<String> supportedFlashModes = capabilities.getSupportedFlashModes();
+        cameraSettings.flashMode = null;
+        if (supportedFlashModes != null) {
+            // 支持自动闪光灯
+            if (supportedFlashModes.contains(Camera.Parameters.FLASH_MODE_AUTO)) {
+                cameraSettings.flashMode = Camera.Parameters.FLASH_MODE_AUTO;
             }
+        }
 
-            // 对焦方式
-            List<String> supportedFocusModes = parameters.getSupportedFocusModes();
-            if (supportedFocusModes != null) {
-                if (supportedFocusModes.contains(Camera.Parameters.FOCUS_MODE_AUTO)) {
-                    cameraSettings.focusMode = Camera.Parameters.FOCUS_MODE_AUTO;
-                }
+        // 对焦方式
+        List<String> supportedFocusModes = capabilities.getSupportedFocusModes();
+        cameraSettings.focusMode = null;
+        if (supportedFocusModes != null) {
+            if (supportedFocusModes.contains(Camera.Parameters.FOCUS_MODE_AUTO)) {
+                cameraSettings.focusMode = Camera.Parameters.FOCUS_MODE_AUTO;
             }
+        }
 
-            // 计算拍照尺寸和预览尺寸
-            List<Camera.Size> previewSizes = parameters.getSupportedPreviewSizes();
-            List<Camera.Size> pictureSizes = parameters.getSupportedPictureSizes();
+        // 计算拍照尺寸和预览尺寸
+        List<CameraCapabilities.Size> previewSizes = capabilities.getSupportedPreviewSizes();
+        List<CameraCapabilities.Size> pictureSizes = capabilities.getSupportedPictureSizes();
 
-            for (int aspect : params.mAspects) {
-                BestSize bestSize = findBestSize(previewSizes, pictureSizes, aspect);
-                if (bestSize != null) {
-                    cameraSettings.mBestSize = bestSize;
-                    break;
-                }
+        cameraSettings.mBestSize = null;
+        for (int aspect : params.mAspects) {
+            BestSize bestSize = findBestSize(previewSizes, pictureSizes, aspect);
+            if (bestSize != null) {
+                cameraSettings.mBestSize = bestSize;
+                break;
             }
-
-            if (cameraSettings.mBestSize == null) {
-                CommonLog.e(TAG + " best size not found");
-                return null;
-            }
-
-            cameraSettings.calculateDisplayOrientationAndRotation();
-            return cameraSettings;
-        } catch (Throwable e) {
-            e.printStackTrace();
-        } finally {
-            releaseCamera(camera);
         }
 
-        return null;
+        if (cameraSettings.mBestSize == null) {
+            CommonLog.e(TAG + " best size not found");
+            return false;
+        }
+        return true;
     }
 
     public static class BestSize implements Comparable<BestSize> {
         @NonNull
-        final Camera.Size previewSize;
+        final CameraCapabilities.Size previewSize;
         @NonNull
-        final Camera.Size pictureSize;
+        final CameraCapabilities.Size pictureSize;
 
-        private BestSize(@NonNull Camera.Size previewSize, @NonNull Camera.Size pictureSize) {
+        private BestSize(@NonNull CameraCapabilities.Size previewSize, @NonNull CameraCapabilities.Size pictureSize) {
             this.previewSize = previewSize;
             this.pictureSize = pictureSize;
         }
@@ -302,7 +334,7 @@ public class CameraPreview extends TextureView implements Closeable {
      * @return
      */
     @CheckResult
-    private static BestSize findBestSize(List<Camera.Size> previewSizes, List<Camera.Size> pictureSizes, int aspect) {
+    private static BestSize findBestSize(List<CameraCapabilities.Size> previewSizes, List<CameraCapabilities.Size> pictureSizes, int aspect) {
         if (previewSizes == null || pictureSizes == null) {
             return null;
         }
@@ -310,8 +342,8 @@ public class CameraPreview extends TextureView implements Closeable {
         switch (aspect) {
             case Params.ASPECT_AUTO: {
                 List<BestSize> bestSizes = new ArrayList<>();
-                for (Camera.Size s1 : previewSizes) {
-                    for (Camera.Size s2 : pictureSizes) {
+                for (CameraCapabilities.Size s1 : previewSizes) {
+                    for (CameraCapabilities.Size s2 : pictureSizes) {
                         if (isSameAspect(s1, s2)) {
                             bestSizes.add(new BestSize(s1, s2));
                         }
@@ -321,9 +353,9 @@ public class CameraPreview extends TextureView implements Closeable {
             }
             case Params.ASPECT_1x1: {
                 List<BestSize> bestSizes = new ArrayList<>();
-                for (Camera.Size s1 : previewSizes) {
+                for (CameraCapabilities.Size s1 : previewSizes) {
                     if (isSameAspect(s1, 1, 1)) {
-                        for (Camera.Size s2 : pictureSizes) {
+                        for (CameraCapabilities.Size s2 : pictureSizes) {
                             if (isSameAspect(s1, s2)) {
                                 bestSizes.add(new BestSize(s1, s2));
                             }
@@ -334,9 +366,9 @@ public class CameraPreview extends TextureView implements Closeable {
             }
             case Params.ASPECT_4x3: {
                 List<BestSize> bestSizes = new ArrayList<>();
-                for (Camera.Size s1 : previewSizes) {
+                for (CameraCapabilities.Size s1 : previewSizes) {
                     if (isSameAspect(s1, 4, 3)) {
-                        for (Camera.Size s2 : pictureSizes) {
+                        for (CameraCapabilities.Size s2 : pictureSizes) {
                             if (isSameAspect(s1, s2)) {
                                 bestSizes.add(new BestSize(s1, s2));
                             }
@@ -347,9 +379,9 @@ public class CameraPreview extends TextureView implements Closeable {
             }
             case Params.ASPECT_16x9: {
                 List<BestSize> bestSizes = new ArrayList<>();
-                for (Camera.Size s1 : previewSizes) {
+                for (CameraCapabilities.Size s1 : previewSizes) {
                     if (isSameAspect(s1, 16, 9)) {
-                        for (Camera.Size s2 : pictureSizes) {
+                        for (CameraCapabilities.Size s2 : pictureSizes) {
                             if (isSameAspect(s1, s2)) {
                                 bestSizes.add(new BestSize(s1, s2));
                             }
@@ -392,7 +424,7 @@ public class CameraPreview extends TextureView implements Closeable {
      * @param s2
      * @return
      */
-    private static boolean isSameAspect(Camera.Size s1, Camera.Size s2) {
+    private static boolean isSameAspect(CameraCapabilities.Size s1, CameraCapabilities.Size s2) {
         if (s1 == null || s2 == null) {
             return false;
         }
@@ -400,7 +432,7 @@ public class CameraPreview extends TextureView implements Closeable {
         return isSameAspect(s1, s2.width, s2.height);
     }
 
-    private static boolean isSameAspect(Camera.Size s, int width, int height) {
+    private static boolean isSameAspect(CameraCapabilities.Size s, int width, int height) {
         if (s == null) {
             return false;
         }
@@ -433,7 +465,7 @@ public class CameraPreview extends TextureView implements Closeable {
     }
 
     @CheckResult
-    private static Camera previewCamera(CameraSettings cameraSettings, SurfaceTexture texture) {
+    private static Camera previewCamera(CameraSettings cameraSettings, @NonNull Params params, SurfaceTexture texture) {
         if (cameraSettings == null) {
             return null;
         }
@@ -442,6 +474,14 @@ public class CameraPreview extends TextureView implements Closeable {
         try {
             camera = Camera.open(cameraSettings.cameraInfos.id);
             Camera.Parameters parameters = camera.getParameters();
+            if (!CameraCapabilities.verify(cameraSettings.cameraInfos.id, parameters)
+                    || cameraSettings.mBestSize == null) {
+                // 缓存的相机能力已过期或者预设置时还没有, 按实际的参数选择
+                CameraCapabilities capabilities = CameraCapabilities.get(params.mUseFront);
+                if (capabilities == null || !applyCapabilities(cameraSettings, capabilities, params)) {
+                    throw new IllegalStateException("fail to apply camera capabilities");
+                }
+            }
             cameraSettings.apply(parameters, camera);
             camera.setParameters(parameters);
             camera.setPreviewTexture(texture);
@@ -457,7 +497,8 @@ public class CameraPreview extends TextureView implements Closeable {
     @Override
     protected void onMeasure(int widthMeasureSpec, int heightMeasureSpec) {
         try {
-            if (mCameraSettings == null) {
+            if (mCameraSettings == null || mCameraSettings.mBestSize == null) {
+                // 尺寸在打开相机后确定
                 super.onMeasure(widthMeasureSpec, heightMeasureSpec);
                 return;
             }
@@ -505,7 +546,11 @@ public class CameraPreview extends TextureView implements Closeable {
             return;
         }
 
-        mCamera = previewCamera(mCameraSettings, surface);
+        BestSize bestSize = mCameraSettings.mBestSize;
+        mCamera = previewCamera(mCameraSettings, mParams, surface);
+        if (bestSize != mCameraSettings.mBestSize) {
+            requestLayout();
+        }
     }
 
 
@@ -514,6 +559,11 @@ public class CameraPreview extends TextureView implements Closeable {
         CommonLog.d(TAG + " close");
         releaseCamera(mCamera);
         mCamera = null;
+        if (mBurst != null) {
+            // 相机已释放, 不会再有拍照回调
+            mBurst.mShooting = false;
+            stopBurst();
+        }
     }
 
     private boolean mPictureTaking;
@@ -539,7 +589,7 @@ public class CameraPreview extends TextureView implements Closeable {
                     mCamera.takePicture(null, null, new Camera.PictureCallback() {
                         @Override
                         public void onPictureTaken(byte[] data, Camera camera) {
-                            rotationPictureAsync(data, callback);
+                            processPictureAsync(data, callback);
                         }
                     });
                 }
@@ -552,54 +602,30 @@ public class CameraPreview extends TextureView implements Closeable {
         }
     }
 
-    private void rotationPictureAsync(final byte[] data, final Camera.PictureCallback callback) {
+    private void processPictureAsync(final byte[] data, final Camera.PictureCallback callback) {
         if (mCameraSettings == null || mCamera == null) {
             return;
         }
 
         // 是否是前置摄像头
         final boolean isFaceFront = mCameraSettings.cameraInfos.isFaceFront();
+        final int outputMode = mParams.mOutputMode;
         ThreadPool.getInstance().post(new Runnable() {
             @Override
             public void run() {
-                ByteArrayOutputStream baos = null;
                 try {
-                    BitmapFactory.Options options = new BitmapFactory.Options();
-                    options.inPreferredConfig = Bitmap.Config.RGB_565;
-                    Bitmap bitmap = BitmapFactory.decodeByteArray(data, 0, data.length, options);
-
-                    Matrix matrix = new Matrix();
-
-                    // 处理旋转信息
-                    int rotation = ExifUtil.getRotation(data);
-                    if (rotation > 0) {
-                        matrix.postRotate(rotation);
-                    }
-
-                    // 前置摄像头需要镜像水平翻转
-                    if (isFaceFront) {
-                        matrix.postScale(-1, 1);
-                    }
-
-                    Bitmap convertBmp = Bitmap.createBitmap(bitmap, 0, 0, bitmap.getWidth(), bitmap.getHeight(), matrix, true);
-                    baos = new ByteArrayOutputStream();
-                    if (convertBmp.compress(Bitmap.CompressFormat.JPEG, 100, baos)) {
-                        final byte[] convertData = baos.toByteArray();
-                        Threads.runOnUi(new Runnable() {
-                            @Override
-                            public void run() {
-                                if (mCamera != null) {
-                                    callback.onPictureTaken(convertData, mCamera);
-                                }
+                    final byte[] processData = processPicture(data, isFaceFront, outputMode);
+                    Threads.runOnUi(new Runnable() {
+                        @Override
+                        public void run() {
+                            if (mCamera != null) {
+                                callback.onPictureTaken(processData, mCamera);
                             }
-                        });
-                    } else {
-                        throw new IllegalAccessException("fail to compress bitmap");
-                    }
+                        }
+                    });
                 } catch (Throwable e) {
                     e.printStackTrace();
                 } finally {
-                    IOUtil.closeQuietly(baos);
                     Threads.runOnUi(new Runnable() {
                         @Override
                         public void run() {
@@ -611,6 +637,101 @@ public class CameraPreview extends TextureView implements Closeable {
         });
     }
 
+    /**
+     * 按输出方式处理相机输出的 jpeg, 在后台线程中调用
+     *
+     * @see Params#setOutputMode(int)
+     */
+    private static byte[] processPicture(byte[] data, boolean isFaceFront, int outputMode) throws Throwable {
+        if (outputMode == Params.OUTPUT_EXIF_ORIENTATION) {
+            return orientationPicture(data, isFaceFront);
+        } else if (outputMode == Params.OUTPUT_TRANSFORM_JPEG) {
+            return transformPicture(data, isFaceFront);
+        } else {
+            return rotationPicture(data, isFaceFront);
+        }
+    }
+
+    /**
+     * 解码后旋转图像, 重新压缩为 jpeg
+     */
+    private static byte[] rotationPicture(byte[] data, boolean isFaceFront) throws Throwable {
+        ByteArrayOutputStream baos = null;
+        try {
+            BitmapFactory.Options options = new BitmapFactory.Options();
+            options.inPreferredConfig = Bitmap.Config.RGB_565;
+            Bitmap bitmap = BitmapFactory.decodeByteArray(data, 0, data.length, options);
+
+            Matrix matrix = new Matrix();
+
+            // 处理旋转信息
+            int rotation = ExifUtil.getRotation(data);
+            if (rotation > 0) {
+                matrix.postRotate(rotation);
+            }
+
+            // 前置摄像头需要镜像水平翻转
+            if (isFaceFront) {
+                matrix.postScale(-1, 1);
+            }
+
+            Bitmap convertBmp = Bitmap.createBitmap(bitmap, 0, 0, bitmap.getWidth(), bitmap.getHeight(), matrix, true);
+            baos = new ByteArrayOutputStream();
+            if (!convertBmp.compress(Bitmap.CompressFormat.JPEG, 100, baos)) {
+                throw new IllegalAccessException("fail to compress bitmap");
+            }
+            byte[] compressData = baos.toByteArray();
+            try {
+                // 复制原有的 exif 信息, 图像已经旋转过
+                compressData = ExifTransplant.transplant(data, compressData,
+                        ExifInterface.Orientation.TOP_LEFT,
+                        convertBmp.getWidth(), convertBmp.getHeight());
+            } catch (IOException e) {
+                CommonLog.d(TAG + " fail to transplant exif " + e);
+            }
+            return compressData;
+        } finally {
+            IOUtil.closeQuietly(baos);
+        }
+    }
+
+    /**
+     * 不解码图像, 在原始 jpeg 的 exif 中设置 orientation
+     */
+    private static byte[] orientationPicture(byte[] data, boolean isFaceFront) throws IOException {
+        // 前置摄像头需要镜像水平翻转
+        int rotation = ExifUtil.getRotation(data);
+        short orientation = ExifInterface.getOrientationValueForRotation(rotation, isFaceFront);
+        if (orientation == ExifInterface.Orientation.TOP_LEFT) {
+            return data;
+        }
+        return ExifUtil.setOrientation(data, orientation);
+    }
+
+    /**
+     * 不解码图像, 对 jpeg 做无损的旋转和翻转
+     */
+    private static byte[] transformPicture(byte[] data, boolean isFaceFront) throws IOException {
+        // 前置摄像头需要镜像水平翻转
+        int rotation = ExifUtil.getRotation(data);
+        short orientation = ExifInterface.getOrientationValueForRotation(rotation, isFaceFront);
+        if (orientation == ExifInterface.Orientation.TOP_LEFT) {
+            return data;
+        }
+        try {
+            JpegTransformer transformer = new JpegTransformer(
+                    JpegTransformer.getTransformForOrientation(orientation));
+            byte[] transformData = transformer.transform(data);
+            // 复制过来的 exif 中仍是原来的 orientation, 尺寸与缩略图, 重新移植并修正
+            return ExifTransplant.transplant(data, transformData,
+                    ExifInterface.Orientation.TOP_LEFT,
+                    transformer.getWidth(), transformer.getHeight());
+        } catch (IOException e) {
+            CommonLog.d(TAG + " fail to transform jpeg, set exif orientation instead " + e);
+            return ExifUtil.setOrientation(data, orientation);
+        }
+    }
+
     private void resumeCameraPreviewAfterTakePicture() {
         try {
             if (mCamera != null) {
@@ -622,25 +743,204 @@ public class CameraPreview extends TextureView implements Closeable {
         mPictureTaking = false;
     }
 
-    @CheckResult
-    private static CameraInfos getCameraInfos(boolean faceFront) {
+    /**
+     * 连拍的回调, 都在 UI 线程中
+     */
+    public interface BurstCallback {
+        /**
+         * 按拍摄顺序回调处理后的照片, 处理失败的照片会被跳过, 此时序号不连续
+         *
+         * @param sequence 照片的拍摄序号, 从 0 开始
+         */
+        void onBurstPicture(byte[] data, int sequence);
+
+        /**
+         * 连拍结束, 所有照片都已回调
+         *
+         * @param count 拍摄的照片数
+         */
+        void onBurstEnd(int count);
+    }
+
+    /**
+     * 连拍中已拍摄但还未回调的照片的最大数量, 达到时暂停拍摄, 等待后台处理
+     */
+    private static final int BURST_MAX_PENDING = 3;
+
+    /**
+     * 一次连拍的状态, 只在 UI 线程中访问
+     */
+    private static class Burst {
+        private final int mCount;
+        private final BurstCallback mCallback;
+        private final boolean mIsFaceFront;
+        private final int mOutputMode;
+
+        private int mTaken;
+        private int mDelivered;
+        private boolean mShooting;
+        private boolean mStopped;
+        // 处理完成等待按顺序回调的照片, 以 sequence % BURST_MAX_PENDING 为下标
+        private final byte[][] mResults = new byte[BURST_MAX_PENDING][];
+        private final boolean[] mProcessed = new boolean[BURST_MAX_PENDING];
+
+        private Burst(int count, BurstCallback callback, boolean isFaceFront, int outputMode) {
+            mCount = count;
+            mCallback = callback;
+            mIsFaceFront = isFaceFront;
+            mOutputMode = outputMode;
+        }
+    }
+
+    private Burst mBurst;
+
+    /**
+     * 连拍 count 张照片, 只对焦一次. 相机返回一张照片后立即拍摄下一张, 照片在后台处理, 处理方式同 {@link #takePicture(Camera.PictureCallback)},
+     * 并按拍摄顺序回调. 未回调的照片达到 {@link #BURST_MAX_PENDING} 张时暂停拍摄. 如果当前正在拍照，则会忽略本次请求
+     *
+     * @see #stopBurst()
+     */
+    public boolean takeBurst(int count, final BurstCallback callback) {
+        if (count <= 0) {
+            throw new IllegalArgumentException("invalid burst count " + count);
+        }
+        if (mCamera == null || mCameraSettings == null) {
+            return false;
+        }
+
+        if (mPictureTaking) {
+            CommonLog.d(TAG + " takeBurst ignored, already in picture taking status");
+            return false;
+        }
+
+        final Burst burst = new Burst(count, callback, mCameraSettings.cameraInfos.isFaceFront(), mParams.mOutputMode);
         try {
-            int numberOfCameras = Camera.getNumberOfCameras();
-            Camera.CameraInfo cameraInfo = new Camera.CameraInfo();
-            for (int i = 0; i < numberOfCameras; i++) {
-                Camera.getCameraInfo(i, cameraInfo);
-                if (!faceFront && cameraInfo.facing == Camera.CameraInfo.CAMERA_FACING_BACK) {
-                    CommonLog.d(TAG + " find facing back camera with id " + i);
-                    return new CameraInfos(cameraInfo, i, numberOfCameras);
-                } else if (faceFront && cameraInfo.facing == Camera.CameraInfo.CAMERA_FACING_FRONT) {
-                    CommonLog.d(TAG + " find facing front camera with id " + i);
-                    return new CameraInfos(cameraInfo, i, numberOfCameras);
+            mPictureTaking = true;
+            mBurst = burst;
+            burst.mShooting = true;
+            mCameraSettings.requestAutoFocus(mCamera, new Camera.AutoFocusCallback() {
+                @Override
+                public void onAutoFocus(boolean success, Camera camera) {
+                    burst.mShooting = false;
+                    shootBurst(burst);
                 }
-            }
+            });
+            return true;
         } catch (Throwable e) {
             e.printStackTrace();
+            mBurst = null;
+            resumeCameraPreviewAfterTakePicture();
+            return false;
         }
-        return null;
+    }
+
+    /**
+     * 停止当前的连拍, 已拍摄的照片仍会处理并回调, 之后回调 {@link BurstCallback#onBurstEnd(int)}
+     */
+    public void stopBurst() {
+        if (mBurst != null) {
+            mBurst.mStopped = true;
+            finishBurstIfDone(mBurst);
+        }
+    }
+
+    private void shootBurst(final Burst burst) {
+        if (burst != mBurst || burst.mShooting) {
+            return;
+        }
+        if (mCamera == null) {
+            burst.mStopped = true;
+        }
+        if (burst.mStopped || burst.mTaken == burst.mCount) {
+            finishBurstIfDone(burst);
+            return;
+        }
+        if (burst.mTaken - burst.mDelivered >= BURST_MAX_PENDING) {
+            // 等待后台处理完成后继续拍摄
+            return;
+        }
+
+        try {
+            burst.mShooting = true;
+            mCamera.takePicture(null, null, new Camera.PictureCallback() {
+                @Override
+                public void onPictureTaken(byte[] data, Camera camera) {
+                    burst.mShooting = false;
+                    int sequence = burst.mTaken++;
+                    try {
+                        camera.startPreview();
+                    } catch (Throwable e) {
+                        e.printStackTrace();
+                        burst.mStopped = true;
+                    }
+                    processBurstPictureAsync(burst, data, sequence);
+                    shootBurst(burst);
+                }
+            });
+        } catch (Throwable e) {
+            e.printStackTrace();
+            burst.mShooting = false;
+            burst.mStopped = true;
+            finishBurstIfDone(burst);
+        }
+    }
+
+    private void processBurstPictureAsync(final Burst burst, final byte[] data, final int sequence) {
+        ThreadPool.getInstance().post(new Runnable() {
+            @Override
+            public void run() {
+                byte[] processData = null;
+                try {
+                    processData = processPicture(data, burst.mIsFaceFront, burst.mOutputMode);
+                } catch (Throwable e) {
+                    e.printStackTrace();
+                }
+                final byte[] result = processData;
+                Threads.runOnUi(new Runnable() {
+                    @Override
+                    public void run() {
+                        onBurstPictureProcessed(burst, sequence, result);
+                    }
+                });
+            }
+        });
+    }
+
+    private void onBurstPictureProcessed(Burst burst, int sequence, byte[] data) {
+        int slot = sequence % BURST_MAX_PENDING;
+        burst.mResults[slot] = data;
+        burst.mProcessed[slot] = true;
+
+        // 按拍摄顺序回调
+        while (burst.mDelivered < burst.mTaken) {
+            slot = burst.mDelivered % BURST_MAX_PENDING;
+            if (!burst.mProcessed[slot]) {
+                break;
+            }
+            byte[] result = burst.mResults[slot];
+            burst.mResults[slot] = null;
+            burst.mProcessed[slot] = false;
+            int delivered = burst.mDelivered++;
+            if (result != null && mCamera != null) {
+                burst.mCallback.onBurstPicture(result, delivered);
+            }
+        }
+
+        shootBurst(burst);
+        finishBurstIfDone(burst);
+    }
+
+    private void finishBurstIfDone(Burst burst) {
+        if (burst != mBurst || burst.mShooting || burst.mDelivered < burst.mTaken) {
+            return;
+        }
+        if (!burst.mStopped && burst.mTaken < burst.mCount) {
+            return;
+        }
+        mBurst = null;
+        mPictureTaking = false;
+        CommonLog.d(TAG + " burst end, " + burst.mTaken + " pictures taken");
+        burst.mCallback.onBurstEnd(burst.mTaken);
     }
 
     public static class CameraInfos {
@@ -2,8 +2,13 @@ package com.idonans.icamera;
 
 import com.idonans.acommon.lang.CommonLog;
 import com.idonans.icamera.exif.ExifInterface;
+import com.idonans.icamera.exif.ExifProbe;
 import com.idonans.icamera.exif.ExifTag;
 
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Collections;
+
 /**
  * Created by idonans on 2016/10/14.
  */
@@ -20,10 +25,8 @@ public class ExifUtil {
         }
 
         try {
-            ExifInterface exif = new ExifInterface();
-            exif.readExif(imageData);
-            ExifTag orientationTag = exif.getTag(ExifInterface.TAG_ORIENTATION);
-            int orientationTagValue = orientationTag.getValueAsInt(0);
+            // 只解析 IFD0 中的 orientation, 不构建完整的 exif 信息
+            int orientationTagValue = ExifProbe.readOrientation(imageData);
             int rotation = ExifInterface.getRotationForOrientationValue((short) orientationTagValue);
             CommonLog.d(TAG + " orientationTagValue: " + orientationTagValue + ", rotation: " + rotation);
             return rotation;
@@ -33,4 +36,25 @@ public class ExifUtil {
         return 0;
     }
 
+    /**
+     * 设置图像的 exif orientation, 不解码图像. 优先在 APP1 中原地修改已有的 orientation, 此时直接返回 imageData;
+     * 若图像中没有 orientation, 则返回写入了新 exif 的图像数据, 原有的其它 exif 信息会保留.
+     */
+    public static byte[] setOrientation(byte[] imageData, short orientationTagValue) throws IOException {
+        ExifInterface exif = new ExifInterface();
+        ExifTag tag = exif.buildTag(ExifInterface.TAG_ORIENTATION, orientationTagValue);
+        try {
+            if (exif.rewriteExif(ByteBuffer.wrap(imageData), Collections.singletonList(tag))) {
+                return imageData;
+            }
+        } catch (IOException e) {
+            // 没有 exif 信息
+            CommonLog.d(TAG + " fail to rewrite orientation in place " + e);
+        }
+
+        exif.readExif(imageData);
+        exif.setTag(tag);
+        return exif.writeExif(imageData);
+    }
+
 }
@@ -20,17 +20,33 @@ import java.io.EOFException;
 import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.nio.charset.Charset;
 
+/**
+ * Reads primitives from a refillable window over the wrapped stream and
+ * counts the bytes consumed. Skips inside the window only move the cursor.
+ * The wrapped stream is read ahead of the count, so it must not be used
+ * directly while this stream is in use.
+ */
 class CountedDataInputStream extends FilterInputStream {
 
+    private static final int WINDOW_SIZE = 8 * 1024;
+
     private int mCount = 0;
+    // Bytes consumed before the last resetReadByteCount() and bytes skipped,
+    // both since the stream was created.
+    private long mCountBeforeReset;
+    private long mSkipCount;
+
+    private final byte mWindow[] = new byte[WINDOW_SIZE];
+    // Next byte to consume in mWindow
+    private int mPos;
+    // End of the valid bytes in mWindow
+    private int mLimit;
 
-    // allocate a byte buffer for a long value;
-    private final byte mByteArray[] = new byte[8];
-    private final ByteBuffer mByteBuffer = ByteBuffer.wrap(mByteArray);
+    private ByteOrder mByteOrder = ByteOrder.BIG_ENDIAN;
+    private boolean mLittleEndian;
 
     protected CountedDataInputStream(InputStream in) {
         super(in);
@@ -40,34 +56,100 @@ class CountedDataInputStream extends FilterInputStream {
         return mCount;
     }
 
+    /**
+     * Starts counting from 0 at the current position.
+     */
+    public void resetReadByteCount() {
+        mCountBeforeReset += mCount;
+        mCount = 0;
+    }
+
+    /**
+     * Returns the number of bytes read, not counting skipped bytes, since the
+     * stream was created.
+     */
+    public long getTotalReadByteCount() {
+        return mCountBeforeReset + mCount - mSkipCount;
+    }
+
+    /**
+     * Returns the number of bytes skipped since the stream was created.
+     */
+    public long getTotalSkipByteCount() {
+        return mSkipCount;
+    }
+
     @Override
     public int read(byte[] b) throws IOException {
-        int r = in.read(b);
-        mCount += (r >= 0) ? r : 0;
-        return r;
+        return read(b, 0, b.length);
     }
 
+    /**
+     * Reads up to len bytes, blocking until len bytes are read or the end of
+     * the stream is reached.
+     */
     @Override
     public int read(byte[] b, int off, int len) throws IOException {
-        int r = in.read(b, off, len);
-        mCount += (r >= 0) ? r : 0;
-        return r;
+        if (len == 0) {
+            return 0;
+        }
+        int total = 0;
+        while (total < len) {
+            int available = mLimit - mPos;
+            if (available > 0) {
+                int n = Math.min(available, len - total);
+                System.arraycopy(mWindow, mPos, b, off + total, n);
+                mPos += n;
+                total += n;
+            } else if (len - total >= WINDOW_SIZE) {
+                // Large reads bypass the window.
+                int r = in.read(b, off + total, len - total);
+                if (r < 0) {
+                    break;
+                }
+                total += r;
+            } else if (fill() <= 0) {
+                break;
+            }
+        }
+        mCount += total;
+        return total == 0 ? -1 : total;
     }
 
     @Override
     public int read() throws IOException {
-        int r = in.read();
-        mCount += (r >= 0) ? 1 : 0;
-        return r;
+        if (mPos == mLimit && fill() <= 0) {
+            return -1;
+        }
+        mCount++;
+        return mWindow[mPos++] & 0xff;
     }
 
     @Override
     public long skip(long length) throws IOException {
-        long skip = in.skip(length);
+        if (length <= 0) {
+            return 0;
+        }
+        long skip = Math.min(length, mLimit - mPos);
+        mPos += skip;
+        if (skip < length) {
+            skip += in.skip(length - skip);
+        }
         mCount += skip;
+        mSkipCount += skip;
         return skip;
     }
 
+    @Override
+    public int available() throws IOException {
+        return (mLimit - mPos) + in.available();
+    }
+
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+
     public void skipOrThrow(long length) throws IOException {
         if (skip(length) != length) throw new EOFException();
     }
@@ -89,17 +171,24 @@ class CountedDataInputStream extends FilterInputStream {
     }
 
     public void setByteOrder(ByteOrder order) {
-        mByteBuffer.order(order);
+        mByteOrder = order;
+        mLittleEndian = order == ByteOrder.LITTLE_ENDIAN;
     }
 
     public ByteOrder getByteOrder() {
-        return mByteBuffer.order();
+        return mByteOrder;
     }
 
     public short readShort() throws IOException {
-        readOrThrow(mByteArray, 0 ,2);
-        mByteBuffer.rewind();
-        return mByteBuffer.getShort();
+        require(2);
+        byte[] w = mWindow;
+        int p = mPos;
+        mPos = p + 2;
+        mCount += 2;
+        if (mLittleEndian) {
+            return (short) ((w[p] & 0xff) | (w[p + 1] << 8));
+        }
+        return (short) ((w[p] << 8) | (w[p + 1] & 0xff));
     }
 
     public int readUnsignedShort() throws IOException {
@@ -107,9 +196,17 @@ class CountedDataInputStream extends FilterInputStream {
     }
 
     public int readInt() throws IOException {
-        readOrThrow(mByteArray, 0 , 4);
-        mByteBuffer.rewind();
-        return mByteBuffer.getInt();
+        require(4);
+        byte[] w = mWindow;
+        int p = mPos;
+        mPos = p + 4;
+        mCount += 4;
+        if (mLittleEndian) {
+            return (w[p] & 0xff) | (w[p + 1] & 0xff) << 8
+                    | (w[p + 2] & 0xff) << 16 | w[p + 3] << 24;
+        }
+        return w[p] << 24 | (w[p + 1] & 0xff) << 16
+                | (w[p + 2] & 0xff) << 8 | (w[p + 3] & 0xff);
     }
 
     public long readUnsignedInt() throws IOException {
@@ -117,9 +214,12 @@ class CountedDataInputStream extends FilterInputStream {
     }
 
     public long readLong() throws IOException {
-        readOrThrow(mByteArray, 0 , 8);
-        mByteBuffer.rewind();
-        return mByteBuffer.getLong();
+        long first = readInt() & 0xffffffffL;
+        long second = readInt() & 0xffffffffL;
+        if (mLittleEndian) {
+            return second << 32 | first;
+        }
+        return first << 32 | second;
     }
 
     public String readString(int n) throws IOException {
@@ -133,4 +233,35 @@ class CountedDataInputStream extends FilterInputStream {
         readOrThrow(buf);
         return new String(buf, charset);
     }
-}
\ No newline at end of file
+
+    /**
+     * Makes sure at least n bytes are available in the window.
+     *
+     * @throws EOFException if the stream ends before.
+     */
+    private void require(int n) throws IOException {
+        while (mLimit - mPos < n) {
+            if (fill() <= 0) {
+                throw new EOFException();
+            }
+        }
+    }
+
+    /**
+     * Moves the unread bytes to the start of the window and reads more bytes
+     * after them. Returns the number of bytes read or -1 at the end of stream.
+     */
+    private int fill() throws IOException {
+        int remaining = mLimit - mPos;
+        if (mPos > 0) {
+            System.arraycopy(mWindow, mPos, mWindow, 0, remaining);
+            mPos = 0;
+            mLimit = remaining;
+        }
+        int r = in.read(mWindow, mLimit, WINDOW_SIZE - mLimit);
+        if (r > 0) {
+            mLimit += r;
+        }
+        return r;
+    }
+}
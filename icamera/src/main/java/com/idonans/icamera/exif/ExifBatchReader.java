@@ -0,0 +1,274 @@
+package com.idonans.icamera.exif;
+
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Reads a set of tags from many JPEG files in parallel. Files are handed to a
+ * fixed set of worker threads pulling from a shared queue, the number of files
+ * being read from disk at the same time is bounded separately. Each worker
+ * reuses one {@link ExifInterface} and one scratch buffer holding the head of
+ * the file, files whose EXIF data does not fit in the scratch buffer are
+ * memory-mapped instead.
+ * <p/>
+ * Results are delivered to a {@link Callback} on the worker threads as soon as
+ * each file is done, a failing file is reported on its own and does not stop
+ * the batch.
+ */
+public class ExifBatchReader {
+    private static final String TAG = "ExifBatchReader";
+
+    // An APP1 segment is at most 64K, leave room for the segments before it.
+    private static final int SCRATCH_SIZE = 128 * 1024;
+
+    /**
+     * Receives the results of a batch. Methods are called concurrently from
+     * the worker threads and should not throw: an exception thrown by
+     * {@link #onResult(ExifSnapshot)} is passed to {@link #onError(File, Exception)},
+     * one thrown by the latter is logged.
+     */
+    public interface Callback {
+        void onResult(ExifSnapshot snapshot);
+
+        void onError(File file, Exception e);
+    }
+
+    private final int[] mTags;
+    private int mThreadCount = Runtime.getRuntime().availableProcessors();
+    private int mMaxConcurrentReads = 4;
+    private volatile ExifParseLimits mParseLimits;
+
+    /**
+     * @param tags the defined tag constants to read, e.g.
+     *             {link ExifInterface#TAG_ORIENTATION}.
+     */
+    public ExifBatchReader(int[] tags) {
+        mTags = sortTags(tags);
+    }
+
+    /**
+     * Returns a sorted copy of the defined tag constants without duplicates.
+     */
+    static int[] sortTags(int[] tags) {
+        if (tags == null || tags.length == 0) {
+            throw new IllegalArgumentException("No tags to read");
+        }
+        int[] sorted = tags.clone();
+        Arrays.sort(sorted);
+        int size = 0;
+        for (int i = 0; i < sorted.length; i++) {
+            if (size == 0 || sorted[size - 1] != sorted[i]) {
+                sorted[size++] = sorted[i];
+            }
+        }
+        return Arrays.copyOf(sorted, size);
+    }
+
+    /**
+     * Sets the number of worker threads, defaults to the number of available
+     * processors.
+     */
+    public void setThreadCount(int threadCount) {
+        if (threadCount < 1) {
+            throw new IllegalArgumentException("Invalid thread count " + threadCount);
+        }
+        mThreadCount = threadCount;
+    }
+
+    /**
+     * Sets how many files may be read from disk at the same time, defaults to
+     * 4. Parsing is not limited by this.
+     */
+    public void setMaxConcurrentReads(int maxConcurrentReads) {
+        if (maxConcurrentReads < 1) {
+            throw new IllegalArgumentException("Invalid concurrent reads " + maxConcurrentReads);
+        }
+        mMaxConcurrentReads = maxConcurrentReads;
+    }
+
+    /**
+     * Sets the limits bounding the parsing of each file, or null to parse
+     * without limits, the default.
+     *
+     * @see ExifInterface#setParseLimits(ExifParseLimits)
+     */
+    public void setParseLimits(ExifParseLimits limits) {
+        mParseLimits = limits;
+    }
+
+    /**
+     * Reads the given files and blocks until all of them are done.
+     *
+     * @return the number of files read successfully.
+     */
+    public int read(List<File> files, Callback callback) throws InterruptedException {
+        Batch batch = new Batch(callback);
+        try {
+            for (File file : files) {
+                batch.submit(file);
+            }
+        } finally {
+            batch.finish();
+        }
+        return batch.mSucceeded.get();
+    }
+
+    /**
+     * Reads all JPEG files (by their .jpg or .jpeg extension) under the given
+     * directory and its subdirectories, and blocks until all of them are done.
+     * Files are submitted while the directory tree is walked.
+     *
+     * @return the number of files read successfully.
+     */
+    public int readDirectory(File directory, Callback callback) throws InterruptedException {
+        Batch batch = new Batch(callback);
+        try {
+            walk(directory, batch);
+        } finally {
+            batch.finish();
+        }
+        return batch.mSucceeded.get();
+    }
+
+    private static void walk(File directory, Batch batch) {
+        File[] children = directory.listFiles();
+        if (children == null) {
+            Log.w(TAG, "Cannot list " + directory);
+            return;
+        }
+        for (File child : children) {
+            if (child.isDirectory()) {
+                walk(child, batch);
+            } else if (isJpegName(child.getName())) {
+                batch.submit(child);
+            }
+        }
+    }
+
+    private static boolean isJpegName(String name) {
+        String lower = name.toLowerCase(Locale.US);
+        return lower.endsWith(".jpg") || lower.endsWith(".jpeg");
+    }
+
+    /**
+     * The state of the worker thread, reused for every file it reads.
+     */
+    private static class Worker {
+        private final ExifInterface mExif = new ExifInterface();
+        private final byte[] mScratch = new byte[SCRATCH_SIZE];
+    }
+
+    private class Batch {
+        private final Callback mCallback;
+        private final ThreadPoolExecutor mExecutor;
+        private final Semaphore mReadPermits;
+        private final ThreadLocal<Worker> mWorker = new ThreadLocal<Worker>() {
+            @Override
+            protected Worker initialValue() {
+                return new Worker();
+            }
+        };
+        private final AtomicInteger mSucceeded = new AtomicInteger();
+
+        Batch(Callback callback) {
+            if (callback == null) {
+                throw new IllegalArgumentException("Callback is null");
+            }
+            mCallback = callback;
+            mExecutor = new ThreadPoolExecutor(mThreadCount, mThreadCount, 0, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<Runnable>());
+            mReadPermits = new Semaphore(mMaxConcurrentReads);
+        }
+
+        void submit(final File file) {
+            mExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    ExifSnapshot snapshot;
+                    try {
+                        snapshot = readFile(file);
+                    } catch (Exception e) {
+                        onError(file, e);
+                        return;
+                    }
+                    mSucceeded.incrementAndGet();
+                    try {
+                        mCallback.onResult(snapshot);
+                    } catch (RuntimeException e) {
+                        onError(file, e);
+                    }
+                }
+            });
+        }
+
+        /**
+         * Reports the error of a file, an exception thrown by the callback
+         * is logged so the worker thread survives it.
+         */
+        private void onError(File file, Exception e) {
+            try {
+                mCallback.onError(file, e);
+            } catch (RuntimeException callbackError) {
+                Log.w(TAG, "Callback failed for " + file + ": " + callbackError);
+            }
+        }
+
+        void finish() throws InterruptedException {
+            mExecutor.shutdown();
+            while (!mExecutor.awaitTermination(1, TimeUnit.SECONDS)) {
+                // wait for the queued files
+            }
+        }
+
+        private ExifSnapshot readFile(File file) throws IOException, InterruptedException {
+            Worker worker = mWorker.get();
+            byte[] scratch = worker.mScratch;
+            int length;
+            long fileLength;
+            mReadPermits.acquire();
+            RandomAccessFile raf = null;
+            try {
+                raf = new RandomAccessFile(file, "r");
+                fileLength = raf.length();
+                length = (int) Math.min(fileLength, scratch.length);
+                raf.readFully(scratch, 0, length);
+            } finally {
+                mReadPermits.release();
+                if (raf != null) {
+                    raf.close();
+                }
+            }
+
+            ExifInterface exif = worker.mExif;
+            exif.setParseLimits(mParseLimits);
+            ByteBuffer data = ByteBuffer.wrap(scratch, 0, length);
+            JpegSegmentIndex index = JpegSegmentIndex.scan(data, length);
+            if (ExifProbe.findTiffHeader(data, 0, index) < 0 && index.isLimited()
+                    && length < fileLength) {
+                // The headers go on beyond the scratch buffer, map the whole file.
+                mReadPermits.acquire();
+                try {
+                    exif.readExif(file.getPath(), mTags);
+                } finally {
+                    mReadPermits.release();
+                }
+            } else {
+                exif.readExif(data, mTags, index);
+            }
+            return new ExifSnapshot(file, mTags, exif);
+        }
+    }
+
+}
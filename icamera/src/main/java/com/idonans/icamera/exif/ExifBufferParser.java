@@ -0,0 +1,864 @@
+package com.idonans.icamera.exif;
+
+import android.util.Log;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+/**
+ * A random-access counterpart of {@link ExifParser} working on a
+ * {@link ByteBuffer}, e.g. a wrapped byte array or a memory-mapped file.
+ * <p/>
+ * It emits the same events as {@link ExifParser} but reads every IFD, value
+ * and image with absolute reads at its offset instead of streaming forward,
+ * so offsets pointing backwards are followed and values are always available
+ * when {@link ExifParser#EVENT_NEW_TAG} is emitted;
+ * {@link ExifParser#EVENT_VALUE_OF_REGISTERED_TAG} is never emitted. All
+ * offsets are checked against the end of the APP1 segment.
+ * <p/>
+ * The parser never changes the position, limit or byte order of the given
+ * buffer.
+ */
+class ExifBufferParser {
+    private static final boolean LOGV = false;
+    private static final String TAG = "ExifBufferParser";
+
+    private static final Charset US_ASCII = Charset.forName("US-ASCII");
+
+    private static final short TAG_EXIF_IFD = ExifInterface
+            .getTrueTagKey(ExifInterface.TAG_EXIF_IFD);
+    private static final short TAG_GPS_IFD = ExifInterface.getTrueTagKey(ExifInterface.TAG_GPS_IFD);
+    private static final short TAG_INTEROPERABILITY_IFD = ExifInterface
+            .getTrueTagKey(ExifInterface.TAG_INTEROPERABILITY_IFD);
+    private static final short TAG_JPEG_INTERCHANGE_FORMAT = ExifInterface
+            .getTrueTagKey(ExifInterface.TAG_JPEG_INTERCHANGE_FORMAT);
+    private static final short TAG_JPEG_INTERCHANGE_FORMAT_LENGTH = ExifInterface
+            .getTrueTagKey(ExifInterface.TAG_JPEG_INTERCHANGE_FORMAT_LENGTH);
+    private static final short TAG_STRIP_OFFSETS = ExifInterface
+            .getTrueTagKey(ExifInterface.TAG_STRIP_OFFSETS);
+    private static final short TAG_STRIP_BYTE_COUNTS = ExifInterface
+            .getTrueTagKey(ExifInterface.TAG_STRIP_BYTE_COUNTS);
+
+    /**
+     * Options to parse every IFD and the thumbnail.
+     */
+    protected static final int OPTION_ALL = ExifParser.OPTION_IFD_0 | ExifParser.OPTION_IFD_1
+            | ExifParser.OPTION_IFD_EXIF | ExifParser.OPTION_IFD_GPS
+            | ExifParser.OPTION_IFD_INTEROPERABILITY | ExifParser.OPTION_THUMBNAIL;
+
+    /**
+     * Option bit to keep tag values in the source buffer and decode them only
+     * when first accessed. The tags then hold a reference to the buffer, which
+     * must not be modified while they are in use.
+     */
+    protected static final int OPTION_LAZY_VALUES = 1 << 16;
+
+    // Kinds of pending areas, stored in mPendingKinds.
+    private static final int PENDING_IFD = 0;
+    private static final int PENDING_COMPRESSED_IMAGE = 1;
+    private static final int PENDING_STRIP = 2;
+
+    private final ByteBuffer mBuffer;
+    private final int mOptions;
+    private final ExifInterface mInterface;
+    private final ExifParseLimits mLimits;
+    // Size of the values read from outside of their entries so far
+    private long mValueBytes;
+    private int mIfdCount;
+    private boolean mContainExifData;
+    // Absolute position of the TIFF header in mBuffer
+    private int mTiffStart;
+    // Size of the TIFF data, i.e. the APP1 payload after the EXIF header
+    private int mTiffLength;
+    private int mTiffStartPosition;
+    private int mOffsetToApp1EndFromSOF;
+
+    private int mIfdType;
+    private int mIfdStartOffset;
+    private int mNumOfTagInIfd;
+    private int mTagIndex;
+    private boolean mIfdRequested;
+    private boolean mNeedToParseOffsetsInCurrentIfd;
+    private int mVisitedIfds;
+    private ExifTag mTag;
+
+    private int mImageOffset;
+    private int mStripIndex;
+    private int mStripCount;
+    private ExifTag mStripSizeTag;
+    private ExifTag mJpegSizeTag;
+
+    // Sorted defined tag constants to emit, or null to emit every tag
+    private int[] mTagFilter;
+    private boolean[] mTagFilterSeen;
+    private int mTagFilterRemaining;
+
+    // FIFO of areas still to visit, as parallel arrays
+    private int[] mPendingKinds = new int[8];
+    private int[] mPendingOffsets = new int[8];
+    private int[] mPendingArgs = new int[8];
+    private int mPendingHead;
+    private int mPendingTail;
+    private int mQueuedEventCount;
+
+    private ExifBufferParser(ByteBuffer buffer, int options, int[] tagFilter, ExifInterface iRef,
+                             JpegSegmentIndex index) throws ExifInvalidFormatException {
+        if (buffer == null) {
+            throw new IllegalArgumentException("Null argument buffer to ExifBufferParser");
+        }
+        if (LOGV) {
+            Log.v(TAG, "Reading exif...");
+        }
+        mInterface = iRef;
+        ExifParseLimits limits = iRef.getParseLimits();
+        mLimits = limits != null ? limits.copy() : ExifParseLimits.UNLIMITED;
+        mOptions = options;
+        if (tagFilter != null) {
+            int[] tags = tagFilter.clone();
+            Arrays.sort(tags);
+            int count = 0;
+            for (int i = 0; i < tags.length; i++) {
+                if (i == 0 || tags[i] != tags[i - 1]) {
+                    tags[count++] = tags[i];
+                }
+            }
+            mTagFilter = Arrays.copyOf(tags, count);
+            mTagFilterSeen = new boolean[count];
+            mTagFilterRemaining = count;
+        }
+        mBuffer = buffer.duplicate();
+        mContainExifData = seekTiffData(buffer.position(), buffer.limit(), index);
+        if (!mContainExifData) {
+            return;
+        }
+
+        parseTiffHeader();
+        long offset = readUnsignedInt(4);
+        if (offset > Integer.MAX_VALUE) {
+            throw new ExifInvalidFormatException("Invalid offset " + offset);
+        }
+        mIfdType = IfdId.TYPE_IFD_0;
+        mTagIndex = mNumOfTagInIfd = 0;
+        if (isIfdRequested(IfdId.TYPE_IFD_0) || needToParseOffsetsInIfd(IfdId.TYPE_IFD_0)) {
+            registerIfd(IfdId.TYPE_IFD_0, offset);
+        }
+    }
+
+    /**
+     * Parses the given buffer from its current position with the given
+     * options.
+     *
+     * @throws ExifInvalidFormatException
+     * @see ExifParser#OPTION_IFD_0
+     * @see ExifParser#OPTION_THUMBNAIL
+     */
+    protected static ExifBufferParser parse(ByteBuffer buffer, int options, ExifInterface iRef)
+            throws ExifInvalidFormatException {
+        return new ExifBufferParser(buffer, options, null, iRef, null);
+    }
+
+    /**
+     * Parses the given buffer from its current position with the given
+     * options, emitting {@link ExifParser#EVENT_NEW_TAG} only for the given
+     * defined tag constants (e.g. {@link ExifInterface#TAG_ORIENTATION}). The
+     * parser returns {@link ExifParser#EVENT_END} as soon as every requested
+     * tag has been emitted. The options should request the IFDs of the tags.
+     *
+     * @throws ExifInvalidFormatException
+     */
+    protected static ExifBufferParser parse(ByteBuffer buffer, int options, int[] tagFilter,
+                                            ExifInterface iRef) throws ExifInvalidFormatException {
+        return new ExifBufferParser(buffer, options, tagFilter, iRef, null);
+    }
+
+    /**
+     * Like {@link #parse(ByteBuffer, int, int[], ExifInterface)}, but finds
+     * the EXIF data with the given index of the buffer, scanned from its
+     * current position, instead of walking the markers again.
+     *
+     * @param index the index of the buffer, or null to scan it.
+     * @throws ExifInvalidFormatException
+     */
+    protected static ExifBufferParser parse(ByteBuffer buffer, int options, int[] tagFilter,
+                                            ExifInterface iRef, JpegSegmentIndex index)
+            throws ExifInvalidFormatException {
+        return new ExifBufferParser(buffer, options, tagFilter, iRef, index);
+    }
+
+    /**
+     * Parses the given buffer with default options; that is, every IFD and
+     * thumbnail will be parsed.
+     *
+     * @throws ExifInvalidFormatException
+     */
+    protected static ExifBufferParser parse(ByteBuffer buffer, ExifInterface iRef)
+            throws ExifInvalidFormatException {
+        return new ExifBufferParser(buffer, OPTION_ALL, null, iRef, null);
+    }
+
+    /**
+     * Moves the parser forward and returns the next parsing event.
+     *
+     * @throws ExifInvalidFormatException
+     * @see ExifParser#EVENT_START_OF_IFD
+     * @see ExifParser#EVENT_NEW_TAG
+     * @see ExifParser#EVENT_COMPRESSED_IMAGE
+     * @see ExifParser#EVENT_UNCOMPRESSED_STRIP
+     * @see ExifParser#EVENT_END
+     */
+    protected int next() throws ExifInvalidFormatException {
+        if (!mContainExifData || (mTagFilter != null && mTagFilterRemaining == 0)) {
+            return ExifParser.EVENT_END;
+        }
+        while (true) {
+            if (mTagIndex < mNumOfTagInIfd) {
+                if (!mIfdRequested) {
+                    skipRemainingTagsInCurrentIfd();
+                    continue;
+                }
+                int index = mTagIndex++;
+                boolean wanted = acceptTag(index);
+                ExifTag tag = null;
+                if (wanted || (mNeedToParseOffsetsInCurrentIfd && isOffsetTagEntry(index))) {
+                    tag = readTag(index);
+                }
+                if (mTagIndex == mNumOfTagInIfd) {
+                    readLinkToNextIfd();
+                }
+                if (tag == null) {
+                    continue;
+                }
+                if (mNeedToParseOffsetsInCurrentIfd) {
+                    checkOffsetOrImageTag(tag);
+                }
+                if (!wanted) {
+                    continue;
+                }
+                mTag = tag;
+                return ExifParser.EVENT_NEW_TAG;
+            }
+            if (mPendingHead == mPendingTail
+                    || (mTagFilter != null && mTagFilterRemaining == 0)) {
+                return ExifParser.EVENT_END;
+            }
+            int kind = mPendingKinds[mPendingHead];
+            int offset = mPendingOffsets[mPendingHead];
+            int arg = mPendingArgs[mPendingHead];
+            mPendingHead++;
+            if (kind == PENDING_IFD) {
+                if (startIfd(arg, offset) && mIfdRequested) {
+                    return ExifParser.EVENT_START_OF_IFD;
+                }
+            } else if (kind == PENDING_COMPRESSED_IMAGE) {
+                mImageOffset = offset;
+                if (checkImageSize(getCompressedImageSize())) {
+                    return ExifParser.EVENT_COMPRESSED_IMAGE;
+                }
+            } else {
+                mImageOffset = offset;
+                mStripIndex = arg;
+                if (checkImageSize(getStripSize())) {
+                    return ExifParser.EVENT_UNCOMPRESSED_STRIP;
+                }
+            }
+        }
+    }
+
+    /**
+     * Skips the tags area of current IFD. Tags pointing to other requested
+     * IFDs or images are still followed.
+     */
+    protected void skipRemainingTagsInCurrentIfd() throws ExifInvalidFormatException {
+        if (mTagIndex >= mNumOfTagInIfd) {
+            return;
+        }
+        if (mNeedToParseOffsetsInCurrentIfd) {
+            while (mTagIndex < mNumOfTagInIfd) {
+                int index = mTagIndex++;
+                if (!isOffsetTagEntry(index)) {
+                    continue;
+                }
+                ExifTag tag = readTag(index);
+                if (tag != null) {
+                    checkOffsetOrImageTag(tag);
+                }
+            }
+        }
+        mTagIndex = mNumOfTagInIfd;
+        readLinkToNextIfd();
+    }
+
+    /**
+     * Returns true if the tag at the given index of the current IFD passes the
+     * tag filter, and marks it as seen.
+     */
+    private boolean acceptTag(int index) {
+        if (mTagFilter == null) {
+            return true;
+        }
+        int i = Arrays.binarySearch(mTagFilter,
+                ExifInterface.defineTag(mIfdType, readShort(getEntryOffset(index))));
+        if (i < 0) {
+            return false;
+        }
+        if (!mTagFilterSeen[i]) {
+            mTagFilterSeen[i] = true;
+            mTagFilterRemaining--;
+        }
+        return true;
+    }
+
+    /**
+     * Returns true if the tag at the given index of the current IFD may point
+     * to another IFD or to image data.
+     */
+    private boolean isOffsetTagEntry(int index) {
+        short tid = readShort(getEntryOffset(index));
+        return tid == TAG_EXIF_IFD || tid == TAG_GPS_IFD || tid == TAG_INTEROPERABILITY_IFD
+                || tid == TAG_JPEG_INTERCHANGE_FORMAT || tid == TAG_JPEG_INTERCHANGE_FORMAT_LENGTH
+                || tid == TAG_STRIP_OFFSETS || tid == TAG_STRIP_BYTE_COUNTS;
+    }
+
+    private int getEntryOffset(int index) {
+        return mIfdStartOffset + ExifParser.OFFSET_SIZE + ExifParser.TAG_SIZE * index;
+    }
+
+    private boolean startIfd(int ifdType, int offset) throws ExifInvalidFormatException {
+        if ((mVisitedIfds & (1 << ifdType)) != 0) {
+            Log.w(TAG, "Ifd " + ifdType + " is linked more than once");
+            return false;
+        }
+        if (offset < 0 || offset > mTiffLength - ExifParser.OFFSET_SIZE) {
+            Log.w(TAG, "Failed to skip to data at: " + offset
+                    + " for ifd " + ifdType + ", the file may be broken.");
+            return false;
+        }
+        int numOfTags = readUnsignedShort(offset);
+        if (numOfTags * ExifParser.TAG_SIZE + offset + ExifParser.OFFSET_SIZE > mTiffLength) {
+            Log.w(TAG, "Invalid size of IFD " + ifdType);
+            return false;
+        }
+        if (++mIfdCount > mLimits.getMaxIfds()) {
+            onLimitExceeded("Too many IFDs, skipping ifd " + ifdType);
+            return false;
+        }
+        if (numOfTags > mLimits.getMaxTagsPerIfd()) {
+            onLimitExceeded("Too many tags in ifd " + ifdType + ": " + numOfTags);
+            return false;
+        }
+        mVisitedIfds |= 1 << ifdType;
+        mIfdType = ifdType;
+        mIfdStartOffset = offset;
+        mNumOfTagInIfd = numOfTags;
+        mTagIndex = 0;
+        mIfdRequested = isIfdRequested(ifdType);
+        mNeedToParseOffsetsInCurrentIfd = needToParseOffsetsInIfd(ifdType);
+        if (numOfTags == 0) {
+            readLinkToNextIfd();
+        }
+        return true;
+    }
+
+    /**
+     * Reads the link at the end of the tags area; only the link of IFD0 (to
+     * IFD1) is meaningful.
+     */
+    private void readLinkToNextIfd() {
+        if (mIfdType != IfdId.TYPE_IFD_0) {
+            return;
+        }
+        int linkOffset = mIfdStartOffset + ExifParser.OFFSET_SIZE
+                + ExifParser.TAG_SIZE * mNumOfTagInIfd;
+        if (linkOffset + 4 > mTiffLength) {
+            Log.w(TAG, "Invalid link to next IFD at: " + linkOffset);
+            return;
+        }
+        long ifdOffset = readUnsignedInt(linkOffset);
+        if (ifdOffset != 0 && (isIfdRequested(IfdId.TYPE_IFD_1) || isThumbnailRequested())) {
+            registerIfd(IfdId.TYPE_IFD_1, ifdOffset);
+        }
+    }
+
+    private boolean isIfdRequested(int ifdType) {
+        switch (ifdType) {
+            case IfdId.TYPE_IFD_0:
+                return (mOptions & ExifParser.OPTION_IFD_0) != 0;
+            case IfdId.TYPE_IFD_1:
+                return (mOptions & ExifParser.OPTION_IFD_1) != 0;
+            case IfdId.TYPE_IFD_EXIF:
+                return (mOptions & ExifParser.OPTION_IFD_EXIF) != 0;
+            case IfdId.TYPE_IFD_GPS:
+                return (mOptions & ExifParser.OPTION_IFD_GPS) != 0;
+            case IfdId.TYPE_IFD_INTEROPERABILITY:
+                return (mOptions & ExifParser.OPTION_IFD_INTEROPERABILITY) != 0;
+        }
+        return false;
+    }
+
+    private boolean isThumbnailRequested() {
+        return (mOptions & ExifParser.OPTION_THUMBNAIL) != 0;
+    }
+
+    private boolean needToParseOffsetsInIfd(int ifdType) {
+        switch (ifdType) {
+            case IfdId.TYPE_IFD_0:
+                return isIfdRequested(IfdId.TYPE_IFD_EXIF) || isIfdRequested(IfdId.TYPE_IFD_GPS)
+                        || isIfdRequested(IfdId.TYPE_IFD_INTEROPERABILITY)
+                        || isIfdRequested(IfdId.TYPE_IFD_1) || isThumbnailRequested();
+            case IfdId.TYPE_IFD_1:
+                return isThumbnailRequested();
+            case IfdId.TYPE_IFD_EXIF:
+                // The offset to interoperability IFD is located in Exif IFD
+                return isIfdRequested(IfdId.TYPE_IFD_INTEROPERABILITY);
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * If {@link #next()} return {@link ExifParser#EVENT_NEW_TAG}, call this
+     * function to get the corresponding tag. The value of the tag is always
+     * available.
+     */
+    protected ExifTag getTag() {
+        return mTag;
+    }
+
+    /**
+     * Gets number of tags in the current IFD area.
+     */
+    protected int getTagCountInCurrentIfd() {
+        return mNumOfTagInIfd;
+    }
+
+    /**
+     * Gets the ID of current IFD.
+     */
+    protected int getCurrentIfd() {
+        return mIfdType;
+    }
+
+    /**
+     * When receiving {@link ExifParser#EVENT_UNCOMPRESSED_STRIP}, call this
+     * function to get the index of this strip.
+     */
+    protected int getStripIndex() {
+        return mStripIndex;
+    }
+
+    /**
+     * When receiving {@link ExifParser#EVENT_UNCOMPRESSED_STRIP}, call this
+     * function to get the number of strip data.
+     */
+    protected int getStripCount() {
+        return mStripCount;
+    }
+
+    /**
+     * When receiving {@link ExifParser#EVENT_UNCOMPRESSED_STRIP}, call this
+     * function to get the strip size.
+     */
+    protected int getStripSize() {
+        if (mStripSizeTag == null || mStripIndex >= mStripSizeTag.getComponentCount()) {
+            return 0;
+        }
+        return (int) mStripSizeTag.getValueAt(mStripIndex);
+    }
+
+    /**
+     * When receiving {@link ExifParser#EVENT_COMPRESSED_IMAGE}, call this
+     * function to get the image data size.
+     */
+    protected int getCompressedImageSize() {
+        if (mJpegSizeTag == null) {
+            return 0;
+        }
+        return (int) mJpegSizeTag.getValueAt(0);
+    }
+
+    /**
+     * When receiving {@link ExifParser#EVENT_COMPRESSED_IMAGE} or
+     * {@link ExifParser#EVENT_UNCOMPRESSED_STRIP}, reads the image data into
+     * the given buffer and returns the number of bytes read, which is smaller
+     * than buffer.length if the data exceeds the APP1 segment.
+     */
+    protected int read(byte[] buffer) {
+        int length = Math.min(buffer.length, mTiffLength - mImageOffset);
+        if (length <= 0) {
+            return 0;
+        }
+        ByteBuffer src = mBuffer.duplicate();
+        src.position(mTiffStart + mImageOffset);
+        src.get(buffer, 0, length);
+        return length;
+    }
+
+    private boolean checkImageSize(int size) throws ExifInvalidFormatException {
+        if (size < 0 || size > mTiffLength - mImageOffset) {
+            Log.w(TAG, "Invalid size of image at: " + mImageOffset + ", size: " + size);
+            return false;
+        }
+        if (size > mLimits.getMaxThumbnailBytes()) {
+            onLimitExceeded("Image at: " + mImageOffset + " is too large, size: " + size);
+            return false;
+        }
+        if (mTiffStartPosition + (long) mImageOffset + size > mLimits.getMaxBytesScanned()) {
+            onLimitExceeded("Image at: " + mImageOffset + " exceeds the bytes scanned");
+            return false;
+        }
+        return true;
+    }
+
+    private void onLimitExceeded(String message) throws ExifInvalidFormatException {
+        if (mLimits.isFailFast()) {
+            throw new ExifInvalidFormatException(message);
+        }
+        Log.w(TAG, message);
+    }
+
+    private void registerIfd(int ifdType, long offset) {
+        // Offsets out of the APP1 are rejected when the IFD is visited
+        registerPending(PENDING_IFD, (int) Math.min(offset, Integer.MAX_VALUE), ifdType);
+    }
+
+    private void registerPending(int kind, int offset, int arg) {
+        if (mPendingTail == mPendingKinds.length) {
+            int size = mPendingTail - mPendingHead;
+            if (mPendingHead > 0 && size < mPendingKinds.length / 2) {
+                System.arraycopy(mPendingKinds, mPendingHead, mPendingKinds, 0, size);
+                System.arraycopy(mPendingOffsets, mPendingHead, mPendingOffsets, 0, size);
+                System.arraycopy(mPendingArgs, mPendingHead, mPendingArgs, 0, size);
+            } else {
+                mPendingKinds = Arrays.copyOf(mPendingKinds, mPendingKinds.length * 2);
+                mPendingOffsets = Arrays.copyOf(mPendingOffsets, mPendingOffsets.length * 2);
+                mPendingArgs = Arrays.copyOf(mPendingArgs, mPendingArgs.length * 2);
+            }
+            mPendingTail -= mPendingHead;
+            mPendingHead = 0;
+        }
+        mPendingKinds[mPendingTail] = kind;
+        mPendingOffsets[mPendingTail] = offset;
+        mPendingArgs[mPendingTail] = arg;
+        mPendingTail++;
+        mQueuedEventCount++;
+    }
+
+    private ExifTag readTag(int index) throws ExifInvalidFormatException {
+        int entry = getEntryOffset(index);
+        short tagId = readShort(entry);
+        short dataFormat = readShort(entry + 2);
+        long numOfComp = readUnsignedInt(entry + 4);
+        if (numOfComp > Integer.MAX_VALUE) {
+            throw new ExifInvalidFormatException(
+                    "Number of component is larger then Integer.MAX_VALUE");
+        }
+        // Some invalid image file contains invalid data type. Ignore those tags
+        if (!ExifTag.isValidType(dataFormat)) {
+            Log.w(TAG, String.format("Tag %04x: Invalid data type %d", tagId, dataFormat));
+            return null;
+        }
+        ExifTag tag = new ExifTag(tagId, dataFormat, (int) numOfComp, mIfdType,
+                ((int) numOfComp) != ExifTag.SIZE_UNDEFINED);
+        long dataSize = numOfComp * ExifTag.getElementSize(dataFormat);
+        if (dataSize > 4) {
+            long offset = readUnsignedInt(entry + 8);
+            if (offset + dataSize > mTiffLength) {
+                if (offset >= mTiffLength || !isByteType(dataFormat)) {
+                    Log.w(TAG, "Invalid offset " + offset + " of tag: \n" + tag.toString());
+                    return null;
+                }
+                // Tag value exceeds the APP1, shorten count
+                int size = mTiffLength - (int) offset;
+                Log.w(TAG, "Invalid size of tag: \n" + tag.toString()
+                        + " setting count to: " + size);
+                tag.forceSetComponentCount(size);
+                dataSize = size;
+            }
+            if (mValueBytes + dataSize > mLimits.getMaxValueBytes()) {
+                onLimitExceeded("Too many value bytes, skipping tag: \n" + tag.toString());
+                return null;
+            }
+            mValueBytes += dataSize;
+            tag.setOffset((int) offset);
+        } else {
+            // Set the offset to the position of value.
+            tag.setOffset(entry + 8);
+        }
+        readFullTagValue(tag);
+        return tag;
+    }
+
+    private static boolean isByteType(short type) {
+        return type == ExifTag.TYPE_ASCII || type == ExifTag.TYPE_UNDEFINED
+                || type == ExifTag.TYPE_UNSIGNED_BYTE;
+    }
+
+    /**
+     * Check the tag, if the tag is one of the offset tag that points to the IFD
+     * or image the caller is interested in, register the IFD or image.
+     */
+    private void checkOffsetOrImageTag(ExifTag tag) {
+        // Some invalid formattd image contains tag with 0 size, offsets are
+        // always integers.
+        if (tag.getComponentCount() == 0 || tag.getValueAsLongs() == null) {
+            return;
+        }
+        short tid = tag.getTagId();
+        int ifd = tag.getIfd();
+        if (tid == TAG_EXIF_IFD && checkAllowed(ifd, ExifInterface.TAG_EXIF_IFD)) {
+            if (isIfdRequested(IfdId.TYPE_IFD_EXIF)
+                    || isIfdRequested(IfdId.TYPE_IFD_INTEROPERABILITY)) {
+                registerIfd(IfdId.TYPE_IFD_EXIF, tag.getValueAt(0));
+            }
+        } else if (tid == TAG_GPS_IFD && checkAllowed(ifd, ExifInterface.TAG_GPS_IFD)) {
+            if (isIfdRequested(IfdId.TYPE_IFD_GPS)) {
+                registerIfd(IfdId.TYPE_IFD_GPS, tag.getValueAt(0));
+            }
+        } else if (tid == TAG_INTEROPERABILITY_IFD
+                && checkAllowed(ifd, ExifInterface.TAG_INTEROPERABILITY_IFD)) {
+            if (isIfdRequested(IfdId.TYPE_IFD_INTEROPERABILITY)) {
+                registerIfd(IfdId.TYPE_IFD_INTEROPERABILITY, tag.getValueAt(0));
+            }
+        } else if (tid == TAG_JPEG_INTERCHANGE_FORMAT
+                && checkAllowed(ifd, ExifInterface.TAG_JPEG_INTERCHANGE_FORMAT)) {
+            if (isThumbnailRequested()) {
+                registerImage(PENDING_COMPRESSED_IMAGE, tag.getValueAt(0), 0);
+            }
+        } else if (tid == TAG_JPEG_INTERCHANGE_FORMAT_LENGTH
+                && checkAllowed(ifd, ExifInterface.TAG_JPEG_INTERCHANGE_FORMAT_LENGTH)) {
+            if (isThumbnailRequested()) {
+                mJpegSizeTag = tag;
+            }
+        } else if (tid == TAG_STRIP_OFFSETS && checkAllowed(ifd, ExifInterface.TAG_STRIP_OFFSETS)) {
+            if (isThumbnailRequested()) {
+                mStripCount = tag.getComponentCount();
+                for (int i = 0; i < mStripCount; i++) {
+                    registerImage(PENDING_STRIP, tag.getValueAt(i), i);
+                }
+            }
+        } else if (tid == TAG_STRIP_BYTE_COUNTS
+                && checkAllowed(ifd, ExifInterface.TAG_STRIP_BYTE_COUNTS)
+                && isThumbnailRequested()) {
+            mStripSizeTag = tag;
+        }
+    }
+
+    private void registerImage(int kind, long offset, int index) {
+        if (offset < 0 || offset >= mTiffLength) {
+            Log.w(TAG, "Invalid thumbnail offset: " + offset);
+            return;
+        }
+        registerPending(kind, (int) offset, index);
+    }
+
+    private boolean checkAllowed(int ifd, int tagId) {
+        int info = mInterface.getTagInfo().get(tagId);
+        if (info == ExifInterface.DEFINITION_NULL) {
+            return false;
+        }
+        return ExifInterface.isIfdAllowed(info, ifd);
+    }
+
+    /**
+     * Reads the value of the tag at its offset into the tag, or only records
+     * where the value is if {@link #OPTION_LAZY_VALUES} is set.
+     */
+    private void readFullTagValue(ExifTag tag) {
+        if ((mOptions & OPTION_LAZY_VALUES) != 0) {
+            tag.setLazyValue(mBuffer, mTiffStart + tag.getOffset());
+            return;
+        }
+        readTagValue(mBuffer, mTiffStart + tag.getOffset(), tag);
+        if (LOGV) {
+            Log.v(TAG, "\n" + tag.toString());
+        }
+    }
+
+    /**
+     * Decodes the value of the tag stored at the given absolute position of
+     * the buffer, using the byte order of the buffer, and sets it into the
+     * tag. The caller has to make sure the value lies within the buffer.
+     */
+    static void readTagValue(ByteBuffer buffer, int position, ExifTag tag) {
+        boolean defCount = tag.hasDefinedCount();
+        if (tag.getDataSize() <= 4) {
+            // Set defined count to 0 so we can add \0 to non-terminated
+            // strings stored in the tag entry
+            tag.setHasDefinedCount(false);
+        }
+        decodeTagValue(buffer, position, tag);
+        tag.setHasDefinedCount(defCount);
+    }
+
+    private static void decodeTagValue(ByteBuffer buffer, int position, ExifTag tag) {
+        int count = tag.getComponentCount();
+        switch (tag.getDataType()) {
+            case ExifTag.TYPE_UNSIGNED_BYTE:
+            case ExifTag.TYPE_UNDEFINED: {
+                byte buf[] = new byte[count];
+                getBytes(buffer, position, buf);
+                tag.setValue(buf);
+            }
+            break;
+            case ExifTag.TYPE_ASCII: {
+                byte buf[] = new byte[count];
+                getBytes(buffer, position, buf);
+                tag.setValue(new String(buf, US_ASCII));
+            }
+            break;
+            case ExifTag.TYPE_UNSIGNED_LONG: {
+                long value[] = new long[count];
+                for (int i = 0; i < count; i++) {
+                    value[i] = buffer.getInt(position + i * 4) & 0xffffffffL;
+                }
+                tag.setIntegerValues(value);
+            }
+            break;
+            case ExifTag.TYPE_UNSIGNED_RATIONAL: {
+                long value[] = new long[count * 2];
+                for (int i = 0; i < value.length; i++) {
+                    value[i] = buffer.getInt(position + i * 4) & 0xffffffffL;
+                }
+                tag.setRationalValues(value);
+            }
+            break;
+            case ExifTag.TYPE_UNSIGNED_SHORT: {
+                long value[] = new long[count];
+                for (int i = 0; i < count; i++) {
+                    value[i] = buffer.getShort(position + i * 2) & 0xffff;
+                }
+                tag.setIntegerValues(value);
+            }
+            break;
+            case ExifTag.TYPE_LONG: {
+                long value[] = new long[count];
+                for (int i = 0; i < count; i++) {
+                    value[i] = buffer.getInt(position + i * 4);
+                }
+                tag.setIntegerValues(value);
+            }
+            break;
+            case ExifTag.TYPE_RATIONAL: {
+                long value[] = new long[count * 2];
+                for (int i = 0; i < value.length; i++) {
+                    value[i] = buffer.getInt(position + i * 4);
+                }
+                tag.setRationalValues(value);
+            }
+            break;
+        }
+    }
+
+    private static void getBytes(ByteBuffer buffer, int position, byte[] dst) {
+        if (buffer.hasArray()) {
+            System.arraycopy(buffer.array(), buffer.arrayOffset() + position, dst, 0, dst.length);
+        } else {
+            for (int i = 0; i < dst.length; i++) {
+                dst[i] = buffer.get(position + i);
+            }
+        }
+    }
+
+    private void parseTiffHeader() throws ExifInvalidFormatException {
+        if (mTiffLength < 8) {
+            throw new ExifInvalidFormatException("Invalid TIFF header");
+        }
+        short byteOrder = mBuffer.getShort(mTiffStart);
+        if (ExifParser.LITTLE_ENDIAN_TAG == byteOrder) {
+            mBuffer.order(ByteOrder.LITTLE_ENDIAN);
+        } else if (ExifParser.BIG_ENDIAN_TAG == byteOrder) {
+            mBuffer.order(ByteOrder.BIG_ENDIAN);
+        } else {
+            throw new ExifInvalidFormatException("Invalid TIFF header");
+        }
+
+        if (readShort(2) != ExifParser.TIFF_HEADER_TAIL) {
+            throw new ExifInvalidFormatException("Invalid TIFF header");
+        }
+    }
+
+    private boolean seekTiffData(int start, int end, JpegSegmentIndex index)
+            throws ExifInvalidFormatException {
+        // Markers and segment lengths are always big endian
+        mBuffer.order(ByteOrder.BIG_ENDIAN);
+        if (index == null) {
+            ByteBuffer jpeg = mBuffer.duplicate();
+            jpeg.limit(end);
+            jpeg.position(start);
+            index = JpegSegmentIndex.scan(jpeg, mLimits.getMaxBytesScanned());
+        }
+        if (index.getSegmentCount() == 0) {
+            throw new ExifInvalidFormatException("Invalid JPEG format");
+        }
+        // Some invalid formatted image contains multiple APP1, the index
+        // holds the first one with Exif data.
+        int segment = index.getExifSegment();
+        if (segment < 0) {
+            if (index.isLimited()) {
+                onLimitExceeded("Exif data not found in the bytes scanned");
+            }
+            return false;
+        }
+        if (index.getOffset(segment) > mLimits.getMaxBytesScanned()) {
+            onLimitExceeded("Exif data not found in the bytes scanned");
+            return false;
+        }
+        int length = index.getLength(segment);
+        mTiffStart = start + (int) index.getOffset(segment) + 10;
+        mTiffStartPosition = mTiffStart - start;
+        mTiffLength = Math.min(length - 8, end - mTiffStart);
+        mOffsetToApp1EndFromSOF = mTiffStartPosition + length - 8;
+        return true;
+    }
+
+    /**
+     * Returns the offset of the end of the APP1 segment holding the EXIF data
+     * from the position the buffer was parsed from.
+     */
+    protected int getOffsetToExifEndFromSOF() {
+        return mOffsetToApp1EndFromSOF;
+    }
+
+    /**
+     * Returns the offset of the TIFF header from the position the buffer was
+     * parsed from.
+     */
+    protected int getTiffStartPosition() {
+        return mTiffStartPosition;
+    }
+
+    /**
+     * Returns the number of events queued for later offsets so far.
+     */
+    protected int getQueuedEventCount() {
+        return mQueuedEventCount;
+    }
+
+    /**
+     * Returns the size of the TIFF data the parser reads from.
+     */
+    protected int getTiffLength() {
+        return mTiffLength;
+    }
+
+    /**
+     * Gets the byte order of the EXIF data.
+     */
+    protected ByteOrder getByteOrder() {
+        return mBuffer.order();
+    }
+
+    private short readShort(int offset) {
+        return mBuffer.getShort(mTiffStart + offset);
+    }
+
+    private int readUnsignedShort(int offset) {
+        return readShort(offset) & 0xffff;
+    }
+
+    private long readUnsignedInt(int offset) {
+        return mBuffer.getInt(mTiffStart + offset) & 0xffffffffL;
+    }
+}
@@ -0,0 +1,187 @@
+package com.idonans.icamera.exif;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Keeps the tags of recently read files in memory, so a file asked for again
+ * is not read and parsed again. Entries are validated by the length and last
+ * modified time of the file, and the least recently used entries are evicted
+ * once the estimated memory held by all entries exceeds a budget.
+ * <p/>
+ * The cache is safe to use from several threads, a file missing from the
+ * cache may be read by more than one thread at the same time.
+ */
+public class ExifCache {
+
+    // Rough per object costs, only used to compare entries with the budget.
+    private static final int ENTRY_OVERHEAD = 128;
+    private static final int TAG_OVERHEAD = 64;
+    private static final int ARRAY_OVERHEAD = 16;
+
+    private final int[] mTags;
+    private final long mMaxSize;
+    // In access order, the eldest entry is the least recently used one.
+    private final LinkedHashMap<String, Entry> mEntries =
+            new LinkedHashMap<String, Entry>(16, 0.75f, true);
+    private long mSize;
+    private int mHitCount;
+    private int mMissCount;
+    private int mEvictionCount;
+
+    private static class Entry {
+        final long mLength;
+        final long mLastModified;
+        final ExifSnapshot mSnapshot;
+        final int mSize;
+
+        Entry(long length, long lastModified, ExifSnapshot snapshot, int size) {
+            mLength = length;
+            mLastModified = lastModified;
+            mSnapshot = snapshot;
+            mSize = size;
+        }
+    }
+
+    /**
+     * @param tags    the defined tag constants to keep, e.g.
+     *                {link ExifInterface#TAG_ORIENTATION}.
+     * @param maxSize the estimated number of bytes the cached entries may
+     *                hold.
+     */
+    public ExifCache(int[] tags, long maxSize) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("Invalid max size " + maxSize);
+        }
+        mTags = ExifBatchReader.sortTags(tags);
+        mMaxSize = maxSize;
+    }
+
+    /**
+     * Returns the tags of the file, from the cache if the file did not change
+     * since it was cached, otherwise the file is read and the result cached.
+     *
+     * @throws IOException if the file cannot be read.
+     */
+    public ExifSnapshot get(File file) throws IOException {
+        String path = file.getAbsolutePath();
+        long length = file.length();
+        long lastModified = file.lastModified();
+        synchronized (this) {
+            Entry entry = mEntries.get(path);
+            if (entry != null && entry.mLength == length
+                    && entry.mLastModified == lastModified) {
+                mHitCount++;
+                return entry.mSnapshot;
+            }
+            mMissCount++;
+        }
+
+        ExifInterface exif = new ExifInterface();
+        exif.readExif(path, mTags);
+        ExifSnapshot snapshot = new ExifSnapshot(file, mTags, exif);
+        put(path, new Entry(length, lastModified, snapshot, estimateSize(path, snapshot)));
+        return snapshot;
+    }
+
+    /**
+     * @see #get(File)
+     */
+    public ExifSnapshot get(String path) throws IOException {
+        return get(new File(path));
+    }
+
+    /**
+     * Removes the entry of the file, e.g. after its tags were rewritten in
+     * place without changing its length or last modified time.
+     */
+    public synchronized void remove(File file) {
+        Entry entry = mEntries.remove(file.getAbsolutePath());
+        if (entry != null) {
+            mSize -= entry.mSize;
+        }
+    }
+
+    public synchronized void clear() {
+        mEntries.clear();
+        mSize = 0;
+    }
+
+    /**
+     * Returns the estimated number of bytes held by the cached entries.
+     */
+    public synchronized long size() {
+        return mSize;
+    }
+
+    public long maxSize() {
+        return mMaxSize;
+    }
+
+    public synchronized int hitCount() {
+        return mHitCount;
+    }
+
+    public synchronized int missCount() {
+        return mMissCount;
+    }
+
+    public synchronized int evictionCount() {
+        return mEvictionCount;
+    }
+
+    @Override
+    public synchronized String toString() {
+        int accesses = mHitCount + mMissCount;
+        int hitPercent = accesses != 0 ? (100 * mHitCount / accesses) : 0;
+        return String.format("ExifCache[size=%d,maxSize=%d,hits=%d,misses=%d,evictions=%d,"
+                        + "hitRate=%d%%]", mSize, mMaxSize, mHitCount, mMissCount,
+                mEvictionCount, hitPercent);
+    }
+
+    private synchronized void put(String path, Entry entry) {
+        Entry replaced = mEntries.put(path, entry);
+        mSize += entry.mSize;
+        if (replaced != null) {
+            mSize -= replaced.mSize;
+        }
+        Iterator<Map.Entry<String, Entry>> eldest = mEntries.entrySet().iterator();
+        // An entry larger than the budget is not kept either.
+        while (mSize > mMaxSize && eldest.hasNext()) {
+            mSize -= eldest.next().getValue().mSize;
+            eldest.remove();
+            mEvictionCount++;
+        }
+    }
+
+    private static int estimateSize(String path, ExifSnapshot snapshot) {
+        int size = ENTRY_OVERHEAD + path.length() * 2;
+        for (int tagId : snapshot.getTagIds()) {
+            ExifTag tag = snapshot.getTag(tagId);
+            if (tag == null) {
+                continue;
+            }
+            size += TAG_OVERHEAD + ARRAY_OVERHEAD;
+            switch (tag.getDataType()) {
+                case ExifTag.TYPE_ASCII:
+                case ExifTag.TYPE_UNDEFINED:
+                case ExifTag.TYPE_UNSIGNED_BYTE:
+                    size += tag.getComponentCount();
+                    break;
+                case ExifTag.TYPE_RATIONAL:
+                case ExifTag.TYPE_UNSIGNED_RATIONAL:
+                    // Numerator and denominator
+                    size += tag.getComponentCount() * 16;
+                    break;
+                default:
+                    size += tag.getComponentCount() * 8;
+                    break;
+            }
+        }
+        return size;
+    }
+
+}
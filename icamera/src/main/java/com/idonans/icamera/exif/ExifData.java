@@ -98,6 +98,22 @@ class ExifData {
         return mStripBytes.size();
     }
 
+    /**
+     * Returns the size of the compressed thumbnail or of all strips.
+     */
+    protected int getThumbnailSize() {
+        if (mThumbnail != null) {
+            return mThumbnail.length;
+        }
+        int size = 0;
+        for (byte[] strip : mStripBytes) {
+            if (strip != null) {
+                size += strip.length;
+            }
+        }
+        return size;
+    }
+
     /**
      * Gets the strip at the specified index.
      *
@@ -249,6 +265,19 @@ class ExifData {
         }
     }
 
+    /**
+     * Returns the number of tags in all IFDs.
+     */
+    protected int getTagCount() {
+        int count = 0;
+        for (IfdData ifd : mIfdDatas) {
+            if (ifd != null) {
+                count += ifd.getTagCount();
+            }
+        }
+        return count;
+    }
+
     /**
      * Returns a list of all {@link ExifTag}s in the ExifData or null if there
      * are none.
@@ -257,11 +286,8 @@ class ExifData {
         ArrayList<ExifTag> ret = new ArrayList<ExifTag>();
         for (IfdData d : mIfdDatas) {
             if (d != null) {
-                ExifTag[] tags = d.getAllTags();
-                if (tags != null) {
-                    for (ExifTag t : tags) {
-                        ret.add(t);
-                    }
+                for (int i = 0, n = d.getTagCount(); i < n; i++) {
+                    ret.add(d.getTagAt(i));
                 }
             }
         }
@@ -280,13 +306,9 @@ class ExifData {
         if (d == null) {
             return null;
         }
-        ExifTag[] tags = d.getAllTags();
-        if (tags == null) {
-            return null;
-        }
-        ArrayList<ExifTag> ret = new ArrayList<ExifTag>(tags.length);
-        for (ExifTag t : tags) {
-            ret.add(t);
+        ArrayList<ExifTag> ret = new ArrayList<ExifTag>(d.getTagCount());
+        for (int i = 0, n = d.getTagCount(); i < n; i++) {
+            ret.add(d.getTagAt(i));
         }
         if (ret.size() == 0) {
             return null;
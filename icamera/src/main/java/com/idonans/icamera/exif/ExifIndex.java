@@ -0,0 +1,600 @@
+package com.idonans.icamera.exif;
+
+import android.util.Log;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A persistent index of a set of tags of many JPEG files, so they do not have
+ * to be parsed again every time they are needed. The index is an append-only
+ * log file holding one record per file, validated by the path, length and
+ * last modified time of the file. The log is memory-mapped, the heap only
+ * holds a table from the hash of each path to its latest record.
+ * <p/>
+ * {@link #refresh(List)} parses only the files which changed since they were
+ * indexed, {@link #compact()} rewrites the log without the records which were
+ * replaced. Lookups may run concurrently with each other and with a refresh,
+ * they see the index as it was before the refresh until it is done.
+ * <p/>
+ * The log is mapped as a whole, so it is limited to 2GB.
+ */
+public class ExifIndex {
+    private static final String TAG = "ExifIndex";
+
+    private static final int MAGIC = 0x45584958; // "EXIX"
+    private static final int VERSION = 1;
+    private static final byte RECORD_FILE = 1;
+    private static final byte RECORD_REMOVED = 2;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final File mLogFile;
+    private final int[] mTags;
+    private final ExifBatchReader mReader;
+    private volatile Table mTable;
+
+    /**
+     * The mapped log and an open addressing table from the hash of a path to
+     * the position of its latest record. The paths themselves are only kept
+     * in the log. Never changes after it is loaded.
+     */
+    private static class Table {
+        // Position 0 is the header, so it marks a free slot.
+        private static final int REMOVED = -1;
+
+        final ByteBuffer mLog;
+        // End of the last complete record
+        int mEnd;
+        // Bytes of the live records, including their size field
+        int mLiveBytes;
+        int mSize;
+        private long[] mHashes = new long[16];
+        private int[] mPositions = new int[16];
+        private int mUsedSlots;
+
+        Table(ByteBuffer log) {
+            mLog = log;
+        }
+
+        int get(byte[] path) {
+            int slot = findSlot(path, hash(path));
+            return slot < 0 ? -1 : mPositions[slot];
+        }
+
+        /**
+         * Returns the position of the record replaced, or -1.
+         */
+        int put(byte[] path, int position) {
+            long hash = hash(path);
+            int slot = findSlot(path, hash);
+            if (slot >= 0) {
+                int replaced = mPositions[slot];
+                mPositions[slot] = position;
+                return replaced;
+            }
+            if ((mUsedSlots + 1) * 4 > mPositions.length * 3) {
+                rehash();
+            }
+            int mask = mPositions.length - 1;
+            slot = (int) hash & mask;
+            while (mPositions[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            mHashes[slot] = hash;
+            mPositions[slot] = position;
+            mUsedSlots++;
+            mSize++;
+            return -1;
+        }
+
+        /**
+         * Returns the position of the record removed, or -1.
+         */
+        int remove(byte[] path) {
+            int slot = findSlot(path, hash(path));
+            if (slot < 0) {
+                return -1;
+            }
+            int removed = mPositions[slot];
+            mPositions[slot] = REMOVED;
+            mSize--;
+            return removed;
+        }
+
+        /**
+         * Returns the positions of all live records.
+         */
+        int[] positions() {
+            int[] positions = new int[mSize];
+            int n = 0;
+            for (int position : mPositions) {
+                if (position > 0) {
+                    positions[n++] = position;
+                }
+            }
+            return positions;
+        }
+
+        private int findSlot(byte[] path, long hash) {
+            int mask = mPositions.length - 1;
+            for (int slot = (int) hash & mask; mPositions[slot] != 0; slot = (slot + 1) & mask) {
+                int position = mPositions[slot];
+                if (position > 0 && mHashes[slot] == hash && isPath(mLog, position, path)) {
+                    return slot;
+                }
+            }
+            return -1;
+        }
+
+        private void rehash() {
+            long[] hashes = mHashes;
+            int[] positions = mPositions;
+            int capacity = mSize * 2 < positions.length ? positions.length : positions.length * 2;
+            mHashes = new long[capacity];
+            mPositions = new int[capacity];
+            mUsedSlots = 0;
+            int mask = capacity - 1;
+            for (int i = 0; i < positions.length; i++) {
+                if (positions[i] > 0) {
+                    int slot = (int) hashes[i] & mask;
+                    while (mPositions[slot] != 0) {
+                        slot = (slot + 1) & mask;
+                    }
+                    mHashes[slot] = hashes[i];
+                    mPositions[slot] = positions[i];
+                    mUsedSlots++;
+                }
+            }
+        }
+
+        private static long hash(byte[] path) {
+            // FNV-1a
+            long hash = 0xcbf29ce484222325L;
+            for (byte b : path) {
+                hash = (hash ^ (b & 0xff)) * 0x100000001b3L;
+            }
+            return hash ^ (hash >>> 32);
+        }
+    }
+
+    /**
+     * @param logFile the file holding the index, created by the first refresh.
+     * @param tags    the defined tag constants to index, e.g.
+     *                {link ExifInterface#TAG_ORIENTATION}. An existing log
+     *                created for other tags is discarded.
+     */
+    public ExifIndex(File logFile, int[] tags) {
+        if (logFile == null) {
+            throw new IllegalArgumentException("Log file is null");
+        }
+        mLogFile = logFile;
+        mReader = new ExifBatchReader(tags);
+        mTags = ExifBatchReader.sortTags(tags);
+    }
+
+    /**
+     * Returns the reader used to parse changed files, e.g. to limit the number
+     * of threads.
+     */
+    public ExifBatchReader getReader() {
+        return mReader;
+    }
+
+    /**
+     * Reads the log sequentially and maps it. A record cut short by a crash
+     * while it was appended is ignored and overwritten by the next refresh.
+     */
+    public synchronized void load() throws IOException {
+        mTable = loadTable();
+    }
+
+    /**
+     * Returns the indexed tags of the file, or null if the file is not in the
+     * index or has changed since it was indexed.
+     */
+    public ExifSnapshot get(File file) {
+        Table table = getTable();
+        int position = table.get(file.getAbsolutePath().getBytes(UTF_8));
+        if (position < 0) {
+            return null;
+        }
+        ByteBuffer log = table.mLog;
+        int pos = skipPath(log, position + 5);
+        if (log.getLong(pos) != file.length() || log.getLong(pos + 8) != file.lastModified()) {
+            return null;
+        }
+        return readSnapshot(file, log, pos + 16);
+    }
+
+    /**
+     * Returns the number of files in the index.
+     */
+    public int size() {
+        return getTable().mSize;
+    }
+
+    /**
+     * Brings the index up to date with the given files: files which are new or
+     * changed since they were indexed are parsed and their records appended,
+     * files of the index which are not in the list are removed from it. Files
+     * which fail to parse are logged and left out, so they are tried again by
+     * the next refresh.
+     *
+     * @return the number of files parsed.
+     */
+    public synchronized int refresh(List<File> files) throws IOException, InterruptedException {
+        Table table = getTable();
+        final Map<String, long[]> changed = new HashMap<String, long[]>();
+        final List<File> changedFiles = new ArrayList<File>();
+        Set<String> seen = new HashSet<String>();
+        for (File file : files) {
+            String path = file.getAbsolutePath();
+            if (!seen.add(path)) {
+                continue;
+            }
+            long length = file.length();
+            long lastModified = file.lastModified();
+            int position = table.get(path.getBytes(UTF_8));
+            if (position >= 0) {
+                int pos = skipPath(table.mLog, position + 5);
+                if (table.mLog.getLong(pos) == length
+                        && table.mLog.getLong(pos + 8) == lastModified) {
+                    continue;
+                }
+            }
+            // The record keeps the state before parsing, a file changed while
+            // it is parsed is parsed again by the next refresh.
+            changed.put(path, new long[]{
+                    length, lastModified
+            });
+            changedFiles.add(file);
+        }
+
+        final Appender appender = new Appender(table);
+        try {
+            for (int position : table.positions()) {
+                String path = readPath(table.mLog, position + 5);
+                if (!seen.contains(path)) {
+                    appender.appendRemoved(path);
+                }
+            }
+            mReader.read(changedFiles, new ExifBatchReader.Callback() {
+                @Override
+                public void onResult(ExifSnapshot snapshot) {
+                    String path = snapshot.getFile().getAbsolutePath();
+                    long[] state = changed.get(path);
+                    try {
+                        appender.appendFile(path, state[0], state[1], snapshot);
+                    } catch (IOException e) {
+                        appender.fail(e);
+                    } catch (RuntimeException e) {
+                        // A tag the writer cannot encode, skip the file.
+                        Log.w(TAG, "Failed to index " + path + ": " + e);
+                    }
+                }
+
+                @Override
+                public void onError(File file, Exception e) {
+                    Log.w(TAG, "Failed to read " + file + ": " + e);
+                }
+            });
+            appender.finish();
+        } finally {
+            appender.closeSilently();
+            // Pick up the records appended so far in any case.
+            mTable = loadTable();
+        }
+        return changedFiles.size();
+    }
+
+    /**
+     * Returns true if more than half of the log is taken by records which
+     * were replaced or removed.
+     */
+    public boolean needsCompaction() {
+        Table table = getTable();
+        return table.mEnd - table.mLiveBytes > table.mLiveBytes;
+    }
+
+    /**
+     * Rewrites the log with only the latest record of each file. The new log
+     * is written next to the old one and renamed over it once it is synced.
+     */
+    public synchronized void compact() throws IOException {
+        Table table = getTable();
+        // createTempFile() wants a prefix of at least three characters.
+        File temp = File.createTempFile("." + mLogFile.getName() + ".", ".tmp",
+                mLogFile.getAbsoluteFile().getParentFile());
+        FileOutputStream os = null;
+        try {
+            os = new FileOutputStream(temp);
+            FileChannel out = os.getChannel();
+            writeFully(out, ByteBuffer.wrap(buildHeader()));
+            for (int position : table.positions()) {
+                ByteBuffer record = table.mLog.duplicate();
+                record.limit(position + 4 + table.mLog.getInt(position));
+                record.position(position);
+                writeFully(out, record);
+            }
+            os.getFD().sync();
+            os.close();
+            os = null;
+            if (!temp.renameTo(mLogFile)) {
+                throw new IOException("Failed to replace " + mLogFile);
+            }
+            temp = null;
+        } finally {
+            if (os != null) {
+                try {
+                    os.close();
+                } catch (IOException e) {
+                    // ignore
+                }
+            }
+            if (temp != null) {
+                temp.delete();
+            }
+        }
+        mTable = loadTable();
+    }
+
+    private Table getTable() {
+        Table table = mTable;
+        if (table == null) {
+            synchronized (this) {
+                if (mTable == null) {
+                    try {
+                        mTable = loadTable();
+                    } catch (IOException e) {
+                        Log.w(TAG, "Failed to load " + mLogFile + ": " + e);
+                        mTable = new Table(ByteBuffer.allocate(0));
+                    }
+                }
+                table = mTable;
+            }
+        }
+        return table;
+    }
+
+    private Table loadTable() throws IOException {
+        if (!mLogFile.exists()) {
+            return new Table(ByteBuffer.allocate(0));
+        }
+        RandomAccessFile file = new RandomAccessFile(mLogFile, "r");
+        MappedByteBuffer log;
+        try {
+            FileChannel channel = file.getChannel();
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("Index is too large: " + channel.size());
+            }
+            log = channel.map(MapMode.READ_ONLY, 0, channel.size());
+        } finally {
+            file.close();
+        }
+        Table table = new Table(log);
+        byte[] header = buildHeader();
+        if (log.limit() < header.length) {
+            return table;
+        }
+        for (int i = 0; i < header.length; i++) {
+            if (log.get(i) != header[i]) {
+                Log.w(TAG, "Discarding index of other tags or version " + mLogFile);
+                return table;
+            }
+        }
+
+        int pos = header.length;
+        while (pos + 7 <= log.limit()) {
+            int size = log.getInt(pos);
+            if (size < 3 || size > log.limit() - pos - 4
+                    || skipPath(log, pos + 5) > pos + 4 + size) {
+                break;
+            }
+            byte[] path = readPathBytes(log, pos + 5);
+            int replaced;
+            if (log.get(pos + 4) == RECORD_FILE) {
+                replaced = table.put(path, pos);
+                table.mLiveBytes += 4 + size;
+            } else {
+                replaced = table.remove(path);
+            }
+            if (replaced >= 0) {
+                table.mLiveBytes -= 4 + log.getInt(replaced);
+            }
+            pos += 4 + size;
+        }
+        table.mEnd = pos;
+        return table;
+    }
+
+    private byte[] buildHeader() {
+        ByteBuffer header = ByteBuffer.allocate(12 + mTags.length * 4);
+        header.putInt(MAGIC).putInt(VERSION).putInt(mTags.length);
+        for (int tag : mTags) {
+            header.putInt(tag);
+        }
+        return header.array();
+    }
+
+    private static String readPath(ByteBuffer log, int pos) {
+        return new String(readPathBytes(log, pos), UTF_8);
+    }
+
+    private static byte[] readPathBytes(ByteBuffer log, int pos) {
+        byte[] bytes = new byte[log.getShort(pos) & 0xffff];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = log.get(pos + 2 + i);
+        }
+        return bytes;
+    }
+
+    /**
+     * Tags whose value failed to parse, e.g. a string of the wrong count,
+     * are read without a value and left out of the record.
+     */
+    private static boolean hasValue(ExifTag tag) {
+        return tag != null && tag.hasDecodedValue();
+    }
+
+    /**
+     * Returns true if the record at the given position is for the path.
+     */
+    private static boolean isPath(ByteBuffer log, int position, byte[] path) {
+        int pos = position + 5;
+        if ((log.getShort(pos) & 0xffff) != path.length) {
+            return false;
+        }
+        for (int i = 0; i < path.length; i++) {
+            if (log.get(pos + 2 + i) != path[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int skipPath(ByteBuffer log, int pos) {
+        return pos + 2 + (log.getShort(pos) & 0xffff);
+    }
+
+    private ExifSnapshot readSnapshot(File file, ByteBuffer log, int pos) {
+        ExifTag[] tags = new ExifTag[mTags.length];
+        int count = log.getShort(pos) & 0xffff;
+        pos += 2;
+        for (int i = 0; i < count; i++) {
+            int index = log.getShort(pos) & 0xffff;
+            short type = log.getShort(pos + 2);
+            int componentCount = log.getInt(pos + 4);
+            int tagId = mTags[index];
+            ExifTag tag = new ExifTag(ExifInterface.getTrueTagKey(tagId), type, componentCount,
+                    ExifInterface.getTrueIfd(tagId),
+                    componentCount != ExifTag.SIZE_UNDEFINED);
+            ExifBufferParser.readTagValue(log, pos + 8, tag);
+            tags[index] = tag;
+            pos += 8 + tag.getDataSize();
+        }
+        return new ExifSnapshot(file, mTags, tags);
+    }
+
+    private static void writeFully(FileChannel out, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            out.write(buffer);
+        }
+    }
+
+    /**
+     * Appends records to the log, called concurrently by the workers of the
+     * reader.
+     */
+    private class Appender {
+        private final ByteArrayOutputStream mBytes = new ByteArrayOutputStream();
+        private final DataOutputStream mRecord = new DataOutputStream(mBytes);
+        private final OrderedDataOutputStream mValue = new OrderedDataOutputStream(mBytes);
+        private RandomAccessFile mFile;
+        private IOException mFailure;
+
+        Appender(Table table) throws IOException {
+            mFile = new RandomAccessFile(mLogFile, "rw");
+            if (table.mEnd == 0) {
+                // New log, or one of other tags.
+                mFile.setLength(0);
+                mFile.write(buildHeader());
+            } else {
+                // Drop a record cut short by a crash.
+                mFile.setLength(table.mEnd);
+                mFile.seek(table.mEnd);
+            }
+        }
+
+        synchronized void appendRemoved(String path) throws IOException {
+            startRecord(RECORD_REMOVED, path);
+            finishRecord();
+        }
+
+        synchronized void appendFile(String path, long length, long lastModified,
+                                     ExifSnapshot snapshot) throws IOException {
+            startRecord(RECORD_FILE, path);
+            mRecord.writeLong(length);
+            mRecord.writeLong(lastModified);
+            int count = 0;
+            for (int tagId : mTags) {
+                if (hasValue(snapshot.getTag(tagId))) {
+                    count++;
+                }
+            }
+            mRecord.writeShort(count);
+            for (int i = 0; i < mTags.length; i++) {
+                ExifTag tag = snapshot.getTag(mTags[i]);
+                if (!hasValue(tag)) {
+                    continue;
+                }
+                mRecord.writeShort(i);
+                mRecord.writeShort(tag.getDataType());
+                mRecord.writeInt(tag.getComponentCount());
+                ExifOutputStream.writeTagValue(tag, mValue);
+            }
+            finishRecord();
+        }
+
+        private void startRecord(byte kind, String path) throws IOException {
+            if (mFailure != null) {
+                throw mFailure;
+            }
+            byte[] pathBytes = path.getBytes(UTF_8);
+            if (pathBytes.length > 0xffff) {
+                throw new IOException("Path is too long: " + path);
+            }
+            mBytes.reset();
+            // Size of the record, patched by finishRecord()
+            mRecord.writeInt(0);
+            mRecord.writeByte(kind);
+            mRecord.writeShort(pathBytes.length);
+            mRecord.write(pathBytes);
+        }
+
+        private void finishRecord() throws IOException {
+            byte[] record = mBytes.toByteArray();
+            ByteBuffer.wrap(record).putInt(0, record.length - 4);
+            mFile.write(record);
+        }
+
+        synchronized void fail(IOException e) {
+            if (mFailure == null) {
+                mFailure = e;
+            }
+        }
+
+        void finish() throws IOException {
+            synchronized (this) {
+                if (mFailure != null) {
+                    throw mFailure;
+                }
+            }
+            mFile.getFD().sync();
+            mFile.close();
+        }
+
+        void closeSilently() {
+            try {
+                mFile.close();
+            } catch (IOException e) {
+                // ignore
+            }
+        }
+    }
+
+}
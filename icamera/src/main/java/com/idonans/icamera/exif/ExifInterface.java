@@ -18,10 +18,10 @@ package com.idonans.icamera.exif;
 
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
-import android.util.SparseIntArray;
+import android.os.Build;
+import android.system.ErrnoException;
+import android.system.Os;
 
-import java.io.BufferedInputStream;
-import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.Closeable;
 import java.io.File;
@@ -34,6 +34,7 @@ import java.io.OutputStream;
 import java.io.RandomAccessFile;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
 import java.nio.channels.FileChannel.MapMode;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
@@ -131,6 +132,9 @@ public class ExifInterface {
             defineTag(IfdId.TYPE_IFD_0, (short) 0x8769);
     public static final int TAG_GPS_IFD =
             defineTag(IfdId.TYPE_IFD_0, (short) 0x8825);
+    // Microsoft padding tag, reserves room for in-place growth.
+    public static final int TAG_PADDING =
+            defineTag(IfdId.TYPE_IFD_0, (short) 0xEA1C);
     // IFD 1
     public static final int TAG_JPEG_INTERCHANGE_FORMAT =
             defineTag(IfdId.TYPE_IFD_1, (short) 0x0201);
@@ -711,11 +715,94 @@ public class ExifInterface {
     private static final String NULL_ARGUMENT_STRING = "Argument is null";
     private ExifData mData = new ExifData(DEFAULT_BYTE_ORDER);
     public static final ByteOrder DEFAULT_BYTE_ORDER = ByteOrder.BIG_ENDIAN;
+    private boolean mLazyTagValues;
+    private int mExifPaddingSize;
+    // Reused by rewriteExif(ByteBuffer, Collection) for the same buffer, so
+    // the tag offsets are only indexed once. It holds the buffer weakly.
+    private ExifModifier mLastModifier;
+    private ExifStatsListener mStatsListener;
+    private ExifParseLimits mParseLimits;
 
     public ExifInterface() {
         mGPSDateStampFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
     }
 
+    /**
+     * Sets whether tag values read by {@link #readExif(byte[])},
+     * {@link #readExif(ByteBuffer)} and {@link #readExif(String)} are decoded
+     * only when first accessed. Lazy tags keep a reference to the source data
+     * (the byte array or the buffer), which must not be modified while the
+     * tags are in use. {@link #readExif(String)} copies the exif header of
+     * the file instead, so later changes to the file do not matter. Disabled
+     * by default.
+     *
+     * @param lazy true to decode tag values on demand.
+     */
+    public void setLazyTagValues(boolean lazy) {
+        mLazyTagValues = lazy;
+    }
+
+    /**
+     * Returns whether tag values are decoded only when first accessed.
+     *
+     * @see #setLazyTagValues(boolean)
+     */
+    public boolean isLazyTagValues() {
+        return mLazyTagValues;
+    }
+
+    /**
+     * Sets the number of bytes reserved with a {link #TAG_PADDING} tag in IFD0
+     * when writing exif data, the reserved bytes follow all other exif data. {@link #rewriteExif(ByteBuffer, Collection)}
+     * uses the reserved bytes to store values that grew or tags that are new,
+     * so such changes do not need a copy of the whole file. Defaults to 0,
+     * which writes no padding tag.
+     *
+     * @param size the number of bytes to reserve, the whole exif header must
+     *             still fit in 64Kb.
+     */
+    public void setExifPaddingSize(int size) {
+        if (size < 0) {
+            throw new IllegalArgumentException("Invalid padding size " + size);
+        }
+        mExifPaddingSize = size;
+    }
+
+    /**
+     * @see #setExifPaddingSize(int)
+     */
+    public int getExifPaddingSize() {
+        return mExifPaddingSize;
+    }
+
+    /**
+     * Sets the listener receiving the measurements of every read, write and
+     * in-place rewrite of this ExifInterface object, or null to stop
+     * measuring.
+     *
+     * @see ExifStatsRecorder
+     */
+    public void setStatsListener(ExifStatsListener listener) {
+        mStatsListener = listener;
+    }
+
+    public ExifStatsListener getStatsListener() {
+        return mStatsListener;
+    }
+
+    /**
+     * Sets the limits bounding every following read of this ExifInterface
+     * object, or null to read without limits. The limits are copied when a
+     * read starts.
+     */
+    public void setParseLimits(ExifParseLimits limits) {
+        mParseLimits = limits;
+    }
+
+    public ExifParseLimits getParseLimits() {
+        return mParseLimits;
+    }
+
     /**
      * Reads the exif tags from a byte array, clearing this ExifInterface
      * object's existing exif tags.
@@ -724,7 +811,76 @@ public class ExifInterface {
      * @throws IOException
      */
     public void readExif(byte[] jpeg) throws IOException {
-        readExif(new ByteArrayInputStream(jpeg));
+        readExif(jpeg, null);
+    }
+
+    /**
+     * Reads only the given exif tags from a byte array, clearing this
+     * ExifInterface object's existing exif tags.
+     *
+     * @param jpeg a byte array containing a jpeg compressed image.
+     * @param tags the defined tag constants to read (e.g.
+     *             {link #TAG_ORIENTATION}), or null to read all tags and the
+     *             thumbnail.
+     * @throws IOException
+     * @see #readExif(ByteBuffer, int[])
+     */
+    public void readExif(byte[] jpeg, int[] tags) throws IOException {
+        if (jpeg == null) {
+            throw new IllegalArgumentException(NULL_ARGUMENT_STRING);
+        }
+        readExif(ByteBuffer.wrap(jpeg), tags);
+    }
+
+    /**
+     * Reads the exif tags from a ByteBuffer, clearing this ExifInterface
+     * object's existing exif tags. The jpeg data starts at the current
+     * position of the buffer, the position of the buffer is not changed.
+     *
+     * @param jpeg a ByteBuffer containing a jpeg compressed image, e.g. a
+     *             memory-mapped file.
+     * @throws IOException
+     */
+    public void readExif(ByteBuffer jpeg) throws IOException {
+        readExif(jpeg, null);
+    }
+
+    /**
+     * Reads only the given exif tags from a ByteBuffer, clearing this
+     * ExifInterface object's existing exif tags. Only the IFDs holding the
+     * requested tags (and the IFDs pointing to them) are visited, the
+     * thumbnail is not read and parsing stops as soon as every requested tag
+     * has been read. The position of the buffer is not changed.
+     *
+     * @param jpeg a ByteBuffer containing a jpeg compressed image.
+     * @param tags the defined tag constants to read (e.g.
+     *             {link #TAG_ORIENTATION}), or null to read all tags and the
+     *             thumbnail.
+     * @throws IOException
+     */
+    public void readExif(ByteBuffer jpeg, int[] tags) throws IOException {
+        readExif(jpeg, tags, null);
+    }
+
+    /**
+     * Like {@link #readExif(ByteBuffer, int[])}, with the index of the jpeg
+     * scanned from the position of the buffer, or null to scan it.
+     */
+    void readExif(ByteBuffer jpeg, int[] tags, JpegSegmentIndex index) throws IOException {
+        if (jpeg == null) {
+            throw new IllegalArgumentException(NULL_ARGUMENT_STRING);
+        }
+        int options = tags == null ? ExifBufferParser.OPTION_ALL : getParserOptionsForTags(tags);
+        if (mLazyTagValues) {
+            options |= ExifBufferParser.OPTION_LAZY_VALUES;
+        }
+        ExifData d = null;
+        try {
+            d = new ExifReader(this).read(jpeg, options, tags, index);
+        } catch (ExifInvalidFormatException e) {
+            throw new IOException("Invalid exif format : " + e);
+        }
+        mData = d;
     }
 
     /**
@@ -756,18 +912,84 @@ public class ExifInterface {
      * @throws IOException
      */
     public void readExif(String inFileName) throws FileNotFoundException, IOException {
+        readExif(inFileName, null);
+    }
+
+    /**
+     * Reads only the given exif tags from a file, clearing this ExifInterface
+     * object's existing exif tags.
+     *
+     * @param inFileName a string representing the filepath to jpeg file.
+     * @param tags       the defined tag constants to read (e.g.
+     *                   {link #TAG_ORIENTATION}), or null to read all tags and
+     *                   the thumbnail.
+     * @throws FileNotFoundException
+     * @throws IOException
+     * @see #readExif(ByteBuffer, int[])
+     */
+    public void readExif(String inFileName, int[] tags) throws FileNotFoundException, IOException {
         if (inFileName == null) {
             throw new IllegalArgumentException(NULL_ARGUMENT_STRING);
         }
-        InputStream is = null;
+        RandomAccessFile file = null;
         try {
-            is = new BufferedInputStream(new FileInputStream(inFileName));
-            readExif(is);
+            file = new RandomAccessFile(inFileName, "r");
+            FileChannel channel = file.getChannel();
+            ByteBuffer jpeg = channel.map(MapMode.READ_ONLY, 0, channel.size());
+            if (mLazyTagValues) {
+                // Lazy tags must not point into the mapping, the file may be
+                // changed or truncated while they are in use.
+                jpeg = copyExifHeader(jpeg);
+            }
+            readExif(jpeg, tags);
         } catch (IOException e) {
-            closeSilently(is);
+            closeSilently(file);
             throw e;
         }
-        is.close();
+        file.close();
+    }
+
+    /**
+     * Returns a heap copy of the jpeg up to the end of its exif APP1 segment,
+     * or the jpeg itself if it has no exif data.
+     */
+    private static ByteBuffer copyExifHeader(ByteBuffer jpeg) {
+        JpegSegmentIndex index = JpegSegmentIndex.scan(jpeg);
+        int segment = index.getExifSegment();
+        if (segment < 0) {
+            return jpeg;
+        }
+        byte[] header = new byte[(int) index.getEnd(segment)];
+        jpeg.duplicate().get(header);
+        return ByteBuffer.wrap(header);
+    }
+
+    /**
+     * Returns the parser options requesting the IFDs of the given defined tag
+     * constants. The IFDs linking to them are followed by the parser.
+     */
+    private static int getParserOptionsForTags(int[] tags) {
+        int options = 0;
+        for (int tag : tags) {
+            switch (getTrueIfd(tag)) {
+                case IfdId.TYPE_IFD_0:
+                    options |= ExifParser.OPTION_IFD_0;
+                    break;
+                case IfdId.TYPE_IFD_1:
+                    options |= ExifParser.OPTION_IFD_1;
+                    break;
+                case IfdId.TYPE_IFD_EXIF:
+                    options |= ExifParser.OPTION_IFD_EXIF;
+                    break;
+                case IfdId.TYPE_IFD_GPS:
+                    options |= ExifParser.OPTION_IFD_GPS;
+                    break;
+                case IfdId.TYPE_IFD_INTEROPERABILITY:
+                    options |= ExifParser.OPTION_IFD_INTEROPERABILITY;
+                    break;
+            }
+        }
+        return options;
     }
 
     /**
@@ -801,9 +1023,48 @@ public class ExifInterface {
         if (jpeg == null || exifOutStream == null) {
             throw new IllegalArgumentException(NULL_ARGUMENT_STRING);
         }
-        OutputStream s = getExifWriterStream(exifOutStream);
-        s.write(jpeg, 0, jpeg.length);
-        s.flush();
+        int[] app1 = ExifOutputStream.findReplacedApp1(ByteBuffer.wrap(jpeg));
+        if (app1 == null) {
+            OutputStream s = getExifWriterStream(exifOutStream);
+            s.write(jpeg, 0, jpeg.length);
+            s.flush();
+            return;
+        }
+        exifOutStream.write(buildExifHeader());
+        exifOutStream.write(jpeg, 2, app1[0] - 2);
+        exifOutStream.write(jpeg, app1[1], jpeg.length - app1[1]);
+        exifOutStream.flush();
+    }
+
+    /**
+     * Writes the tags from this ExifInterface object into a jpeg image,
+     * removing prior exif tags.
+     *
+     * @param jpeg a byte array containing a jpeg compressed image.
+     * @return a new byte array of the exact size containing the jpeg image
+     * with added exif tags.
+     * @throws IOException
+     */
+    public byte[] writeExif(byte[] jpeg) throws IOException {
+        if (jpeg == null) {
+            throw new IllegalArgumentException(NULL_ARGUMENT_STRING);
+        }
+        int[] app1 = ExifOutputStream.findReplacedApp1(ByteBuffer.wrap(jpeg));
+        if (app1 == null) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream(jpeg.length);
+            OutputStream s = getExifWriterStream(out);
+            s.write(jpeg, 0, jpeg.length);
+            s.flush();
+            return out.toByteArray();
+        }
+        byte[] header = buildExifHeader();
+        int beforeApp1 = app1[0] - 2;
+        int afterApp1 = jpeg.length - app1[1];
+        byte[] ret = new byte[header.length + beforeApp1 + afterApp1];
+        System.arraycopy(header, 0, ret, 0, header.length);
+        System.arraycopy(jpeg, 2, ret, header.length, beforeApp1);
+        System.arraycopy(jpeg, app1[1], ret, header.length + beforeApp1, afterApp1);
+        return ret;
     }
 
     /**
@@ -859,9 +1120,8 @@ public class ExifInterface {
         }
         OutputStream s = null;
         try {
-            s = getExifWriterStream(exifOutFileName);
-            s.write(jpeg, 0, jpeg.length);
-            s.flush();
+            s = new FileOutputStream(exifOutFileName);
+            writeExif(jpeg, s);
         } catch (IOException e) {
             closeSilently(s);
             throw e;
@@ -938,15 +1198,80 @@ public class ExifInterface {
         if (jpegFileName == null || exifOutFileName == null) {
             throw new IllegalArgumentException(NULL_ARGUMENT_STRING);
         }
-        InputStream is = null;
+        FileInputStream is = null;
+        FileOutputStream os = null;
         try {
             is = new FileInputStream(jpegFileName);
-            writeExif(is, exifOutFileName);
+            os = new FileOutputStream(exifOutFileName);
+            writeExif(is, os);
         } catch (IOException e) {
             closeSilently(is);
+            closeSilently(os);
             throw e;
         }
         is.close();
+        os.close();
+    }
+
+    /**
+     * Copies the jpeg file to the output file with the tags from this
+     * ExifInterface object, the image data is transferred between the channels
+     * without passing through the heap.
+     */
+    private void writeExif(FileInputStream is, FileOutputStream os) throws IOException {
+        FileChannel in = is.getChannel();
+        // Only the header segments are paged in through the mapping.
+        ByteBuffer jpeg = in.map(MapMode.READ_ONLY, 0, in.size());
+        writeExif(is, os, jpeg, JpegSegmentIndex.scan(jpeg));
+    }
+
+    /**
+     * Like {@link #writeExif(FileInputStream, FileOutputStream)}, with the
+     * jpeg file mapped and indexed by the caller.
+     */
+    private void writeExif(FileInputStream is, FileOutputStream os, ByteBuffer jpeg,
+                           JpegSegmentIndex index) throws IOException {
+        FileChannel in = is.getChannel();
+        long size = jpeg.limit();
+        int[] app1 = ExifOutputStream.findReplacedApp1(jpeg, index);
+        if (app1 == null) {
+            OutputStream s = getExifWriterStream(os);
+            doExifStreamIO(is, s);
+            s.flush();
+        } else {
+            FileChannel out = os.getChannel();
+            ByteBuffer header = ByteBuffer.wrap(buildExifHeader());
+            while (header.hasRemaining()) {
+                out.write(header);
+            }
+            transferFully(in, 2, app1[0] - 2, out);
+            transferFully(in, app1[1], size - app1[1], out);
+        }
+    }
+
+    /**
+     * Returns the SOI marker followed by the APP1 segment holding the exif tags
+     * of this ExifInterface object, as written by {@link ExifOutputStream}.
+     */
+    private byte[] buildExifHeader() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        OutputStream s = getExifWriterStream(out);
+        s.write(0xff & (JpegHeader.SOI >> 8));
+        s.write(0xff & JpegHeader.SOI);
+        s.flush();
+        return out.toByteArray();
+    }
+
+    private static void transferFully(FileChannel in, long position, long count,
+                                      FileChannel out) throws IOException {
+        while (count > 0) {
+            long n = in.transferTo(position, count, out);
+            if (n <= 0) {
+                throw new IOException("Failed to copy jpeg data");
+            }
+            position += n;
+            count -= n;
+        }
     }
 
     /**
@@ -1012,43 +1337,37 @@ public class ExifInterface {
     public boolean rewriteExif(String filename, Collection<ExifTag> tags)
             throws FileNotFoundException, IOException {
         RandomAccessFile file = null;
-        InputStream is = null;
         boolean ret;
         try {
-            File temp = new File(filename);
-            is = new BufferedInputStream(new FileInputStream(temp));
-
-            // Parse beginning of APP1 in exif to find size of exif header.
-            ExifParser parser = null;
-            try {
-                parser = ExifParser.parse(is, this);
-            } catch (ExifInvalidFormatException e) {
-                throw new IOException("Invalid exif format : ", e);
+            // Mode "rw" would create a missing file.
+            if (!new File(filename).isFile()) {
+                throw new FileNotFoundException(filename);
             }
-            long exifSize = parser.getOffsetToExifEndFromSOF();
-
-            // Free up resources
-            is.close();
-            is = null;
-
-            // Open file for memory mapping.
-            file = new RandomAccessFile(temp, "rw");
-            long fileLength = file.length();
-            if (fileLength < exifSize) {
+            file = new RandomAccessFile(filename, "rw");
+            FileChannel channel = file.getChannel();
+
+            // Index the header segments to find the end of the exif header.
+            JpegSegmentIndex index = JpegSegmentIndex.scan(channel);
+            int exif = index.getExifSegment();
+            if (exif < 0) {
+                throw new IOException("Invalid exif format : no exif data");
+            }
+            long exifSize = index.getEnd(exif);
+            if (channel.size() < exifSize) {
                 throw new IOException("Filesize changed during operation");
             }
 
             // Map only exif header into memory.
-            ByteBuffer buf = file.getChannel().map(MapMode.READ_WRITE, 0, exifSize);
+            ByteBuffer buf = channel.map(MapMode.READ_WRITE, 0, exifSize);
 
             // Attempt to overwrite tag values without changing lengths (avoids
             // file copy).
-            ret = rewriteExif(buf, tags);
+            ret = rewriteExif(buf, tags, index);
+            // Do not keep the mapping alive, the next call maps the file again.
+            mLastModifier = null;
         } catch (IOException e) {
             closeSilently(file);
             throw e;
-        } finally {
-            closeSilently(is);
         }
         file.close();
         return ret;
@@ -1057,33 +1376,59 @@ public class ExifInterface {
     /**
      * Attempts to do an in-place rewrite the exif metadata in a ByteBuffer for
      * the given tags. If tags do not exist or do not have the same size as the
-     * existing exif tags, this method will fail.
+     * existing exif tags, their values (and for new tags, their IFD) are moved
+     * into the {link #TAG_PADDING} block at the end of the exif data, see
+     * {@link #setExifPaddingSize(int)}. This method fails if there is no such
+     * block or it is too small, and for new tags in IFD0, IFD1 or in an IFD
+     * that does not exist: only IFDs which do not point to other IFDs or image
+     * data can be moved.
      *
      * @param buf  a ByteBuffer containing a jpeg file with existing exif tags to
      *             rewrite.
      * @param tags tags that will be written into the jpeg ByteBuffer over
      *             existing tags if possible.
+     * The offsets of the tags in the buffer are kept for the next call with
+     * the same buffer, which must not be changed by other means in between.
+     *
      * @return true if success, false if could not overwrite. If false, no
      * changes are made to the ByteBuffer.
      * @throws IOException
      */
     public boolean rewriteExif(ByteBuffer buf, Collection<ExifTag> tags) throws IOException {
-        ExifModifier mod = null;
+        return rewriteExif(buf, tags, null);
+    }
+
+    /**
+     * Like {@link #rewriteExif(ByteBuffer, Collection)}, with the index of the
+     * jpeg scanned from the position of the buffer, or null to scan it.
+     */
+    private boolean rewriteExif(ByteBuffer buf, Collection<ExifTag> tags, JpegSegmentIndex index)
+            throws IOException {
+        ExifModifier mod = mLastModifier;
         try {
-            mod = new ExifModifier(buf, this);
+            if (mod == null || !mod.reuse(buf)) {
+                mLastModifier = null;
+                mod = new ExifModifier(buf, this, index);
+            }
             for (ExifTag t : tags) {
                 mod.modifyTag(t);
             }
-            return mod.commit();
+            // Kept for the next call only after a successful commit, which
+            // also releases the strong reference to the buffer.
+            boolean ret = mod.commit();
+            mLastModifier = ret ? mod : null;
+            return ret;
         } catch (ExifInvalidFormatException e) {
+            mLastModifier = null;
             throw new IOException("Invalid exif format : " + e);
         }
     }
 
     /**
      * Attempts to do an in-place rewrite of the exif metadata. If this fails,
-     * fall back to overwriting file. This preserves tags that are not being
-     * rewritten.
+     * fall back to writing a new copy of the file and renaming it over the
+     * original, which only reads the exif header into memory. This preserves
+     * tags that are not being rewritten.
      *
      * @param filename a String containing a filepath for a jpeg file.
      * @param tags     tags that will be written into the jpeg file over existing
@@ -1097,30 +1442,63 @@ public class ExifInterface {
             IOException {
         // Attempt in-place write
         if (!rewriteExif(filename, tags)) {
-            // Fall back to doing a copy
+            // Fall back to writing a copy next to the file, then replace the
+            // file with it so a failure never leaves a half written jpeg.
             ExifData tempData = mData;
-            mData = new ExifData(DEFAULT_BYTE_ORDER);
+            File target = new File(filename).getAbsoluteFile();
+            File temp = null;
             FileInputStream is = null;
-            ByteArrayOutputStream bytes = null;
+            FileOutputStream os = null;
             try {
-                is = new FileInputStream(filename);
-                bytes = new ByteArrayOutputStream();
-                doExifStreamIO(is, bytes);
-                byte[] imageBytes = bytes.toByteArray();
-                readExif(imageBytes);
+                // The file is mapped and its header indexed once, for both
+                // reading the tags and writing the copy.
+                is = new FileInputStream(target);
+                FileChannel in = is.getChannel();
+                ByteBuffer jpeg = in.map(MapMode.READ_ONLY, 0, in.size());
+                JpegSegmentIndex index = JpegSegmentIndex.scan(jpeg);
+                readExif(jpeg, null, index);
                 setTags(tags);
-                writeExif(imageBytes, filename);
-            } catch (IOException e) {
-                closeSilently(is);
-                throw e;
-            } finally {
+                // Created like any new file, with the mode given by the umask
+                // rather than the 0600 of File.createTempFile().
+                temp = new File(target.getParentFile(), "." + target.getName() + ".tmp");
+                temp.delete();
+                os = new FileOutputStream(temp);
+                writeExif(is, os, jpeg, index);
+                os.getFD().sync();
                 is.close();
+                os.close();
+                copyPermissions(target, temp);
+                if (!temp.renameTo(target)) {
+                    throw new IOException("Failed to replace " + filename);
+                }
+                temp = null;
+            } finally {
+                closeSilently(is);
+                closeSilently(os);
+                if (temp != null) {
+                    temp.delete();
+                }
                 // Prevent clobbering of mData
                 mData = tempData;
             }
         }
     }
 
+    /**
+     * Gives the replacement file the mode of the file it replaces. Before
+     * API 21 the mode cannot be read, the one from the umask is kept.
+     */
+    private static void copyPermissions(File from, File to) {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.LOLLIPOP) {
+            return;
+        }
+        try {
+            Os.chmod(to.getPath(), Os.stat(from.getPath()).st_mode & 07777);
+        } catch (ErrnoException e) {
+            // Keep the mode from the umask
+        }
+    }
+
     /**
      * Attempts to do an in-place rewrite of the exif metadata using the tags in
      * this ExifInterface object. If this fails, fall back to overwriting file.
@@ -1317,6 +1695,57 @@ public class ExifInterface {
         return getTagRationalValue(tagId, ifdId);
     }
 
+    /**
+     * Gets the first value of an integer tag without boxing, or the given
+     * default if the tag does not exist or has no integer value.
+     *
+     * @see #getTagValue
+     */
+    public int getTagIntValue(int tagId, int ifdId, int defaultValue) {
+        ExifTag t = getTag(tagId, ifdId);
+        if (t == null) {
+            return defaultValue;
+        }
+        return t.getValueAsInt(defaultValue);
+    }
+
+    /**
+     * Gets the first value of an integer tag without boxing, or the given
+     * default if the tag does not exist or has no integer value.
+     *
+     * @see #getTagValue
+     */
+    public long getTagLongValue(int tagId, int ifdId, long defaultValue) {
+        ExifTag t = getTag(tagId, ifdId);
+        if (t == null) {
+            return defaultValue;
+        }
+        return t.getValueAsLong(defaultValue);
+    }
+
+    /**
+     * Gets the first value of a rational tag as a double without allocation,
+     * or the given default if the tag does not exist, has no rational value or
+     * its denominator is 0.
+     *
+     * @see #getTagValue
+     */
+    public double getTagRationalAsDouble(int tagId, int ifdId, double defaultValue) {
+        ExifTag t = getTag(tagId, ifdId);
+        if (t == null) {
+            return defaultValue;
+        }
+        return t.getValueAsRationalDouble(defaultValue);
+    }
+
+    /**
+     * @see #getTagRationalAsDouble(int, int, double)
+     */
+    public double getTagRationalAsDouble(int tagId, double defaultValue) {
+        int ifdId = getDefinedTagDefaultIfd(tagId);
+        return getTagRationalAsDouble(tagId, ifdId, defaultValue);
+    }
+
     /**
      * @see #getTagValue
      */
@@ -1643,7 +2072,7 @@ public class ExifInterface {
                 return TAG_NULL;
             }
             int[] otherDefs = getTagDefinitionsForTagId(tagId);
-            SparseIntArray infos = getTagInfo();
+            TagInfoTable infos = getTagInfo();
             // Make sure defaultIfd is in allowedIfds
             boolean defaultCheck = false;
             for (int i : allowedIfds) {
@@ -1669,7 +2098,7 @@ public class ExifInterface {
                     }
                 }
             }
-            getTagInfo().put(tagDef, ifdFlags << 24 | (tagType << 16) | defaultComponentCount);
+            mTagInfo = infos.put(tagDef, ifdFlags << 24 | (tagType << 16) | defaultComponentCount);
             return tagDef;
         }
         return TAG_NULL;
@@ -1683,7 +2112,7 @@ public class ExifInterface {
         int[] ifds = IfdData.getIfds();
         int[] defs = new int[ifds.length];
         int counter = 0;
-        SparseIntArray infos = getTagInfo();
+        TagInfoTable infos = getTagInfo();
         for (int i : ifds) {
             int def = defineTag(i, tagId);
             if (infos.get(def) != DEFINITION_NULL) {
@@ -1709,7 +2138,7 @@ public class ExifInterface {
         if (defs == null) {
             return TAG_NULL;
         }
-        SparseIntArray infos = getTagInfo();
+        TagInfoTable infos = getTagInfo();
         int ret = TAG_NULL;
         for (int i : defs) {
             int info = infos.get(i);
@@ -1738,14 +2167,14 @@ public class ExifInterface {
      * @param tagId a defined tag constant, e.g. {link #TAG_IMAGE_WIDTH}.
      */
     public void removeTagDefinition(int tagId) {
-        getTagInfo().delete(tagId);
+        mTagInfo = mTagInfo.delete(tagId);
     }
 
     /**
      * Resets tag definitions to the default ones.
      */
     public void resetTagDefinitions() {
-        mTagInfo = null;
+        mTagInfo = DEFAULT_TAG_INFO;
     }
 
     /**
@@ -1875,6 +2304,31 @@ public class ExifInterface {
         }
     }
 
+    /**
+     * Returns the Orientation ExifTag value for a given number of degrees,
+     * followed by a horizontal flip if mirror is true, e.g. for the pictures
+     * of a front facing camera.
+     *
+     * @param degrees the amount an image is rotated in degrees.
+     * @param mirror  whether the rotated image is flipped horizontally.
+     */
+    public static short getOrientationValueForRotation(int degrees, boolean mirror) {
+        short orientation = getOrientationValueForRotation(degrees);
+        if (!mirror) {
+            return orientation;
+        }
+        switch (orientation) {
+            case Orientation.RIGHT_TOP:
+                return Orientation.LEFT_TOP; // transpose
+            case Orientation.BOTTOM_LEFT:
+                return Orientation.BOTTOM_RIGHT; // vertical flip
+            case Orientation.RIGHT_BOTTOM:
+                return Orientation.LEFT_BOTTOM; // transverse
+            default:
+                return Orientation.TOP_RIGHT; // horizontal flip
+        }
+    }
+
     /**
      * Returns the rotation degrees corresponding to an ExifTag Orientation
      * value.
@@ -2061,17 +2515,20 @@ public class ExifInterface {
         }
     }
 
-    private SparseIntArray mTagInfo = null;
+    /**
+     * The default tag definitions, built once and shared by all instances.
+     * Custom definitions replace {@link #mTagInfo} with a modified copy.
+     */
+    private static final TagInfoTable DEFAULT_TAG_INFO = initTagInfo();
+
+    private TagInfoTable mTagInfo = DEFAULT_TAG_INFO;
 
-    protected SparseIntArray getTagInfo() {
-        if (mTagInfo == null) {
-            mTagInfo = new SparseIntArray();
-            initTagInfo();
-        }
+    protected TagInfoTable getTagInfo() {
         return mTagInfo;
     }
 
-    private void initTagInfo() {
+    private static TagInfoTable initTagInfo() {
+        TagInfoTable.Builder tagInfo = new TagInfoTable.Builder();
         /**
          * We put tag information in a 4-bytes integer. The first byte a bitmask
          * representing the allowed IFDs of the tag, the second byte is the data
@@ -2083,266 +2540,269 @@ public class ExifInterface {
                 IfdId.TYPE_IFD_0, IfdId.TYPE_IFD_1
         };
         int ifdFlags = getFlagsFromAllowedIfds(ifdAllowedIfds) << 24;
-        mTagInfo.put(ExifInterface.TAG_MAKE,
+        tagInfo.put(ExifInterface.TAG_MAKE,
                 ifdFlags | ExifTag.TYPE_ASCII << 16 | ExifTag.SIZE_UNDEFINED);
-        mTagInfo.put(ExifInterface.TAG_IMAGE_WIDTH,
+        tagInfo.put(ExifInterface.TAG_IMAGE_WIDTH,
                 ifdFlags | ExifTag.TYPE_UNSIGNED_LONG << 16 | 1);
-        mTagInfo.put(ExifInterface.TAG_IMAGE_LENGTH,
+        tagInfo.put(ExifInterface.TAG_IMAGE_LENGTH,
                 ifdFlags | ExifTag.TYPE_UNSIGNED_LONG << 16 | 1);
-        mTagInfo.put(ExifInterface.TAG_BITS_PER_SAMPLE,
+        tagInfo.put(ExifInterface.TAG_BITS_PER_SAMPLE,
                 ifdFlags | ExifTag.TYPE_UNSIGNED_SHORT << 16 | 3);
-        mTagInfo.put(ExifInterface.TAG_COMPRESSION,
+        tagInfo.put(ExifInterface.TAG_COMPRESSION,
                 ifdFlags | ExifTag.TYPE_UNSIGNED_SHORT << 16 | 1);
-        mTagInfo.put(ExifInterface.TAG_PHOTOMETRIC_INTERPRETATION,
+        tagInfo.put(ExifInterface.TAG_PHOTOMETRIC_INTERPRETATION,
                 ifdFlags | ExifTag.TYPE_UNSIGNED_SHORT << 16 | 1);
-        mTagInfo.put(ExifInterface.TAG_ORIENTATION, ifdFlags | ExifTag.TYPE_UNSIGNED_SHORT << 16
+        tagInfo.put(ExifInterface.TAG_ORIENTATION, ifdFlags | ExifTag.TYPE_UNSIGNED_SHORT << 16
                 | 1);
-        mTagInfo.put(ExifInterface.TAG_SAMPLES_PER_PIXEL,
+        tagInfo.put(ExifInterface.TAG_SAMPLES_PER_PIXEL,
                 ifdFlags | ExifTag.TYPE_UNSIGNED_SHORT << 16 | 1);
-        mTagInfo.put(ExifInterface.TAG_PLANAR_CONFIGURATION,
+        tagInfo.put(ExifInterface.TAG_PLANAR_CONFIGURATION,
                 ifdFlags | ExifTag.TYPE_UNSIGNED_SHORT << 16 | 1);
-        mTagInfo.put(ExifInterface.TAG_Y_CB_CR_SUB_SAMPLING,
+        tagInfo.put(ExifInterface.TAG_Y_CB_CR_SUB_SAMPLING,
                 ifdFlags | ExifTag.TYPE_UNSIGNED_SHORT << 16 | 2);
-        mTagInfo.put(ExifInterface.TAG_Y_CB_CR_POSITIONING,
+        tagInfo.put(ExifInterface.TAG_Y_CB_CR_POSITIONING,
                 ifdFlags | ExifTag.TYPE_UNSIGNED_SHORT << 16 | 1);
-        mTagInfo.put(ExifInterface.TAG_X_RESOLUTION,
+        tagInfo.put(ExifInterface.TAG_X_RESOLUTION,
                 ifdFlags | ExifTag.TYPE_UNSIGNED_RATIONAL << 16 | 1);
-        mTagInfo.put(ExifInterface.TAG_Y_RESOLUTION,
+        tagInfo.put(ExifInterface.TAG_Y_RESOLUTION,
                 ifdFlags | ExifTag.TYPE_UNSIGNED_RATIONAL << 16 | 1);
-        mTagInfo.put(ExifInterface.TAG_RESOLUTION_UNIT,
+        tagInfo.put(ExifInterface.TAG_RESOLUTION_UNIT,
                 ifdFlags | ExifTag.TYPE_UNSIGNED_SHORT << 16 | 1);
-        mTagInfo.put(ExifInterface.TAG_STRIP_OFFSETS,
+        tagInfo.put(ExifInterface.TAG_STRIP_OFFSETS,
                 ifdFlags | ExifTag.TYPE_UNSIGNED_LONG << 16 | ExifTag.SIZE_UNDEFINED);
-        mTagInfo.put(ExifInterface.TAG_ROWS_PER_STRIP,
+        tagInfo.put(ExifInterface.TAG_ROWS_PER_STRIP,
                 ifdFlags | ExifTag.TYPE_UNSIGNED_LONG << 16 | 1);
-        mTagInfo.put(ExifInterface.TAG_STRIP_BYTE_COUNTS,
+        tagInfo.put(ExifInterface.TAG_STRIP_BYTE_COUNTS,
                 ifdFlags | ExifTag.TYPE_UNSIGNED_LONG << 16 | ExifTag.SIZE_UNDEFINED);
-        mTagInfo.put(ExifInterface.TAG_TRANSFER_FUNCTION,
+        tagInfo.put(ExifInterface.TAG_TRANSFER_FUNCTION,
                 ifdFlags | ExifTag.TYPE_UNSIGNED_SHORT << 16 | 3 * 256);
-        mTagInfo.put(ExifInterface.TAG_WHITE_POINT,
+        tagInfo.put(ExifInterface.TAG_WHITE_POINT,
                 ifdFlags | ExifTag.TYPE_UNSIGNED_RATIONAL << 16 | 2);
-        mTagInfo.put(ExifInterface.TAG_PRIMARY_CHROMATICITIES,
+        tagInfo.put(ExifInterface.TAG_PRIMARY_CHROMATICITIES,
                 ifdFlags | ExifTag.TYPE_UNSIGNED_RATIONAL << 16 | 6);
-        mTagInfo.put(ExifInterface.TAG_Y_CB_CR_COEFFICIENTS,
+        tagInfo.put(ExifInterface.TAG_Y_CB_CR_COEFFICIENTS,
                 ifdFlags | ExifTag.TYPE_UNSIGNED_RATIONAL << 16 | 3);
-        mTagInfo.put(ExifInterface.TAG_REFERENCE_BLACK_WHITE,
+        tagInfo.put(ExifInterface.TAG_REFERENCE_BLACK_WHITE,
                 ifdFlags | ExifTag.TYPE_UNSIGNED_RATIONAL << 16 | 6);
-        mTagInfo.put(ExifInterface.TAG_DATE_TIME,
+        tagInfo.put(ExifInterface.TAG_DATE_TIME,
                 ifdFlags | ExifTag.TYPE_ASCII << 16 | 20);
-        mTagInfo.put(ExifInterface.TAG_IMAGE_DESCRIPTION,
+        tagInfo.put(ExifInterface.TAG_IMAGE_DESCRIPTION,
                 ifdFlags | ExifTag.TYPE_ASCII << 16 | ExifTag.SIZE_UNDEFINED);
-        mTagInfo.put(ExifInterface.TAG_MAKE,
+        tagInfo.put(ExifInterface.TAG_MAKE,
                 ifdFlags | ExifTag.TYPE_ASCII << 16 | ExifTag.SIZE_UNDEFINED);
-        mTagInfo.put(ExifInterface.TAG_MODEL,
+        tagInfo.put(ExifInterface.TAG_MODEL,
                 ifdFlags | ExifTag.TYPE_ASCII << 16 | ExifTag.SIZE_UNDEFINED);
-        mTagInfo.put(ExifInterface.TAG_SOFTWARE,
+        tagInfo.put(ExifInterface.TAG_SOFTWARE,
                 ifdFlags | ExifTag.TYPE_ASCII << 16 | ExifTag.SIZE_UNDEFINED);
-        mTagInfo.put(ExifInterface.TAG_ARTIST,
+        tagInfo.put(ExifInterface.TAG_ARTIST,
                 ifdFlags | ExifTag.TYPE_ASCII << 16 | ExifTag.SIZE_UNDEFINED);
-        mTagInfo.put(ExifInterface.TAG_COPYRIGHT,
+        tagInfo.put(ExifInterface.TAG_COPYRIGHT,
                 ifdFlags | ExifTag.TYPE_ASCII << 16 | ExifTag.SIZE_UNDEFINED);
-        mTagInfo.put(ExifInterface.TAG_EXIF_IFD,
+        tagInfo.put(ExifInterface.TAG_EXIF_IFD,
                 ifdFlags | ExifTag.TYPE_UNSIGNED_LONG << 16 | 1);
-        mTagInfo.put(ExifInterface.TAG_GPS_IFD,
+        tagInfo.put(ExifInterface.TAG_GPS_IFD,
                 ifdFlags | ExifTag.TYPE_UNSIGNED_LONG << 16 | 1);
+        tagInfo.put(ExifInterface.TAG_PADDING,
+                ifdFlags | ExifTag.TYPE_UNDEFINED << 16 | ExifTag.SIZE_UNDEFINED);
         // IFD1 tags
         int[] ifd1AllowedIfds = {
                 IfdId.TYPE_IFD_1
         };
         int ifdFlags1 = getFlagsFromAllowedIfds(ifd1AllowedIfds) << 24;
-        mTagInfo.put(ExifInterface.TAG_JPEG_INTERCHANGE_FORMAT,
+        tagInfo.put(ExifInterface.TAG_JPEG_INTERCHANGE_FORMAT,
                 ifdFlags1 | ExifTag.TYPE_UNSIGNED_LONG << 16 | 1);
-        mTagInfo.put(ExifInterface.TAG_JPEG_INTERCHANGE_FORMAT_LENGTH,
+        tagInfo.put(ExifInterface.TAG_JPEG_INTERCHANGE_FORMAT_LENGTH,
                 ifdFlags1 | ExifTag.TYPE_UNSIGNED_LONG << 16 | 1);
         // Exif tags
         int[] exifAllowedIfds = {
                 IfdId.TYPE_IFD_EXIF
         };
         int exifFlags = getFlagsFromAllowedIfds(exifAllowedIfds) << 24;
-        mTagInfo.put(ExifInterface.TAG_EXIF_VERSION,
+        tagInfo.put(ExifInterface.TAG_EXIF_VERSION,
                 exifFlags | ExifTag.TYPE_UNDEFINED << 16 | 4);
-        mTagInfo.put(ExifInterface.TAG_FLASHPIX_VERSION,
+        tagInfo.put(ExifInterface.TAG_FLASHPIX_VERSION,
                 exifFlags | ExifTag.TYPE_UNDEFINED << 16 | 4);
-        mTagInfo.put(ExifInterface.TAG_COLOR_SPACE,
+        tagInfo.put(ExifInterface.TAG_COLOR_SPACE,
                 exifFlags | ExifTag.TYPE_UNSIGNED_SHORT << 16 | 1);
-        mTagInfo.put(ExifInterface.TAG_COMPONENTS_CONFIGURATION,
+        tagInfo.put(ExifInterface.TAG_COMPONENTS_CONFIGURATION,
                 exifFlags | ExifTag.TYPE_UNDEFINED << 16 | 4);
-        mTagInfo.put(ExifInterface.TAG_COMPRESSED_BITS_PER_PIXEL,
+        tagInfo.put(ExifInterface.TAG_COMPRESSED_BITS_PER_PIXEL,
                 exifFlags | ExifTag.TYPE_UNSIGNED_RATIONAL << 16 | 1);
-        mTagInfo.put(ExifInterface.TAG_PIXEL_X_DIMENSION,
+        tagInfo.put(ExifInterface.TAG_PIXEL_X_DIMENSION,
                 exifFlags | ExifTag.TYPE_UNSIGNED_LONG << 16 | 1);
-        mTagInfo.put(ExifInterface.TAG_PIXEL_Y_DIMENSION,
+        tagInfo.put(ExifInterface.TAG_PIXEL_Y_DIMENSION,
                 exifFlags | ExifTag.TYPE_UNSIGNED_LONG << 16 | 1);
-        mTagInfo.put(ExifInterface.TAG_MAKER_NOTE,
+        tagInfo.put(ExifInterface.TAG_MAKER_NOTE,
                 exifFlags | ExifTag.TYPE_UNDEFINED << 16 | ExifTag.SIZE_UNDEFINED);
-        mTagInfo.put(ExifInterface.TAG_USER_COMMENT,
+        tagInfo.put(ExifInterface.TAG_USER_COMMENT,
                 exifFlags | ExifTag.TYPE_UNDEFINED << 16 | ExifTag.SIZE_UNDEFINED);
-        mTagInfo.put(ExifInterface.TAG_RELATED_SOUND_FILE,
+        tagInfo.put(ExifInterface.TAG_RELATED_SOUND_FILE,
                 exifFlags | ExifTag.TYPE_ASCII << 16 | 13);
-        mTagInfo.put(ExifInterface.TAG_DATE_TIME_ORIGINAL,
+        tagInfo.put(ExifInterface.TAG_DATE_TIME_ORIGINAL,
                 exifFlags | ExifTag.TYPE_ASCII << 16 | 20);
-        mTagInfo.put(ExifInterface.TAG_DATE_TIME_DIGITIZED,
+        tagInfo.put(ExifInterface.TAG_DATE_TIME_DIGITIZED,
                 exifFlags | ExifTag.TYPE_ASCII << 16 | 20);
-        mTagInfo.put(ExifInterface.TAG_SUB_SEC_TIME,
+        tagInfo.put(ExifInterface.TAG_SUB_SEC_TIME,
                 exifFlags | ExifTag.TYPE_ASCII << 16 | ExifTag.SIZE_UNDEFINED);
-        mTagInfo.put(ExifInterface.TAG_SUB_SEC_TIME_ORIGINAL,
+        tagInfo.put(ExifInterface.TAG_SUB_SEC_TIME_ORIGINAL,
                 exifFlags | ExifTag.TYPE_ASCII << 16 | ExifTag.SIZE_UNDEFINED);
-        mTagInfo.put(ExifInterface.TAG_SUB_SEC_TIME_DIGITIZED,
+        tagInfo.put(ExifInterface.TAG_SUB_SEC_TIME_DIGITIZED,
                 exifFlags | ExifTag.TYPE_ASCII << 16 | ExifTag.SIZE_UNDEFINED);
-        mTagInfo.put(ExifInterface.TAG_IMAGE_UNIQUE_ID,
+        tagInfo.put(ExifInterface.TAG_IMAGE_UNIQUE_ID,
                 exifFlags | ExifTag.TYPE_ASCII << 16 | 33);
-        mTagInfo.put(ExifInterface.TAG_EXPOSURE_TIME,
+        tagInfo.put(ExifInterface.TAG_EXPOSURE_TIME,
                 exifFlags | ExifTag.TYPE_UNSIGNED_RATIONAL << 16 | 1);
-        mTagInfo.put(ExifInterface.TAG_F_NUMBER,
+        tagInfo.put(ExifInterface.TAG_F_NUMBER,
                 exifFlags | ExifTag.TYPE_UNSIGNED_RATIONAL << 16 | 1);
-        mTagInfo.put(ExifInterface.TAG_EXPOSURE_PROGRAM,
+        tagInfo.put(ExifInterface.TAG_EXPOSURE_PROGRAM,
                 exifFlags | ExifTag.TYPE_UNSIGNED_SHORT << 16 | 1);
-        mTagInfo.put(ExifInterface.TAG_SPECTRAL_SENSITIVITY,
+        tagInfo.put(ExifInterface.TAG_SPECTRAL_SENSITIVITY,
                 exifFlags | ExifTag.TYPE_ASCII << 16 | ExifTag.SIZE_UNDEFINED);
-        mTagInfo.put(ExifInterface.TAG_ISO_SPEED_RATINGS,
+        tagInfo.put(ExifInterface.TAG_ISO_SPEED_RATINGS,
                 exifFlags | ExifTag.TYPE_UNSIGNED_SHORT << 16 | ExifTag.SIZE_UNDEFINED);
-        mTagInfo.put(ExifInterface.TAG_OECF,
+        tagInfo.put(ExifInterface.TAG_OECF,
                 exifFlags | ExifTag.TYPE_UNDEFINED << 16 | ExifTag.SIZE_UNDEFINED);
-        mTagInfo.put(ExifInterface.TAG_SHUTTER_SPEED_VALUE,
+        tagInfo.put(ExifInterface.TAG_SHUTTER_SPEED_VALUE,
                 exifFlags | ExifTag.TYPE_RATIONAL << 16 | 1);
-        mTagInfo.put(ExifInterface.TAG_APERTURE_VALUE,
+        tagInfo.put(ExifInterface.TAG_APERTURE_VALUE,
                 exifFlags | ExifTag.TYPE_UNSIGNED_RATIONAL << 16 | 1);
-        mTagInfo.put(ExifInterface.TAG_BRIGHTNESS_VALUE,
+        tagInfo.put(ExifInterface.TAG_BRIGHTNESS_VALUE,
                 exifFlags | ExifTag.TYPE_RATIONAL << 16 | 1);
-        mTagInfo.put(ExifInterface.TAG_EXPOSURE_BIAS_VALUE,
+        tagInfo.put(ExifInterface.TAG_EXPOSURE_BIAS_VALUE,
                 exifFlags | ExifTag.TYPE_RATIONAL << 16 | 1);
-        mTagInfo.put(ExifInterface.TAG_MAX_APERTURE_VALUE,
+        tagInfo.put(ExifInterface.TAG_MAX_APERTURE_VALUE,
                 exifFlags | ExifTag.TYPE_UNSIGNED_RATIONAL << 16 | 1);
-        mTagInfo.put(ExifInterface.TAG_SUBJECT_DISTANCE,
+        tagInfo.put(ExifInterface.TAG_SUBJECT_DISTANCE,
                 exifFlags | ExifTag.TYPE_UNSIGNED_RATIONAL << 16 | 1);
-        mTagInfo.put(ExifInterface.TAG_METERING_MODE,
+        tagInfo.put(ExifInterface.TAG_METERING_MODE,
                 exifFlags | ExifTag.TYPE_UNSIGNED_SHORT << 16 | 1);
-        mTagInfo.put(ExifInterface.TAG_LIGHT_SOURCE,
+        tagInfo.put(ExifInterface.TAG_LIGHT_SOURCE,
                 exifFlags | ExifTag.TYPE_UNSIGNED_SHORT << 16 | 1);
-        mTagInfo.put(ExifInterface.TAG_FLASH,
+        tagInfo.put(ExifInterface.TAG_FLASH,
                 exifFlags | ExifTag.TYPE_UNSIGNED_SHORT << 16 | 1);
-        mTagInfo.put(ExifInterface.TAG_FOCAL_LENGTH,
+        tagInfo.put(ExifInterface.TAG_FOCAL_LENGTH,
                 exifFlags | ExifTag.TYPE_UNSIGNED_RATIONAL << 16 | 1);
-        mTagInfo.put(ExifInterface.TAG_SUBJECT_AREA,
+        tagInfo.put(ExifInterface.TAG_SUBJECT_AREA,
                 exifFlags | ExifTag.TYPE_UNSIGNED_SHORT << 16 | ExifTag.SIZE_UNDEFINED);
-        mTagInfo.put(ExifInterface.TAG_FLASH_ENERGY,
+        tagInfo.put(ExifInterface.TAG_FLASH_ENERGY,
                 exifFlags | ExifTag.TYPE_UNSIGNED_RATIONAL << 16 | 1);
-        mTagInfo.put(ExifInterface.TAG_SPATIAL_FREQUENCY_RESPONSE,
+        tagInfo.put(ExifInterface.TAG_SPATIAL_FREQUENCY_RESPONSE,
                 exifFlags | ExifTag.TYPE_UNDEFINED << 16 | ExifTag.SIZE_UNDEFINED);
-        mTagInfo.put(ExifInterface.TAG_FOCAL_PLANE_X_RESOLUTION,
+        tagInfo.put(ExifInterface.TAG_FOCAL_PLANE_X_RESOLUTION,
                 exifFlags | ExifTag.TYPE_UNSIGNED_RATIONAL << 16 | 1);
-        mTagInfo.put(ExifInterface.TAG_FOCAL_PLANE_Y_RESOLUTION,
+        tagInfo.put(ExifInterface.TAG_FOCAL_PLANE_Y_RESOLUTION,
                 exifFlags | ExifTag.TYPE_UNSIGNED_RATIONAL << 16 | 1);
-        mTagInfo.put(ExifInterface.TAG_FOCAL_PLANE_RESOLUTION_UNIT,
+        tagInfo.put(ExifInterface.TAG_FOCAL_PLANE_RESOLUTION_UNIT,
                 exifFlags | ExifTag.TYPE_UNSIGNED_SHORT << 16 | 1);
-        mTagInfo.put(ExifInterface.TAG_SUBJECT_LOCATION,
+        tagInfo.put(ExifInterface.TAG_SUBJECT_LOCATION,
                 exifFlags | ExifTag.TYPE_UNSIGNED_SHORT << 16 | 2);
-        mTagInfo.put(ExifInterface.TAG_EXPOSURE_INDEX,
+        tagInfo.put(ExifInterface.TAG_EXPOSURE_INDEX,
                 exifFlags | ExifTag.TYPE_UNSIGNED_RATIONAL << 16 | 1);
-        mTagInfo.put(ExifInterface.TAG_SENSING_METHOD,
+        tagInfo.put(ExifInterface.TAG_SENSING_METHOD,
                 exifFlags | ExifTag.TYPE_UNSIGNED_SHORT << 16 | 1);
-        mTagInfo.put(ExifInterface.TAG_FILE_SOURCE,
+        tagInfo.put(ExifInterface.TAG_FILE_SOURCE,
                 exifFlags | ExifTag.TYPE_UNDEFINED << 16 | 1);
-        mTagInfo.put(ExifInterface.TAG_SCENE_TYPE,
+        tagInfo.put(ExifInterface.TAG_SCENE_TYPE,
                 exifFlags | ExifTag.TYPE_UNDEFINED << 16 | 1);
-        mTagInfo.put(ExifInterface.TAG_CFA_PATTERN,
+        tagInfo.put(ExifInterface.TAG_CFA_PATTERN,
                 exifFlags | ExifTag.TYPE_UNDEFINED << 16 | ExifTag.SIZE_UNDEFINED);
-        mTagInfo.put(ExifInterface.TAG_CUSTOM_RENDERED,
+        tagInfo.put(ExifInterface.TAG_CUSTOM_RENDERED,
                 exifFlags | ExifTag.TYPE_UNSIGNED_SHORT << 16 | 1);
-        mTagInfo.put(ExifInterface.TAG_EXPOSURE_MODE,
+        tagInfo.put(ExifInterface.TAG_EXPOSURE_MODE,
                 exifFlags | ExifTag.TYPE_UNSIGNED_SHORT << 16 | 1);
-        mTagInfo.put(ExifInterface.TAG_WHITE_BALANCE,
+        tagInfo.put(ExifInterface.TAG_WHITE_BALANCE,
                 exifFlags | ExifTag.TYPE_UNSIGNED_SHORT << 16 | 1);
-        mTagInfo.put(ExifInterface.TAG_DIGITAL_ZOOM_RATIO,
+        tagInfo.put(ExifInterface.TAG_DIGITAL_ZOOM_RATIO,
                 exifFlags | ExifTag.TYPE_UNSIGNED_RATIONAL << 16 | 1);
-        mTagInfo.put(ExifInterface.TAG_FOCAL_LENGTH_IN_35_MM_FILE,
+        tagInfo.put(ExifInterface.TAG_FOCAL_LENGTH_IN_35_MM_FILE,
                 exifFlags | ExifTag.TYPE_UNSIGNED_SHORT << 16 | 1);
-        mTagInfo.put(ExifInterface.TAG_SCENE_CAPTURE_TYPE,
+        tagInfo.put(ExifInterface.TAG_SCENE_CAPTURE_TYPE,
                 exifFlags | ExifTag.TYPE_UNSIGNED_SHORT << 16 | 1);
-        mTagInfo.put(ExifInterface.TAG_GAIN_CONTROL,
+        tagInfo.put(ExifInterface.TAG_GAIN_CONTROL,
                 exifFlags | ExifTag.TYPE_UNSIGNED_RATIONAL << 16 | 1);
-        mTagInfo.put(ExifInterface.TAG_CONTRAST,
+        tagInfo.put(ExifInterface.TAG_CONTRAST,
                 exifFlags | ExifTag.TYPE_UNSIGNED_SHORT << 16 | 1);
-        mTagInfo.put(ExifInterface.TAG_SATURATION,
+        tagInfo.put(ExifInterface.TAG_SATURATION,
                 exifFlags | ExifTag.TYPE_UNSIGNED_SHORT << 16 | 1);
-        mTagInfo.put(ExifInterface.TAG_SHARPNESS,
+        tagInfo.put(ExifInterface.TAG_SHARPNESS,
                 exifFlags | ExifTag.TYPE_UNSIGNED_SHORT << 16 | 1);
-        mTagInfo.put(ExifInterface.TAG_DEVICE_SETTING_DESCRIPTION,
+        tagInfo.put(ExifInterface.TAG_DEVICE_SETTING_DESCRIPTION,
                 exifFlags | ExifTag.TYPE_UNDEFINED << 16 | ExifTag.SIZE_UNDEFINED);
-        mTagInfo.put(ExifInterface.TAG_SUBJECT_DISTANCE_RANGE,
+        tagInfo.put(ExifInterface.TAG_SUBJECT_DISTANCE_RANGE,
                 exifFlags | ExifTag.TYPE_UNSIGNED_SHORT << 16 | 1);
-        mTagInfo.put(ExifInterface.TAG_INTEROPERABILITY_IFD, exifFlags
+        tagInfo.put(ExifInterface.TAG_INTEROPERABILITY_IFD, exifFlags
                 | ExifTag.TYPE_UNSIGNED_LONG << 16 | 1);
         // GPS tag
         int[] gpsAllowedIfds = {
                 IfdId.TYPE_IFD_GPS
         };
         int gpsFlags = getFlagsFromAllowedIfds(gpsAllowedIfds) << 24;
-        mTagInfo.put(ExifInterface.TAG_GPS_VERSION_ID,
+        tagInfo.put(ExifInterface.TAG_GPS_VERSION_ID,
                 gpsFlags | ExifTag.TYPE_UNSIGNED_BYTE << 16 | 4);
-        mTagInfo.put(ExifInterface.TAG_GPS_LATITUDE_REF,
+        tagInfo.put(ExifInterface.TAG_GPS_LATITUDE_REF,
                 gpsFlags | ExifTag.TYPE_ASCII << 16 | 2);
-        mTagInfo.put(ExifInterface.TAG_GPS_LONGITUDE_REF,
+        tagInfo.put(ExifInterface.TAG_GPS_LONGITUDE_REF,
                 gpsFlags | ExifTag.TYPE_ASCII << 16 | 2);
-        mTagInfo.put(ExifInterface.TAG_GPS_LATITUDE,
+        tagInfo.put(ExifInterface.TAG_GPS_LATITUDE,
                 gpsFlags | ExifTag.TYPE_RATIONAL << 16 | 3);
-        mTagInfo.put(ExifInterface.TAG_GPS_LONGITUDE,
+        tagInfo.put(ExifInterface.TAG_GPS_LONGITUDE,
                 gpsFlags | ExifTag.TYPE_RATIONAL << 16 | 3);
-        mTagInfo.put(ExifInterface.TAG_GPS_ALTITUDE_REF,
+        tagInfo.put(ExifInterface.TAG_GPS_ALTITUDE_REF,
                 gpsFlags | ExifTag.TYPE_UNSIGNED_BYTE << 16 | 1);
-        mTagInfo.put(ExifInterface.TAG_GPS_ALTITUDE,
+        tagInfo.put(ExifInterface.TAG_GPS_ALTITUDE,
                 gpsFlags | ExifTag.TYPE_UNSIGNED_RATIONAL << 16 | 1);
-        mTagInfo.put(ExifInterface.TAG_GPS_TIME_STAMP,
+        tagInfo.put(ExifInterface.TAG_GPS_TIME_STAMP,
                 gpsFlags | ExifTag.TYPE_UNSIGNED_RATIONAL << 16 | 3);
-        mTagInfo.put(ExifInterface.TAG_GPS_SATTELLITES,
+        tagInfo.put(ExifInterface.TAG_GPS_SATTELLITES,
                 gpsFlags | ExifTag.TYPE_ASCII << 16 | ExifTag.SIZE_UNDEFINED);
-        mTagInfo.put(ExifInterface.TAG_GPS_STATUS,
+        tagInfo.put(ExifInterface.TAG_GPS_STATUS,
                 gpsFlags | ExifTag.TYPE_ASCII << 16 | 2);
-        mTagInfo.put(ExifInterface.TAG_GPS_MEASURE_MODE,
+        tagInfo.put(ExifInterface.TAG_GPS_MEASURE_MODE,
                 gpsFlags | ExifTag.TYPE_ASCII << 16 | 2);
-        mTagInfo.put(ExifInterface.TAG_GPS_DOP,
+        tagInfo.put(ExifInterface.TAG_GPS_DOP,
                 gpsFlags | ExifTag.TYPE_UNSIGNED_RATIONAL << 16 | 1);
-        mTagInfo.put(ExifInterface.TAG_GPS_SPEED_REF,
+        tagInfo.put(ExifInterface.TAG_GPS_SPEED_REF,
                 gpsFlags | ExifTag.TYPE_ASCII << 16 | 2);
-        mTagInfo.put(ExifInterface.TAG_GPS_SPEED,
+        tagInfo.put(ExifInterface.TAG_GPS_SPEED,
                 gpsFlags | ExifTag.TYPE_UNSIGNED_RATIONAL << 16 | 1);
-        mTagInfo.put(ExifInterface.TAG_GPS_TRACK_REF,
+        tagInfo.put(ExifInterface.TAG_GPS_TRACK_REF,
                 gpsFlags | ExifTag.TYPE_ASCII << 16 | 2);
-        mTagInfo.put(ExifInterface.TAG_GPS_TRACK,
+        tagInfo.put(ExifInterface.TAG_GPS_TRACK,
                 gpsFlags | ExifTag.TYPE_UNSIGNED_RATIONAL << 16 | 1);
-        mTagInfo.put(ExifInterface.TAG_GPS_IMG_DIRECTION_REF,
+        tagInfo.put(ExifInterface.TAG_GPS_IMG_DIRECTION_REF,
                 gpsFlags | ExifTag.TYPE_ASCII << 16 | 2);
-        mTagInfo.put(ExifInterface.TAG_GPS_IMG_DIRECTION,
+        tagInfo.put(ExifInterface.TAG_GPS_IMG_DIRECTION,
                 gpsFlags | ExifTag.TYPE_UNSIGNED_RATIONAL << 16 | 1);
-        mTagInfo.put(ExifInterface.TAG_GPS_MAP_DATUM,
+        tagInfo.put(ExifInterface.TAG_GPS_MAP_DATUM,
                 gpsFlags | ExifTag.TYPE_ASCII << 16 | ExifTag.SIZE_UNDEFINED);
-        mTagInfo.put(ExifInterface.TAG_GPS_DEST_LATITUDE_REF,
+        tagInfo.put(ExifInterface.TAG_GPS_DEST_LATITUDE_REF,
                 gpsFlags | ExifTag.TYPE_ASCII << 16 | 2);
-        mTagInfo.put(ExifInterface.TAG_GPS_DEST_LATITUDE,
+        tagInfo.put(ExifInterface.TAG_GPS_DEST_LATITUDE,
                 gpsFlags | ExifTag.TYPE_UNSIGNED_RATIONAL << 16 | 1);
-        mTagInfo.put(ExifInterface.TAG_GPS_DEST_BEARING_REF,
+        tagInfo.put(ExifInterface.TAG_GPS_DEST_BEARING_REF,
                 gpsFlags | ExifTag.TYPE_ASCII << 16 | 2);
-        mTagInfo.put(ExifInterface.TAG_GPS_DEST_BEARING,
+        tagInfo.put(ExifInterface.TAG_GPS_DEST_BEARING,
                 gpsFlags | ExifTag.TYPE_UNSIGNED_RATIONAL << 16 | 1);
-        mTagInfo.put(ExifInterface.TAG_GPS_DEST_DISTANCE_REF,
+        tagInfo.put(ExifInterface.TAG_GPS_DEST_DISTANCE_REF,
                 gpsFlags | ExifTag.TYPE_ASCII << 16 | 2);
-        mTagInfo.put(ExifInterface.TAG_GPS_DEST_DISTANCE,
+        tagInfo.put(ExifInterface.TAG_GPS_DEST_DISTANCE,
                 gpsFlags | ExifTag.TYPE_UNSIGNED_RATIONAL << 16 | 1);
-        mTagInfo.put(ExifInterface.TAG_GPS_PROCESSING_METHOD,
+        tagInfo.put(ExifInterface.TAG_GPS_PROCESSING_METHOD,
                 gpsFlags | ExifTag.TYPE_UNDEFINED << 16 | ExifTag.SIZE_UNDEFINED);
-        mTagInfo.put(ExifInterface.TAG_GPS_AREA_INFORMATION,
+        tagInfo.put(ExifInterface.TAG_GPS_AREA_INFORMATION,
                 gpsFlags | ExifTag.TYPE_UNDEFINED << 16 | ExifTag.SIZE_UNDEFINED);
-        mTagInfo.put(ExifInterface.TAG_GPS_DATE_STAMP,
+        tagInfo.put(ExifInterface.TAG_GPS_DATE_STAMP,
                 gpsFlags | ExifTag.TYPE_ASCII << 16 | 11);
-        mTagInfo.put(ExifInterface.TAG_GPS_DIFFERENTIAL,
+        tagInfo.put(ExifInterface.TAG_GPS_DIFFERENTIAL,
                 gpsFlags | ExifTag.TYPE_UNSIGNED_SHORT << 16 | 11);
         // Interoperability tag
         int[] interopAllowedIfds = {
                 IfdId.TYPE_IFD_INTEROPERABILITY
         };
         int interopFlags = getFlagsFromAllowedIfds(interopAllowedIfds) << 24;
-        mTagInfo.put(TAG_INTEROPERABILITY_INDEX, interopFlags | ExifTag.TYPE_ASCII << 16
+        tagInfo.put(TAG_INTEROPERABILITY_INDEX, interopFlags | ExifTag.TYPE_ASCII << 16
                 | ExifTag.SIZE_UNDEFINED);
+        return tagInfo.build();
     }
 
     protected static int getAllowedIfdFlagsFromInfo(int info) {
@@ -19,20 +19,41 @@ package com.idonans.icamera.exif;
 import android.util.Log;
 
 import java.io.IOException;
-import java.io.InputStream;
+import java.lang.ref.WeakReference;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 class ExifModifier {
     private static final String TAG = "ExifModifier";
     public static final boolean DEBUG = false;
-    private final ByteBuffer mByteBuffer;
-    private final ExifData mTagToModified;
+    private static final int TAG_SIZE = 12;
+    // IFDs which can be moved into the padding, IFD0 holds the padding tag
+    // and stays in place. Parents are moved before their children, so the
+    // pointers to the children are patched in the moved copy.
+    private static final int[] IFD_WRITE_ORDER = {
+            IfdId.TYPE_IFD_EXIF, IfdId.TYPE_IFD_GPS, IfdId.TYPE_IFD_INTEROPERABILITY,
+            IfdId.TYPE_IFD_1
+    };
+    // Only held between the construction or reuse and the commit, so a
+    // modifier kept for reuse does not keep a mapped buffer alive.
+    private ByteBuffer mByteBuffer;
+    private final WeakReference<ByteBuffer> mBufferRef;
+    private final int mStart;
+    private final ByteOrder mByteOrder;
+    private ExifData mTagToModified;
     private final List<TagOffset> mTagOffsets = new ArrayList<TagOffset>();
+    // Existing tags whose type or count changes, moved into the padding
+    private final List<ExifTag> mGrownTags = new ArrayList<ExifTag>();
     private final ExifInterface mInterface;
     private int mOffsetBase;
+    private int mTiffLength;
+    // Sorted (defined tag << 32 | entry offset) of all tags in the buffer,
+    // null until built or after the IFDs have been moved.
+    private long[] mTagIndex;
+    private int mTagIndexSize;
 
     private static class TagOffset {
         final int mOffset;
@@ -46,97 +67,597 @@ class ExifModifier {
 
     protected ExifModifier(ByteBuffer byteBuffer, ExifInterface iRef) throws IOException,
             ExifInvalidFormatException {
+        this(byteBuffer, iRef, null);
+    }
+
+    /**
+     * @param index the index of the buffer scanned from its position, or null
+     *              to scan it.
+     */
+    protected ExifModifier(ByteBuffer byteBuffer, ExifInterface iRef, JpegSegmentIndex index)
+            throws IOException, ExifInvalidFormatException {
         mByteBuffer = byteBuffer;
-        mOffsetBase = byteBuffer.position();
+        mBufferRef = new WeakReference<ByteBuffer>(byteBuffer);
+        mStart = byteBuffer.position();
+        mOffsetBase = mStart;
         mInterface = iRef;
-        InputStream is = null;
-        try {
-            is = new ByteBufferInputStream(byteBuffer);
-            // Do not require any IFD;
-            ExifParser parser = ExifParser.parse(is, mInterface);
-            mTagToModified = new ExifData(parser.getByteOrder());
-            mOffsetBase += parser.getTiffStartPosition();
-            mByteBuffer.position(0);
-        } finally {
-            ExifInterface.closeSilently(is);
+        // Do not require any IFD
+        ExifBufferParser parser = ExifBufferParser.parse(byteBuffer, 0, null, mInterface, index);
+        // The TIFF header is never at the start when there is exif data
+        if (parser.getTiffStartPosition() == 0) {
+            throw new ExifInvalidFormatException("No exif data");
         }
+        mByteOrder = parser.getByteOrder();
+        mTagToModified = new ExifData(mByteOrder);
+        mOffsetBase += parser.getTiffStartPosition();
+        mTiffLength = ExifProbe.tiffEnd(byteBuffer, mOffsetBase, byteBuffer.limit())
+                - mOffsetBase;
     }
 
     protected ByteOrder getByteOrder() {
-        return mTagToModified.getByteOrder();
+        return mByteOrder;
+    }
+
+    /**
+     * Returns true if this modifier was created for the given buffer, its tag
+     * index is then reused by the next commit. The index is checked against
+     * the buffer by every commit, as the buffer may have changed meanwhile.
+     */
+    protected boolean reuse(ByteBuffer byteBuffer) {
+        if (byteBuffer != mBufferRef.get() || byteBuffer.position() != mStart) {
+            return false;
+        }
+        mByteBuffer = byteBuffer;
+        return true;
     }
 
+    /**
+     * Writes the tags added by {link #modifyTag(ExifTag)} into the buffer and
+     * clears them, so the modifier can be committed again with other tags.
+     * The buffer must not be changed by other means in between, entries
+     * which no longer hold the indexed tag make the index be rebuilt.
+     */
     protected boolean commit() throws IOException, ExifInvalidFormatException {
-        InputStream is = null;
+        ExifStatsListener listener = mInterface.getStatsListener();
+        ExifStats stats = null;
+        if (listener != null) {
+            stats = new ExifStats(ExifStats.OPERATION_REWRITE);
+            for (ExifTag tag : mTagToModified.getAllTags()) {
+                stats.mTags++;
+                stats.mBytesWritten += tag.getDataSize();
+            }
+        }
         try {
-            is = new ByteBufferInputStream(mByteBuffer);
-            int flag = 0;
-            IfdData[] ifdDatas = new IfdData[]{
-                    mTagToModified.getIfdData(IfdId.TYPE_IFD_0),
-                    mTagToModified.getIfdData(IfdId.TYPE_IFD_1),
-                    mTagToModified.getIfdData(IfdId.TYPE_IFD_EXIF),
-                    mTagToModified.getIfdData(IfdId.TYPE_IFD_INTEROPERABILITY),
-                    mTagToModified.getIfdData(IfdId.TYPE_IFD_GPS)
-            };
-
-            if (ifdDatas[IfdId.TYPE_IFD_0] != null) {
-                flag |= ExifParser.OPTION_IFD_0;
-            }
-            if (ifdDatas[IfdId.TYPE_IFD_1] != null) {
-                flag |= ExifParser.OPTION_IFD_1;
-            }
-            if (ifdDatas[IfdId.TYPE_IFD_EXIF] != null) {
-                flag |= ExifParser.OPTION_IFD_EXIF;
-            }
-            if (ifdDatas[IfdId.TYPE_IFD_GPS] != null) {
-                flag |= ExifParser.OPTION_IFD_GPS;
-            }
-            if (ifdDatas[IfdId.TYPE_IFD_INTEROPERABILITY] != null) {
-                flag |= ExifParser.OPTION_IFD_INTEROPERABILITY;
-            }
-
-            ExifParser parser = ExifParser.parse(is, flag, mInterface);
-            int event = parser.next();
-            IfdData currIfd = null;
-            while (event != ExifParser.EVENT_END) {
-                switch (event) {
-                    case ExifParser.EVENT_START_OF_IFD:
-                        currIfd = ifdDatas[parser.getCurrentIfd()];
-                        if (currIfd == null) {
-                            parser.skipRemainingTagsInCurrentIfd();
-                        }
-                        break;
-                    case ExifParser.EVENT_NEW_TAG:
-                        ExifTag oldTag = parser.getTag();
-                        ExifTag newTag = currIfd.getTag(oldTag.getTagId());
-                        if (newTag != null) {
-                            if (newTag.getComponentCount() != oldTag.getComponentCount()
-                                    || newTag.getDataType() != oldTag.getDataType()) {
-                                return false;
-                            } else {
-                                mTagOffsets.add(new TagOffset(newTag, oldTag.getOffset()));
-                                currIfd.removeTag(oldTag.getTagId());
-                                if (currIfd.getTagCount() == 0) {
-                                    parser.skipRemainingTagsInCurrentIfd();
-                                }
-                            }
-                        }
-                        break;
-                }
-                event = parser.next();
-            }
-            for (IfdData ifd : ifdDatas) {
-                if (ifd != null && ifd.getTagCount() > 0) {
+            boolean ret = commitTags(stats);
+            if (stats != null) {
+                listener.onExifStats(stats);
+            }
+            return ret;
+        } finally {
+            mTagToModified = new ExifData(mByteOrder);
+            mTagOffsets.clear();
+            mGrownTags.clear();
+            mByteBuffer.position(mStart);
+            mByteBuffer = null;
+        }
+    }
+
+    private boolean commitTags(ExifStats stats) {
+        long time = stats != null ? System.nanoTime() : 0;
+        IfdData[] ifdDatas = new IfdData[]{
+                mTagToModified.getIfdData(IfdId.TYPE_IFD_0),
+                mTagToModified.getIfdData(IfdId.TYPE_IFD_1),
+                mTagToModified.getIfdData(IfdId.TYPE_IFD_EXIF),
+                mTagToModified.getIfdData(IfdId.TYPE_IFD_INTEROPERABILITY),
+                mTagToModified.getIfdData(IfdId.TYPE_IFD_GPS)
+        };
+        boolean indexed = false;
+        if (mTagIndex == null || !isTagIndexValid(ifdDatas)) {
+            buildTagIndex();
+            indexed = true;
+        }
+        if (!findExistingTags(ifdDatas) && !indexed) {
+            // The layout may have been changed by another modifier, make sure
+            // before moving anything.
+            mTagOffsets.clear();
+            mGrownTags.clear();
+            buildTagIndex();
+            findExistingTags(ifdDatas);
+        }
+        for (TagOffset tagOffset : mTagOffsets) {
+            ifdDatas[tagOffset.mTag.getIfd()].removeTag(tagOffset.mTag.getTagId());
+        }
+        for (ExifTag tag : mGrownTags) {
+            ifdDatas[tag.getIfd()].removeTag(tag.getTagId());
+        }
+        if (stats != null) {
+            time = stats.addHeaderTime(time);
+        }
+        // Tags left in ifdDatas do not exist yet.
+        boolean grow = !mGrownTags.isEmpty();
+        for (IfdData ifd : ifdDatas) {
+            if (ifd != null && ifd.getTagCount() > 0) {
+                grow = true;
+            }
+        }
+        if (!grow) {
+            modify();
+            if (stats != null) {
+                stats.addIfdTime(time);
+            }
+            return true;
+        }
+        PaddingLayout layout = new PaddingLayout();
+        if (!layout.prepare(ifdDatas)) {
+            if (stats != null) {
+                stats.addIfdTime(time);
+            }
+            return false;
+        }
+        // Inline values are written into the old IFD entries, which are
+        // copied when the IFD moves.
+        modify();
+        layout.write(ifdDatas);
+        mTagIndex = null;
+        if (stats != null) {
+            stats.addIfdTime(time);
+        }
+        return true;
+    }
+
+    /**
+     * Looks up the tags to modify in the index and sorts them into the tags
+     * which can be written in place and the grown tags. Returns true if all
+     * tags can be written in place.
+     */
+    private boolean findExistingTags(IfdData[] ifdDatas) {
+        boolean little = mByteOrder == ByteOrder.LITTLE_ENDIAN;
+        boolean inPlace = true;
+        for (IfdData ifd : ifdDatas) {
+            if (ifd == null) {
+                continue;
+            }
+            for (int i = 0, n = ifd.getTagCount(); i < n; i++) {
+                ExifTag newTag = ifd.getTagAt(i);
+                int entry = findTagEntry(ifd.getId(), newTag.getTagId());
+                if (entry < 0) {
+                    inPlace = false;
+                    continue;
+                }
+                int type = ExifProbe.readUnsignedShort(mByteBuffer, mOffsetBase + entry + 2,
+                        little);
+                int count = ExifProbe.readInt(mByteBuffer, mOffsetBase + entry + 4, little);
+                int offset = entry + 8;
+                if (newTag.getDataSize() > 4) {
+                    offset = ExifProbe.readInt(mByteBuffer, mOffsetBase + entry + 8, little);
+                }
+                if (count != newTag.getComponentCount() || type != newTag.getDataType()
+                        || offset < 8 || offset > mTiffLength - newTag.getDataSize()) {
+                    mGrownTags.add(newTag);
+                    inPlace = false;
+                } else {
+                    mTagOffsets.add(new TagOffset(newTag, offset));
+                }
+            }
+        }
+        return inPlace;
+    }
+
+    /**
+     * Indexes the entries of all IFDs in one walk over the buffer, without
+     * decoding any tag.
+     */
+    private void buildTagIndex() {
+        if (mTagIndex == null) {
+            mTagIndex = new long[64];
+        }
+        mTagIndexSize = 0;
+        boolean little = mByteOrder == ByteOrder.LITTLE_ENDIAN;
+        int ifd0 = ExifProbe.readInt(mByteBuffer, mOffsetBase + 4, little);
+        int exif = readPointer(ifd0, ExifInterface.TAG_EXIF_IFD, little);
+        indexIfd(IfdId.TYPE_IFD_0, ifd0, little);
+        indexIfd(IfdId.TYPE_IFD_EXIF, exif, little);
+        indexIfd(IfdId.TYPE_IFD_GPS, readPointer(ifd0, ExifInterface.TAG_GPS_IFD, little),
+                little);
+        indexIfd(IfdId.TYPE_IFD_INTEROPERABILITY,
+                readPointer(exif, ExifInterface.TAG_INTEROPERABILITY_IFD, little), little);
+        indexIfd(IfdId.TYPE_IFD_1, ExifProbe.readNextIfdOffset(mByteBuffer, mOffsetBase,
+                mOffsetBase + mTiffLength, little, ifd0), little);
+        Arrays.sort(mTagIndex, 0, mTagIndexSize);
+    }
+
+    private void indexIfd(int ifdId, int ifdOffset, boolean little) {
+        if (ifdOffset < 8 || ifdOffset > mTiffLength - 2) {
+            return;
+        }
+        int count = ExifProbe.readUnsignedShort(mByteBuffer, mOffsetBase + ifdOffset, little);
+        int entry = ifdOffset + 2;
+        int last = Math.min(entry + count * TAG_SIZE, mTiffLength);
+        for (; entry + TAG_SIZE <= last; entry += TAG_SIZE) {
+            if (mTagIndexSize == mTagIndex.length) {
+                mTagIndex = Arrays.copyOf(mTagIndex, mTagIndexSize * 2);
+            }
+            int tagId = ExifProbe.readUnsignedShort(mByteBuffer, mOffsetBase + entry, little);
+            mTagIndex[mTagIndexSize++] = (long) (ifdId << 16 | tagId) << 32 | entry;
+        }
+    }
+
+    private int readPointer(int ifdOffset, int tagId, boolean little) {
+        int entry = ExifProbe.findEntry(mByteBuffer, mOffsetBase, mOffsetBase + mTiffLength,
+                little, ifdOffset, ExifInterface.getTrueTagKey(tagId) & 0xffff);
+        if (entry < 0) {
+            return -1;
+        }
+        return (int) ExifProbe.readEntryValue(mByteBuffer, entry, little, -1);
+    }
+
+    /**
+     * Returns the offset of the entry of the tag relative to the TIFF header,
+     * or -1 if it is not in the index. The first entry wins for duplicated
+     * tags.
+     */
+    private int findTagEntry(int ifdId, short tagId) {
+        int key = ifdId << 16 | (tagId & 0xffff);
+        int i = Arrays.binarySearch(mTagIndex, 0, mTagIndexSize, (long) key << 32);
+        if (i < 0) {
+            i = -i - 1;
+        }
+        if (i < mTagIndexSize && (int) (mTagIndex[i] >>> 32) == key) {
+            return (int) mTagIndex[i];
+        }
+        return -1;
+    }
+
+    private boolean isTagIndexValid(IfdData[] ifdDatas) {
+        boolean little = mByteOrder == ByteOrder.LITTLE_ENDIAN;
+        for (IfdData ifd : ifdDatas) {
+            if (ifd == null) {
+                continue;
+            }
+            for (int i = 0, n = ifd.getTagCount(); i < n; i++) {
+                short tagId = ifd.getTagAt(i).getTagId();
+                int entry = findTagEntry(ifd.getId(), tagId);
+                if (entry >= 0 && ExifProbe.readUnsignedShort(mByteBuffer,
+                        mOffsetBase + entry, little) != (tagId & 0xffff)) {
                     return false;
                 }
             }
-            modify();
-        } finally {
-            ExifInterface.closeSilently(is);
         }
         return true;
     }
 
+    /**
+     * Moves grown values, and the IFDs receiving new tags, into the block
+     * reserved by the {link ExifInterface#TAG_PADDING} tag in IFD0. The
+     * padding tag is shrunk by the bytes used, so the block can be used again
+     * by later rewrites.
+     */
+    private class PaddingLayout {
+        // Relative offsets of the IFDs from the TIFF header, -1 if missing
+        private final int[] mIfdOffsets = new int[IfdId.TYPE_IFD_COUNT];
+        private final boolean[] mMoved = new boolean[IfdId.TYPE_IFD_COUNT];
+        private final int mTiff = mOffsetBase;
+        private boolean mLittle;
+        private int mPaddingStart;
+        private int mPaddingCount;
+        private int mCursor;
+
+        /**
+         * Locates the IFDs and the padding block and checks the block is large
+         * enough. Nothing is written.
+         */
+        boolean prepare(IfdData[] newTags) {
+            ByteBuffer buf = mByteBuffer;
+            mLittle = getByteOrder() == ByteOrder.LITTLE_ENDIAN;
+            mIfdOffsets[IfdId.TYPE_IFD_0] = ExifProbe.readInt(buf, mTiff + 4, mLittle);
+            mIfdOffsets[IfdId.TYPE_IFD_EXIF] = readPointer(IfdId.TYPE_IFD_0,
+                    ExifInterface.TAG_EXIF_IFD);
+            mIfdOffsets[IfdId.TYPE_IFD_GPS] = readPointer(IfdId.TYPE_IFD_0,
+                    ExifInterface.TAG_GPS_IFD);
+            mIfdOffsets[IfdId.TYPE_IFD_INTEROPERABILITY] = readPointer(IfdId.TYPE_IFD_EXIF,
+                    ExifInterface.TAG_INTEROPERABILITY_IFD);
+            mIfdOffsets[IfdId.TYPE_IFD_1] = ExifProbe.readNextIfdOffset(buf, mTiff,
+                    mTiff + mTiffLength, mLittle, mIfdOffsets[IfdId.TYPE_IFD_0]);
+
+            int entry = findEntry(IfdId.TYPE_IFD_0, ExifInterface.TAG_PADDING);
+            if (entry < 0 || ExifProbe.readUnsignedShort(buf, entry + 2, mLittle)
+                    != ExifTag.TYPE_UNDEFINED) {
+                return false;
+            }
+            mPaddingCount = ExifProbe.readInt(buf, entry + 4, mLittle);
+            if (mPaddingCount <= 4) {
+                return false;
+            }
+            mPaddingStart = ExifProbe.readInt(buf, entry + 8, mLittle);
+            if (mPaddingStart < 8 || mPaddingStart > mTiffLength - mPaddingCount) {
+                return false;
+            }
+            // The stream parser only reads forward: data moved into the block
+            // is lost if an IFD or value pointing to it follows the block.
+            long dataEnd = getDataEnd(entry);
+            if (dataEnd < 0 || dataEnd > mPaddingStart) {
+                return false;
+            }
+
+            IfdData ifd0 = newTags[IfdId.TYPE_IFD_0];
+            if (ifd0 != null && ifd0.getTagCount() > 0) {
+                return false;
+            }
+            for (int ifdId : IFD_WRITE_ORDER) {
+                IfdData ifd = newTags[ifdId];
+                mMoved[ifdId] = ifd != null && ifd.getTagCount() > 0;
+            }
+            // The moved Exif IFD is read before the old interoperability IFD.
+            if (mMoved[IfdId.TYPE_IFD_EXIF] && mIfdOffsets[IfdId.TYPE_IFD_INTEROPERABILITY] > 0) {
+                mMoved[IfdId.TYPE_IFD_INTEROPERABILITY] = true;
+            }
+
+            // Word align the moved data.
+            int need = mPaddingStart & 1;
+            for (int ifdId : IFD_WRITE_ORDER) {
+                if (!mMoved[ifdId]) {
+                    continue;
+                }
+                IfdData ifd = newTags[ifdId];
+                int newCount = ifd != null ? ifd.getTagCount() : 0;
+                int offset = mIfdOffsets[ifdId];
+                if (offset < 8 || offset > mTiffLength - 2) {
+                    // A new IFD needs a new pointer tag in its parent.
+                    return false;
+                }
+                int count = ExifProbe.readUnsignedShort(buf, mTiff + offset, mLittle);
+                if (offset + 2 + count * TAG_SIZE + 4 > mTiffLength) {
+                    return false;
+                }
+                int values = getMovedValuesSize(offset, count);
+                if (values < 0) {
+                    return false;
+                }
+                need += 2 + (count + newCount) * TAG_SIZE + 4 + values;
+                for (int i = 0; i < newCount; i++) {
+                    need += getMovedSize(ifd.getTagAt(i));
+                }
+            }
+            for (ExifTag tag : mGrownTags) {
+                if (findEntry(tag.getIfd(), tag.getTagId()) < 0) {
+                    return false;
+                }
+                need += getMovedSize(tag);
+            }
+            // Keep at least one byte so the padding tag stays valid.
+            return need < mPaddingCount;
+        }
+
+        /**
+         * Returns the size of the values of the IFD which are stored outside
+         * of its entries, or -1 if the IFD cannot be moved. The stream parser
+         * only reads forward, so everything an IFD points to must follow it:
+         * IFDs pointing to image data or to a following IFD stay in place, and
+         * child IFDs are moved after their parent.
+         */
+        private int getMovedValuesSize(int offset, int count) {
+            ByteBuffer buf = mByteBuffer;
+            int entry = mTiff + offset + 2;
+            if (ExifProbe.readInt(buf, entry + count * TAG_SIZE, mLittle) != 0) {
+                return -1;
+            }
+            int size = 0;
+            for (int i = 0; i < count; i++, entry += TAG_SIZE) {
+                short tagId = (short) ExifProbe.readUnsignedShort(buf, entry, mLittle);
+                if (tagId == ExifInterface.getTrueTagKey(ExifInterface.TAG_INTEROPERABILITY_IFD)
+                        && mMoved[IfdId.TYPE_IFD_INTEROPERABILITY]) {
+                    continue;
+                }
+                if (ExifInterface.isOffsetTag(tagId)
+                        || tagId == ExifInterface.getTrueTagKey(ExifInterface.TAG_PADDING)) {
+                    return -1;
+                }
+                int valueSize = getValueSize(entry);
+                if (valueSize > 4) {
+                    int valueOffset = ExifProbe.readInt(buf, entry + 8, mLittle);
+                    if (valueOffset < 8 || valueOffset > mTiffLength - valueSize) {
+                        return -1;
+                    }
+                    size += valueSize + (valueSize & 1);
+                }
+            }
+            return size;
+        }
+
+        /**
+         * Returns the offset following every IFD, every value stored outside
+         * of the entries and the thumbnail, relative to the TIFF header, or
+         * -1 if the layout is not understood. The padding value is left out.
+         */
+        private long getDataEnd(int paddingEntry) {
+            ByteBuffer buf = mByteBuffer;
+            long end = 8;
+            for (int ifdId = 0; ifdId < IfdId.TYPE_IFD_COUNT; ifdId++) {
+                int offset = mIfdOffsets[ifdId];
+                if (offset <= 0) {
+                    continue;
+                }
+                if (offset < 8 || offset > mTiffLength - 2) {
+                    return -1;
+                }
+                int count = ExifProbe.readUnsignedShort(buf, mTiff + offset, mLittle);
+                end = Math.max(end, offset + 2 + count * TAG_SIZE + 4);
+                int entry = mTiff + offset + 2;
+                for (int i = 0; i < count && entry + TAG_SIZE <= mTiff + mTiffLength;
+                     i++, entry += TAG_SIZE) {
+                    int valueSize = getValueSize(entry);
+                    if (valueSize > 4 && entry != paddingEntry) {
+                        long valueOffset = ExifProbe.readInt(buf, entry + 8, mLittle)
+                                & 0xffffffffL;
+                        end = Math.max(end, valueOffset + valueSize);
+                    }
+                }
+            }
+            if (findEntry(IfdId.TYPE_IFD_1, ExifInterface.getTrueTagKey(
+                    ExifInterface.TAG_STRIP_OFFSETS)) >= 0) {
+                return -1;
+            }
+            int thumbnail = findEntry(IfdId.TYPE_IFD_1, ExifInterface.getTrueTagKey(
+                    ExifInterface.TAG_JPEG_INTERCHANGE_FORMAT));
+            int thumbnailLength = findEntry(IfdId.TYPE_IFD_1, ExifInterface.getTrueTagKey(
+                    ExifInterface.TAG_JPEG_INTERCHANGE_FORMAT_LENGTH));
+            if (thumbnail >= 0 && thumbnailLength >= 0) {
+                end = Math.max(end, ExifProbe.readEntryValue(buf, thumbnail, mLittle, 0)
+                        + ExifProbe.readEntryValue(buf, thumbnailLength, mLittle, 0));
+            }
+            return end;
+        }
+
+        private int getValueSize(int entry) {
+            short type = (short) ExifProbe.readUnsignedShort(mByteBuffer, entry + 2, mLittle);
+            long count = ExifProbe.readInt(mByteBuffer, entry + 4, mLittle) & 0xffffffffL;
+            long size = ExifTag.getElementSize(type) * count;
+            return size > mTiffLength ? mTiffLength : (int) size;
+        }
+
+        void write(IfdData[] newTags) {
+            ByteBuffer buf = mByteBuffer;
+            buf.order(getByteOrder());
+            mCursor = mPaddingStart + (mPaddingStart & 1);
+            for (int ifdId : IFD_WRITE_ORDER) {
+                if (mMoved[ifdId]) {
+                    moveIfd(ifdId, newTags[ifdId]);
+                }
+            }
+            for (ExifTag tag : mGrownTags) {
+                writeEntry(tag);
+            }
+            for (IfdData ifd : newTags) {
+                if (ifd == null) {
+                    continue;
+                }
+                for (int i = 0, n = ifd.getTagCount(); i < n; i++) {
+                    writeEntry(ifd.getTagAt(i));
+                }
+            }
+            int entry = findEntry(IfdId.TYPE_IFD_0, ExifInterface.TAG_PADDING);
+            int used = mCursor - mPaddingStart;
+            buf.putInt(entry + 4, mPaddingCount - used);
+            buf.putInt(entry + 8, mPaddingStart + used);
+        }
+
+        /**
+         * Copies the IFD into the padding with entries for the new tags, if
+         * any, inserted in tag order, and points its parent to the copy.
+         */
+        private void moveIfd(int ifdId, IfdData newTags) {
+            ByteBuffer buf = mByteBuffer;
+            int from = mTiff + mIfdOffsets[ifdId];
+            int count = ExifProbe.readUnsignedShort(buf, from, mLittle);
+            int added = newTags != null ? newTags.getTagCount() : 0;
+            int newCount = count + added;
+            int to = mTiff + mCursor;
+            buf.putShort(to, (short) newCount);
+            int src = from + 2;
+            int dst = to + 2;
+            int next = 0;
+            for (int i = 0; i < count; i++, src += TAG_SIZE) {
+                int tagId = ExifProbe.readUnsignedShort(buf, src, mLittle);
+                while (next < added
+                        && (newTags.getTagAt(next).getTagId() & 0xffff) < tagId) {
+                    dst = putEmptyEntry(dst, newTags.getTagAt(next++));
+                }
+                for (int b = 0; b < TAG_SIZE; b++) {
+                    buf.put(dst++, buf.get(src + b));
+                }
+            }
+            while (next < added) {
+                dst = putEmptyEntry(dst, newTags.getTagAt(next++));
+            }
+            // Link to the next IFD
+            buf.putInt(dst, buf.getInt(src));
+            dst += 4;
+
+            // Values follow the moved IFD, see getMovedValuesSize(int, int).
+            for (int entry = to + 2; entry < to + 2 + newCount * TAG_SIZE; entry += TAG_SIZE) {
+                int size = getValueSize(entry);
+                if (size <= 4 || (newTags != null && newTags.getTag(buf.getShort(entry)) != null)) {
+                    continue;
+                }
+                int valueOffset = mTiff + ExifProbe.readInt(buf, entry + 8, mLittle);
+                for (int b = 0; b < size; b++) {
+                    buf.put(dst + b, buf.get(valueOffset + b));
+                }
+                buf.putInt(entry + 8, dst - mTiff);
+                dst += size + (size & 1);
+            }
+
+            int offset = mCursor;
+            mCursor = dst - mTiff;
+            mIfdOffsets[ifdId] = offset;
+            switch (ifdId) {
+                case IfdId.TYPE_IFD_1:
+                    int ifd0 = mTiff + mIfdOffsets[IfdId.TYPE_IFD_0];
+                    buf.putInt(ifd0 + 2 + ExifProbe.readUnsignedShort(buf, ifd0, mLittle)
+                            * TAG_SIZE, offset);
+                    break;
+                case IfdId.TYPE_IFD_EXIF:
+                    buf.putInt(findEntry(IfdId.TYPE_IFD_0, ExifInterface.TAG_EXIF_IFD) + 8,
+                            offset);
+                    break;
+                case IfdId.TYPE_IFD_GPS:
+                    buf.putInt(findEntry(IfdId.TYPE_IFD_0, ExifInterface.TAG_GPS_IFD) + 8,
+                            offset);
+                    break;
+                case IfdId.TYPE_IFD_INTEROPERABILITY:
+                    buf.putInt(findEntry(IfdId.TYPE_IFD_EXIF,
+                            ExifInterface.TAG_INTEROPERABILITY_IFD) + 8, offset);
+                    break;
+            }
+        }
+
+        private int putEmptyEntry(int pos, ExifTag tag) {
+            mByteBuffer.putShort(pos, tag.getTagId());
+            mByteBuffer.putShort(pos + 2, tag.getDataType());
+            mByteBuffer.putInt(pos + 4, tag.getComponentCount());
+            mByteBuffer.putInt(pos + 8, 0);
+            return pos + TAG_SIZE;
+        }
+
+        /**
+         * Writes the type, count and value of the tag into its entry, values
+         * larger than 4 bytes go into the padding.
+         */
+        private void writeEntry(ExifTag tag) {
+            ByteBuffer buf = mByteBuffer;
+            int entry = findEntry(tag.getIfd(), tag.getTagId());
+            buf.putShort(entry + 2, tag.getDataType());
+            buf.putInt(entry + 4, tag.getComponentCount());
+            int size = tag.getDataSize();
+            if (size > 4) {
+                buf.putInt(entry + 8, mCursor);
+                writeTagValue(tag, mCursor);
+                mCursor += getMovedSize(tag);
+            } else {
+                buf.putInt(entry + 8, 0);
+                writeTagValue(tag, entry + 8 - mTiff);
+            }
+        }
+
+        private int getMovedSize(ExifTag tag) {
+            int size = tag.getDataSize();
+            return size > 4 ? size + (size & 1) : 0;
+        }
+
+        private int findEntry(int ifdId, int tagId) {
+            return ExifProbe.findEntry(mByteBuffer, mTiff, mTiff + mTiffLength, mLittle,
+                    mIfdOffsets[ifdId], tagId & 0xffff);
+        }
+
+        private int readPointer(int ifdId, int tagId) {
+            int entry = findEntry(ifdId, ExifInterface.getTrueTagKey(tagId));
+            if (entry < 0) {
+                return -1;
+            }
+            return (int) ExifProbe.readEntryValue(mByteBuffer, entry, mLittle, -1);
+        }
+    }
+
     private void modify() {
         mByteBuffer.order(getByteOrder());
         for (TagOffset tagOffset : mTagOffsets) {
@@ -170,9 +691,8 @@ class ExifModifier {
             case ExifTag.TYPE_RATIONAL:
             case ExifTag.TYPE_UNSIGNED_RATIONAL:
                 for (int i = 0, n = tag.getComponentCount(); i < n; i++) {
-                    Rational v = tag.getRational(i);
-                    mByteBuffer.putInt((int) v.getNumerator());
-                    mByteBuffer.putInt((int) v.getDenominator());
+                    mByteBuffer.putInt((int) tag.getNumerator(i));
+                    mByteBuffer.putInt((int) tag.getDenominator(i));
                 }
                 break;
             case ExifTag.TYPE_UNDEFINED:
@@ -81,6 +81,8 @@ class ExifOutputStream extends FilterOutputStream {
     private final byte[] mSingleByteArray = new byte[1];
     private final ByteBuffer mBuffer = ByteBuffer.allocate(4);
     private final ExifInterface mInterface;
+    // Written after all other data so it ends up at the end of APP1
+    private ExifTag mPaddingTag;
 
     protected ExifOutputStream(OutputStream ou, ExifInterface iRef) {
         super(new BufferedOutputStream(ou, STREAMBUFFER_SIZE));
@@ -206,6 +208,50 @@ class ExifOutputStream extends FilterOutputStream {
         write(buffer, 0, buffer.length);
     }
 
+    /**
+     * Finds the part of the given JPEG that {@link #write(byte[], int, int)}
+     * replaces with the new exif header: the SOI marker and the first APP1
+     * segment before the SOF marker. Everything in [2, result[0]) and
+     * [result[1], limit) is copied unchanged after the new header, result[0]
+     * and result[1] are both 2 if there is no such APP1 segment. Positions are
+     * absolute in the buffer, the JPEG starts at its position.
+     *
+     * @return the start and end of the replaced APP1 segment, or null if the
+     * data is not a JPEG this method can handle, in which case it should be
+     * streamed through this class.
+     */
+    protected static int[] findReplacedApp1(ByteBuffer jpeg) {
+        return findReplacedApp1(jpeg, JpegSegmentIndex.scan(jpeg));
+    }
+
+    /**
+     * Like {@link #findReplacedApp1(ByteBuffer)}, with the index of the JPEG
+     * scanned from the position of the buffer.
+     */
+    protected static int[] findReplacedApp1(ByteBuffer jpeg, JpegSegmentIndex index) {
+        int start = jpeg.position();
+        for (int i = 1; i < index.getSegmentCount(); i++) {
+            short marker = index.getMarker(i);
+            if (marker == JpegHeader.EOI) {
+                return null;
+            }
+            if (JpegHeader.isSofMarker(marker)) {
+                return new int[]{
+                        start + 2, start + 2
+                };
+            }
+            if (index.getEnd(i) > index.getSize()) {
+                return null;
+            }
+            if (marker == JpegHeader.APP1) {
+                return new int[]{
+                        start + (int) index.getOffset(i), start + (int) index.getEnd(i)
+                };
+            }
+        }
+        return null;
+    }
+
     private void writeExifData() throws IOException {
         if (mExifData == null) {
             return;
@@ -213,8 +259,16 @@ class ExifOutputStream extends FilterOutputStream {
         if (DEBUG) {
             Log.v(TAG, "Writing exif data...");
         }
+        ExifStatsListener listener = mInterface.getStatsListener();
+        ExifStats stats = null;
+        long time = 0;
+        if (listener != null) {
+            stats = new ExifStats(ExifStats.OPERATION_WRITE);
+            time = System.nanoTime();
+        }
         ArrayList<ExifTag> nullTags = stripNullValueTags(mExifData);
         createRequiredIfdAndTag();
+        ExifTag replacedPadding = addPaddingTag();
         int exifSize = calculateAllOffset();
         if (exifSize + 8 > MAX_EXIF_SIZE) {
             throw new IOException("Exif header is too large (>64Kb)");
@@ -233,17 +287,81 @@ class ExifOutputStream extends FilterOutputStream {
         dataOutputStream.setByteOrder(mExifData.getByteOrder());
         dataOutputStream.writeShort(TIFF_HEADER);
         dataOutputStream.writeInt(8);
+        if (stats != null) {
+            time = stats.addHeaderTime(time);
+        }
         writeAllTags(dataOutputStream);
+        if (stats != null) {
+            time = stats.addIfdTime(time);
+        }
         writeThumbnail(dataOutputStream);
+        if (stats != null) {
+            time = stats.addThumbnailTime(time);
+        }
+        if (mPaddingTag != null) {
+            ExifOutputStream.writeTagValue(mPaddingTag, dataOutputStream);
+        }
+        if (stats != null) {
+            stats.addIfdTime(time);
+            // APP1 marker and length, exif header and TIFF data
+            stats.mBytesWritten = exifSize + 10;
+            stats.mTags = mExifData.getTagCount();
+            stats.mThumbnailBytes = mExifData.getThumbnailSize();
+        }
         for (ExifTag t : nullTags) {
             mExifData.addTag(t);
         }
+        restorePaddingTag(replacedPadding);
+        if (stats != null) {
+            listener.onExifStats(stats);
+        }
+    }
+
+    /**
+     * Adds the padding tag requested by {@link ExifInterface#setExifPaddingSize(int)}
+     * to IFD0 and returns the padding tag it replaces, if any. The value of the
+     * padding tag is placed after the thumbnail, so data later moved into it
+     * always follows the entries pointing to it. Without a requested size, a
+     * padding tag already in IFD0, e.g. read from a file, is placed last the
+     * same way.
+     */
+    private ExifTag addPaddingTag() throws IOException {
+        mPaddingTag = null;
+        int size = mInterface.getExifPaddingSize();
+        if (size <= 0) {
+            ExifTag existing = mExifData.getIfdData(IfdId.TYPE_IFD_0)
+                    .getTag(ExifInterface.getTrueTagKey(ExifInterface.TAG_PADDING));
+            if (existing != null && existing.getDataSize() > 4) {
+                mPaddingTag = existing;
+            }
+            return existing;
+        }
+        ExifTag padding = mInterface.buildUninitializedTag(ExifInterface.TAG_PADDING);
+        if (padding == null) {
+            throw new IOException("No definition for exif tag: " + ExifInterface.TAG_PADDING);
+        }
+        padding.setValue(new byte[size]);
+        mPaddingTag = padding;
+        return mExifData.getIfdData(IfdId.TYPE_IFD_0).setTag(padding);
+    }
+
+    private void restorePaddingTag(ExifTag replacedPadding) {
+        if (mPaddingTag == null) {
+            return;
+        }
+        mPaddingTag = null;
+        IfdData ifd0 = mExifData.getIfdData(IfdId.TYPE_IFD_0);
+        if (replacedPadding != null) {
+            ifd0.setTag(replacedPadding);
+        } else {
+            ifd0.removeTag(ExifInterface.getTrueTagKey(ExifInterface.TAG_PADDING));
+        }
     }
 
     private ArrayList<ExifTag> stripNullValueTags(ExifData data) {
         ArrayList<ExifTag> nullTags = new ArrayList<ExifTag>();
         for (ExifTag t : data.getAllTags()) {
-            if (t.getValue() == null && !ExifInterface.isOffsetTag(t.getTagId())) {
+            if (!t.hasDecodedValue() && !ExifInterface.isOffsetTag(t.getTagId())) {
                 data.removeTag(t.getTagId(), t.getIfd());
                 nullTags.add(t);
             }
@@ -280,9 +398,10 @@ class ExifOutputStream extends FilterOutputStream {
 
     private void writeIfd(IfdData ifd, OrderedDataOutputStream dataOutputStream)
             throws IOException {
-        ExifTag[] tags = ifd.getAllTags();
-        dataOutputStream.writeShort((short) tags.length);
-        for (ExifTag tag : tags) {
+        int count = ifd.getTagCount();
+        dataOutputStream.writeShort((short) count);
+        for (int i = 0; i < count; i++) {
+            ExifTag tag = ifd.getTagAt(i);
             dataOutputStream.writeShort(tag.getTagId());
             dataOutputStream.writeShort(tag.getDataType());
             dataOutputStream.writeInt(tag.getComponentCount());
@@ -293,14 +412,15 @@ class ExifOutputStream extends FilterOutputStream {
                 dataOutputStream.writeInt(tag.getOffset());
             } else {
                 ExifOutputStream.writeTagValue(tag, dataOutputStream);
-                for (int i = 0, n = 4 - tag.getDataSize(); i < n; i++) {
+                for (int j = 0, n = 4 - tag.getDataSize(); j < n; j++) {
                     dataOutputStream.write(0);
                 }
             }
         }
         dataOutputStream.writeInt(ifd.getOffsetToNextIfd());
-        for (ExifTag tag : tags) {
-            if (tag.getDataSize() > 4) {
+        for (int i = 0; i < count; i++) {
+            ExifTag tag = ifd.getTagAt(i);
+            if (tag.getDataSize() > 4 && tag != mPaddingTag) {
                 ExifOutputStream.writeTagValue(tag, dataOutputStream);
             }
         }
@@ -308,9 +428,9 @@ class ExifOutputStream extends FilterOutputStream {
 
     private int calculateOffsetOfIfd(IfdData ifd, int offset) {
         offset += 2 + ifd.getTagCount() * TAG_SIZE + 4;
-        ExifTag[] tags = ifd.getAllTags();
-        for (ExifTag tag : tags) {
-            if (tag.getDataSize() > 4) {
+        for (int i = 0, n = ifd.getTagCount(); i < n; i++) {
+            ExifTag tag = ifd.getTagAt(i);
+            if (tag.getDataSize() > 4 && tag != mPaddingTag) {
                 tag.setOffset(offset);
                 offset += tag.getDataSize();
             }
@@ -474,6 +594,10 @@ class ExifOutputStream extends FilterOutputStream {
             ifd1.getTag(ExifInterface.getTrueTagKey(ExifInterface.TAG_STRIP_OFFSETS)).setValue(
                     offsets);
         }
+        if (mPaddingTag != null) {
+            mPaddingTag.setOffset(offset);
+            offset += mPaddingTag.getDataSize();
+        }
         return offset;
     }
 
@@ -499,7 +623,7 @@ class ExifOutputStream extends FilterOutputStream {
             case ExifTag.TYPE_RATIONAL:
             case ExifTag.TYPE_UNSIGNED_RATIONAL:
                 for (int i = 0, n = tag.getComponentCount(); i < n; i++) {
-                    dataOutputStream.writeRational(tag.getRational(i));
+                    dataOutputStream.writeRational(tag.getNumerator(i), tag.getDenominator(i));
                 }
                 break;
             case ExifTag.TYPE_UNDEFINED:
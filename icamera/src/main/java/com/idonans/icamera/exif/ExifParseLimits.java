@@ -0,0 +1,148 @@
+package com.idonans.icamera.exif;
+
+/**
+ * Bounds the memory and work spent to parse the exif data of one image, for
+ * reading files which may be malformed on purpose, see
+ * {link ExifInterface#setParseLimits(ExifParseLimits)}. A new object holds
+ * defaults which fit the exif data written by cameras.
+ * <p/>
+ * When a limit is exceeded the offending tag, IFD or thumbnail is skipped
+ * with a warning and parsing goes on, or with {@link #setFailFast(boolean)}
+ * the read fails with an {@link ExifInvalidFormatException}. Exceeding the
+ * bytes scanned ends parsing, keeping what was read until then.
+ */
+public class ExifParseLimits {
+
+    // Used by the parsers when no limits are set, never modified.
+    static final ExifParseLimits UNLIMITED = new ExifParseLimits(Long.MAX_VALUE,
+            Integer.MAX_VALUE, Integer.MAX_VALUE, Integer.MAX_VALUE, Long.MAX_VALUE, false);
+
+    private long mMaxValueBytes;
+    private int mMaxTagsPerIfd;
+    private int mMaxIfds;
+    private int mMaxThumbnailBytes;
+    private long mMaxBytesScanned;
+    private boolean mFailFast;
+
+    public ExifParseLimits() {
+        this(256 * 1024, 512, 8, 64 * 1024, 1024 * 1024, false);
+    }
+
+    private ExifParseLimits(long maxValueBytes, int maxTagsPerIfd, int maxIfds,
+                            int maxThumbnailBytes, long maxBytesScanned, boolean failFast) {
+        mMaxValueBytes = maxValueBytes;
+        mMaxTagsPerIfd = maxTagsPerIfd;
+        mMaxIfds = maxIfds;
+        mMaxThumbnailBytes = maxThumbnailBytes;
+        mMaxBytesScanned = maxBytesScanned;
+        mFailFast = failFast;
+    }
+
+    /**
+     * Returns a copy, the parsers keep one for the whole read.
+     */
+    ExifParseLimits copy() {
+        return new ExifParseLimits(mMaxValueBytes, mMaxTagsPerIfd, mMaxIfds,
+                mMaxThumbnailBytes, mMaxBytesScanned, mFailFast);
+    }
+
+    /**
+     * Sets the total size of the tag values stored outside of their IFD
+     * entries, defaults to 256KB. Tags pointing to the same value count it
+     * once for each tag.
+     */
+    public void setMaxValueBytes(long maxValueBytes) {
+        if (maxValueBytes < 0) {
+            throw new IllegalArgumentException("Invalid max value bytes " + maxValueBytes);
+        }
+        mMaxValueBytes = maxValueBytes;
+    }
+
+    public long getMaxValueBytes() {
+        return mMaxValueBytes;
+    }
+
+    /**
+     * Sets the number of entries an IFD may declare, defaults to 512. Larger
+     * IFDs are skipped as a whole.
+     */
+    public void setMaxTagsPerIfd(int maxTagsPerIfd) {
+        if (maxTagsPerIfd < 0) {
+            throw new IllegalArgumentException("Invalid max tags per ifd " + maxTagsPerIfd);
+        }
+        mMaxTagsPerIfd = maxTagsPerIfd;
+    }
+
+    public int getMaxTagsPerIfd() {
+        return mMaxTagsPerIfd;
+    }
+
+    /**
+     * Sets the number of IFDs visited, including IFDs which are only walked
+     * to find the offsets of others, defaults to 8.
+     */
+    public void setMaxIfds(int maxIfds) {
+        if (maxIfds < 0) {
+            throw new IllegalArgumentException("Invalid max ifds " + maxIfds);
+        }
+        mMaxIfds = maxIfds;
+    }
+
+    public int getMaxIfds() {
+        return mMaxIfds;
+    }
+
+    /**
+     * Sets the size of a compressed thumbnail or of one uncompressed strip,
+     * defaults to 64KB.
+     */
+    public void setMaxThumbnailBytes(int maxThumbnailBytes) {
+        if (maxThumbnailBytes < 0) {
+            throw new IllegalArgumentException("Invalid max thumbnail bytes "
+                    + maxThumbnailBytes);
+        }
+        mMaxThumbnailBytes = maxThumbnailBytes;
+    }
+
+    public int getMaxThumbnailBytes() {
+        return mMaxThumbnailBytes;
+    }
+
+    /**
+     * Sets how far from the start of the image the parser may read or skip,
+     * defaults to 1MB. This covers the segments before the exif data.
+     */
+    public void setMaxBytesScanned(long maxBytesScanned) {
+        if (maxBytesScanned < 0) {
+            throw new IllegalArgumentException("Invalid max bytes scanned " + maxBytesScanned);
+        }
+        mMaxBytesScanned = maxBytesScanned;
+    }
+
+    public long getMaxBytesScanned() {
+        return mMaxBytesScanned;
+    }
+
+    /**
+     * Sets whether exceeding a limit fails the read instead of skipping the
+     * offending data, defaults to false.
+     */
+    public void setFailFast(boolean failFast) {
+        mFailFast = failFast;
+    }
+
+    public boolean isFailFast() {
+        return mFailFast;
+    }
+
+    @Override
+    public String toString() {
+        return "ExifParseLimits{maxValueBytes=" + mMaxValueBytes
+                + ", maxTagsPerIfd=" + mMaxTagsPerIfd
+                + ", maxIfds=" + mMaxIfds
+                + ", maxThumbnailBytes=" + mMaxThumbnailBytes
+                + ", maxBytesScanned=" + mMaxBytesScanned
+                + ", failFast=" + mFailFast
+                + "}";
+    }
+}
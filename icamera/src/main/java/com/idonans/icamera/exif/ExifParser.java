@@ -161,6 +161,10 @@ public class ExifParser {
     private int mIfd0Position;
     private int mTiffStartPosition;
     private final ExifInterface mInterface;
+    private final ExifParseLimits mLimits;
+    // Size of the values read from outside of their entries so far
+    private long mValueBytes;
+    private int mIfdCount;
 
     private static final short TAG_EXIF_IFD = ExifInterface
             .getTrueTagKey(ExifInterface.TAG_EXIF_IFD);
@@ -177,6 +181,7 @@ public class ExifParser {
             .getTrueTagKey(ExifInterface.TAG_STRIP_BYTE_COUNTS);
 
     private final TreeMap<Integer, Object> mCorrespondingEvent = new TreeMap<Integer, Object>();
+    private int mQueuedEventCount;
 
     private boolean isIfdRequested(int ifdType) {
         switch (ifdType) {
@@ -207,8 +212,10 @@ public class ExifParser {
             Log.v(TAG, "Reading exif...");
         }
         mInterface = iRef;
-        mContainExifData = seekTiffData(inputStream);
+        ExifParseLimits limits = iRef.getParseLimits();
+        mLimits = limits != null ? limits.copy() : ExifParseLimits.UNLIMITED;
         mTiffStream = new CountedDataInputStream(inputStream);
+        mContainExifData = seekTiffData(mTiffStream);
         mOptions = options;
         if (!mContainExifData) {
             return;
@@ -223,6 +230,9 @@ public class ExifParser {
         mIfdType = IfdId.TYPE_IFD_0;
         if (isIfdRequested(IfdId.TYPE_IFD_0) || needToParseOffsetsInCurrentIfd()) {
             registerIfd(IfdId.TYPE_IFD_0, offset);
+            if (offset < DEFAULT_IFD0_OFFSET || offset > mApp1End) {
+                throw new ExifInvalidFormatException("Invalid offset of IFD0 " + offset);
+            }
             if (offset != DEFAULT_IFD0_OFFSET) {
                 mDataAboveIfd0 = new byte[(int) offset - DEFAULT_IFD0_OFFSET];
                 read(mDataAboveIfd0);
@@ -312,6 +322,12 @@ public class ExifParser {
         while (mCorrespondingEvent.size() != 0) {
             Entry<Integer, Object> entry = mCorrespondingEvent.pollFirstEntry();
             Object event = entry.getValue();
+            if (mTiffStartPosition + (long) entry.getKey() > mLimits.getMaxBytesScanned()) {
+                // The events left are all beyond it
+                onLimitExceeded("Data at: " + entry.getKey() + " exceeds the bytes scanned");
+                mCorrespondingEvent.clear();
+                return EVENT_END;
+            }
             try {
                 skipTo(entry.getKey());
             } catch (IOException e) {
@@ -328,6 +344,12 @@ public class ExifParser {
                     Log.w(TAG, "Invalid size of IFD " + mIfdType);
                     return EVENT_END;
                 }
+                if (!checkIfdLimits()) {
+                    // Leave the tags area, no link is read behind it
+                    mIfdStartOffset = 0;
+                    mNumOfTagInIfd = 0;
+                    continue;
+                }
 
                 mNeedToParseOffsetsInCurrentIfd = needToParseOffsetsInCurrentIfd();
                 if (((IfdEvent) event).isRequested) {
@@ -337,10 +359,16 @@ public class ExifParser {
                 }
             } else if (event instanceof ImageEvent) {
                 mImageEvent = (ImageEvent) event;
+                if (!checkImageSize(entry.getKey())) {
+                    continue;
+                }
                 return mImageEvent.type;
             } else {
                 ExifTagEvent tagEvent = (ExifTagEvent) event;
                 mTag = tagEvent.tag;
+                if (!checkValueSize(mTag)) {
+                    continue;
+                }
                 if (mTag.getDataType() != ExifTag.TYPE_UNDEFINED) {
                     readFullTagValue(mTag);
                     checkOffsetOrImageTag(mTag);
@@ -511,22 +539,49 @@ public class ExifParser {
      */
     protected void registerForTagValue(ExifTag tag) {
         if (tag.getOffset() >= mTiffStream.getReadByteCount()) {
-            mCorrespondingEvent.put(tag.getOffset(), new ExifTagEvent(tag, true));
+            queueEvent(tag.getOffset(), new ExifTagEvent(tag, true));
         }
     }
 
+    /**
+     * Returns the number of bytes read from the input, not counting skipped
+     * bytes.
+     */
+    protected long getReadByteCount() {
+        return mTiffStream.getTotalReadByteCount();
+    }
+
+    /**
+     * Returns the number of bytes skipped in the input.
+     */
+    protected long getSkipByteCount() {
+        return mTiffStream.getTotalSkipByteCount();
+    }
+
+    private void queueEvent(int offset, Object event) {
+        mCorrespondingEvent.put(offset, event);
+        mQueuedEventCount++;
+    }
+
+    /**
+     * Returns the number of events queued for later offsets so far.
+     */
+    protected int getQueuedEventCount() {
+        return mQueuedEventCount;
+    }
+
     private void registerIfd(int ifdType, long offset) {
         // Cast unsigned int to int since the offset is always smaller
         // than the size of APP1 (65536)
-        mCorrespondingEvent.put((int) offset, new IfdEvent(ifdType, isIfdRequested(ifdType)));
+        queueEvent((int) offset, new IfdEvent(ifdType, isIfdRequested(ifdType)));
     }
 
     private void registerCompressedImage(long offset) {
-        mCorrespondingEvent.put((int) offset, new ImageEvent(EVENT_COMPRESSED_IMAGE));
+        queueEvent((int) offset, new ImageEvent(EVENT_COMPRESSED_IMAGE));
     }
 
     private void registerUncompressedStrip(int stripIndex, long offset) {
-        mCorrespondingEvent.put((int) offset, new ImageEvent(EVENT_UNCOMPRESSED_STRIP
+        queueEvent((int) offset, new ImageEvent(EVENT_UNCOMPRESSED_STRIP
                 , stripIndex));
     }
 
@@ -544,10 +599,9 @@ public class ExifParser {
             mTiffStream.skip(4);
             return null;
         }
-        // TODO: handle numOfComp overflow
         ExifTag tag = new ExifTag(tagId, dataFormat, (int) numOfComp, mIfdType,
                 ((int) numOfComp) != ExifTag.SIZE_UNDEFINED);
-        int dataSize = tag.getDataSize();
+        long dataSize = numOfComp * ExifTag.getElementSize(dataFormat);
         if (dataSize > 4) {
             long offset = mTiffStream.readUnsignedInt();
             if (offset > Integer.MAX_VALUE) {
@@ -557,6 +611,13 @@ public class ExifParser {
             // Some invalid images put some undefined data before IFD0.
             // Read the data here.
             if ((offset < mIfd0Position) && (dataFormat == ExifTag.TYPE_UNDEFINED)) {
+                if (offset < DEFAULT_IFD0_OFFSET || offset + numOfComp > mIfd0Position) {
+                    Log.w(TAG, "Invalid offset " + offset + " of tag: \n" + tag.toString());
+                    return null;
+                }
+                if (!chargeValueBytes(tag, numOfComp)) {
+                    return null;
+                }
                 byte[] buf = new byte[(int) numOfComp];
                 System.arraycopy(mDataAboveIfd0, (int) offset - DEFAULT_IFD0_OFFSET,
                         buf, 0, (int) numOfComp);
@@ -571,20 +632,96 @@ public class ExifParser {
             // Read value
             readFullTagValue(tag);
             tag.setHasDefinedCount(defCount);
-            mTiffStream.skip(4 - dataSize);
+            mTiffStream.skip(4 - (int) dataSize);
             // Set the offset to the position of value.
             tag.setOffset(mTiffStream.getReadByteCount() - 4);
         }
         return tag;
     }
 
+    private void onLimitExceeded(String message) throws ExifInvalidFormatException {
+        if (mLimits.isFailFast()) {
+            throw new ExifInvalidFormatException(message);
+        }
+        Log.w(TAG, message);
+    }
+
+    /**
+     * Counts the IFD just started, returns false if it should be skipped.
+     */
+    private boolean checkIfdLimits() throws ExifInvalidFormatException {
+        if (++mIfdCount > mLimits.getMaxIfds()) {
+            onLimitExceeded("Too many IFDs, skipping ifd " + mIfdType);
+            return false;
+        }
+        if (mNumOfTagInIfd > mLimits.getMaxTagsPerIfd()) {
+            onLimitExceeded("Too many tags in ifd " + mIfdType + ": " + mNumOfTagInIfd);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Returns false if the image at the given offset should be skipped.
+     */
+    private boolean checkImageSize(int offset) throws ExifInvalidFormatException {
+        int size = mImageEvent.type == EVENT_COMPRESSED_IMAGE
+                ? getCompressedImageSize() : getStripSize();
+        if (size < 0 || size > mApp1End - offset) {
+            Log.w(TAG, "Invalid size of image at: " + offset + ", size: " + size);
+            return false;
+        }
+        if (size > mLimits.getMaxThumbnailBytes()) {
+            onLimitExceeded("Image at: " + offset + " is too large, size: " + size);
+            return false;
+        }
+        if (mTiffStartPosition + (long) offset + size > mLimits.getMaxBytesScanned()) {
+            onLimitExceeded("Image at: " + offset + " exceeds the bytes scanned");
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Checks the value of a tag registered for its offset against the APP1
+     * segment and the limits, returns false if it should be skipped.
+     */
+    private boolean checkValueSize(ExifTag tag) throws ExifInvalidFormatException {
+        int offset = tag.getOffset();
+        long size = (long) tag.getComponentCount() * ExifTag.getElementSize(tag.getDataType());
+        if (offset + size > mApp1End) {
+            short type = tag.getDataType();
+            if (offset >= mApp1End || !(type == ExifTag.TYPE_ASCII
+                    || type == ExifTag.TYPE_UNDEFINED || type == ExifTag.TYPE_UNSIGNED_BYTE)) {
+                Log.w(TAG, "Invalid offset " + offset + " of tag: \n" + tag.toString());
+                return false;
+            }
+            // Tag value exceeds the APP1, shorten count
+            size = mApp1End - offset;
+            Log.w(TAG, "Invalid size of tag: \n" + tag.toString()
+                    + " setting count to: " + size);
+            tag.forceSetComponentCount((int) size);
+        }
+        return chargeValueBytes(tag, size);
+    }
+
+    private boolean chargeValueBytes(ExifTag tag, long size) throws ExifInvalidFormatException {
+        if (mValueBytes + size > mLimits.getMaxValueBytes()) {
+            onLimitExceeded("Too many value bytes, skipping tag: \n" + tag.toString());
+            return false;
+        }
+        mValueBytes += size;
+        return true;
+    }
+
     /**
      * Check the tag, if the tag is one of the offset tag that points to the IFD
      * or image the caller is interested in, register the IFD or image.
      */
     private void checkOffsetOrImageTag(ExifTag tag) {
-        // Some invalid formattd image contains tag with 0 size.
-        if (tag.getComponentCount() == 0) {
+        // Some invalid formattd image contains tag with 0 size, offsets are
+        // always integers.
+        if (tag.getComponentCount() == 0 || tag.getValueAsLongs() == null) {
             return;
         }
         short tid = tag.getTagId();
@@ -624,7 +761,7 @@ public class ExifParser {
                         }
                     }
                 } else {
-                    mCorrespondingEvent.put(tag.getOffset(), new ExifTagEvent(tag, false));
+                    queueEvent(tag.getOffset(), new ExifTagEvent(tag, false));
                 }
             }
         } else if (tid == TAG_STRIP_BYTE_COUNTS
@@ -692,39 +829,39 @@ public class ExifParser {
                 for (int i = 0, n = value.length; i < n; i++) {
                     value[i] = readUnsignedLong();
                 }
-                tag.setValue(value);
+                tag.setIntegerValues(value);
             }
             break;
             case ExifTag.TYPE_UNSIGNED_RATIONAL: {
-                Rational value[] = new Rational[tag.getComponentCount()];
+                long value[] = new long[tag.getComponentCount() * 2];
                 for (int i = 0, n = value.length; i < n; i++) {
-                    value[i] = readUnsignedRational();
+                    value[i] = readUnsignedLong();
                 }
-                tag.setValue(value);
+                tag.setRationalValues(value);
             }
             break;
             case ExifTag.TYPE_UNSIGNED_SHORT: {
-                int value[] = new int[tag.getComponentCount()];
+                long value[] = new long[tag.getComponentCount()];
                 for (int i = 0, n = value.length; i < n; i++) {
                     value[i] = readUnsignedShort();
                 }
-                tag.setValue(value);
+                tag.setIntegerValues(value);
             }
             break;
             case ExifTag.TYPE_LONG: {
-                int value[] = new int[tag.getComponentCount()];
+                long value[] = new long[tag.getComponentCount()];
                 for (int i = 0, n = value.length; i < n; i++) {
                     value[i] = readLong();
                 }
-                tag.setValue(value);
+                tag.setIntegerValues(value);
             }
             break;
             case ExifTag.TYPE_RATIONAL: {
-                Rational value[] = new Rational[tag.getComponentCount()];
+                long value[] = new long[tag.getComponentCount() * 2];
                 for (int i = 0, n = value.length; i < n; i++) {
-                    value[i] = readRational();
+                    value[i] = readLong();
                 }
-                tag.setValue(value);
+                tag.setRationalValues(value);
             }
             break;
         }
@@ -749,9 +886,13 @@ public class ExifParser {
         }
     }
 
-    private boolean seekTiffData(InputStream inputStream) throws IOException,
+    /**
+     * Seeks the stream to the TIFF header in the EXIF APP1 segment. The byte
+     * count of the stream is reset there, so offsets in the TIFF data can be
+     * compared with {@link CountedDataInputStream#getReadByteCount()}.
+     */
+    private boolean seekTiffData(CountedDataInputStream dataStream) throws IOException,
             ExifInvalidFormatException {
-        CountedDataInputStream dataStream = new CountedDataInputStream(inputStream);
         if (dataStream.readShort() != JpegHeader.SOI) {
             throw new ExifInvalidFormatException("Invalid JPEG format");
         }
@@ -773,10 +914,15 @@ public class ExifParser {
                         mTiffStartPosition = dataStream.getReadByteCount();
                         mApp1End = length;
                         mOffsetToApp1EndFromSOF = mTiffStartPosition + mApp1End;
+                        dataStream.resetReadByteCount();
                         return true;
                     }
                 }
             }
+            if (dataStream.getReadByteCount() + length - 2 > mLimits.getMaxBytesScanned()) {
+                onLimitExceeded("Exif data not found in the bytes scanned");
+                return false;
+            }
             if (length < 2 || (length - 2) != dataStream.skip(length - 2)) {
                 Log.w(TAG, "Invalid JPEG format.");
                 return false;
@@ -0,0 +1,345 @@
+package com.idonans.icamera.exif;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+
+/**
+ * Lightweight lookups that walk only the part of a JPEG needed to answer a
+ * single question, without building an {@link ExifData}. The probes decode no
+ * tags besides the ones asked for and return a default value when the data is
+ * missing or malformed. The orientation probes never allocate, the thumbnail
+ * probes only allocate the returned buffer.
+ */
+public class ExifProbe {
+
+    private static final short LITTLE_ENDIAN_TAG = (short) 0x4949; // "II"
+    private static final short BIG_ENDIAN_TAG = (short) 0x4d4d; // "MM"
+    private static final short TIFF_HEADER_TAG = 0x2a;
+
+    private static final int IFD_ENTRY_SIZE = 12;
+    private static final int TAG_ORIENTATION = 0x0112;
+    private static final int TAG_JPEG_INTERCHANGE_FORMAT = 0x0201;
+    private static final int TAG_JPEG_INTERCHANGE_FORMAT_LENGTH = 0x0202;
+
+    private ExifProbe() {
+    }
+
+    /**
+     * Returns the value of the orientation tag in IFD0 of the given JPEG, or
+     * 0 if the data carries no EXIF orientation.
+     *
+     * @see ExifInterface#getRotationForOrientationValue(short)
+     */
+    public static int readOrientation(byte[] jpeg) {
+        if (jpeg == null) {
+            return 0;
+        }
+        return readOrientation(jpeg, 0, jpeg.length);
+    }
+
+    /**
+     * Returns the value of the orientation tag in IFD0 of the JPEG stored in
+     * jpeg[offset, offset + length), or 0 if the data carries no EXIF
+     * orientation.
+     */
+    public static int readOrientation(byte[] jpeg, int offset, int length) {
+        if (jpeg == null || offset < 0 || length < 0 || offset + length > jpeg.length) {
+            return 0;
+        }
+        // Walks the array itself, a wrapping buffer would be allocated per call.
+        int end = offset + length;
+        int tiff = findTiffHeader(jpeg, offset, end);
+        if (tiff < 0) {
+            return 0;
+        }
+        int tiffEnd = tiffEnd(jpeg, tiff, end);
+        boolean little = jpeg[tiff] == 'I';
+        int entry = findIfd0Entry(jpeg, tiff, tiffEnd, little, TAG_ORIENTATION);
+        if (entry < 0) {
+            return 0;
+        }
+        return (int) readEntryValue(jpeg, entry, little, 0);
+    }
+
+    /**
+     * Returns the compressed thumbnail of the given JPEG as a slice of the
+     * array, or null if there is none. The bytes are not copied.
+     *
+     * @see #sliceThumbnail(ByteBuffer)
+     */
+    public static ByteBuffer sliceThumbnail(byte[] jpeg) {
+        if (jpeg == null) {
+            return null;
+        }
+        return sliceThumbnail(ByteBuffer.wrap(jpeg));
+    }
+
+    /**
+     * Returns the compressed thumbnail of the JPEG between the position and
+     * the limit of the given buffer as a slice of the buffer, or null if there
+     * is none. Only the IFD0 link to IFD1 and the thumbnail offset and length
+     * in IFD1 are read, the bytes are not copied. The position of the buffer
+     * is not changed.
+     */
+    public static ByteBuffer sliceThumbnail(ByteBuffer jpeg) {
+        if (jpeg == null) {
+            return null;
+        }
+        int end = jpeg.limit();
+        int tiff = findTiffHeader(jpeg, jpeg.position(), end);
+        if (tiff < 0) {
+            return null;
+        }
+        int tiffEnd = tiffEnd(jpeg, tiff, end);
+        boolean little = jpeg.get(tiff) == 'I';
+        int ifd1 = readNextIfdOffset(jpeg, tiff, tiffEnd, little, readInt(jpeg, tiff + 4, little));
+        int entry = findEntry(jpeg, tiff, tiffEnd, little, ifd1, TAG_JPEG_INTERCHANGE_FORMAT);
+        if (entry < 0) {
+            return null;
+        }
+        long offset = readEntryValue(jpeg, entry, little, -1);
+        entry = findEntry(jpeg, tiff, tiffEnd, little, ifd1, TAG_JPEG_INTERCHANGE_FORMAT_LENGTH);
+        if (entry < 0) {
+            return null;
+        }
+        long length = readEntryValue(jpeg, entry, little, -1);
+        if (offset < 8 || length <= 0 || offset + length > tiffEnd - tiff) {
+            return null;
+        }
+        ByteBuffer thumbnail = jpeg.duplicate();
+        thumbnail.limit(tiff + (int) (offset + length));
+        thumbnail.position(tiff + (int) offset);
+        return thumbnail.slice();
+    }
+
+    /**
+     * Maps the compressed thumbnail of the given JPEG file read-only into
+     * memory, or returns null if there is none. Only the EXIF header is read.
+     *
+     * @see #sliceThumbnail(ByteBuffer)
+     */
+    public static ByteBuffer mapThumbnail(String fileName) throws IOException {
+        RandomAccessFile file = new RandomAccessFile(fileName, "r");
+        try {
+            FileChannel channel = file.getChannel();
+            return sliceThumbnail(channel.map(MapMode.READ_ONLY, 0, channel.size()));
+        } finally {
+            file.close();
+        }
+    }
+
+    /**
+     * Walks the JPEG markers up to the first APP1 segment holding EXIF data and
+     * returns the offset of its TIFF header, or -1 if there is none. The scan
+     * stops at the first SOF, SOS or EOI marker.
+     */
+    static int findTiffHeader(ByteBuffer data, int offset, int end) {
+        int segment = JpegSegmentIndex.findExifSegment(data, offset, end);
+        if (segment < 0 || readUnsignedShort(data, segment + 2, false) < 2 + 6 + 8) {
+            return -1;
+        }
+        return checkTiffHeader(data, segment + 10);
+    }
+
+    static int findTiffHeader(byte[] data, int offset, int end) {
+        int segment = JpegSegmentIndex.findExifSegment(data, offset, end);
+        if (segment < 0 || readUnsignedShort(data, segment + 2, false) < 2 + 6 + 8) {
+            return -1;
+        }
+        return checkTiffHeader(data, segment + 10);
+    }
+
+    /**
+     * Like {@link #findTiffHeader(ByteBuffer, int, int)}, with the index of the
+     * JPEG starting at offset. The APP1 segment must be complete.
+     */
+    static int findTiffHeader(ByteBuffer data, int offset, JpegSegmentIndex index) {
+        int segment = index.getExifSegment();
+        if (segment < 0 || index.getEnd(segment) > index.getSize()
+                || index.getLength(segment) < 2 + 6 + 8) {
+            return -1;
+        }
+        return checkTiffHeader(data, offset + (int) index.getOffset(segment) + 10);
+    }
+
+    /**
+     * Returns tiff if a TIFF header starts there, or -1.
+     */
+    private static int checkTiffHeader(ByteBuffer data, int tiff) {
+        short byteOrder = (short) readUnsignedShort(data, tiff, false);
+        if (byteOrder != LITTLE_ENDIAN_TAG && byteOrder != BIG_ENDIAN_TAG) {
+            return -1;
+        }
+        if (readUnsignedShort(data, tiff + 2, byteOrder == LITTLE_ENDIAN_TAG)
+                != TIFF_HEADER_TAG) {
+            return -1;
+        }
+        return tiff;
+    }
+
+    private static int checkTiffHeader(byte[] data, int tiff) {
+        short byteOrder = (short) readUnsignedShort(data, tiff, false);
+        if (byteOrder != LITTLE_ENDIAN_TAG && byteOrder != BIG_ENDIAN_TAG) {
+            return -1;
+        }
+        if (readUnsignedShort(data, tiff + 2, byteOrder == LITTLE_ENDIAN_TAG)
+                != TIFF_HEADER_TAG) {
+            return -1;
+        }
+        return tiff;
+    }
+
+    /**
+     * Returns the end of the APP1 segment whose TIFF header starts at tiff.
+     */
+    static int tiffEnd(ByteBuffer data, int tiff, int end) {
+        int segmentEnd = tiff - 8 + readUnsignedShort(data, tiff - 8, false);
+        return Math.min(segmentEnd, end);
+    }
+
+    static int tiffEnd(byte[] data, int tiff, int end) {
+        int segmentEnd = tiff - 8 + readUnsignedShort(data, tiff - 8, false);
+        return Math.min(segmentEnd, end);
+    }
+
+    /**
+     * Returns the offset of the IFD0 entry with the given tag id, or -1 if it
+     * does not exist.
+     */
+    static int findIfd0Entry(ByteBuffer data, int tiff, int tiffEnd, boolean little, int tagId) {
+        return findEntry(data, tiff, tiffEnd, little, readInt(data, tiff + 4, little), tagId);
+    }
+
+    static int findIfd0Entry(byte[] data, int tiff, int tiffEnd, boolean little, int tagId) {
+        return findEntry(data, tiff, tiffEnd, little, readInt(data, tiff + 4, little), tagId);
+    }
+
+    /**
+     * Returns the offset of the entry with the given tag id in the IFD at
+     * ifdOffset (relative to the TIFF header), or -1 if it does not exist.
+     */
+    static int findEntry(ByteBuffer data, int tiff, int tiffEnd, boolean little, int ifdOffset,
+                         int tagId) {
+        if (ifdOffset < 8 || ifdOffset > tiffEnd - tiff - 2) {
+            return -1;
+        }
+        int ifd = tiff + ifdOffset;
+        int count = readUnsignedShort(data, ifd, little);
+        int entry = ifd + 2;
+        int last = Math.min(entry + count * IFD_ENTRY_SIZE, tiffEnd);
+        for (; entry + IFD_ENTRY_SIZE <= last; entry += IFD_ENTRY_SIZE) {
+            if (readUnsignedShort(data, entry, little) == tagId) {
+                return entry;
+            }
+        }
+        return -1;
+    }
+
+    static int findEntry(byte[] data, int tiff, int tiffEnd, boolean little, int ifdOffset,
+                         int tagId) {
+        if (ifdOffset < 8 || ifdOffset > tiffEnd - tiff - 2) {
+            return -1;
+        }
+        int ifd = tiff + ifdOffset;
+        int count = readUnsignedShort(data, ifd, little);
+        int entry = ifd + 2;
+        int last = Math.min(entry + count * IFD_ENTRY_SIZE, tiffEnd);
+        for (; entry + IFD_ENTRY_SIZE <= last; entry += IFD_ENTRY_SIZE) {
+            if (readUnsignedShort(data, entry, little) == tagId) {
+                return entry;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the offset of the IFD following the IFD at ifdOffset (relative
+     * to the TIFF header), or -1 if it cannot be read.
+     */
+    static int readNextIfdOffset(ByteBuffer data, int tiff, int tiffEnd, boolean little,
+                                 int ifdOffset) {
+        if (ifdOffset < 8 || ifdOffset > tiffEnd - tiff - 2) {
+            return -1;
+        }
+        int ifd = tiff + ifdOffset;
+        int link = ifd + 2 + readUnsignedShort(data, ifd, little) * IFD_ENTRY_SIZE;
+        if (link + 4 > tiffEnd) {
+            return -1;
+        }
+        return readInt(data, link, little);
+    }
+
+    /**
+     * Returns the first value of the integer entry at the given offset, or
+     * defaultValue if the entry has no integer value stored in the entry
+     * itself.
+     */
+    static long readEntryValue(ByteBuffer data, int entry, boolean little, long defaultValue) {
+        int type = readUnsignedShort(data, entry + 2, little);
+        if (readInt(data, entry + 4, little) < 1) {
+            return defaultValue;
+        }
+        // A single value of these types always fits into the 4 bytes of the entry.
+        if (type == ExifTag.TYPE_UNSIGNED_SHORT) {
+            return readUnsignedShort(data, entry + 8, little);
+        } else if (type == ExifTag.TYPE_UNSIGNED_LONG) {
+            return readInt(data, entry + 8, little) & 0xffffffffL;
+        } else if (type == ExifTag.TYPE_LONG) {
+            return readInt(data, entry + 8, little);
+        }
+        return defaultValue;
+    }
+
+    static long readEntryValue(byte[] data, int entry, boolean little, long defaultValue) {
+        int type = readUnsignedShort(data, entry + 2, little);
+        if (readInt(data, entry + 4, little) < 1) {
+            return defaultValue;
+        }
+        if (type == ExifTag.TYPE_UNSIGNED_SHORT) {
+            return readUnsignedShort(data, entry + 8, little);
+        } else if (type == ExifTag.TYPE_UNSIGNED_LONG) {
+            return readInt(data, entry + 8, little) & 0xffffffffL;
+        } else if (type == ExifTag.TYPE_LONG) {
+            return readInt(data, entry + 8, little);
+        }
+        return defaultValue;
+    }
+
+    static int readUnsignedShort(ByteBuffer data, int pos, boolean little) {
+        int b0 = data.get(pos) & 0xff;
+        int b1 = data.get(pos + 1) & 0xff;
+        return little ? b0 | b1 << 8 : b0 << 8 | b1;
+    }
+
+    static int readUnsignedShort(byte[] data, int pos, boolean little) {
+        int b0 = data[pos] & 0xff;
+        int b1 = data[pos + 1] & 0xff;
+        return little ? b0 | b1 << 8 : b0 << 8 | b1;
+    }
+
+    static int readInt(ByteBuffer data, int pos, boolean little) {
+        int b0 = data.get(pos) & 0xff;
+        int b1 = data.get(pos + 1) & 0xff;
+        int b2 = data.get(pos + 2) & 0xff;
+        int b3 = data.get(pos + 3) & 0xff;
+        if (little) {
+            return b0 | b1 << 8 | b2 << 16 | b3 << 24;
+        }
+        return b0 << 24 | b1 << 16 | b2 << 8 | b3;
+    }
+
+    static int readInt(byte[] data, int pos, boolean little) {
+        int b0 = data[pos] & 0xff;
+        int b1 = data[pos + 1] & 0xff;
+        int b2 = data[pos + 2] & 0xff;
+        int b3 = data[pos + 3] & 0xff;
+        if (little) {
+            return b0 | b1 << 8 | b2 << 16 | b3 << 24;
+        }
+        return b0 << 24 | b1 << 16 | b2 << 8 | b3;
+    }
+
+}
@@ -20,6 +20,7 @@ import android.util.Log;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
 
 /**
  * This class reads the EXIF header of a JPEG file and stores it in
@@ -43,7 +44,17 @@ class ExifReader {
      */
     protected ExifData read(InputStream inputStream) throws ExifInvalidFormatException,
             IOException {
+        ExifStatsListener listener = mInterface.getStatsListener();
+        ExifStats stats = null;
+        long time = 0;
+        if (listener != null) {
+            stats = new ExifStats(ExifStats.OPERATION_READ_STREAM);
+            time = System.nanoTime();
+        }
         ExifParser parser = ExifParser.parse(inputStream, mInterface);
+        if (stats != null) {
+            time = stats.addHeaderTime(time);
+        }
         ExifData exifData = new ExifData(parser.getByteOrder());
         ExifTag tag = null;
 
@@ -85,8 +96,110 @@ class ExifReader {
                     }
                     break;
             }
+            if (stats != null) {
+                time = stats.addEventTime(event, time);
+            }
             event = parser.next();
         }
+        if (stats != null) {
+            stats.addEventTime(event, time);
+            stats.mBytesRead = parser.getReadByteCount();
+            stats.mBytesSkipped = parser.getSkipByteCount();
+            stats.mQueuedEvents = parser.getQueuedEventCount();
+            stats.mTags = exifData.getTagCount();
+            stats.mThumbnailBytes = exifData.getThumbnailSize();
+            listener.onExifStats(stats);
+        }
+        return exifData;
+    }
+
+    /**
+     * Parses the buffer from its current position with random access and
+     * returns the EXIF data in an {@link ExifData}. The position of the buffer
+     * is not changed.
+     *
+     * @param options the parser options, see {@link ExifBufferParser#parse(ByteBuffer, int,
+     *                ExifInterface)}
+     * @throws ExifInvalidFormatException
+     */
+    protected ExifData read(ByteBuffer buffer, int options) throws ExifInvalidFormatException {
+        return read(buffer, options, null);
+    }
+
+    /**
+     * Like {@link #read(ByteBuffer, int)}, but only keeps the tags with the
+     * given defined tag constants and stops parsing once all of them are read.
+     *
+     * @param tags the defined tag constants to read, or null to read all tags.
+     * @throws ExifInvalidFormatException
+     */
+    protected ExifData read(ByteBuffer buffer, int options, int[] tags)
+            throws ExifInvalidFormatException {
+        return read(buffer, options, tags, null);
+    }
+
+    /**
+     * Like {@link #read(ByteBuffer, int, int[])}, with the index of the
+     * buffer scanned from its current position, or null to scan it.
+     *
+     * @throws ExifInvalidFormatException
+     */
+    protected ExifData read(ByteBuffer buffer, int options, int[] tags, JpegSegmentIndex index)
+            throws ExifInvalidFormatException {
+        ExifStatsListener listener = mInterface.getStatsListener();
+        ExifStats stats = null;
+        long time = 0;
+        if (listener != null) {
+            stats = new ExifStats(ExifStats.OPERATION_READ_BUFFER);
+            time = System.nanoTime();
+        }
+        ExifBufferParser parser = ExifBufferParser.parse(buffer, options, tags, mInterface,
+                index);
+        if (stats != null) {
+            time = stats.addHeaderTime(time);
+        }
+        ExifData exifData = new ExifData(parser.getByteOrder());
+
+        int event = parser.next();
+        while (event != ExifParser.EVENT_END) {
+            switch (event) {
+                case ExifParser.EVENT_START_OF_IFD:
+                    exifData.addIfdData(new IfdData(parser.getCurrentIfd()));
+                    break;
+                case ExifParser.EVENT_NEW_TAG:
+                    ExifTag tag = parser.getTag();
+                    exifData.getIfdData(tag.getIfd()).setTag(tag);
+                    break;
+                case ExifParser.EVENT_COMPRESSED_IMAGE:
+                    byte buf[] = new byte[parser.getCompressedImageSize()];
+                    if (buf.length == parser.read(buf)) {
+                        exifData.setCompressedThumbnail(buf);
+                    } else {
+                        Log.w(TAG, "Failed to read the compressed thumbnail");
+                    }
+                    break;
+                case ExifParser.EVENT_UNCOMPRESSED_STRIP:
+                    buf = new byte[parser.getStripSize()];
+                    if (buf.length == parser.read(buf)) {
+                        exifData.setStripBytes(parser.getStripIndex(), buf);
+                    } else {
+                        Log.w(TAG, "Failed to read the strip bytes");
+                    }
+                    break;
+            }
+            if (stats != null) {
+                time = stats.addEventTime(event, time);
+            }
+            event = parser.next();
+        }
+        if (stats != null) {
+            stats.addEventTime(event, time);
+            stats.mBytesRead = parser.getTiffLength();
+            stats.mQueuedEvents = parser.getQueuedEventCount();
+            stats.mTags = exifData.getTagCount();
+            stats.mThumbnailBytes = exifData.getThumbnailSize();
+            listener.onExifStats(stats);
+        }
         return exifData;
     }
 }
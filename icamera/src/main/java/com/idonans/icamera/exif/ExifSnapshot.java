@@ -0,0 +1,99 @@
+package com.idonans.icamera.exif;
+
+import java.io.File;
+import java.util.Arrays;
+
+/**
+ * The requested tags of one file read by {@link ExifBatchReader}. A snapshot
+ * only exposes copies of the tag values and never changes after creation, so
+ * it can be handed between threads freely.
+ */
+public final class ExifSnapshot {
+
+    private final File mFile;
+    // Sorted defined tag constants, shared by all snapshots of a batch
+    private final int[] mTagIds;
+    // Tags matching mTagIds, null if the file does not contain the tag
+    private final ExifTag[] mTags;
+
+    ExifSnapshot(File file, int[] sortedTagIds, ExifInterface exif) {
+        mFile = file;
+        mTagIds = sortedTagIds;
+        mTags = new ExifTag[sortedTagIds.length];
+        for (int i = 0; i < sortedTagIds.length; i++) {
+            mTags[i] = exif.getTag(sortedTagIds[i]);
+        }
+    }
+
+    ExifSnapshot(File file, int[] sortedTagIds, ExifTag[] tags) {
+        mFile = file;
+        mTagIds = sortedTagIds;
+        mTags = tags;
+    }
+
+    public File getFile() {
+        return mFile;
+    }
+
+    /**
+     * Returns true if the file contains the given tag.
+     *
+     * @param tagId a defined tag constant that was requested from the batch.
+     */
+    public boolean hasTag(int tagId) {
+        return getTag(tagId) != null;
+    }
+
+    /**
+     * @see ExifTag#getValueAsInt(int)
+     */
+    public int getInt(int tagId, int defaultValue) {
+        ExifTag t = getTag(tagId);
+        return t == null ? defaultValue : t.getValueAsInt(defaultValue);
+    }
+
+    /**
+     * @see ExifTag#getValueAsLong(long)
+     */
+    public long getLong(int tagId, long defaultValue) {
+        ExifTag t = getTag(tagId);
+        return t == null ? defaultValue : t.getValueAsLong(defaultValue);
+    }
+
+    /**
+     * @see ExifTag#getValueAsRationalDouble(double)
+     */
+    public double getRationalAsDouble(int tagId, double defaultValue) {
+        ExifTag t = getTag(tagId);
+        return t == null ? defaultValue : t.getValueAsRationalDouble(defaultValue);
+    }
+
+    /**
+     * @see ExifTag#getValueAsString(String)
+     */
+    public String getString(int tagId, String defaultValue) {
+        ExifTag t = getTag(tagId);
+        return t == null ? defaultValue : t.getValueAsString(defaultValue);
+    }
+
+    /**
+     * Returns a string representation of the tag value, or null if the file
+     * does not contain the tag.
+     *
+     * @see ExifTag#forceGetValueAsString()
+     */
+    public String getValueAsString(int tagId) {
+        ExifTag t = getTag(tagId);
+        return t == null ? null : t.forceGetValueAsString();
+    }
+
+    int[] getTagIds() {
+        return mTagIds;
+    }
+
+    ExifTag getTag(int tagId) {
+        int i = Arrays.binarySearch(mTagIds, tagId);
+        return i < 0 ? null : mTags[i];
+    }
+
+}
@@ -0,0 +1,185 @@
+package com.idonans.icamera.exif;
+
+/**
+ * The measurements of one read, write or in-place rewrite of exif data,
+ * handed to an {@link ExifStatsListener}. Times are in nanoseconds, a phase
+ * which does not apply to the operation is 0.
+ */
+public final class ExifStats {
+
+    /**
+     * Reading from an InputStream, see {link ExifInterface#readExif(InputStream)}.
+     */
+    public static final int OPERATION_READ_STREAM = 0;
+    /**
+     * Reading from a byte array, buffer or file with random access.
+     */
+    public static final int OPERATION_READ_BUFFER = 1;
+    /**
+     * Writing the exif header through {link ExifOutputStream}.
+     */
+    public static final int OPERATION_WRITE = 2;
+    /**
+     * Rewriting tags in place, see {link ExifInterface#rewriteExif(ByteBuffer, Collection)}.
+     */
+    public static final int OPERATION_REWRITE = 3;
+    public static final int OPERATION_COUNT = 4;
+
+    private final int mOperation;
+    long mHeaderNanos;
+    long mIfdNanos;
+    long mDeferredNanos;
+    long mThumbnailNanos;
+    long mBytesRead;
+    long mBytesSkipped;
+    long mBytesWritten;
+    int mQueuedEvents;
+    int mTags;
+    int mThumbnailBytes;
+
+    ExifStats(int operation) {
+        mOperation = operation;
+    }
+
+    // Each adds the time since start to a phase and returns the current time.
+
+    long addHeaderTime(long start) {
+        long now = System.nanoTime();
+        mHeaderNanos += now - start;
+        return now;
+    }
+
+    long addIfdTime(long start) {
+        long now = System.nanoTime();
+        mIfdNanos += now - start;
+        return now;
+    }
+
+    long addDeferredTime(long start) {
+        long now = System.nanoTime();
+        mDeferredNanos += now - start;
+        return now;
+    }
+
+    long addThumbnailTime(long start) {
+        long now = System.nanoTime();
+        mThumbnailNanos += now - start;
+        return now;
+    }
+
+    /**
+     * Adds the time since start to the phase of the parser event handled.
+     */
+    long addEventTime(int event, long start) {
+        switch (event) {
+            case ExifParser.EVENT_VALUE_OF_REGISTERED_TAG:
+                return addDeferredTime(start);
+            case ExifParser.EVENT_COMPRESSED_IMAGE:
+            case ExifParser.EVENT_UNCOMPRESSED_STRIP:
+                return addThumbnailTime(start);
+            default:
+                return addIfdTime(start);
+        }
+    }
+
+    /**
+     * Returns one of the OPERATION constants.
+     */
+    public int getOperation() {
+        return mOperation;
+    }
+
+    /**
+     * Returns the time spent to find the TIFF header, or for writes and
+     * rewrites to lay out the tags before writing them.
+     */
+    public long getHeaderNanos() {
+        return mHeaderNanos;
+    }
+
+    /**
+     * Returns the time spent to walk the IFDs and read, write or patch their
+     * entries.
+     */
+    public long getIfdNanos() {
+        return mIfdNanos;
+    }
+
+    /**
+     * Returns the time spent on values and IFDs whose offset was queued to be
+     * visited later, including skipping to them.
+     */
+    public long getDeferredNanos() {
+        return mDeferredNanos;
+    }
+
+    /**
+     * Returns the time spent to read or write the thumbnail.
+     */
+    public long getThumbnailNanos() {
+        return mThumbnailNanos;
+    }
+
+    public long getTotalNanos() {
+        return mHeaderNanos + mIfdNanos + mDeferredNanos + mThumbnailNanos;
+    }
+
+    /**
+     * Returns the number of bytes read. Random access reads count the size of
+     * the TIFF data they parse.
+     */
+    public long getBytesRead() {
+        return mBytesRead;
+    }
+
+    /**
+     * Returns the number of bytes skipped without reading them, only stream
+     * reads skip.
+     */
+    public long getBytesSkipped() {
+        return mBytesSkipped;
+    }
+
+    /**
+     * Returns the number of bytes of the exif header written, or of the
+     * values patched by a rewrite.
+     */
+    public long getBytesWritten() {
+        return mBytesWritten;
+    }
+
+    /**
+     * Returns the number of values, IFDs and images queued to be visited
+     * later by the parser.
+     */
+    public int getQueuedEvents() {
+        return mQueuedEvents;
+    }
+
+    /**
+     * Returns the number of tags read, written or rewritten.
+     */
+    public int getTags() {
+        return mTags;
+    }
+
+    public int getThumbnailBytes() {
+        return mThumbnailBytes;
+    }
+
+    @Override
+    public String toString() {
+        return "ExifStats{operation=" + mOperation
+                + ", headerNanos=" + mHeaderNanos
+                + ", ifdNanos=" + mIfdNanos
+                + ", deferredNanos=" + mDeferredNanos
+                + ", thumbnailNanos=" + mThumbnailNanos
+                + ", bytesRead=" + mBytesRead
+                + ", bytesSkipped=" + mBytesSkipped
+                + ", bytesWritten=" + mBytesWritten
+                + ", queuedEvents=" + mQueuedEvents
+                + ", tags=" + mTags
+                + ", thumbnailBytes=" + mThumbnailBytes
+                + "}";
+    }
+}
@@ -0,0 +1,15 @@
+package com.idonans.icamera.exif;
+
+/**
+ * Receives the measurements of the exif operations of an {link ExifInterface},
+ * see {link ExifInterface#setStatsListener(ExifStatsListener)}. Nothing is
+ * measured while no listener is set.
+ */
+public interface ExifStatsListener {
+
+    /**
+     * Called on the thread of the operation once it is done. Operations
+     * failing with an exception are not reported.
+     */
+    void onExifStats(ExifStats stats);
+}
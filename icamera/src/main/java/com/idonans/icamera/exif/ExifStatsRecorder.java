@@ -0,0 +1,191 @@
+package com.idonans.icamera.exif;
+
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * An {@link ExifStatsListener} aggregating the measurements of each operation
+ * into histograms with power of two buckets, so it can be shared by many
+ * {link ExifInterface} objects for a whole session. {@link #snapshot()}
+ * returns a copy to export.
+ */
+public class ExifStatsRecorder implements ExifStatsListener {
+
+    public static final int METRIC_TOTAL_NANOS = 0;
+    public static final int METRIC_HEADER_NANOS = 1;
+    public static final int METRIC_IFD_NANOS = 2;
+    public static final int METRIC_DEFERRED_NANOS = 3;
+    public static final int METRIC_THUMBNAIL_NANOS = 4;
+    public static final int METRIC_BYTES_READ = 5;
+    public static final int METRIC_BYTES_SKIPPED = 6;
+    public static final int METRIC_BYTES_WRITTEN = 7;
+    public static final int METRIC_QUEUED_EVENTS = 8;
+    public static final int METRIC_TAGS = 9;
+    public static final int METRIC_THUMBNAIL_BYTES = 10;
+    public static final int METRIC_COUNT = 11;
+
+    private static final String[] OPERATION_NAMES = {
+            "read_stream", "read_buffer", "write", "rewrite"
+    };
+    private static final String[] METRIC_NAMES = {
+            "total_nanos", "header_nanos", "ifd_nanos", "deferred_nanos", "thumbnail_nanos",
+            "bytes_read", "bytes_skipped", "bytes_written", "queued_events", "tags",
+            "thumbnail_bytes"
+    };
+    // Bucket 0 holds 0, bucket i holds the values in [2^(i-1), 2^i).
+    private static final int BUCKET_COUNT = 65;
+
+    private final long[][] mBuckets = new long[ExifStats.OPERATION_COUNT * METRIC_COUNT][];
+    private final long[] mSums = new long[ExifStats.OPERATION_COUNT * METRIC_COUNT];
+    private final long[] mMaxs = new long[ExifStats.OPERATION_COUNT * METRIC_COUNT];
+    private final long[] mCounts = new long[ExifStats.OPERATION_COUNT];
+
+    public ExifStatsRecorder() {
+        for (int i = 0; i < mBuckets.length; i++) {
+            mBuckets[i] = new long[BUCKET_COUNT];
+        }
+    }
+
+    @Override
+    public synchronized void onExifStats(ExifStats stats) {
+        int operation = stats.getOperation();
+        mCounts[operation]++;
+        int base = operation * METRIC_COUNT;
+        add(base + METRIC_TOTAL_NANOS, stats.getTotalNanos());
+        add(base + METRIC_HEADER_NANOS, stats.getHeaderNanos());
+        add(base + METRIC_IFD_NANOS, stats.getIfdNanos());
+        add(base + METRIC_DEFERRED_NANOS, stats.getDeferredNanos());
+        add(base + METRIC_THUMBNAIL_NANOS, stats.getThumbnailNanos());
+        add(base + METRIC_BYTES_READ, stats.getBytesRead());
+        add(base + METRIC_BYTES_SKIPPED, stats.getBytesSkipped());
+        add(base + METRIC_BYTES_WRITTEN, stats.getBytesWritten());
+        add(base + METRIC_QUEUED_EVENTS, stats.getQueuedEvents());
+        add(base + METRIC_TAGS, stats.getTags());
+        add(base + METRIC_THUMBNAIL_BYTES, stats.getThumbnailBytes());
+    }
+
+    private void add(int index, long value) {
+        if (value < 0) {
+            value = 0;
+        }
+        mBuckets[index][64 - Long.numberOfLeadingZeros(value)]++;
+        mSums[index] += value;
+        if (value > mMaxs[index]) {
+            mMaxs[index] = value;
+        }
+    }
+
+    /**
+     * Returns a copy of the histograms recorded so far.
+     */
+    public synchronized Snapshot snapshot() {
+        long[][] buckets = new long[mBuckets.length][];
+        for (int i = 0; i < buckets.length; i++) {
+            buckets[i] = mBuckets[i].clone();
+        }
+        return new Snapshot(buckets, mSums.clone(), mMaxs.clone(), mCounts.clone());
+    }
+
+    public synchronized void reset() {
+        for (long[] buckets : mBuckets) {
+            Arrays.fill(buckets, 0);
+        }
+        Arrays.fill(mSums, 0);
+        Arrays.fill(mMaxs, 0);
+        Arrays.fill(mCounts, 0);
+    }
+
+    /**
+     * The histograms of all operations and metrics at one point in time.
+     */
+    public static final class Snapshot {
+        private final long[][] mBuckets;
+        private final long[] mSums;
+        private final long[] mMaxs;
+        private final long[] mCounts;
+
+        private Snapshot(long[][] buckets, long[] sums, long[] maxs, long[] counts) {
+            mBuckets = buckets;
+            mSums = sums;
+            mMaxs = maxs;
+            mCounts = counts;
+        }
+
+        /**
+         * Returns the number of operations recorded.
+         *
+         * @param operation one of the ExifStats.OPERATION constants.
+         */
+        public long getCount(int operation) {
+            return mCounts[operation];
+        }
+
+        public long getSum(int operation, int metric) {
+            return mSums[operation * METRIC_COUNT + metric];
+        }
+
+        public long getMax(int operation, int metric) {
+            return mMaxs[operation * METRIC_COUNT + metric];
+        }
+
+        public double getMean(int operation, int metric) {
+            long count = mCounts[operation];
+            return count == 0 ? 0 : (double) getSum(operation, metric) / count;
+        }
+
+        /**
+         * Returns the upper bound of the bucket holding the given percentile,
+         * e.g. 0.99, of the metric, at most the largest value recorded.
+         */
+        public long getPercentile(int operation, int metric, double percentile) {
+            long[] buckets = mBuckets[operation * METRIC_COUNT + metric];
+            long count = mCounts[operation];
+            if (count == 0) {
+                return 0;
+            }
+            long rank = (long) Math.ceil(percentile * count);
+            long seen = 0;
+            for (int i = 0; i < buckets.length; i++) {
+                seen += buckets[i];
+                if (seen >= rank) {
+                    long upper = i == 0 ? 0 : (i == 64 ? Long.MAX_VALUE : (1L << i) - 1);
+                    return Math.min(upper, getMax(operation, metric));
+                }
+            }
+            return getMax(operation, metric);
+        }
+
+        /**
+         * Returns a copy of the bucket counts of the metric. Bucket 0 counts
+         * the value 0, bucket i the values from 2^(i-1) to 2^i - 1.
+         */
+        public long[] getBuckets(int operation, int metric) {
+            return mBuckets[operation * METRIC_COUNT + metric].clone();
+        }
+
+        /**
+         * Returns one line per operation and metric recorded, e.g.
+         * "read_stream ifd_nanos count=10 mean=1200.0 p50=1023 p99=4095 max=3500".
+         */
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder();
+            for (int operation = 0; operation < ExifStats.OPERATION_COUNT; operation++) {
+                if (mCounts[operation] == 0) {
+                    continue;
+                }
+                for (int metric = 0; metric < METRIC_COUNT; metric++) {
+                    sb.append(String.format(Locale.US,
+                            "%s %s count=%d mean=%.1f p50=%d p99=%d max=%d\n",
+                            OPERATION_NAMES[operation], METRIC_NAMES[metric],
+                            mCounts[operation], getMean(operation, metric),
+                            getPercentile(operation, metric, 0.5),
+                            getPercentile(operation, metric, 0.99),
+                            getMax(operation, metric)));
+                }
+            }
+            return sb.toString();
+        }
+    }
+
+}
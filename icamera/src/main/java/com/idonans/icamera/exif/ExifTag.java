@@ -16,6 +16,7 @@
 
 package com.idonans.icamera.exif;
 
+import java.nio.ByteBuffer;
 import java.nio.charset.Charset;
 import java.text.SimpleDateFormat;
 import java.util.Arrays;
@@ -97,10 +98,16 @@ public class ExifTag {
     private int mComponentCountActual;
     // The ifd that this tag should be put in
     private int mIfd;
-    // The value (array of elements of type Tag Type)
+    // The value (array of elements of type Tag Type). Rationals are stored as
+    // a long[] of numerator and denominator pairs.
     private Object mValue;
     // Value offset in exif header.
     private int mOffset;
+    // The buffer the value is decoded from on first access, if the value has
+    // not been decoded yet. See setLazyValue(ByteBuffer, int).
+    private ByteBuffer mSource;
+    // Absolute position of the value in mSource
+    private int mSourcePosition;
 
     private static final SimpleDateFormat TIME_FORMAT = new SimpleDateFormat("yyyy:MM:dd kk:mm:ss");
 
@@ -219,7 +226,31 @@ public class ExifTag {
      * contain an offset value that is determined when the tag is written.
      */
     public boolean hasValue() {
-        return mValue != null;
+        return mValue != null || mSource != null;
+    }
+
+    /**
+     * Makes the value of this tag to be decoded from the given buffer at the
+     * given absolute position the first time it is accessed. The buffer must
+     * use the byte order of the EXIF data and must not be modified until the
+     * value is decoded.
+     */
+    protected void setLazyValue(ByteBuffer source, int position) {
+        mValue = null;
+        mSource = source;
+        mSourcePosition = position;
+    }
+
+    /**
+     * Decodes the value from the source buffer if it has not been decoded.
+     * Synchronized so that a lazy tag can be read by several threads, e.g.
+     * through a shared {@link ExifSnapshot}; setting values is not.
+     */
+    private synchronized void ensureValue() {
+        if (mSource != null) {
+            ExifBufferParser.readTagValue(mSource, mSourcePosition, this);
+            mSource = null;
+        }
     }
 
     /**
@@ -251,6 +282,7 @@ public class ExifTag {
         for (int i = 0; i < value.length; i++) {
             data[i] = value[i];
         }
+        mSource = null;
         mValue = data;
         mComponentCountActual = value.length;
         return true;
@@ -290,6 +322,7 @@ public class ExifTag {
         if (checkOverflowForUnsignedLong(value)) {
             return false;
         }
+        mSource = null;
         mValue = value;
         mComponentCountActual = value.length;
         return true;
@@ -342,6 +375,7 @@ public class ExifTag {
             return false;
         }
         mComponentCountActual = count;
+        mSource = null;
         mValue = finalBuf;
         return true;
     }
@@ -373,11 +407,75 @@ public class ExifTag {
             return false;
         }
 
+        long[] data = new long[value.length * 2];
+        for (int i = 0; i < value.length; i++) {
+            data[i * 2] = value[i].getNumerator();
+            data[i * 2 + 1] = value[i].getDenominator();
+        }
+        mSource = null;
+        mValue = data;
+        mComponentCountActual = value.length;
+        return true;
+    }
+    /**
+     * Sets the values of a {@link #TYPE_UNSIGNED_SHORT},
+     * {@link #TYPE_UNSIGNED_LONG} or {@link #TYPE_LONG} tag. The array is kept
+     * without copy. Fails under the same conditions as
+     * {@link #setValue(int[])}.
+     */
+    protected boolean setIntegerValues(long[] value) {
+        if (checkBadComponentCount(value.length)) {
+            return false;
+        }
+        long min;
+        long max;
+        if (mDataType == TYPE_UNSIGNED_SHORT) {
+            min = 0;
+            max = UNSIGNED_SHORT_MAX;
+        } else if (mDataType == TYPE_UNSIGNED_LONG) {
+            min = 0;
+            max = UNSIGNED_LONG_MAX;
+        } else if (mDataType == TYPE_LONG) {
+            min = LONG_MIN;
+            max = LONG_MAX;
+        } else {
+            return false;
+        }
+        for (long v : value) {
+            if (v < min || v > max) {
+                return false;
+            }
+        }
+        mSource = null;
         mValue = value;
         mComponentCountActual = value.length;
         return true;
     }
 
+    /**
+     * Sets Rational values into this tag as pairs of numerator and
+     * denominator, {@code value[2 * i]} / {@code value[2 * i + 1]}. The array
+     * is kept without copy. Fails under the same conditions as
+     * {@link #setValue(Rational[])}.
+     */
+    protected boolean setRationalValues(long[] value) {
+        int count = value.length / 2;
+        if (checkBadComponentCount(count) || !isRationalType()) {
+            return false;
+        }
+        long min = mDataType == TYPE_UNSIGNED_RATIONAL ? 0 : LONG_MIN;
+        long max = mDataType == TYPE_UNSIGNED_RATIONAL ? UNSIGNED_LONG_MAX : LONG_MAX;
+        for (long v : value) {
+            if (v < min || v > max) {
+                return false;
+            }
+        }
+        mSource = null;
+        mValue = value;
+        mComponentCountActual = count;
+        return true;
+    }
+
     /**
      * Sets a Rational value into this tag. This method should be used for tags
      * of type {@link #TYPE_UNSIGNED_RATIONAL}, or {@link #TYPE_RATIONAL}. This
@@ -415,6 +513,7 @@ public class ExifTag {
         if (mDataType != TYPE_UNSIGNED_BYTE && mDataType != TYPE_UNDEFINED) {
             return false;
         }
+        mSource = null;
         mValue = new byte[length];
         System.arraycopy(value, offset, mValue, 0, length);
         mComponentCountActual = length;
@@ -538,6 +637,7 @@ public class ExifTag {
      * or cannot be converted to a String.
      */
     public String getValueAsString() {
+        ensureValue();
         if (mValue == null) {
             return null;
         } else if (mValue instanceof String) {
@@ -572,6 +672,7 @@ public class ExifTag {
      * exist or cannot be converted to a byte array.
      */
     public byte[] getValueAsBytes() {
+        ensureValue();
         if (mValue instanceof byte[]) {
             return (byte[]) mValue;
         }
@@ -603,10 +704,16 @@ public class ExifTag {
      * does not exist or cannot be converted to an array of Rationals.
      */
     public Rational[] getValueAsRationals() {
-        if (mValue instanceof Rational[]) {
-            return (Rational[]) mValue;
+        ensureValue();
+        if (!isRationalType() || !(mValue instanceof long[])) {
+            return null;
         }
-        return null;
+        long[] val = (long[]) mValue;
+        Rational[] ret = new Rational[val.length / 2];
+        for (int i = 0; i < ret.length; i++) {
+            ret[i] = new Rational(val[i * 2], val[i * 2 + 1]);
+        }
+        return ret;
     }
 
     /**
@@ -619,11 +726,11 @@ public class ExifTag {
      * @return the tag's value as a Rational, or the defaultValue.
      */
     public Rational getValueAsRational(Rational defaultValue) {
-        Rational[] r = getValueAsRationals();
-        if (r == null || r.length < 1) {
+        long[] r = getRationalValues();
+        if (r == null || r.length < 2) {
             return defaultValue;
         }
-        return r[0];
+        return new Rational(r[0], r[1]);
     }
 
     /**
@@ -641,6 +748,25 @@ public class ExifTag {
         return getValueAsRational(defaultVal);
     }
 
+    /**
+     * Gets the value as a double. If there are more than 1 Rationals in this
+     * value, gets the first one. This method should be used for tags of type
+     * {@link #TYPE_RATIONAL} or {@link #TYPE_UNSIGNED_RATIONAL} and does not
+     * allocate.
+     *
+     * @param defaultValue the double to return if tag's value does not exist,
+     *                     cannot be converted to a Rational or its denominator
+     *                     is 0.
+     * @return the tag's value as a double, or the defaultValue.
+     */
+    public double getValueAsRationalDouble(double defaultValue) {
+        long[] r = getRationalValues();
+        if (r == null || r.length < 2 || r[1] == 0) {
+            return defaultValue;
+        }
+        return r[0] / (double) r[1];
+    }
+
     /**
      * Gets the value as an array of ints. This method should be used for tags
      * of type {@link #TYPE_UNSIGNED_SHORT}, {@link #TYPE_UNSIGNED_LONG}.
@@ -649,7 +775,8 @@ public class ExifTag {
      * not exist or cannot be converted to an array of ints.
      */
     public int[] getValueAsInts() {
-        if (mValue == null) {
+        ensureValue();
+        if (mValue == null || isRationalType()) {
             return null;
         } else if (mValue instanceof long[]) {
             long[] val = (long[]) mValue;
@@ -672,11 +799,11 @@ public class ExifTag {
      * @return the tag's value as a int, or the defaultValue.
      */
     public int getValueAsInt(int defaultValue) {
-        int[] i = getValueAsInts();
-        if (i == null || i.length < 1) {
+        long[] l = getValueAsLongs();
+        if (l == null || l.length < 1) {
             return defaultValue;
         }
-        return i[0];
+        return (int) l[0]; // Truncates
     }
 
     /**
@@ -687,12 +814,29 @@ public class ExifTag {
      * does not exist or cannot be converted to an array of longs.
      */
     public long[] getValueAsLongs() {
-        if (mValue instanceof long[]) {
+        ensureValue();
+        if (mValue instanceof long[] && !isRationalType()) {
             return (long[]) mValue;
         }
         return null;
     }
 
+    /**
+     * Returns the packed numerator and denominator pairs of a
+     * {@link #TYPE_RATIONAL} or {@link #TYPE_UNSIGNED_RATIONAL} value, or null.
+     */
+    private long[] getRationalValues() {
+        ensureValue();
+        if (mValue instanceof long[] && isRationalType()) {
+            return (long[]) mValue;
+        }
+        return null;
+    }
+
+    private boolean isRationalType() {
+        return mDataType == TYPE_RATIONAL || mDataType == TYPE_UNSIGNED_RATIONAL;
+    }
+
     /**
      * Gets the value or null if none exists. If there are more than 1 longs in
      * this value, gets the first one. This method should be used for tags of
@@ -710,10 +854,23 @@ public class ExifTag {
         return l[0];
     }
 
+    /**
+     * Returns true if the tag has a value once decoded, without boxing it like
+     * {@link #getValue()} does for rationals.
+     */
+    boolean hasDecodedValue() {
+        ensureValue();
+        return mValue != null;
+    }
+
     /**
      * Gets the tag's value or null if none exists.
      */
     public Object getValue() {
+        ensureValue();
+        if (isRationalType()) {
+            return getValueAsRationals();
+        }
         return mValue;
     }
 
@@ -734,9 +891,9 @@ public class ExifTag {
         if (b != null && b.length >= 1) {
             return b[0];
         }
-        Rational[] r = getValueAsRationals();
-        if (r != null && r.length >= 1 && r[0].getDenominator() != 0) {
-            return (long) r[0].toDouble();
+        long[] r = getRationalValues();
+        if (r != null && r.length >= 2 && r[1] != 0) {
+            return (long) (r[0] / (double) r[1]);
         }
         return defaultValue;
     }
@@ -745,6 +902,7 @@ public class ExifTag {
      * Gets a string representation of the value.
      */
     public String forceGetValueAsString() {
+        ensureValue();
         if (mValue == null) {
             return "";
         } else if (mValue instanceof byte[]) {
@@ -753,6 +911,19 @@ public class ExifTag {
             } else {
                 return Arrays.toString((byte[]) mValue);
             }
+        } else if (isRationalType()) {
+            long[] val = (long[]) mValue;
+            if (val.length == 2) {
+                return val[0] + "/" + val[1];
+            }
+            StringBuilder sb = new StringBuilder("[");
+            for (int i = 0; i < val.length; i += 2) {
+                if (i > 0) {
+                    sb.append(", ");
+                }
+                sb.append(val[i]).append('/').append(val[i + 1]);
+            }
+            return sb.append(']').toString();
         } else if (mValue instanceof long[]) {
             if (((long[]) mValue).length == 1) {
                 return String.valueOf(((long[]) mValue)[0]);
@@ -786,7 +957,8 @@ public class ExifTag {
      *                                  {@link #TYPE_RATIONAL} or {@link #TYPE_UNSIGNED_RATIONAL}.
      */
     protected long getValueAt(int index) {
-        if (mValue instanceof long[]) {
+        ensureValue();
+        if (mValue instanceof long[] && !isRationalType()) {
             return ((long[]) mValue)[index];
         } else if (mValue instanceof byte[]) {
             return ((byte[]) mValue)[index];
@@ -802,6 +974,7 @@ public class ExifTag {
      *                                  {@link #TYPE_ASCII}.
      */
     protected String getString() {
+        ensureValue();
         if (mDataType != TYPE_ASCII) {
             throw new IllegalArgumentException("Cannot get ASCII value from "
                     + convertTypeToString(mDataType));
@@ -813,6 +986,7 @@ public class ExifTag {
      * Get the converted ascii byte. Used by ExifOutputStream.
      */
     protected byte[] getStringByte() {
+        ensureValue();
         return (byte[]) mValue;
     }
 
@@ -823,11 +997,38 @@ public class ExifTag {
      *                                  {@link #TYPE_RATIONAL} or {@link #TYPE_UNSIGNED_RATIONAL}.
      */
     protected Rational getRational(int index) {
-        if ((mDataType != TYPE_RATIONAL) && (mDataType != TYPE_UNSIGNED_RATIONAL)) {
+        return new Rational(getNumerator(index), getDenominator(index));
+    }
+
+    /**
+     * Gets the numerator of the {@link #TYPE_RATIONAL} or
+     * {@link #TYPE_UNSIGNED_RATIONAL} data at the given index.
+     *
+     * @throws IllegalArgumentException If the type is NOT
+     *                                  {@link #TYPE_RATIONAL} or {@link #TYPE_UNSIGNED_RATIONAL}.
+     */
+    protected long getNumerator(int index) {
+        return getRationalValuesOrThrow()[index * 2];
+    }
+
+    /**
+     * Gets the denominator of the {@link #TYPE_RATIONAL} or
+     * {@link #TYPE_UNSIGNED_RATIONAL} data at the given index.
+     *
+     * @throws IllegalArgumentException If the type is NOT
+     *                                  {@link #TYPE_RATIONAL} or {@link #TYPE_UNSIGNED_RATIONAL}.
+     */
+    protected long getDenominator(int index) {
+        return getRationalValuesOrThrow()[index * 2 + 1];
+    }
+
+    private long[] getRationalValuesOrThrow() {
+        ensureValue();
+        if (!isRationalType()) {
             throw new IllegalArgumentException("Cannot get RATIONAL value from "
                     + convertTypeToString(mDataType));
         }
-        return ((Rational[]) mValue)[index];
+        return (long[]) mValue;
     }
 
     /**
@@ -848,6 +1049,7 @@ public class ExifTag {
      *                                  {@link #TYPE_UNDEFINED} or {@link #TYPE_UNSIGNED_BYTE}.
      */
     protected void getBytes(byte[] buf, int offset, int length) {
+        ensureValue();
         if ((mDataType != TYPE_UNDEFINED) && (mDataType != TYPE_UNSIGNED_BYTE)) {
             throw new IllegalArgumentException("Cannot get BYTE value from "
                     + convertTypeToString(mDataType));
@@ -965,6 +1167,8 @@ public class ExifTag {
         }
         if (obj instanceof ExifTag) {
             ExifTag tag = (ExifTag) obj;
+            ensureValue();
+            tag.ensureValue();
             if (tag.mTagId != this.mTagId
                     || tag.mComponentCountActual != this.mComponentCountActual
                     || tag.mDataType != this.mDataType) {
@@ -978,11 +1182,6 @@ public class ExifTag {
                         return false;
                     }
                     return Arrays.equals((long[]) mValue, (long[]) tag.mValue);
-                } else if (mValue instanceof Rational[]) {
-                    if (!(tag.mValue instanceof Rational[])) {
-                        return false;
-                    }
-                    return Arrays.equals((Rational[]) mValue, (Rational[]) tag.mValue);
                 } else if (mValue instanceof byte[]) {
                     if (!(tag.mValue instanceof byte[])) {
                         return false;
@@ -0,0 +1,180 @@
+package com.idonans.icamera.exif;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Copies the exif APP1 segment of a JPEG into another JPEG made from it, e.g.
+ * after the image was decoded, rotated and compressed again. The segment is
+ * copied as it is, without building an {@link ExifData}: only the orientation
+ * and the pixel dimensions are patched in place, and the thumbnail, which
+ * shows the old image, is dropped.
+ * <p/>
+ * Tags are patched only if they exist with a single integer value, missing
+ * tags are not added. The copied APP1 replaces the first APP1 segment of the
+ * target, or is inserted after its SOI, see
+ * {link ExifOutputStream#findReplacedApp1(ByteBuffer)}.
+ */
+public class ExifTransplant {
+
+    // Marker, length and "Exif\0\0" before the TIFF header
+    private static final int TIFF_OFFSET = 10;
+    private static final int IFD_ENTRY_SIZE = 12;
+
+    private ExifTransplant() {
+    }
+
+    /**
+     * Returns the target JPEG with the exif data of the source JPEG, or the
+     * target itself if the source has no exif data.
+     *
+     * @param orientation the orientation tag value of the target, see
+     *                    {link ExifInterface.Orientation}.
+     * @param width       the width of the target image in pixels.
+     * @param height      the height of the target image in pixels.
+     * @throws IOException if the target is not a valid JPEG.
+     */
+    public static byte[] transplant(byte[] source, byte[] target, short orientation, int width,
+                                    int height) throws IOException {
+        ByteBuffer sourceBuffer = ByteBuffer.wrap(source);
+        JpegSegmentIndex sourceIndex = JpegSegmentIndex.scan(sourceBuffer);
+        if (ExifProbe.findTiffHeader(sourceBuffer, 0, sourceIndex) < 0) {
+            return target;
+        }
+        ByteBuffer targetBuffer = ByteBuffer.wrap(target);
+        int[] replaced = ExifOutputStream.findReplacedApp1(targetBuffer,
+                JpegSegmentIndex.scan(targetBuffer));
+        if (replaced == null) {
+            throw new IOException("Invalid JPEG format");
+        }
+
+        int segment = sourceIndex.getExifSegment();
+        int start = (int) sourceIndex.getOffset(segment);
+        byte[] app1 = new byte[(int) sourceIndex.getEnd(segment) - start];
+        System.arraycopy(source, start, app1, 0, app1.length);
+        int length = patch(app1, orientation, width, height);
+
+        byte[] result = new byte[target.length - (replaced[1] - replaced[0]) + length];
+        System.arraycopy(target, 0, result, 0, replaced[0]);
+        System.arraycopy(app1, 0, result, replaced[0], length);
+        System.arraycopy(target, replaced[1], result, replaced[0] + length,
+                target.length - replaced[1]);
+        return result;
+    }
+
+    /**
+     * Patches the tags of the APP1 segment and unlinks IFD1. Returns the new
+     * size of the segment, which ends before IFD1 if nothing else follows it.
+     */
+    private static int patch(byte[] app1, short orientation, int width, int height) {
+        ByteBuffer data = ByteBuffer.wrap(app1);
+        int tiff = TIFF_OFFSET;
+        int tiffEnd = app1.length;
+        boolean little = data.get(tiff) == 'I';
+        data.order(little ? ByteOrder.LITTLE_ENDIAN : ByteOrder.BIG_ENDIAN);
+
+        int ifd0 = ExifProbe.readInt(data, tiff + 4, little);
+        int exif = readPointer(data, tiff, tiffEnd, little, ifd0, ExifInterface.TAG_EXIF_IFD);
+        patchInteger(data, findEntry(data, tiff, tiffEnd, little, ifd0,
+                ExifInterface.TAG_ORIENTATION), little, orientation & 0xffff);
+        patchInteger(data, findEntry(data, tiff, tiffEnd, little, ifd0,
+                ExifInterface.TAG_IMAGE_WIDTH), little, width);
+        patchInteger(data, findEntry(data, tiff, tiffEnd, little, ifd0,
+                ExifInterface.TAG_IMAGE_LENGTH), little, height);
+        patchInteger(data, findEntry(data, tiff, tiffEnd, little, exif,
+                ExifInterface.TAG_PIXEL_X_DIMENSION), little, width);
+        patchInteger(data, findEntry(data, tiff, tiffEnd, little, exif,
+                ExifInterface.TAG_PIXEL_Y_DIMENSION), little, height);
+
+        int ifd1 = ExifProbe.readNextIfdOffset(data, tiff, tiffEnd, little, ifd0);
+        if (ifd1 <= 0) {
+            return app1.length;
+        }
+        int link = tiff + ifd0 + 2 + ExifProbe.readUnsignedShort(data, tiff + ifd0, little)
+                * IFD_ENTRY_SIZE;
+        data.putInt(link, 0);
+
+        // Drops IFD1 and the thumbnail if the other IFDs and their values
+        // all end before it.
+        long used = dataEnd(data, tiff, tiffEnd, little, ifd0);
+        used = Math.max(used, dataEnd(data, tiff, tiffEnd, little, exif));
+        used = Math.max(used, dataEnd(data, tiff, tiffEnd, little,
+                readPointer(data, tiff, tiffEnd, little, ifd0, ExifInterface.TAG_GPS_IFD)));
+        used = Math.max(used, dataEnd(data, tiff, tiffEnd, little,
+                readPointer(data, tiff, tiffEnd, little, exif,
+                        ExifInterface.TAG_INTEROPERABILITY_IFD)));
+        if (used > ifd1 || tiff + ifd1 > tiffEnd) {
+            return app1.length;
+        }
+        int length = tiff + ifd1;
+        // The length field does not count the marker
+        data.order(ByteOrder.BIG_ENDIAN);
+        data.putShort(2, (short) (length - 2));
+        return length;
+    }
+
+    /**
+     * Writes the value into the entry if it holds a single integer, turning a
+     * short into a long when the value does not fit.
+     */
+    private static void patchInteger(ByteBuffer data, int entry, boolean little, long value) {
+        if (entry < 0 || ExifProbe.readInt(data, entry + 4, little) != 1) {
+            return;
+        }
+        int type = ExifProbe.readUnsignedShort(data, entry + 2, little);
+        if (type == ExifTag.TYPE_UNSIGNED_SHORT && value <= 0xffff) {
+            data.putShort(entry + 8, (short) value);
+        } else if (type == ExifTag.TYPE_UNSIGNED_SHORT || type == ExifTag.TYPE_UNSIGNED_LONG
+                || type == ExifTag.TYPE_LONG) {
+            if (type == ExifTag.TYPE_UNSIGNED_SHORT) {
+                data.putShort(entry + 2, ExifTag.TYPE_UNSIGNED_LONG);
+            }
+            data.putInt(entry + 8, (int) value);
+        }
+    }
+
+    /**
+     * Returns the offset of the entry of the defined tag constant in the IFD,
+     * or -1.
+     */
+    private static int findEntry(ByteBuffer data, int tiff, int tiffEnd, boolean little,
+                                 int ifdOffset, int tag) {
+        return ExifProbe.findEntry(data, tiff, tiffEnd, little, ifdOffset,
+                ExifInterface.getTrueTagKey(tag) & 0xffff);
+    }
+
+    private static int readPointer(ByteBuffer data, int tiff, int tiffEnd, boolean little,
+                                   int ifdOffset, int tag) {
+        int entry = findEntry(data, tiff, tiffEnd, little, ifdOffset, tag);
+        return entry < 0 ? -1 : (int) ExifProbe.readEntryValue(data, entry, little, -1);
+    }
+
+    /**
+     * Returns the offset following the IFD and the values stored outside of
+     * its entries, relative to the TIFF header, or 0 if the IFD is invalid.
+     */
+    private static long dataEnd(ByteBuffer data, int tiff, int tiffEnd, boolean little,
+                                int ifdOffset) {
+        if (ifdOffset < 8 || ifdOffset > tiffEnd - tiff - 2) {
+            return 0;
+        }
+        int count = ExifProbe.readUnsignedShort(data, tiff + ifdOffset, little);
+        long end = ifdOffset + 2 + count * IFD_ENTRY_SIZE + 4;
+        int entry = tiff + ifdOffset + 2;
+        int last = Math.min(entry + count * IFD_ENTRY_SIZE, tiffEnd);
+        for (; entry + IFD_ENTRY_SIZE <= last; entry += IFD_ENTRY_SIZE) {
+            short type = (short) ExifProbe.readUnsignedShort(data, entry + 2, little);
+            if (!ExifTag.isValidType(type)) {
+                continue;
+            }
+            long size = (ExifProbe.readInt(data, entry + 4, little) & 0xffffffffL)
+                    * ExifTag.getElementSize(type);
+            if (size > 4) {
+                long offset = ExifProbe.readInt(data, entry + 8, little) & 0xffffffffL;
+                end = Math.max(end, offset + size);
+            }
+        }
+        return end;
+    }
+}
@@ -16,19 +16,27 @@
 
 package com.idonans.icamera.exif;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.util.Arrays;
 
 /**
  * This class stores all the tags in an IFD.
+ * <p/>
+ * The tags are kept sorted by their unsigned tag id, which is the order they
+ * are written in, in a primitive key array with a parallel array of tags.
  *
  * @see ExifData
  * @see ExifTag
  */
 class IfdData {
 
+    private static final int INITIAL_CAPACITY = 8;
+    private static final short[] EMPTY_IDS = new short[0];
+    private static final ExifTag[] EMPTY_TAGS = new ExifTag[0];
+
     private final int mIfdId;
-    private final Map<Short, ExifTag> mExifTags = new HashMap<Short, ExifTag>();
+    private short[] mTagIds = EMPTY_IDS;
+    private ExifTag[] mExifTags = EMPTY_TAGS;
+    private int mTagCount;
     private int mOffsetToNextIfd = 0;
     private static final int[] sIfds = {
             IfdId.TYPE_IFD_0, IfdId.TYPE_IFD_1, IfdId.TYPE_IFD_EXIF,
@@ -56,7 +64,16 @@ class IfdData {
      * Get a array the contains all {@link ExifTag} in this IFD.
      */
     protected ExifTag[] getAllTags() {
-        return mExifTags.values().toArray(new ExifTag[mExifTags.size()]);
+        return Arrays.copyOf(mExifTags, mTagCount);
+    }
+
+    /**
+     * Gets the {@link ExifTag} at the given index, tags are ordered by their
+     * unsigned tag id. Together with {@link #getTagCount()} this allows to
+     * iterate the tags without allocation.
+     */
+    protected ExifTag getTagAt(int index) {
+        return mExifTags[index];
     }
 
     /**
@@ -77,7 +94,8 @@ class IfdData {
      * such tag.
      */
     protected ExifTag getTag(short tagId) {
-        return mExifTags.get(tagId);
+        int i = indexOf(tagId);
+        return i < 0 ? null : mExifTags[i];
     }
 
     /**
@@ -85,25 +103,72 @@ class IfdData {
      */
     protected ExifTag setTag(ExifTag tag) {
         tag.setIfd(mIfdId);
-        return mExifTags.put(tag.getTagId(), tag);
+        short tagId = tag.getTagId();
+        int i = indexOf(tagId);
+        if (i >= 0) {
+            ExifTag old = mExifTags[i];
+            mExifTags[i] = tag;
+            return old;
+        }
+        i = ~i;
+        if (mTagCount == mTagIds.length) {
+            int capacity = Math.max(INITIAL_CAPACITY, mTagCount * 2);
+            mTagIds = Arrays.copyOf(mTagIds, capacity);
+            mExifTags = Arrays.copyOf(mExifTags, capacity);
+        }
+        System.arraycopy(mTagIds, i, mTagIds, i + 1, mTagCount - i);
+        System.arraycopy(mExifTags, i, mExifTags, i + 1, mTagCount - i);
+        mTagIds[i] = tagId;
+        mExifTags[i] = tag;
+        mTagCount++;
+        return null;
     }
 
     protected boolean checkCollision(short tagId) {
-        return mExifTags.get(tagId) != null;
+        return indexOf(tagId) >= 0;
     }
 
     /**
      * Removes the tag of the given ID
      */
     protected void removeTag(short tagId) {
-        mExifTags.remove(tagId);
+        int i = indexOf(tagId);
+        if (i < 0) {
+            return;
+        }
+        mTagCount--;
+        System.arraycopy(mTagIds, i + 1, mTagIds, i, mTagCount - i);
+        System.arraycopy(mExifTags, i + 1, mExifTags, i, mTagCount - i);
+        mExifTags[mTagCount] = null;
     }
 
     /**
      * Gets the tags count in the IFD.
      */
     protected int getTagCount() {
-        return mExifTags.size();
+        return mTagCount;
+    }
+
+    /**
+     * Binary search on the unsigned tag ids, returns the index of the tag or
+     * (-(insertion point) - 1) if it does not exist.
+     */
+    private int indexOf(short tagId) {
+        int key = tagId & 0xffff;
+        int low = 0;
+        int high = mTagCount - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int midKey = mTagIds[mid] & 0xffff;
+            if (midKey < key) {
+                low = mid + 1;
+            } else if (midKey > key) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return ~low;
     }
 
     /**
@@ -135,12 +200,12 @@ class IfdData {
         if (obj instanceof IfdData) {
             IfdData data = (IfdData) obj;
             if (data.getId() == mIfdId && data.getTagCount() == getTagCount()) {
-                ExifTag[] tags = data.getAllTags();
-                for (ExifTag tag : tags) {
+                for (int i = 0, n = data.getTagCount(); i < n; i++) {
+                    ExifTag tag = data.getTagAt(i);
                     if (ExifInterface.isOffsetTag(tag.getTagId())) {
                         continue;
                     }
-                    ExifTag tag2 = mExifTags.get(tag.getTagId());
+                    ExifTag tag2 = getTag(tag.getTagId());
                     if (!tag.equals(tag2)) {
                         return false;
                     }
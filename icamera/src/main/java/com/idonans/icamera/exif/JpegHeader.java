@@ -16,11 +16,23 @@
 
 package com.idonans.icamera.exif;
 
-class JpegHeader {
+public class JpegHeader {
     public static final short SOI =  (short) 0xFFD8;
     public static final short APP1 = (short) 0xFFE1;
     public static final short APP0 = (short) 0xFFE0;
+    public static final short APP15 = (short) 0xFFEF;
     public static final short EOI = (short) 0xFFD9;
+    public static final short SOS = (short) 0xFFDA;
+    public static final short DQT = (short) 0xFFDB;
+    public static final short DRI = (short) 0xFFDD;
+    public static final short COM = (short) 0xFFFE;
+
+    /**
+     * RST (restart) and TEM markers stand alone, they carry no length.
+     */
+    public static final short RST0 = (short) 0xFFD0;
+    public static final short RST7 = (short) 0xFFD7;
+    public static final short TEM = (short) 0xFF01;
 
     /**
      *  SOF (start of frame). All value between SOF0 and SOF15 is SOF marker except for DHT, JPG,
@@ -36,4 +48,12 @@ class JpegHeader {
         return marker >= SOF0 && marker <= SOF15 && marker != DHT && marker != JPG
                 && marker != DAC;
     }
+
+    public static final boolean isAppMarker(short marker) {
+        return marker >= APP0 && marker <= APP15;
+    }
+
+    public static final boolean isStandaloneMarker(short marker) {
+        return marker == TEM || (marker >= RST0 && marker <= RST7);
+    }
 }
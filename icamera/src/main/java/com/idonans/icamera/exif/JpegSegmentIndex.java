@@ -0,0 +1,400 @@
+package com.idonans.icamera.exif;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * The markers of a JPEG from SOI up to SOS, found in a single scan: APPn,
+ * DQT, DHT, SOF, DRI, COM and the standalone markers, with the offset and
+ * length of each segment. Readers, writers and the in-place modifier take an
+ * index instead of walking the markers again.
+ * <p/>
+ * Offsets are relative to the start of the JPEG and point at the 0xFF of the
+ * marker. The scan stops at SOS, EOI, or at the first malformed or truncated
+ * segment, which is still recorded if its marker and length could be read.
+ */
+public final class JpegSegmentIndex {
+
+    private static final int EXIF_HEADER = 0x45786966; // "Exif"
+    // Marker, length and the "Exif\0\0" header of an APP1 segment
+    private static final int HEADER_SIZE = 10;
+    private static final int WINDOW_SIZE = 8 * 1024;
+
+    private short[] mMarkers = new short[16];
+    private long[] mOffsets = new long[16];
+    private int[] mLengths = new int[16];
+    private int mCount;
+    private long mSize;
+    private int mSofSegment = -1;
+    private int mExifSegment = -1;
+    private boolean mComplete;
+    private boolean mLimited;
+
+    private JpegSegmentIndex() {
+    }
+
+    /**
+     * Indexes the JPEG between the position and the limit of the buffer. The
+     * position of the buffer is not changed.
+     */
+    public static JpegSegmentIndex scan(ByteBuffer jpeg) {
+        return scan(jpeg, Long.MAX_VALUE);
+    }
+
+    /**
+     * Like {@link #scan(ByteBuffer)}, but stops before a segment ending
+     * beyond maxBytes, see {@link #isLimited()}.
+     */
+    static JpegSegmentIndex scan(ByteBuffer jpeg, long maxBytes) {
+        JpegSegmentIndex index = new JpegSegmentIndex();
+        try {
+            index.scan(new BufferSource(jpeg), maxBytes);
+        } catch (IOException e) {
+            // Not thrown by a buffer
+            throw new AssertionError(e);
+        }
+        return index;
+    }
+
+    /**
+     * Indexes the JPEG stored in the file from its beginning. Only the
+     * segment headers are read, the position of the channel is not changed.
+     */
+    public static JpegSegmentIndex scan(FileChannel channel) throws IOException {
+        JpegSegmentIndex index = new JpegSegmentIndex();
+        index.scan(new ChannelSource(channel), Long.MAX_VALUE);
+        return index;
+    }
+
+    private void scan(Source source, long maxBytes) throws IOException {
+        mSize = source.size();
+        byte[] bytes = new byte[HEADER_SIZE];
+        ByteBuffer header = ByteBuffer.wrap(bytes);
+        if (source.read(0, bytes, 2) < 2 || header.getShort(0) != JpegHeader.SOI) {
+            return;
+        }
+        add(JpegHeader.SOI, 0, 0);
+        long pos = 2;
+        while (true) {
+            if (pos >= maxBytes) {
+                mLimited = true;
+                return;
+            }
+            int n = source.read(pos, bytes, HEADER_SIZE);
+            if (n < 2 || bytes[0] != (byte) 0xff) {
+                return;
+            }
+            if (bytes[1] == (byte) 0xff) {
+                // Fill byte before the marker.
+                pos++;
+                continue;
+            }
+            short marker = header.getShort(0);
+            if (JpegHeader.isStandaloneMarker(marker)) {
+                add(marker, pos, 0);
+                pos += 2;
+                continue;
+            }
+            if (marker == JpegHeader.EOI) {
+                add(marker, pos, 0);
+                mComplete = true;
+                return;
+            }
+            if (n < 4) {
+                return;
+            }
+            int length = header.getShort(2) & 0xffff;
+            if (length < 2) {
+                return;
+            }
+            if (pos + 2 + length > maxBytes) {
+                mLimited = true;
+                return;
+            }
+            int i = add(marker, pos, length);
+            if (JpegHeader.isSofMarker(marker)) {
+                if (mSofSegment < 0) {
+                    mSofSegment = i;
+                }
+            } else if (marker == JpegHeader.APP1 && mExifSegment < 0 && mSofSegment < 0
+                    && length >= 8 && n == HEADER_SIZE
+                    && header.getInt(4) == EXIF_HEADER && header.getShort(8) == 0) {
+                mExifSegment = i;
+            } else if (marker == JpegHeader.SOS) {
+                mComplete = true;
+                return;
+            }
+            pos += 2 + length;
+        }
+    }
+
+    private int add(short marker, long offset, int length) {
+        if (mCount == mMarkers.length) {
+            int capacity = mCount * 2;
+            short[] markers = new short[capacity];
+            long[] offsets = new long[capacity];
+            int[] lengths = new int[capacity];
+            System.arraycopy(mMarkers, 0, markers, 0, mCount);
+            System.arraycopy(mOffsets, 0, offsets, 0, mCount);
+            System.arraycopy(mLengths, 0, lengths, 0, mCount);
+            mMarkers = markers;
+            mOffsets = offsets;
+            mLengths = lengths;
+        }
+        mMarkers[mCount] = marker;
+        mOffsets[mCount] = offset;
+        mLengths[mCount] = length;
+        return mCount++;
+    }
+
+    /**
+     * Returns the offset of the first complete APP1 segment holding exif data
+     * before SOF in data[offset, end), or -1 if there is none. Unlike a scan,
+     * this records no segments and allocates nothing, for probes which only
+     * need the exif data.
+     */
+    static int findExifSegment(ByteBuffer data, int offset, int end) {
+        if (end - offset < 2 || getShort(data, offset) != JpegHeader.SOI) {
+            return -1;
+        }
+        int pos = offset + 2;
+        while (pos + 2 <= end) {
+            if (data.get(pos) != (byte) 0xff) {
+                return -1;
+            }
+            if (data.get(pos + 1) == (byte) 0xff) {
+                // Fill byte before the marker.
+                pos++;
+                continue;
+            }
+            short marker = getShort(data, pos);
+            if (JpegHeader.isStandaloneMarker(marker)) {
+                pos += 2;
+                continue;
+            }
+            if (marker == JpegHeader.EOI || marker == JpegHeader.SOS
+                    || JpegHeader.isSofMarker(marker) || pos + 4 > end) {
+                return -1;
+            }
+            int length = getShort(data, pos + 2) & 0xffff;
+            if (length < 2 || pos + 2 + length > end) {
+                return -1;
+            }
+            if (marker == JpegHeader.APP1 && length >= 8
+                    && getShort(data, pos + 4) == (short) (EXIF_HEADER >>> 16)
+                    && getShort(data, pos + 6) == (short) EXIF_HEADER
+                    && getShort(data, pos + 8) == 0) {
+                return pos;
+            }
+            pos += 2 + length;
+        }
+        return -1;
+    }
+
+    /**
+     * Like {@link #findExifSegment(ByteBuffer, int, int)}, on an array so that
+     * callers holding one need not wrap it in a buffer.
+     */
+    static int findExifSegment(byte[] data, int offset, int end) {
+        if (end - offset < 2 || getShort(data, offset) != JpegHeader.SOI) {
+            return -1;
+        }
+        int pos = offset + 2;
+        while (pos + 2 <= end) {
+            if (data[pos] != (byte) 0xff) {
+                return -1;
+            }
+            if (data[pos + 1] == (byte) 0xff) {
+                // Fill byte before the marker.
+                pos++;
+                continue;
+            }
+            short marker = getShort(data, pos);
+            if (JpegHeader.isStandaloneMarker(marker)) {
+                pos += 2;
+                continue;
+            }
+            if (marker == JpegHeader.EOI || marker == JpegHeader.SOS
+                    || JpegHeader.isSofMarker(marker) || pos + 4 > end) {
+                return -1;
+            }
+            int length = getShort(data, pos + 2) & 0xffff;
+            if (length < 2 || pos + 2 + length > end) {
+                return -1;
+            }
+            if (marker == JpegHeader.APP1 && length >= 8
+                    && getShort(data, pos + 4) == (short) (EXIF_HEADER >>> 16)
+                    && getShort(data, pos + 6) == (short) EXIF_HEADER
+                    && getShort(data, pos + 8) == 0) {
+                return pos;
+            }
+            pos += 2 + length;
+        }
+        return -1;
+    }
+
+    /**
+     * Reads a big endian short whatever the order of the buffer.
+     */
+    private static short getShort(ByteBuffer data, int pos) {
+        return (short) ((data.get(pos) & 0xff) << 8 | (data.get(pos + 1) & 0xff));
+    }
+
+    private static short getShort(byte[] data, int pos) {
+        return (short) ((data[pos] & 0xff) << 8 | (data[pos + 1] & 0xff));
+    }
+
+    /**
+     * Returns the number of markers found, 0 if the data does not start with
+     * SOI.
+     */
+    public int getSegmentCount() {
+        return mCount;
+    }
+
+    /**
+     * Returns the marker of the segment, e.g. {link JpegHeader#APP1}.
+     */
+    public short getMarker(int segment) {
+        return mMarkers[segment];
+    }
+
+    public long getOffset(int segment) {
+        return mOffsets[segment];
+    }
+
+    /**
+     * Returns the value of the length field of the segment, which counts the
+     * field itself but not the marker, or 0 for markers without length.
+     */
+    public int getLength(int segment) {
+        return mLengths[segment];
+    }
+
+    /**
+     * Returns the offset following the segment, which may be beyond
+     * {@link #getSize()} for a truncated segment.
+     */
+    public long getEnd(int segment) {
+        return mLengths[segment] == 0 ? mOffsets[segment] + 2
+                : mOffsets[segment] + 2 + mLengths[segment];
+    }
+
+    /**
+     * Returns the index of the first segment with the given marker, or -1.
+     */
+    public int find(short marker) {
+        for (int i = 0; i < mCount; i++) {
+            if (mMarkers[i] == marker) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the index of the first SOF segment, or -1.
+     */
+    public int getSofSegment() {
+        return mSofSegment;
+    }
+
+    /**
+     * Returns the index of the first APP1 segment holding exif data before
+     * the SOF segment, or -1 if there is none.
+     */
+    public int getExifSegment() {
+        return mExifSegment;
+    }
+
+    /**
+     * Returns true if the scan reached SOS or EOI.
+     */
+    public boolean isComplete() {
+        return mComplete;
+    }
+
+    /**
+     * Returns true if the scan stopped at the byte limit it was given.
+     */
+    boolean isLimited() {
+        return mLimited;
+    }
+
+    /**
+     * Returns the size of the data scanned.
+     */
+    public long getSize() {
+        return mSize;
+    }
+
+    private abstract static class Source {
+        abstract long size();
+
+        /**
+         * Copies up to count bytes at position into dst and returns the
+         * number of bytes copied.
+         */
+        abstract int read(long position, byte[] dst, int count) throws IOException;
+    }
+
+    private static class BufferSource extends Source {
+        private final ByteBuffer mData;
+        private final int mStart;
+
+        BufferSource(ByteBuffer data) {
+            mData = data;
+            mStart = data.position();
+        }
+
+        @Override
+        long size() {
+            return mData.limit() - mStart;
+        }
+
+        @Override
+        int read(long position, byte[] dst, int count) {
+            int n = (int) Math.max(0, Math.min(count, size() - position));
+            for (int i = 0; i < n; i++) {
+                dst[i] = mData.get(mStart + (int) position + i);
+            }
+            return n;
+        }
+    }
+
+    private static class ChannelSource extends Source {
+        private final FileChannel mChannel;
+        private final long mSize;
+        private final ByteBuffer mWindow = ByteBuffer.allocate(WINDOW_SIZE);
+        private long mWindowStart;
+
+        ChannelSource(FileChannel channel) throws IOException {
+            mChannel = channel;
+            mSize = channel.size();
+            mWindow.limit(0);
+        }
+
+        @Override
+        long size() {
+            return mSize;
+        }
+
+        @Override
+        int read(long position, byte[] dst, int count) throws IOException {
+            if (position < mWindowStart || position + count > mWindowStart + mWindow.limit()) {
+                mWindow.clear();
+                while (mWindow.hasRemaining()) {
+                    if (mChannel.read(mWindow, position + mWindow.position()) <= 0) {
+                        break;
+                    }
+                }
+                mWindow.flip();
+                mWindowStart = position;
+            }
+            int n = (int) Math.max(0, Math.min(count, mWindowStart + mWindow.limit() - position));
+            System.arraycopy(mWindow.array(), (int) (position - mWindowStart), dst, 0, n);
+            return n;
+        }
+    }
+}
@@ -49,8 +49,13 @@ class OrderedDataOutputStream extends FilterOutputStream {
     }
 
     public OrderedDataOutputStream writeRational(Rational rational) throws IOException {
-        writeInt((int) rational.getNumerator());
-        writeInt((int) rational.getDenominator());
+        return writeRational(rational.getNumerator(), rational.getDenominator());
+    }
+
+    public OrderedDataOutputStream writeRational(long numerator, long denominator)
+            throws IOException {
+        writeInt((int) numerator);
+        writeInt((int) denominator);
         return this;
     }
 }
@@ -0,0 +1,123 @@
+package com.idonans.icamera.exif;
+
+import java.util.Arrays;
+
+/**
+ * An immutable map from defined tag constants (see
+ * {@link ExifInterface#defineTag(int, short)}) to packed tag information.
+ * Keys are kept sorted in a primitive array and looked up with a binary
+ * search, so a single instance can be shared by every {@link ExifInterface}.
+ * {@link #put(int, int)} and {@link #delete(int)} return modified copies and
+ * leave the receiver untouched. It is public since subclasses of
+ * {@link ExifInterface} get it from {@link ExifInterface#getTagInfo()}.
+ */
+public final class TagInfoTable {
+
+    private final int[] mKeys;
+    private final int[] mValues;
+
+    private TagInfoTable(int[] keys, int[] values) {
+        mKeys = keys;
+        mValues = values;
+    }
+
+    /**
+     * Returns the info mapped to the given key or
+     * {@link ExifInterface#DEFINITION_NULL} if there is none.
+     */
+    public int get(int key) {
+        int i = Arrays.binarySearch(mKeys, key);
+        return i < 0 ? ExifInterface.DEFINITION_NULL : mValues[i];
+    }
+
+    /**
+     * Returns a table with the given mapping added or replaced.
+     */
+    public TagInfoTable put(int key, int value) {
+        int i = Arrays.binarySearch(mKeys, key);
+        if (i >= 0) {
+            if (mValues[i] == value) {
+                return this;
+            }
+            int[] values = mValues.clone();
+            values[i] = value;
+            return new TagInfoTable(mKeys, values);
+        }
+        i = ~i;
+        int size = mKeys.length;
+        int[] keys = new int[size + 1];
+        int[] values = new int[size + 1];
+        System.arraycopy(mKeys, 0, keys, 0, i);
+        System.arraycopy(mValues, 0, values, 0, i);
+        keys[i] = key;
+        values[i] = value;
+        System.arraycopy(mKeys, i, keys, i + 1, size - i);
+        System.arraycopy(mValues, i, values, i + 1, size - i);
+        return new TagInfoTable(keys, values);
+    }
+
+    /**
+     * Returns a table without the mapping for the given key.
+     */
+    public TagInfoTable delete(int key) {
+        int i = Arrays.binarySearch(mKeys, key);
+        if (i < 0) {
+            return this;
+        }
+        int size = mKeys.length;
+        int[] keys = new int[size - 1];
+        int[] values = new int[size - 1];
+        System.arraycopy(mKeys, 0, keys, 0, i);
+        System.arraycopy(mValues, 0, values, 0, i);
+        System.arraycopy(mKeys, i + 1, keys, i, size - i - 1);
+        System.arraycopy(mValues, i + 1, values, i, size - i - 1);
+        return new TagInfoTable(keys, values);
+    }
+
+    public int size() {
+        return mKeys.length;
+    }
+
+    /**
+     * Collects mappings in any order and builds a sorted table. Later puts
+     * of the same key win.
+     */
+    static class Builder {
+        private int[] mKeys = new int[128];
+        private int[] mValues = new int[128];
+        private int mSize;
+
+        protected Builder put(int key, int value) {
+            for (int i = 0; i < mSize; i++) {
+                if (mKeys[i] == key) {
+                    mValues[i] = value;
+                    return this;
+                }
+            }
+            if (mSize == mKeys.length) {
+                mKeys = Arrays.copyOf(mKeys, mSize * 2);
+                mValues = Arrays.copyOf(mValues, mSize * 2);
+            }
+            mKeys[mSize] = key;
+            mValues[mSize] = value;
+            mSize++;
+            return this;
+        }
+
+        protected TagInfoTable build() {
+            long[] entries = new long[mSize];
+            for (int i = 0; i < mSize; i++) {
+                entries[i] = ((long) mKeys[i] << 32) | (mValues[i] & 0xffffffffL);
+            }
+            Arrays.sort(entries);
+            int[] keys = new int[mSize];
+            int[] values = new int[mSize];
+            for (int i = 0; i < mSize; i++) {
+                keys[i] = (int) (entries[i] >> 32);
+                values[i] = (int) entries[i];
+            }
+            return new TagInfoTable(keys, values);
+        }
+    }
+
+}
@@ -0,0 +1,162 @@
+package com.idonans.icamera.jpeg;
+
+import java.io.IOException;
+
+/**
+ * A Huffman table as stored in a DHT segment: the number of codes of each
+ * length and the symbols in code order. Holds the lookup tables to decode
+ * and the codes to encode with it.
+ */
+final class HuffmanTable {
+
+    // Codes up to this length are decoded with a single lookup
+    static final int LOOKAHEAD = 9;
+
+    // mBits[i] is the number of codes of length i, 1 <= i <= 16
+    final int[] mBits;
+    final int[] mValues;
+
+    // Decoding, the largest code of each length or -1, and the index in
+    // mValues of a code minus the first code of its length
+    final int[] mMaxCode = new int[18];
+    final int[] mValueOffset = new int[17];
+    // (length << 8 | symbol) for each LOOKAHEAD bits prefix, 0 for longer codes
+    final int[] mLookup = new int[1 << LOOKAHEAD];
+
+    // Encoding, the code and its length by symbol
+    final int[] mCodes = new int[256];
+    final int[] mSizes = new int[256];
+
+    HuffmanTable(int[] bits, int[] values) throws IOException {
+        mBits = bits;
+        mValues = values;
+        int code = 0;
+        int k = 0;
+        for (int length = 1; length <= 16; length++) {
+            mValueOffset[length] = k - code;
+            for (int i = 0; i < bits[length]; i++) {
+                // Checked before the code is used as an index in mLookup
+                if (code >= 1 << length) {
+                    throw new IOException("Invalid Huffman table");
+                }
+                int symbol = values[k++];
+                mCodes[symbol] = code;
+                mSizes[symbol] = length;
+                if (length <= LOOKAHEAD) {
+                    int shift = LOOKAHEAD - length;
+                    int first = code << shift;
+                    for (int j = 0; j < 1 << shift; j++) {
+                        mLookup[first + j] = length << 8 | symbol;
+                    }
+                }
+                code++;
+            }
+            mMaxCode[length] = bits[length] != 0 ? code - 1 : -1;
+            code <<= 1;
+        }
+        mMaxCode[17] = Integer.MAX_VALUE;
+    }
+
+    /**
+     * Builds the table with the shortest codes for the given symbol
+     * frequencies, see the JPEG specification K.2. No code is longer than 16
+     * bits or made of 1 bits only.
+     *
+     * @param freq the frequencies of the 256 symbols, the array is modified.
+     */
+    static HuffmanTable build(int[] freq) throws IOException {
+        int[] f = new int[257];
+        System.arraycopy(freq, 0, f, 0, 256);
+        boolean any = false;
+        for (int i = 0; i < 256; i++) {
+            any |= f[i] != 0;
+        }
+        if (!any) {
+            // Keep one symbol, some decoders reject empty tables
+            f[0] = 1;
+        }
+        // Reserves the code of 1 bits only
+        f[256] = 1;
+        int[] codeSize = new int[257];
+        int[] others = new int[257];
+        for (int i = 0; i < 257; i++) {
+            others[i] = -1;
+        }
+        while (true) {
+            // The two least frequent symbols, the largest one on ties
+            int c1 = -1;
+            long v = Long.MAX_VALUE;
+            for (int i = 0; i < 257; i++) {
+                if (f[i] != 0 && f[i] <= v) {
+                    v = f[i];
+                    c1 = i;
+                }
+            }
+            int c2 = -1;
+            v = Long.MAX_VALUE;
+            for (int i = 0; i < 257; i++) {
+                if (f[i] != 0 && f[i] <= v && i != c1) {
+                    v = f[i];
+                    c2 = i;
+                }
+            }
+            if (c2 < 0) {
+                break;
+            }
+            f[c1] += f[c2];
+            f[c2] = 0;
+            codeSize[c1]++;
+            while (others[c1] >= 0) {
+                c1 = others[c1];
+                codeSize[c1]++;
+            }
+            others[c1] = c2;
+            codeSize[c2]++;
+            while (others[c2] >= 0) {
+                c2 = others[c2];
+                codeSize[c2]++;
+            }
+        }
+
+        int[] bits = new int[33];
+        for (int i = 0; i < 257; i++) {
+            if (codeSize[i] != 0) {
+                bits[codeSize[i]]++;
+            }
+        }
+        // Shortens the codes longer than 16 bits
+        for (int i = 32; i > 16; i--) {
+            while (bits[i] > 0) {
+                int j = i - 2;
+                while (bits[j] == 0) {
+                    j--;
+                }
+                bits[i] -= 2;
+                bits[i - 1]++;
+                bits[j + 1] += 2;
+                bits[j]--;
+            }
+        }
+        // Drops the reserved code, the longest one
+        int i = 16;
+        while (bits[i] == 0) {
+            i--;
+        }
+        bits[i]--;
+
+        int count = 0;
+        int[] values = new int[256];
+        for (int length = 1; length <= 32; length++) {
+            for (int symbol = 0; symbol < 256; symbol++) {
+                if (codeSize[symbol] == length) {
+                    values[count++] = symbol;
+                }
+            }
+        }
+        int[] tableBits = new int[17];
+        System.arraycopy(bits, 0, tableBits, 0, 17);
+        int[] tableValues = new int[count];
+        System.arraycopy(values, 0, tableValues, 0, count);
+        return new HuffmanTable(tableBits, tableValues);
+    }
+}
@@ -0,0 +1,464 @@
+package com.idonans.icamera.jpeg;
+
+import com.idonans.icamera.exif.JpegHeader;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads the DCT coefficients of a sequential Huffman coded JPEG, baseline or
+ * extended with 8-bit samples, without running the inverse DCT. Progressive,
+ * arithmetic coded, lossless and hierarchical JPEGs are not supported.
+ */
+final class JpegDecoder {
+
+    // Natural order index of each zigzag position
+    static final int[] ZIGZAG = {
+            0, 1, 8, 16, 9, 2, 3, 10,
+            17, 24, 32, 25, 18, 11, 4, 5,
+            12, 19, 26, 33, 40, 48, 41, 34,
+            27, 20, 13, 6, 7, 14, 21, 28,
+            35, 42, 49, 56, 57, 50, 43, 36,
+            29, 22, 15, 23, 30, 37, 44, 51,
+            58, 59, 52, 45, 38, 31, 39, 46,
+            53, 60, 61, 54, 47, 55, 62, 63,
+    };
+
+    /**
+     * One color component of the frame and its coefficients.
+     */
+    static final class Component {
+        int mId;
+        int mH;
+        int mV;
+        int mQuantTable;
+        // Size of the block grid, padded to whole MCUs
+        int mBlocksWide;
+        int mBlocksHigh;
+        // 64 coefficients in natural order for each block, row by row
+        short[] mCoefficients;
+
+        int mDcTable;
+        int mAcTable;
+        int mDcPredictor;
+    }
+
+    private final byte[] mData;
+    private final int mLimit;
+    private int mPos;
+
+    int mWidth;
+    int mHeight;
+    int mMaxH;
+    int mMaxV;
+    Component[] mComponents;
+    int[][] mQuantTables = new int[4][];
+    boolean[] mQuantTable16Bit = new boolean[4];
+    // APPn and COM segments, marker included, in file order
+    final List<byte[]> mMarkers = new ArrayList<byte[]>();
+
+    private final HuffmanTable[] mDcTables = new HuffmanTable[4];
+    private final HuffmanTable[] mAcTables = new HuffmanTable[4];
+    private int mRestartInterval;
+
+    private int mBitBuffer;
+    private int mBitCount;
+    private boolean mMarkerHit;
+
+    JpegDecoder(byte[] data, int offset, int length) {
+        mData = data;
+        mPos = offset;
+        mLimit = offset + length;
+    }
+
+    /**
+     * Reads the markers and the scans up to EOI.
+     *
+     * @throws IOException if the data is malformed or not supported.
+     */
+    void decode() throws IOException {
+        if (readMarker() != JpegHeader.SOI) {
+            throw new IOException("Invalid JPEG format");
+        }
+        boolean scanned = false;
+        while (true) {
+            short marker = readMarker();
+            if (marker == JpegHeader.EOI) {
+                break;
+            }
+            if (JpegHeader.isStandaloneMarker(marker)) {
+                continue;
+            }
+            int length = readUnsignedShort();
+            int start = mPos;
+            int end = mPos + length - 2;
+            if (length < 2 || end > mLimit) {
+                throw new IOException("Invalid JPEG segment length");
+            }
+            if (marker == JpegHeader.SOF0 || marker == (short) 0xFFC1) {
+                readFrame(end);
+            } else if (JpegHeader.isSofMarker(marker)) {
+                throw new IOException("Unsupported JPEG process: 0x"
+                        + Integer.toHexString(marker & 0xffff));
+            } else if (marker == JpegHeader.DAC) {
+                throw new IOException("Unsupported JPEG process: arithmetic coding");
+            } else if (marker == JpegHeader.DHT) {
+                readHuffmanTables(end);
+            } else if (marker == JpegHeader.DQT) {
+                readQuantTables(end);
+            } else if (marker == JpegHeader.DRI) {
+                mRestartInterval = readUnsignedShort();
+            } else if (marker == JpegHeader.SOS) {
+                if (mComponents == null) {
+                    throw new IOException("SOS before SOF");
+                }
+                readScan(end);
+                scanned = true;
+                continue;
+            } else if (JpegHeader.isAppMarker(marker) || marker == JpegHeader.COM) {
+                byte[] segment = new byte[length + 2];
+                System.arraycopy(mData, start - 4, segment, 0, segment.length);
+                mMarkers.add(segment);
+            }
+            mPos = end;
+        }
+        if (!scanned) {
+            throw new IOException("No scan in JPEG");
+        }
+        for (Component c : mComponents) {
+            if (mQuantTables[c.mQuantTable] == null) {
+                throw new IOException("Missing JPEG quantization table");
+            }
+        }
+    }
+
+    /**
+     * Returns the next marker, skipping fill bytes.
+     */
+    private short readMarker() throws IOException {
+        if (mPos >= mLimit || mData[mPos] != (byte) 0xff) {
+            throw new IOException("Invalid JPEG marker");
+        }
+        while (mPos < mLimit && mData[mPos] == (byte) 0xff) {
+            mPos++;
+        }
+        if (mPos >= mLimit) {
+            throw new IOException("Truncated JPEG");
+        }
+        return (short) (0xff00 | (mData[mPos++] & 0xff));
+    }
+
+    private int readUnsignedShort() throws IOException {
+        if (mPos + 2 > mLimit) {
+            throw new IOException("Truncated JPEG");
+        }
+        int value = (mData[mPos] & 0xff) << 8 | (mData[mPos + 1] & 0xff);
+        mPos += 2;
+        return value;
+    }
+
+    private int readUnsignedByte(int end) throws IOException {
+        if (mPos >= end) {
+            throw new IOException("Invalid JPEG segment length");
+        }
+        return mData[mPos++] & 0xff;
+    }
+
+    private void readFrame(int end) throws IOException {
+        if (mComponents != null) {
+            throw new IOException("Multiple SOF in JPEG");
+        }
+        if (readUnsignedByte(end) != 8) {
+            throw new IOException("Unsupported JPEG sample precision");
+        }
+        mHeight = readUnsignedByte(end) << 8 | readUnsignedByte(end);
+        mWidth = readUnsignedByte(end) << 8 | readUnsignedByte(end);
+        int count = readUnsignedByte(end);
+        if (mWidth == 0 || mHeight == 0 || count == 0 || count > 4) {
+            throw new IOException("Unsupported JPEG frame " + mWidth + "x" + mHeight
+                    + ", " + count + " components");
+        }
+        mComponents = new Component[count];
+        for (int i = 0; i < count; i++) {
+            Component c = new Component();
+            c.mId = readUnsignedByte(end);
+            int sampling = readUnsignedByte(end);
+            c.mH = sampling >> 4;
+            c.mV = sampling & 0x0f;
+            c.mQuantTable = readUnsignedByte(end);
+            if (c.mH < 1 || c.mH > 4 || c.mV < 1 || c.mV > 4 || c.mQuantTable > 3) {
+                throw new IOException("Invalid JPEG component");
+            }
+            mMaxH = Math.max(mMaxH, c.mH);
+            mMaxV = Math.max(mMaxV, c.mV);
+            mComponents[i] = c;
+        }
+        int mcusWide = (mWidth + 8 * mMaxH - 1) / (8 * mMaxH);
+        int mcusHigh = (mHeight + 8 * mMaxV - 1) / (8 * mMaxV);
+        for (Component c : mComponents) {
+            c.mBlocksWide = mcusWide * c.mH;
+            c.mBlocksHigh = mcusHigh * c.mV;
+            long size = (long) c.mBlocksWide * c.mBlocksHigh * 64;
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException("JPEG too large " + mWidth + "x" + mHeight);
+            }
+            c.mCoefficients = new short[(int) size];
+        }
+    }
+
+    private void readQuantTables(int end) throws IOException {
+        while (mPos < end) {
+            int info = readUnsignedByte(end);
+            int precision = info >> 4;
+            int id = info & 0x0f;
+            if (precision > 1 || id > 3) {
+                throw new IOException("Invalid JPEG quantization table");
+            }
+            int[] table = new int[64];
+            for (int i = 0; i < 64; i++) {
+                int value = readUnsignedByte(end);
+                if (precision == 1) {
+                    value = value << 8 | readUnsignedByte(end);
+                }
+                table[ZIGZAG[i]] = value;
+            }
+            mQuantTables[id] = table;
+            mQuantTable16Bit[id] = precision == 1;
+        }
+    }
+
+    private void readHuffmanTables(int end) throws IOException {
+        while (mPos < end) {
+            int info = readUnsignedByte(end);
+            int tableClass = info >> 4;
+            int id = info & 0x0f;
+            if (tableClass > 1 || id > 3) {
+                throw new IOException("Invalid JPEG Huffman table");
+            }
+            int[] bits = new int[17];
+            int count = 0;
+            for (int i = 1; i <= 16; i++) {
+                bits[i] = readUnsignedByte(end);
+                count += bits[i];
+            }
+            if (count > 256) {
+                throw new IOException("Invalid JPEG Huffman table");
+            }
+            int[] values = new int[count];
+            for (int i = 0; i < count; i++) {
+                values[i] = readUnsignedByte(end);
+            }
+            HuffmanTable table = new HuffmanTable(bits, values);
+            if (tableClass == 0) {
+                mDcTables[id] = table;
+            } else {
+                mAcTables[id] = table;
+            }
+        }
+    }
+
+    private void readScan(int end) throws IOException {
+        int count = readUnsignedByte(end);
+        if (count < 1 || count > 4) {
+            throw new IOException("Invalid JPEG scan");
+        }
+        Component[] components = new Component[count];
+        for (int i = 0; i < count; i++) {
+            int id = readUnsignedByte(end);
+            int tables = readUnsignedByte(end);
+            for (Component c : mComponents) {
+                if (c.mId == id) {
+                    components[i] = c;
+                }
+            }
+            Component c = components[i];
+            if (c == null) {
+                throw new IOException("Invalid JPEG scan component " + id);
+            }
+            c.mDcTable = tables >> 4;
+            c.mAcTable = tables & 0x0f;
+            if (c.mDcTable > 3 || c.mAcTable > 3
+                    || mDcTables[c.mDcTable] == null || mAcTables[c.mAcTable] == null) {
+                throw new IOException("Missing JPEG Huffman table");
+            }
+            c.mDcPredictor = 0;
+        }
+        int ss = readUnsignedByte(end);
+        int se = readUnsignedByte(end);
+        int approximation = readUnsignedByte(end);
+        if (ss != 0 || se != 63 || approximation != 0) {
+            throw new IOException("Unsupported JPEG scan");
+        }
+        mPos = end;
+        mBitBuffer = 0;
+        mBitCount = 0;
+        mMarkerHit = false;
+
+        int restarts = 0;
+        if (count == 1) {
+            // Non interleaved, the blocks of the component inside the image only
+            Component c = components[0];
+            int wide = (ceilDiv(mWidth * c.mH, mMaxH) + 7) / 8;
+            int high = (ceilDiv(mHeight * c.mV, mMaxV) + 7) / 8;
+            for (int y = 0; y < high; y++) {
+                for (int x = 0; x < wide; x++) {
+                    if (mRestartInterval != 0 && restarts == mRestartInterval) {
+                        restart(components);
+                        restarts = 0;
+                    }
+                    decodeBlock(c, (y * c.mBlocksWide + x) * 64);
+                    restarts++;
+                }
+            }
+        } else {
+            int mcusWide = components[0].mBlocksWide / components[0].mH;
+            int mcusHigh = components[0].mBlocksHigh / components[0].mV;
+            for (int my = 0; my < mcusHigh; my++) {
+                for (int mx = 0; mx < mcusWide; mx++) {
+                    if (mRestartInterval != 0 && restarts == mRestartInterval) {
+                        restart(components);
+                        restarts = 0;
+                    }
+                    for (Component c : components) {
+                        for (int v = 0; v < c.mV; v++) {
+                            int row = (my * c.mV + v) * c.mBlocksWide + mx * c.mH;
+                            for (int h = 0; h < c.mH; h++) {
+                                decodeBlock(c, (row + h) * 64);
+                            }
+                        }
+                    }
+                    restarts++;
+                }
+            }
+        }
+        skipToMarker();
+    }
+
+    private static int ceilDiv(int a, int b) {
+        return (a + b - 1) / b;
+    }
+
+    /**
+     * Discards the bits left before a RSTn marker, skips the marker and
+     * resets the DC predictors.
+     */
+    private void restart(Component[] components) throws IOException {
+        mBitBuffer = 0;
+        mBitCount = 0;
+        mMarkerHit = false;
+        skipToMarker();
+        if (mPos + 1 < mLimit && (mData[mPos + 1] & 0xf8) == 0xd0) {
+            mPos += 2;
+        } else {
+            throw new IOException("Missing JPEG restart marker");
+        }
+        for (Component c : components) {
+            c.mDcPredictor = 0;
+        }
+    }
+
+    /**
+     * Moves to the next marker which is not a stuffed 0xFF.
+     */
+    private void skipToMarker() throws IOException {
+        while (mPos + 1 < mLimit) {
+            if (mData[mPos] == (byte) 0xff && mData[mPos + 1] != 0
+                    && mData[mPos + 1] != (byte) 0xff) {
+                return;
+            }
+            mPos++;
+        }
+        throw new IOException("Truncated JPEG scan");
+    }
+
+    private void decodeBlock(Component c, int offset) throws IOException {
+        short[] coefficients = c.mCoefficients;
+        int s = decodeSymbol(mDcTables[c.mDcTable]);
+        int dc = c.mDcPredictor + receiveExtend(s);
+        c.mDcPredictor = dc;
+        coefficients[offset] = (short) dc;
+
+        HuffmanTable ac = mAcTables[c.mAcTable];
+        for (int k = 1; k < 64; k++) {
+            int rs = decodeSymbol(ac);
+            int r = rs >> 4;
+            s = rs & 0x0f;
+            if (s == 0) {
+                if (r != 15) {
+                    break;
+                }
+                k += 15;
+            } else {
+                k += r;
+                if (k > 63) {
+                    throw new IOException("Invalid JPEG coefficient index");
+                }
+                coefficients[offset + ZIGZAG[k]] = (short) receiveExtend(s);
+            }
+        }
+    }
+
+    /**
+     * Tops up the bit buffer to more than 24 bits, feeding zeros once a
+     * marker is reached.
+     */
+    private void fill() {
+        while (mBitCount <= 24) {
+            int b = 0;
+            if (!mMarkerHit && mPos < mLimit) {
+                b = mData[mPos] & 0xff;
+                if (b == 0xff) {
+                    if (mPos + 1 < mLimit && mData[mPos + 1] == 0) {
+                        mPos += 2;
+                    } else {
+                        mMarkerHit = true;
+                        b = 0;
+                    }
+                } else {
+                    mPos++;
+                }
+            }
+            mBitBuffer |= b << (24 - mBitCount);
+            mBitCount += 8;
+        }
+    }
+
+    private int decodeSymbol(HuffmanTable table) throws IOException {
+        if (mBitCount < 16) {
+            fill();
+        }
+        int entry = table.mLookup[mBitBuffer >>> (32 - HuffmanTable.LOOKAHEAD)];
+        if (entry != 0) {
+            int length = entry >> 8;
+            mBitBuffer <<= length;
+            mBitCount -= length;
+            return entry & 0xff;
+        }
+        for (int length = HuffmanTable.LOOKAHEAD + 1; length <= 16; length++) {
+            int code = mBitBuffer >>> (32 - length);
+            if (code <= table.mMaxCode[length]) {
+                mBitBuffer <<= length;
+                mBitCount -= length;
+                return table.mValues[table.mValueOffset[length] + code];
+            }
+        }
+        throw new IOException("Invalid JPEG Huffman code");
+    }
+
+    private int receiveExtend(int s) {
+        if (s == 0) {
+            return 0;
+        }
+        if (mBitCount < s) {
+            fill();
+        }
+        int value = mBitBuffer >>> (32 - s);
+        mBitBuffer <<= s;
+        mBitCount -= s;
+        if (value < 1 << (s - 1)) {
+            value += (-1 << s) + 1;
+        }
+        return value;
+    }
+}
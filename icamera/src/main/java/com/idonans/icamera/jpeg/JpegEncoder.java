@@ -0,0 +1,375 @@
+package com.idonans.icamera.jpeg;
+
+import com.idonans.icamera.exif.JpegHeader;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Writes DCT coefficients as a sequential Huffman coded JPEG. Blocks are
+ * fetched from the decoded components through {@link Component}, which maps
+ * each output block to a source block and reorders its coefficients, so the
+ * transformed image is never stored. The Huffman tables are computed for the
+ * output in a first pass over the blocks.
+ */
+final class JpegEncoder {
+
+    // Interleaved scans are limited to 10 blocks per MCU
+    private static final int MAX_BLOCKS_IN_MCU = 10;
+
+    /**
+     * One output component and where its blocks come from.
+     */
+    static final class Component {
+        JpegDecoder.Component mSource;
+        int mH;
+        int mV;
+        // Output block grid, padded to whole MCUs
+        int mBlocksWide;
+        int mBlocksHigh;
+
+        // Output block (x, y) is at (x + mOffsetX, y + mOffsetY) in the
+        // transformed grid, of mGridWide by mGridHigh blocks before padding
+        int mOffsetX;
+        int mOffsetY;
+        int mGridWide;
+        int mGridHigh;
+        boolean mTranspose;
+        boolean mFlipX;
+        boolean mFlipY;
+
+        // Source index and sign of each output coefficient in natural order
+        int[] mIndex;
+        int[] mSign;
+
+        int mTable;
+        int mDcPredictor;
+
+        /**
+         * Returns the offset of the coefficients of the source block for the
+         * output block, or -1 if the block is blank.
+         */
+        int sourceOffset(int x, int y) {
+            x += mOffsetX;
+            y += mOffsetY;
+            if (mFlipX) {
+                x = mGridWide - 1 - x;
+            }
+            if (mFlipY) {
+                y = mGridHigh - 1 - y;
+            }
+            int sx = mTranspose ? y : x;
+            int sy = mTranspose ? x : y;
+            if (sx < 0 || sy < 0 || sx >= mSource.mBlocksWide || sy >= mSource.mBlocksHigh) {
+                return -1;
+            }
+            return (sy * mSource.mBlocksWide + sx) * 64;
+        }
+    }
+
+    private final int mWidth;
+    private final int mHeight;
+    private final Component[] mComponents;
+    private final int[][] mQuantTables;
+    private final boolean[] mQuantTable16Bit;
+    private final List<byte[]> mMarkers;
+
+    private final int[][] mDcFreq = new int[2][256];
+    private final int[][] mAcFreq = new int[2][256];
+    private final HuffmanTable[] mDcTables = new HuffmanTable[2];
+    private final HuffmanTable[] mAcTables = new HuffmanTable[2];
+    private final short[] mBlock = new short[64];
+    private boolean mCounting;
+
+    private byte[] mOut;
+    private int mSize;
+    private int mBitBuffer;
+    private int mBitCount;
+
+    JpegEncoder(int width, int height, Component[] components, int[][] quantTables,
+                boolean[] quantTable16Bit, List<byte[]> markers, int sizeHint) {
+        mWidth = width;
+        mHeight = height;
+        mComponents = components;
+        mQuantTables = quantTables;
+        mQuantTable16Bit = quantTable16Bit;
+        mMarkers = markers;
+        mOut = new byte[Math.max(sizeHint, 1024)];
+        for (int i = 0; i < components.length; i++) {
+            components[i].mTable = i == 0 ? 0 : 1;
+        }
+    }
+
+    byte[] encode() throws IOException {
+        Component[][] scans = getScans();
+        mCounting = true;
+        for (Component[] scan : scans) {
+            writeScan(scan);
+        }
+        int tables = mComponents.length > 1 ? 2 : 1;
+        for (int i = 0; i < tables; i++) {
+            mDcTables[i] = HuffmanTable.build(mDcFreq[i]);
+            mAcTables[i] = HuffmanTable.build(mAcFreq[i]);
+        }
+        mCounting = false;
+
+        writeMarker(JpegHeader.SOI);
+        for (byte[] marker : mMarkers) {
+            write(marker, 0, marker.length);
+        }
+        writeQuantTables();
+        writeFrame();
+        writeHuffmanTables(tables);
+        for (Component[] scan : scans) {
+            writeScanHeader(scan);
+            writeScan(scan);
+        }
+        writeMarker(JpegHeader.EOI);
+        return Arrays.copyOf(mOut, mSize);
+    }
+
+    /**
+     * Returns the components of each scan, all of them in one scan if they
+     * fit in an interleaved MCU.
+     */
+    private Component[][] getScans() {
+        int blocks = 0;
+        for (Component c : mComponents) {
+            blocks += c.mH * c.mV;
+        }
+        if (mComponents.length == 1 || blocks <= MAX_BLOCKS_IN_MCU) {
+            return new Component[][]{mComponents};
+        }
+        Component[][] scans = new Component[mComponents.length][];
+        for (int i = 0; i < mComponents.length; i++) {
+            scans[i] = new Component[]{mComponents[i]};
+        }
+        return scans;
+    }
+
+    private void writeQuantTables() {
+        for (int id = 0; id < mQuantTables.length; id++) {
+            int[] table = mQuantTables[id];
+            if (table == null) {
+                continue;
+            }
+            boolean wide = mQuantTable16Bit[id];
+            writeMarker(JpegHeader.DQT);
+            writeShort(2 + 1 + (wide ? 128 : 64));
+            writeByte((wide ? 0x10 : 0) | id);
+            for (int i = 0; i < 64; i++) {
+                int value = table[JpegDecoder.ZIGZAG[i]];
+                if (wide) {
+                    writeByte(value >> 8);
+                }
+                writeByte(value);
+            }
+        }
+    }
+
+    private void writeFrame() {
+        boolean extended = false;
+        for (int id = 0; id < mQuantTables.length; id++) {
+            extended |= mQuantTables[id] != null && mQuantTable16Bit[id];
+        }
+        // 16-bit quantization tables are not allowed in baseline
+        writeMarker(extended ? (short) 0xFFC1 : JpegHeader.SOF0);
+        writeShort(2 + 6 + 3 * mComponents.length);
+        writeByte(8);
+        writeShort(mHeight);
+        writeShort(mWidth);
+        writeByte(mComponents.length);
+        for (Component c : mComponents) {
+            writeByte(c.mSource.mId);
+            writeByte(c.mH << 4 | c.mV);
+            writeByte(c.mSource.mQuantTable);
+        }
+    }
+
+    private void writeHuffmanTables(int tables) {
+        for (int i = 0; i < tables; i++) {
+            writeHuffmanTable(0x00 | i, mDcTables[i]);
+            writeHuffmanTable(0x10 | i, mAcTables[i]);
+        }
+    }
+
+    private void writeHuffmanTable(int info, HuffmanTable table) {
+        writeMarker(JpegHeader.DHT);
+        writeShort(2 + 1 + 16 + table.mValues.length);
+        writeByte(info);
+        for (int i = 1; i <= 16; i++) {
+            writeByte(table.mBits[i]);
+        }
+        for (int value : table.mValues) {
+            writeByte(value);
+        }
+    }
+
+    private void writeScanHeader(Component[] scan) {
+        writeMarker(JpegHeader.SOS);
+        writeShort(2 + 1 + 2 * scan.length + 3);
+        writeByte(scan.length);
+        for (Component c : scan) {
+            writeByte(c.mSource.mId);
+            writeByte(c.mTable << 4 | c.mTable);
+        }
+        writeByte(0);
+        writeByte(63);
+        writeByte(0);
+    }
+
+    private void writeScan(Component[] scan) {
+        for (Component c : scan) {
+            c.mDcPredictor = 0;
+        }
+        mBitBuffer = 0;
+        mBitCount = 0;
+        if (scan.length == 1) {
+            // Non interleaved, the blocks of the component inside the image only
+            Component c = scan[0];
+            int maxH = 1;
+            int maxV = 1;
+            for (Component other : mComponents) {
+                maxH = Math.max(maxH, other.mH);
+                maxV = Math.max(maxV, other.mV);
+            }
+            int wide = ((mWidth * c.mH + maxH - 1) / maxH + 7) / 8;
+            int high = ((mHeight * c.mV + maxV - 1) / maxV + 7) / 8;
+            for (int y = 0; y < high; y++) {
+                for (int x = 0; x < wide; x++) {
+                    encodeBlock(c, x, y);
+                }
+            }
+        } else {
+            int mcusWide = scan[0].mBlocksWide / scan[0].mH;
+            int mcusHigh = scan[0].mBlocksHigh / scan[0].mV;
+            for (int my = 0; my < mcusHigh; my++) {
+                for (int mx = 0; mx < mcusWide; mx++) {
+                    for (Component c : scan) {
+                        for (int v = 0; v < c.mV; v++) {
+                            for (int h = 0; h < c.mH; h++) {
+                                encodeBlock(c, mx * c.mH + h, my * c.mV + v);
+                            }
+                        }
+                    }
+                }
+            }
+        }
+        if (!mCounting && mBitCount > 0) {
+            // Pads the last byte with 1 bits
+            writeBits(0x7f, 8 - mBitCount);
+        }
+    }
+
+    private void encodeBlock(Component c, int x, int y) {
+        short[] block = mBlock;
+        int offset = c.sourceOffset(x, y);
+        if (offset < 0) {
+            Arrays.fill(block, (short) 0);
+        } else {
+            short[] coefficients = c.mSource.mCoefficients;
+            int[] index = c.mIndex;
+            int[] sign = c.mSign;
+            for (int k = 0; k < 64; k++) {
+                block[k] = (short) (coefficients[offset + index[k]] * sign[k]);
+            }
+        }
+
+        int diff = block[0] - c.mDcPredictor;
+        c.mDcPredictor = block[0];
+        int s = bitLength(diff);
+        if (mCounting) {
+            mDcFreq[c.mTable][s]++;
+        } else {
+            writeSymbol(mDcTables[c.mTable], s);
+            writeValue(diff, s);
+        }
+
+        int[] acFreq = mAcFreq[c.mTable];
+        HuffmanTable ac = mAcTables[c.mTable];
+        int run = 0;
+        for (int k = 1; k < 64; k++) {
+            int value = block[JpegDecoder.ZIGZAG[k]];
+            if (value == 0) {
+                run++;
+                continue;
+            }
+            while (run > 15) {
+                if (mCounting) {
+                    acFreq[0xf0]++;
+                } else {
+                    writeSymbol(ac, 0xf0);
+                }
+                run -= 16;
+            }
+            s = bitLength(value);
+            if (mCounting) {
+                acFreq[run << 4 | s]++;
+            } else {
+                writeSymbol(ac, run << 4 | s);
+                writeValue(value, s);
+            }
+            run = 0;
+        }
+        if (run > 0) {
+            if (mCounting) {
+                acFreq[0]++;
+            } else {
+                writeSymbol(ac, 0);
+            }
+        }
+    }
+
+    private static int bitLength(int value) {
+        return 32 - Integer.numberOfLeadingZeros(value < 0 ? -value : value);
+    }
+
+    private void writeSymbol(HuffmanTable table, int symbol) {
+        writeBits(table.mCodes[symbol], table.mSizes[symbol]);
+    }
+
+    private void writeValue(int value, int s) {
+        if (s != 0) {
+            writeBits(value < 0 ? value - 1 : value, s);
+        }
+    }
+
+    private void writeBits(int bits, int count) {
+        mBitBuffer = mBitBuffer << count | (bits & ((1 << count) - 1));
+        mBitCount += count;
+        while (mBitCount >= 8) {
+            mBitCount -= 8;
+            int b = (mBitBuffer >> mBitCount) & 0xff;
+            writeByte(b);
+            if (b == 0xff) {
+                writeByte(0);
+            }
+        }
+        mBitBuffer &= (1 << mBitCount) - 1;
+    }
+
+    private void writeMarker(short marker) {
+        writeShort(marker & 0xffff);
+    }
+
+    private void writeShort(int value) {
+        writeByte(value >> 8);
+        writeByte(value);
+    }
+
+    private void writeByte(int value) {
+        if (mSize == mOut.length) {
+            mOut = Arrays.copyOf(mOut, mSize * 2);
+        }
+        mOut[mSize++] = (byte) value;
+    }
+
+    private void write(byte[] data, int offset, int length) {
+        if (mSize + length > mOut.length) {
+            mOut = Arrays.copyOf(mOut, Math.max(mSize * 2, mSize + length));
+        }
+        System.arraycopy(data, offset, mOut, mSize, length);
+        mSize += length;
+    }
+}
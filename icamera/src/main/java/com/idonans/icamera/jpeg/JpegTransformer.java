@@ -0,0 +1,282 @@
+package com.idonans.icamera.jpeg;
+
+import com.idonans.icamera.exif.ExifInterface;
+import com.idonans.icamera.exif.JpegHeader;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Rotates, flips and crops a JPEG without decoding it to pixels, like
+ * jpegtran. The blocks of DCT coefficients are moved and their signs flipped,
+ * then coded again with Huffman tables computed for the result. The
+ * quantized values are kept, so the image loses no quality.
+ * <p/>
+ * A flip moves the blocks of the right or bottom edge to the other side, so a
+ * partial MCU at that edge is dropped, like jpegtran -trim: the image loses
+ * up to 15 pixels of width or height. Only sequential Huffman coded JPEGs
+ * with 8-bit samples are supported, which covers the pictures of cameras.
+ * Restart markers are not written. APPn and COM segments are copied, see
+ * {@link #setCopyMarkers(boolean)}, exif data included: the orientation tag
+ * and the thumbnail are left as they are.
+ * <p/>
+ * The coefficients of the whole image are held in memory, about 2 bytes a
+ * pixel for YCbCr 4:2:0.
+ */
+public class JpegTransformer {
+
+    public static final int TRANSFORM_NONE = 0;
+    public static final int FLIP_HORIZONTAL = 1;
+    public static final int FLIP_VERTICAL = 2;
+    /**
+     * Mirrors across the top left to bottom right diagonal.
+     */
+    public static final int TRANSPOSE = 3;
+    /**
+     * Mirrors across the top right to bottom left diagonal.
+     */
+    public static final int TRANSVERSE = 4;
+    /**
+     * Rotates 90 degrees clockwise.
+     */
+    public static final int ROTATE_90 = 5;
+    public static final int ROTATE_180 = 6;
+    public static final int ROTATE_270 = 7;
+
+    private static final int APP14 = 0xFFEE;
+    private static final int JFIF = 0x4A464946; // "JFIF"
+    private static final int ADOBE = 0x41646F62; // "Adob"
+
+    private final int mTransform;
+    private boolean mCrop;
+    private int mCropX;
+    private int mCropY;
+    private int mCropWidth;
+    private int mCropHeight;
+    private boolean mCopyMarkers = true;
+
+    private int mWidth;
+    private int mHeight;
+
+    public JpegTransformer(int transform) {
+        if (transform < TRANSFORM_NONE || transform > ROTATE_270) {
+            throw new IllegalArgumentException("Invalid transform " + transform);
+        }
+        mTransform = transform;
+    }
+
+    /**
+     * Returns the transform which turns an image stored with the given
+     * orientation tag value upright, see {link ExifInterface.Orientation}.
+     * Unknown values give {@link #TRANSFORM_NONE}.
+     */
+    public static int getTransformForOrientation(short orientation) {
+        switch (orientation) {
+            case ExifInterface.Orientation.TOP_RIGHT:
+                return FLIP_HORIZONTAL;
+            case ExifInterface.Orientation.BOTTOM_LEFT:
+                return ROTATE_180;
+            case ExifInterface.Orientation.BOTTOM_RIGHT:
+                return FLIP_VERTICAL;
+            case ExifInterface.Orientation.LEFT_TOP:
+                return TRANSPOSE;
+            case ExifInterface.Orientation.RIGHT_TOP:
+                return ROTATE_90;
+            case ExifInterface.Orientation.LEFT_BOTTOM:
+                return TRANSVERSE;
+            case ExifInterface.Orientation.RIGHT_BOTTOM:
+                return ROTATE_270;
+            default:
+                return TRANSFORM_NONE;
+        }
+    }
+
+    /**
+     * Crops the transformed image to the given rectangle. The top left corner
+     * is moved up and left to the MCU boundary, 8 or 16 pixels, and the size
+     * grown by as much. The rectangle is clipped to the image.
+     */
+    public void setCrop(int x, int y, int width, int height) {
+        if (x < 0 || y < 0 || width <= 0 || height <= 0) {
+            throw new IllegalArgumentException("Invalid crop " + x + "," + y + " "
+                    + width + "x" + height);
+        }
+        mCrop = true;
+        mCropX = x;
+        mCropY = y;
+        mCropWidth = width;
+        mCropHeight = height;
+    }
+
+    /**
+     * Sets whether the APPn and COM segments are copied, defaults to true.
+     * The JFIF and Adobe segments, which tell the color space, are always
+     * copied.
+     */
+    public void setCopyMarkers(boolean copyMarkers) {
+        mCopyMarkers = copyMarkers;
+    }
+
+    /**
+     * Returns the width of the last transformed image.
+     */
+    public int getWidth() {
+        return mWidth;
+    }
+
+    /**
+     * Returns the height of the last transformed image.
+     */
+    public int getHeight() {
+        return mHeight;
+    }
+
+    /**
+     * Returns the transformed JPEG.
+     *
+     * @throws IOException if the JPEG is malformed or not supported, or the
+     *                     crop is outside of the image.
+     */
+    public byte[] transform(byte[] jpeg) throws IOException {
+        return transform(jpeg, 0, jpeg.length);
+    }
+
+    public byte[] transform(byte[] jpeg, int offset, int length) throws IOException {
+        JpegDecoder decoder = new JpegDecoder(jpeg, offset, length);
+        decoder.decode();
+
+        int maxH = decoder.mMaxH;
+        int maxV = decoder.mMaxV;
+        JpegDecoder.Component[] sources = decoder.mComponents;
+        if (sources.length == 1) {
+            // A single component is always coded in 8x8 MCUs
+            sources[0].mH = sources[0].mV = maxH = maxV = 1;
+        }
+
+        boolean transpose = mTransform == TRANSPOSE || mTransform == TRANSVERSE
+                || mTransform == ROTATE_90 || mTransform == ROTATE_270;
+        // Flips applied after the transpose
+        boolean flipX = mTransform == FLIP_HORIZONTAL || mTransform == TRANSVERSE
+                || mTransform == ROTATE_90 || mTransform == ROTATE_180;
+        boolean flipY = mTransform == FLIP_VERTICAL || mTransform == TRANSVERSE
+                || mTransform == ROTATE_270 || mTransform == ROTATE_180;
+
+        // Drops the partial MCUs at the edges which flips move inside
+        int width = decoder.mWidth;
+        int height = decoder.mHeight;
+        if (transpose ? flipY : flipX) {
+            width -= width % (8 * maxH);
+        }
+        if (transpose ? flipX : flipY) {
+            height -= height % (8 * maxV);
+        }
+        if (width == 0 || height == 0) {
+            throw new IOException("Image smaller than a MCU");
+        }
+        if (transpose) {
+            int t = width;
+            width = height;
+            height = t;
+        }
+        int outMaxH = transpose ? maxV : maxH;
+        int outMaxV = transpose ? maxH : maxV;
+
+        int cropX = 0;
+        int cropY = 0;
+        if (mCrop) {
+            cropX = mCropX - mCropX % (8 * outMaxH);
+            cropY = mCropY - mCropY % (8 * outMaxV);
+            if (cropX >= width || cropY >= height) {
+                throw new IOException("Crop outside of the image");
+            }
+            int right = (int) Math.min(width, (long) mCropX + mCropWidth);
+            int bottom = (int) Math.min(height, (long) mCropY + mCropHeight);
+            width = right - cropX;
+            height = bottom - cropY;
+        }
+
+        int mcusWide = (width + 8 * outMaxH - 1) / (8 * outMaxH);
+        int mcusHigh = (height + 8 * outMaxV - 1) / (8 * outMaxV);
+        JpegEncoder.Component[] components = new JpegEncoder.Component[sources.length];
+        for (int i = 0; i < sources.length; i++) {
+            JpegDecoder.Component source = sources[i];
+            JpegEncoder.Component c = new JpegEncoder.Component();
+            c.mSource = source;
+            c.mH = transpose ? source.mV : source.mH;
+            c.mV = transpose ? source.mH : source.mV;
+            c.mBlocksWide = mcusWide * c.mH;
+            c.mBlocksHigh = mcusHigh * c.mV;
+            c.mOffsetX = cropX / (8 * outMaxH) * c.mH;
+            c.mOffsetY = cropY / (8 * outMaxV) * c.mV;
+            // Exact on the flipped sides, which are whole MCUs
+            int gridWide = ((decoder.mWidth * source.mH + maxH - 1) / maxH + 7) / 8;
+            int gridHigh = ((decoder.mHeight * source.mV + maxV - 1) / maxV + 7) / 8;
+            if (transpose ? flipY : flipX) {
+                gridWide = decoder.mWidth / (8 * maxH) * source.mH;
+            }
+            if (transpose ? flipX : flipY) {
+                gridHigh = decoder.mHeight / (8 * maxV) * source.mV;
+            }
+            c.mGridWide = transpose ? gridHigh : gridWide;
+            c.mGridHigh = transpose ? gridWide : gridHigh;
+            c.mTranspose = transpose;
+            c.mFlipX = flipX;
+            c.mFlipY = flipY;
+            c.mIndex = new int[64];
+            c.mSign = new int[64];
+            for (int v = 0; v < 8; v++) {
+                for (int u = 0; u < 8; u++) {
+                    int k = v * 8 + u;
+                    c.mIndex[k] = transpose ? u * 8 + v : k;
+                    boolean negative = (flipX && (u & 1) != 0) ^ (flipY && (v & 1) != 0);
+                    c.mSign[k] = negative ? -1 : 1;
+                }
+            }
+            components[i] = c;
+        }
+
+        int[][] quantTables = decoder.mQuantTables;
+        if (transpose) {
+            for (int id = 0; id < quantTables.length; id++) {
+                int[] table = quantTables[id];
+                if (table != null) {
+                    int[] transposed = new int[64];
+                    for (int k = 0; k < 64; k++) {
+                        transposed[k] = table[(k & 7) * 8 + (k >> 3)];
+                    }
+                    quantTables[id] = transposed;
+                }
+            }
+        }
+
+        List<byte[]> markers = decoder.mMarkers;
+        if (!mCopyMarkers) {
+            List<byte[]> kept = new ArrayList<byte[]>();
+            for (byte[] marker : markers) {
+                if (isColorMarker(marker)) {
+                    kept.add(marker);
+                }
+            }
+            markers = kept;
+        }
+
+        JpegEncoder encoder = new JpegEncoder(width, height, components, quantTables,
+                decoder.mQuantTable16Bit, markers, length);
+        byte[] result = encoder.encode();
+        mWidth = width;
+        mHeight = height;
+        return result;
+    }
+
+    private static boolean isColorMarker(byte[] marker) {
+        if (marker.length < 8) {
+            return false;
+        }
+        int type = (marker[0] & 0xff) << 8 | (marker[1] & 0xff);
+        int id = (marker[4] & 0xff) << 24 | (marker[5] & 0xff) << 16
+                | (marker[6] & 0xff) << 8 | (marker[7] & 0xff);
+        return (type == (JpegHeader.APP0 & 0xffff) && id == JFIF)
+                || (type == APP14 && id == ADOBE);
+    }
+}
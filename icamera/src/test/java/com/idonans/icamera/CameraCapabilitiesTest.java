@@ -0,0 +1,321 @@
+package com.idonans.icamera;
+
+import android.hardware.Camera;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 使用假的相机测试缓存何时失效: 系统 fingerprint 或 sdk 版本改变, verify 时参数不一致, 缓存文件损坏.
+ */
+public class CameraCapabilitiesTest {
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    private FakeSource mSource;
+
+    /**
+     * 一个后置和一个前置相机, 记录打开相机的次数. 后台任务在 {@link #runBackground()} 时才执行.
+     */
+    private static class FakeSource implements CameraCapabilities.Source {
+        final File file;
+        String key = CameraCapabilities.makeKey("fake/device:6.0/1", 23);
+        int[] facings = {Camera.CameraInfo.CAMERA_FACING_BACK, Camera.CameraInfo.CAMERA_FACING_FRONT};
+        int[] orientations = {90, 270};
+        List<CameraCapabilities.Size> previewSizes = sizes(1920, 1080, 1280, 720, 640, 480);
+        int opens;
+        int infoReads;
+        int fileAccesses;
+        List<Runnable> background = new ArrayList<>();
+
+        FakeSource(File file) {
+            this.file = file;
+        }
+
+        @Override
+        public String getKey() {
+            return key;
+        }
+
+        @Override
+        public File getFile() {
+            fileAccesses++;
+            return file;
+        }
+
+        @Override
+        public int getNumberOfCameras() {
+            return facings.length;
+        }
+
+        @Override
+        public void getCameraInfo(int cameraId, Camera.CameraInfo cameraInfo) {
+            infoReads++;
+            cameraInfo.facing = facings[cameraId];
+            cameraInfo.orientation = orientations[cameraId];
+        }
+
+        @Override
+        public boolean readParameters(CameraCapabilities capabilities) {
+            opens++;
+            capabilities.setParameters(Arrays.asList("off", "auto", "torch"),
+                    Arrays.asList("auto", "continuous-picture"),
+                    new ArrayList<>(previewSizes), sizes(4000, 3000, 1920, 1080));
+            return true;
+        }
+
+        @Override
+        public void runInBackground(Runnable runnable) {
+            background.add(runnable);
+        }
+
+        void runBackground() {
+            while (!background.isEmpty()) {
+                background.remove(0).run();
+            }
+        }
+    }
+
+    private static List<CameraCapabilities.Size> sizes(int... values) {
+        List<CameraCapabilities.Size> sizes = new ArrayList<>();
+        for (int i = 0; i < values.length; i += 2) {
+            sizes.add(new CameraCapabilities.Size(values[i], values[i + 1]));
+        }
+        return sizes;
+    }
+
+    @Before
+    public void setUp() throws IOException {
+        mSource = new FakeSource(new File(mFolder.getRoot(), "capabilities"));
+        CameraCapabilities.setSource(mSource);
+    }
+
+    @After
+    public void tearDown() {
+        CameraCapabilities.setSource(new FakeSource(new File(mFolder.getRoot(), "unused")));
+    }
+
+    /**
+     * 模拟进程重启: 写完文件后清除内存中的缓存, 只剩文件
+     */
+    private void restart() {
+        mSource.runBackground();
+        CameraCapabilities.setSource(mSource);
+    }
+
+    @Test
+    public void cachedCapabilitiesDoNotOpenTheCamera() {
+        CameraCapabilities back = CameraCapabilities.get(false);
+        assertNotNull(back);
+        assertEquals(1, mSource.opens);
+        assertEquals(90, back.orientation);
+        // 在后台保存
+        assertFalse(mSource.file.exists());
+        mSource.runBackground();
+        assertTrue(mSource.file.exists());
+
+        restart();
+        mSource.infoReads = 0;
+        back = CameraCapabilities.get(false);
+        assertNotNull(back);
+        assertEquals(1, mSource.opens);
+        assertEquals(0, mSource.infoReads);
+        assertEquals(mSource.previewSizes, back.getSupportedPreviewSizes());
+        assertEquals(Arrays.asList("off", "auto", "torch"), back.getSupportedFlashModes());
+        assertEquals(2, CameraCapabilities.getNumberOfCameras());
+
+        // 前置相机的参数还没有读取过
+        CameraCapabilities front = CameraCapabilities.get(true);
+        assertNotNull(front);
+        assertTrue(front.isFaceFront());
+        assertEquals(2, mSource.opens);
+    }
+
+    @Test
+    public void peekDoesNotOpenTheCameraOrReadTheFile() {
+        // 冷启动, 还没有缓存文件
+        mSource.fileAccesses = 0;
+        CameraCapabilities back = CameraCapabilities.peek(false);
+        assertNotNull(back);
+        assertEquals(90, back.orientation);
+        assertFalse(back.hasParameters());
+        assertNull(back.getSupportedPreviewSizes());
+        assertEquals(2, CameraCapabilities.getNumberOfCameras());
+        assertEquals(0, mSource.opens);
+        assertEquals(0, mSource.fileAccesses);
+        mSource.runBackground();
+        assertFalse(mSource.file.exists());
+
+        // 打开相机预览后校验, 填充缓存
+        CameraCapabilities actual = new CameraCapabilities(0, 0, 0);
+        mSource.readParameters(actual);
+        mSource.opens = 0;
+        assertFalse(CameraCapabilities.verify(0, actual));
+
+        restart();
+        mSource.fileAccesses = 0;
+        back = CameraCapabilities.peek(false);
+        assertNotNull(back);
+        assertFalse(back.hasParameters());
+        assertEquals(0, mSource.fileAccesses);
+
+        // 后台加载后得到参数
+        mSource.runBackground();
+        back = CameraCapabilities.peek(false);
+        assertNotNull(back);
+        assertEquals(mSource.previewSizes, back.getSupportedPreviewSizes());
+        assertEquals(0, mSource.opens);
+    }
+
+    @Test
+    public void saveWritesOnlyTheLatestSnapshot() {
+        assertNotNull(CameraCapabilities.get(false));
+        assertNotNull(CameraCapabilities.get(true));
+        // CameraInfo, 后置和前置相机的参数各保存一次
+        assertEquals(3, mSource.background.size());
+        mSource.fileAccesses = 0;
+        mSource.runBackground();
+        assertEquals(1, mSource.fileAccesses);
+
+        restart();
+        assertNotNull(CameraCapabilities.get(true));
+        assertEquals(2, mSource.opens);
+    }
+
+    @Test
+    public void fingerprintChangeInvalidatesCache() {
+        assertNotNull(CameraCapabilities.get(false));
+        assertEquals(1, mSource.opens);
+
+        mSource.key = CameraCapabilities.makeKey("fake/device:7.0/2", 23);
+        mSource.orientations = new int[]{0, 180};
+        restart();
+        CameraCapabilities back = CameraCapabilities.get(false);
+        assertNotNull(back);
+        assertEquals(2, mSource.opens);
+        assertEquals(0, back.orientation);
+    }
+
+    @Test
+    public void sdkChangeInvalidatesCache() {
+        assertNotNull(CameraCapabilities.get(false));
+        assertEquals(1, mSource.opens);
+
+        mSource.key = CameraCapabilities.makeKey("fake/device:6.0/1", 24);
+        restart();
+        assertNotNull(CameraCapabilities.get(false));
+        assertEquals(2, mSource.opens);
+
+        // 新的 key 已保存
+        restart();
+        assertNotNull(CameraCapabilities.get(false));
+        assertEquals(2, mSource.opens);
+    }
+
+    @Test
+    public void verifyMismatchUpdatesCache() {
+        assertNotNull(CameraCapabilities.get(false));
+        CameraCapabilities actual = new CameraCapabilities(0, 0, 0);
+        mSource.readParameters(actual);
+        mSource.opens = 1;
+        assertTrue(CameraCapabilities.verify(0, actual));
+
+        // 打开的相机报告了不同的预览尺寸
+        actual.previewSizes = sizes(1280, 720);
+        assertFalse(CameraCapabilities.verify(0, actual));
+        assertTrue(CameraCapabilities.verify(0, actual));
+
+        restart();
+        CameraCapabilities back = CameraCapabilities.get(false);
+        assertNotNull(back);
+        assertEquals(sizes(1280, 720), back.getSupportedPreviewSizes());
+        assertEquals(1, mSource.opens);
+
+        // 超出范围的 camera id
+        assertFalse(CameraCapabilities.verify(2, actual));
+    }
+
+    @Test
+    public void verifyFillsUncachedCamera() {
+        CameraCapabilities actual = new CameraCapabilities(1, 0, 0);
+        mSource.readParameters(actual);
+        mSource.opens = 0;
+        assertFalse(CameraCapabilities.verify(1, actual));
+
+        restart();
+        CameraCapabilities front = CameraCapabilities.get(true);
+        assertNotNull(front);
+        assertEquals(0, mSource.opens);
+    }
+
+    @Test
+    public void corruptFileIsIgnored() throws IOException {
+        assertNotNull(CameraCapabilities.get(false));
+        mSource.runBackground();
+        long length = mSource.file.length();
+
+        // 截断
+        RandomAccessFile file = new RandomAccessFile(mSource.file, "rw");
+        file.setLength(length / 2);
+        file.close();
+        restart();
+        assertNotNull(CameraCapabilities.get(false));
+        assertEquals(2, mSource.opens);
+        mSource.runBackground();
+        assertEquals(length, mSource.file.length());
+
+        // 相机数量被破坏, 不能因此分配过大的列表. 数量在 version 和 key 之后
+        file = new RandomAccessFile(mSource.file, "rw");
+        file.seek(4 + 2 + mSource.key.length());
+        file.writeInt(Integer.MAX_VALUE);
+        file.close();
+        restart();
+        assertNotNull(CameraCapabilities.get(false));
+        assertEquals(3, mSource.opens);
+        mSource.runBackground();
+
+        // 不是缓存文件
+        FileOutputStream os = new FileOutputStream(mSource.file);
+        os.write(new byte[]{1, 2, 3});
+        os.close();
+        restart();
+        CameraCapabilities back = CameraCapabilities.get(false);
+        assertNotNull(back);
+        assertEquals(4, mSource.opens);
+        assertEquals(mSource.previewSizes, back.getSupportedPreviewSizes());
+    }
+
+    @Test
+    public void invalidateDeletesFile() {
+        assertNotNull(CameraCapabilities.get(false));
+        mSource.runBackground();
+        assertTrue(mSource.file.exists());
+        CameraCapabilities.invalidate();
+        assertFalse(mSource.file.exists());
+        assertNotNull(CameraCapabilities.get(false));
+        assertEquals(2, mSource.opens);
+
+        // 还没有写入的保存被放弃
+        CameraCapabilities.invalidate();
+        mSource.runBackground();
+        assertFalse(mSource.file.exists());
+    }
+}
@@ -0,0 +1,346 @@
+package com.idonans.icamera.exif;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Feeds truncated and corrupted exif data to both the stream parser
+ * ({@link ExifParser}, read from an InputStream) and the buffer parser
+ * ({@link ExifBufferParser}, read from a byte array or a ByteBuffer). A read
+ * may fail with an IOException or return whatever tags it could read, but
+ * must never throw anything else. The corpus is built from fixed seeds, so
+ * a failure is reproduced by running the test again.
+ */
+public class ExifParserFuzzTest {
+
+    private static final int MUTATIONS = 400;
+
+    @Test
+    public void validCorpusReadsTheSameWithBothParsers() throws IOException {
+        for (byte[] jpeg : buildCorpus()) {
+            ExifInterface stream = new ExifInterface();
+            stream.readExif(new ByteArrayInputStream(jpeg));
+            ExifInterface buffer = new ExifInterface();
+            buffer.readExif(jpeg);
+            assertEquals(dump(stream), dump(buffer));
+            assertEquals(6, buffer.getTagIntValue(ExifInterface.TAG_ORIENTATION).intValue());
+        }
+    }
+
+    @Test(timeout = 60000)
+    public void truncatedInputs() {
+        for (byte[] jpeg : buildCorpus()) {
+            int end = getApp1End(jpeg) + 16;
+            for (int length = 0; length <= end; length++) {
+                readAll(Arrays.copyOf(jpeg, length), null);
+            }
+        }
+    }
+
+    @Test(timeout = 60000)
+    public void corruptedInputs() {
+        Random random = new Random(19);
+        for (byte[] jpeg : buildCorpus()) {
+            int end = getApp1End(jpeg);
+            for (int i = 0; i < MUTATIONS; i++) {
+                byte[] mutated = jpeg.clone();
+                int changes = 1 + random.nextInt(8);
+                for (int k = 0; k < changes; k++) {
+                    int pos = 2 + random.nextInt(end - 2);
+                    if (random.nextBoolean()) {
+                        mutated[pos] ^= (byte) (1 << random.nextInt(8));
+                    } else {
+                        mutated[pos] = (byte) random.nextInt(256);
+                    }
+                }
+                readAll(mutated, null);
+                readAll(mutated, newFailFastLimits());
+            }
+        }
+    }
+
+    @Test(timeout = 60000)
+    public void corruptedEntries() throws IOException {
+        // The type, count and value fields of every IFD entry, set to values
+        // known to break unchecked parsers: huge counts and offsets, invalid
+        // types.
+        int[] fields = {2, 4, 8};
+        int[] values = {0, 1, 0x7fff, 0xffff, 0x7fffffff, 0xffffffff, 0x10000};
+        for (byte[] jpeg : buildCorpus()) {
+            ByteBuffer data = ByteBuffer.wrap(jpeg);
+            int tiff = ExifProbe.findTiffHeader(data, 0, jpeg.length);
+            boolean little = data.get(tiff) == 'I';
+            for (int entry : getEntries(data, tiff, little)) {
+                for (int field : fields) {
+                    for (int value : values) {
+                        byte[] mutated = jpeg.clone();
+                        ByteBuffer buffer = ByteBuffer.wrap(mutated);
+                        buffer.order(little ? ByteOrder.LITTLE_ENDIAN : ByteOrder.BIG_ENDIAN);
+                        if (field == 2) {
+                            buffer.putShort(entry + field, (short) value);
+                        } else {
+                            buffer.putInt(entry + field, value);
+                        }
+                        readAll(mutated, null);
+                        readAll(mutated, newFailFastLimits());
+                    }
+                }
+            }
+        }
+    }
+
+    @Test(timeout = 60000)
+    public void ifdLoopsTerminate() throws IOException {
+        for (byte[] jpeg : buildCorpus()) {
+            ByteBuffer data = ByteBuffer.wrap(jpeg);
+            int tiff = ExifProbe.findTiffHeader(data, 0, jpeg.length);
+            boolean little = data.get(tiff) == 'I';
+            int ifd0 = ExifProbe.readInt(data, tiff + 4, little);
+            int count = ExifProbe.readUnsignedShort(data, tiff + ifd0, little);
+
+            // IFD0 links to itself as IFD1
+            byte[] mutated = jpeg.clone();
+            putInt(mutated, tiff + ifd0 + 2 + count * 12, ifd0, little);
+            readAll(mutated, null);
+            readAll(mutated, new ExifParseLimits());
+
+            // The exif IFD pointer of IFD0 points to IFD0
+            int entry = ExifProbe.findIfd0Entry(data, tiff, jpeg.length, little,
+                    ExifInterface.getTrueTagKey(ExifInterface.TAG_EXIF_IFD) & 0xffff);
+            assertTrue(entry >= 0);
+            mutated = jpeg.clone();
+            putInt(mutated, entry + 8, ifd0, little);
+            readAll(mutated, null);
+            readAll(mutated, new ExifParseLimits());
+        }
+    }
+
+    @Test
+    public void failFastLimitsRejectHugeValues() throws IOException {
+        for (byte[] jpeg : buildCorpus()) {
+            ExifParseLimits limits = newFailFastLimits();
+            limits.setMaxValueBytes(16);
+
+            ExifInterface stream = new ExifInterface();
+            stream.setParseLimits(limits);
+            try {
+                stream.readExif(new ByteArrayInputStream(jpeg));
+                fail("Values beyond the limit were read");
+            } catch (IOException expected) {
+            }
+            ExifInterface buffer = new ExifInterface();
+            buffer.setParseLimits(limits);
+            try {
+                buffer.readExif(jpeg);
+                fail("Values beyond the limit were read");
+            } catch (IOException expected) {
+            }
+        }
+    }
+
+    /**
+     * Reads the data with every read path, failing on anything but an
+     * IOException.
+     */
+    private static void readAll(byte[] jpeg, ExifParseLimits limits) {
+        ExifInterface exif = new ExifInterface();
+        exif.setParseLimits(limits);
+        try {
+            exif.readExif(new ByteArrayInputStream(jpeg));
+            readValues(exif);
+        } catch (IOException e) {
+            // expected for malformed data
+        } catch (RuntimeException e) {
+            throw failure("stream parser", jpeg, e);
+        }
+        exif = new ExifInterface();
+        exif.setParseLimits(limits);
+        try {
+            exif.readExif(jpeg);
+            readValues(exif);
+        } catch (IOException e) {
+            // expected for malformed data
+        } catch (RuntimeException e) {
+            throw failure("buffer parser", jpeg, e);
+        }
+        exif = new ExifInterface();
+        exif.setParseLimits(limits);
+        try {
+            exif.readExif(ByteBuffer.wrap(jpeg));
+            readValues(exif);
+        } catch (IOException e) {
+            // expected for malformed data
+        } catch (RuntimeException e) {
+            throw failure("buffer parser (ByteBuffer)", jpeg, e);
+        }
+    }
+
+    private static void readValues(ExifInterface exif) {
+        List<ExifTag> tags = exif.getAllTags();
+        if (tags != null) {
+            for (ExifTag tag : tags) {
+                tag.forceGetValueAsString();
+            }
+        }
+        exif.getThumbnailBytes();
+        exif.getTagIntValue(ExifInterface.TAG_ORIENTATION);
+    }
+
+    private static AssertionError failure(String parser, byte[] jpeg, RuntimeException e) {
+        AssertionError error = new AssertionError(parser + " threw " + e
+                + " for " + jpeg.length + " bytes: " + toHex(jpeg, 64));
+        error.initCause(e);
+        return error;
+    }
+
+    private static ExifParseLimits newFailFastLimits() {
+        ExifParseLimits limits = new ExifParseLimits();
+        limits.setFailFast(true);
+        return limits;
+    }
+
+    /**
+     * Returns exif JPEGs in both byte orders, with and without a thumbnail,
+     * holding tags of every type in IFD0, the exif, GPS and interoperability
+     * IFDs.
+     */
+    private static List<byte[]> buildCorpus() {
+        List<byte[]> corpus = new ArrayList<byte[]>();
+        try {
+            byte[] image = readResource("/com/idonans/icamera/jpeg/color_101x67.jpg");
+            byte[] thumbnail = readResource("/com/idonans/icamera/jpeg/gray_restart_48x32.jpg");
+            for (ByteOrder order : new ByteOrder[]{ByteOrder.BIG_ENDIAN, ByteOrder.LITTLE_ENDIAN}) {
+                corpus.add(buildJpeg(image, order, null));
+                corpus.add(buildJpeg(image, order, thumbnail));
+            }
+        } catch (IOException e) {
+            throw new AssertionError(e);
+        }
+        return corpus;
+    }
+
+    private static byte[] buildJpeg(byte[] image, ByteOrder order, byte[] thumbnail)
+            throws IOException {
+        ExifInterface exif = new ExifInterface();
+        ExifData data = new ExifData(order);
+        data.addTag(exif.buildTag(ExifInterface.TAG_ORIENTATION, (short) 6));
+        data.addTag(exif.buildTag(ExifInterface.TAG_MAKE, "idonans"));
+        data.addTag(exif.buildTag(ExifInterface.TAG_MODEL, "icamera fuzz corpus"));
+        data.addTag(exif.buildTag(ExifInterface.TAG_X_RESOLUTION, new Rational(72, 1)));
+        data.addTag(exif.buildTag(ExifInterface.TAG_DATE_TIME_ORIGINAL, "2016:10:14 12:00:00"));
+        data.addTag(exif.buildTag(ExifInterface.TAG_PIXEL_X_DIMENSION, 101));
+        data.addTag(exif.buildTag(ExifInterface.TAG_PIXEL_Y_DIMENSION, 67));
+        data.addTag(exif.buildTag(ExifInterface.TAG_EXPOSURE_BIAS_VALUE, new Rational(-1, 3)));
+        data.addTag(exif.buildTag(ExifInterface.TAG_ISO_SPEED_RATINGS, (short) 100));
+        data.addTag(exif.buildTag(ExifInterface.TAG_USER_COMMENT, "fuzz corpus comment"));
+        data.addTag(exif.buildTag(ExifInterface.TAG_MAKER_NOTE, new byte[]{1, 2, 3, 4, 5, 6}));
+        data.addTag(exif.buildTag(ExifInterface.TAG_GPS_LATITUDE, new Rational[]{
+                new Rational(31, 1), new Rational(13, 1), new Rational(4944, 100)}));
+        data.addTag(exif.buildTag(ExifInterface.TAG_GPS_LATITUDE_REF, "N"));
+        data.addTag(exif.buildTag(ExifInterface.TAG_INTEROPERABILITY_INDEX, "R98"));
+        if (thumbnail != null) {
+            data.setCompressedThumbnail(thumbnail);
+        }
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        ExifOutputStream eos = new ExifOutputStream(os, exif);
+        eos.setExifData(data);
+        eos.write(image);
+        eos.flush();
+        return os.toByteArray();
+    }
+
+    /**
+     * Returns the offsets of the entries of all IFDs of the unmodified data.
+     */
+    private static List<Integer> getEntries(ByteBuffer data, int tiff, boolean little) {
+        List<Integer> entries = new ArrayList<Integer>();
+        int tiffEnd = ExifProbe.tiffEnd(data, tiff, data.limit());
+        List<Integer> ifds = new ArrayList<Integer>();
+        int ifd0 = ExifProbe.readInt(data, tiff + 4, little);
+        ifds.add(ifd0);
+        for (int i = 0; i < ifds.size(); i++) {
+            int ifd = ifds.get(i);
+            int count = ExifProbe.readUnsignedShort(data, tiff + ifd, little);
+            for (int k = 0; k < count; k++) {
+                int entry = tiff + ifd + 2 + k * 12;
+                entries.add(entry);
+                int tagId = ExifProbe.readUnsignedShort(data, entry, little);
+                if (tagId == 0x8769 || tagId == 0x8825 || tagId == 0xa005) {
+                    ifds.add(ExifProbe.readInt(data, entry + 8, little));
+                }
+            }
+            if (ifd == ifd0) {
+                int next = ExifProbe.readNextIfdOffset(data, tiff, tiffEnd, little, ifd0);
+                if (next > 0) {
+                    ifds.add(next);
+                }
+            }
+        }
+        return entries;
+    }
+
+    private static int getApp1End(byte[] jpeg) {
+        int tiff = ExifProbe.findTiffHeader(ByteBuffer.wrap(jpeg), 0, jpeg.length);
+        assertTrue(tiff > 0);
+        return ExifProbe.tiffEnd(ByteBuffer.wrap(jpeg), tiff, jpeg.length);
+    }
+
+    private static void putInt(byte[] data, int pos, int value, boolean little) {
+        ByteBuffer buffer = ByteBuffer.wrap(data);
+        buffer.order(little ? ByteOrder.LITTLE_ENDIAN : ByteOrder.BIG_ENDIAN);
+        buffer.putInt(pos, value);
+    }
+
+    private static String dump(ExifInterface exif) {
+        List<String> lines = new ArrayList<String>();
+        for (ExifTag tag : exif.getAllTags()) {
+            lines.add(tag.getIfd() + "/" + Integer.toHexString(tag.getTagId()) + " "
+                    + tag.getDataType() + " " + tag.getComponentCount() + " "
+                    + tag.forceGetValueAsString());
+        }
+        Collections.sort(lines);
+        byte[] thumbnail = exif.getThumbnailBytes();
+        lines.add("thumbnail " + (thumbnail != null ? thumbnail.length : -1));
+        return lines.toString();
+    }
+
+    private static String toHex(byte[] data, int max) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < data.length && i < max; i++) {
+            sb.append(String.format("%02x", data[i] & 0xff));
+        }
+        return sb.toString();
+    }
+
+    private static byte[] readResource(String name) throws IOException {
+        InputStream is = ExifParserFuzzTest.class.getResourceAsStream(name);
+        assertNotNull(name, is);
+        try {
+            ByteArrayOutputStream os = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            int n;
+            while ((n = is.read(buffer)) != -1) {
+                os.write(buffer, 0, n);
+            }
+            return os.toByteArray();
+        } finally {
+            is.close();
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package com.idonans.icamera.jpeg;
+
+import org.junit.Test;
+
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class HuffmanTableTest {
+
+    @Test
+    public void rejectsOverfullCodeSpace() {
+        // Three 1-bit codes do not fit in the two 1-bit codes there are
+        int[] bits = new int[17];
+        bits[1] = 3;
+        try {
+            new HuffmanTable(bits, new int[]{0, 1, 2});
+            fail("Accepted three 1-bit codes");
+        } catch (IOException expected) {
+        }
+    }
+
+    @Test
+    public void rejectsOverfullLongCodes() {
+        // 2^10 + 1 codes of length 10
+        int[] bits = new int[17];
+        bits[10] = 1025;
+        try {
+            new HuffmanTable(bits, new int[1025]);
+            fail("Accepted an overfull table");
+        } catch (IOException expected) {
+        }
+    }
+
+    @Test
+    public void rejectsMalformedTableInJpeg() throws IOException {
+        byte[] jpeg = JpegTransformerTest.readSample("gray_101x67.jpg");
+        int dht = findMarker(jpeg, 0xc4);
+        assertTrue(dht > 0);
+        // Class and id, then the counts of codes of length 1 to 16
+        jpeg[dht + 5] = 3;
+        try {
+            new JpegTransformer(JpegTransformer.ROTATE_90).transform(jpeg);
+            fail("Accepted a malformed DHT segment");
+        } catch (IOException expected) {
+        }
+    }
+
+    @Test
+    public void builtTableHasPrefixFreeCodes() throws IOException {
+        int[] freq = new int[256];
+        for (int i = 0; i < freq.length; i++) {
+            freq[i] = i % 7 == 0 ? 1000 - i : i % 5 + 1;
+        }
+        HuffmanTable table = HuffmanTable.build(freq);
+        for (int a = 0; a < 256; a++) {
+            assertTrue(table.mSizes[a] > 0 && table.mSizes[a] <= 16);
+            for (int b = 0; b < 256; b++) {
+                if (a == b || table.mSizes[a] > table.mSizes[b]) {
+                    continue;
+                }
+                int prefix = table.mCodes[b] >> (table.mSizes[b] - table.mSizes[a]);
+                assertTrue(a + " is a prefix of " + b, prefix != table.mCodes[a]);
+            }
+            // No code is made of 1 bits only
+            assertTrue(table.mCodes[a] != (1 << table.mSizes[a]) - 1);
+        }
+        HuffmanTable decoded = new HuffmanTable(table.mBits, table.mValues);
+        for (int symbol = 0; symbol < 256; symbol++) {
+            assertEquals(table.mCodes[symbol], decoded.mCodes[symbol]);
+        }
+    }
+
+    private static int findMarker(byte[] jpeg, int marker) {
+        for (int i = 0; i + 1 < jpeg.length; i++) {
+            if ((jpeg[i] & 0xff) == 0xff && (jpeg[i + 1] & 0xff) == marker) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,239 @@
+package com.idonans.icamera.jpeg;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+/**
+ * Checks that the transforms move the quantized coefficients without changing
+ * them, so the image is not degraded. The sample images are baseline JPEGs
+ * with odd sizes, 4:2:0 chroma subsampling and restart intervals.
+ */
+public class JpegTransformerTest {
+
+    private static final String[] SAMPLES = {
+            "gray_101x67.jpg",
+            "color_101x67.jpg",
+            "color_restart_64x48.jpg",
+            "gray_restart_48x32.jpg",
+    };
+
+    // Sizes are whole MCUs, no edge blocks are trimmed
+    private static final String[] ALIGNED_SAMPLES = {
+            "color_restart_64x48.jpg",
+            "gray_restart_48x32.jpg",
+    };
+
+    @Test
+    public void transformKeepsCoefficients() throws IOException {
+        for (String sample : SAMPLES) {
+            byte[] jpeg = readSample(sample);
+            for (int transform = JpegTransformer.TRANSFORM_NONE;
+                 transform <= JpegTransformer.ROTATE_270; transform++) {
+                checkTransform(sample, jpeg, transform, null);
+            }
+        }
+    }
+
+    @Test
+    public void cropKeepsCoefficients() throws IOException {
+        int[] crop = {19, 11, 20, 14};
+        for (String sample : SAMPLES) {
+            byte[] jpeg = readSample(sample);
+            for (int transform = JpegTransformer.TRANSFORM_NONE;
+                 transform <= JpegTransformer.ROTATE_270; transform++) {
+                checkTransform(sample, jpeg, transform, crop);
+            }
+        }
+    }
+
+    @Test
+    public void fourQuarterTurnsRoundTrip() throws IOException {
+        for (String sample : ALIGNED_SAMPLES) {
+            byte[] jpeg = readSample(sample);
+            byte[] out = jpeg;
+            for (int i = 0; i < 4; i++) {
+                out = new JpegTransformer(JpegTransformer.ROTATE_90).transform(out);
+            }
+            assertSameCoefficients(sample, jpeg, out);
+        }
+    }
+
+    @Test
+    public void inverseTransformsRoundTrip() throws IOException {
+        int[][] pairs = {
+                {JpegTransformer.FLIP_HORIZONTAL, JpegTransformer.FLIP_HORIZONTAL},
+                {JpegTransformer.FLIP_VERTICAL, JpegTransformer.FLIP_VERTICAL},
+                {JpegTransformer.TRANSPOSE, JpegTransformer.TRANSPOSE},
+                {JpegTransformer.TRANSVERSE, JpegTransformer.TRANSVERSE},
+                {JpegTransformer.ROTATE_180, JpegTransformer.ROTATE_180},
+                {JpegTransformer.ROTATE_90, JpegTransformer.ROTATE_270},
+        };
+        for (String sample : ALIGNED_SAMPLES) {
+            byte[] jpeg = readSample(sample);
+            for (int[] pair : pairs) {
+                byte[] out = new JpegTransformer(pair[0]).transform(jpeg);
+                out = new JpegTransformer(pair[1]).transform(out);
+                assertSameCoefficients(sample + " " + pair[0] + "/" + pair[1], jpeg, out);
+            }
+        }
+    }
+
+    @Test
+    public void transformTrimsPartialEdgeBlocks() throws IOException {
+        // 101x67 in 16x16 MCUs: a flipped edge is trimmed to 96 or 64
+        byte[] jpeg = readSample("color_101x67.jpg");
+        JpegTransformer transformer = new JpegTransformer(JpegTransformer.ROTATE_90);
+        transformer.transform(jpeg);
+        assertEquals(64, transformer.getWidth());
+        assertEquals(101, transformer.getHeight());
+
+        transformer = new JpegTransformer(JpegTransformer.FLIP_HORIZONTAL);
+        transformer.transform(jpeg);
+        assertEquals(96, transformer.getWidth());
+        assertEquals(67, transformer.getHeight());
+    }
+
+    /**
+     * Decodes both images and checks that each dequantized coefficient of the
+     * output is the one the transform maps it from in the source.
+     */
+    private static void checkTransform(String sample, byte[] jpeg, int transform, int[] crop)
+            throws IOException {
+        JpegTransformer transformer = new JpegTransformer(transform);
+        if (crop != null) {
+            transformer.setCrop(crop[0], crop[1], crop[2], crop[3]);
+        }
+        byte[] out = transformer.transform(jpeg);
+        String name = sample + " transform " + transform + (crop != null ? " cropped" : "");
+
+        JpegDecoder source = decode(jpeg);
+        JpegDecoder target = decode(out);
+        assertEquals(name, transformer.getWidth(), target.mWidth);
+        assertEquals(name, transformer.getHeight(), target.mHeight);
+        assertEquals(name, source.mComponents.length, target.mComponents.length);
+
+        boolean transpose = transform == JpegTransformer.TRANSPOSE
+                || transform == JpegTransformer.TRANSVERSE
+                || transform == JpegTransformer.ROTATE_90
+                || transform == JpegTransformer.ROTATE_270;
+        // Mirroring of the output axes, applied after the transposition
+        boolean flipX = transform == JpegTransformer.FLIP_HORIZONTAL
+                || transform == JpegTransformer.TRANSVERSE
+                || transform == JpegTransformer.ROTATE_90
+                || transform == JpegTransformer.ROTATE_180;
+        boolean flipY = transform == JpegTransformer.FLIP_VERTICAL
+                || transform == JpegTransformer.TRANSVERSE
+                || transform == JpegTransformer.ROTATE_270
+                || transform == JpegTransformer.ROTATE_180;
+
+        boolean gray = source.mComponents.length == 1;
+        int maxH = gray ? 1 : source.mMaxH;
+        int maxV = gray ? 1 : source.mMaxV;
+        for (int c = 0; c < source.mComponents.length; c++) {
+            JpegDecoder.Component from = source.mComponents[c];
+            JpegDecoder.Component to = target.mComponents[c];
+            int h = gray ? 1 : from.mH;
+            int v = gray ? 1 : from.mV;
+
+            // The source is trimmed to whole MCUs along the mirrored edges
+            int width = source.mWidth;
+            int height = source.mHeight;
+            if (transpose ? flipY : flipX) {
+                width -= width % (8 * maxH);
+            }
+            if (transpose ? flipX : flipY) {
+                height -= height % (8 * maxV);
+            }
+            int blocksWide = ceilDiv(ceilDiv(width * h, maxH), 8);
+            int blocksHigh = ceilDiv(ceilDiv(height * v, maxV), 8);
+            int outBlocksWide = transpose ? blocksHigh : blocksWide;
+            int outBlocksHigh = transpose ? blocksWide : blocksHigh;
+            int outMaxH = transpose ? maxV : maxH;
+            int outMaxV = transpose ? maxH : maxV;
+            int outH = transpose ? v : h;
+            int outV = transpose ? h : v;
+
+            int offsetX = 0;
+            int offsetY = 0;
+            if (crop != null) {
+                offsetX = crop[0] / (8 * outMaxH) * outH;
+                offsetY = crop[1] / (8 * outMaxV) * outV;
+            }
+            int targetWide = ceilDiv(ceilDiv(target.mWidth * outH, outMaxH), 8);
+            int targetHigh = ceilDiv(ceilDiv(target.mHeight * outV, outMaxV), 8);
+            int[] fromQuant = source.mQuantTables[from.mQuantTable];
+            int[] toQuant = target.mQuantTables[to.mQuantTable];
+            for (int y = 0; y < targetHigh; y++) {
+                for (int x = 0; x < targetWide; x++) {
+                    int tx = x + offsetX;
+                    int ty = y + offsetY;
+                    int ux = flipX ? outBlocksWide - 1 - tx : tx;
+                    int uy = flipY ? outBlocksHigh - 1 - ty : ty;
+                    int sx = transpose ? uy : ux;
+                    int sy = transpose ? ux : uy;
+                    for (int row = 0; row < 8; row++) {
+                        for (int col = 0; col < 8; col++) {
+                            int k = row * 8 + col;
+                            int sourceK = transpose ? col * 8 + row : k;
+                            // Mirroring negates the odd frequencies along the axis
+                            boolean negate = (flipX && (col & 1) == 1)
+                                    ^ (flipY && (row & 1) == 1);
+                            int expected = from.mCoefficients[(sy * from.mBlocksWide + sx) * 64
+                                    + sourceK] * fromQuant[sourceK];
+                            int actual = to.mCoefficients[(y * to.mBlocksWide + x) * 64 + k]
+                                    * toQuant[k];
+                            assertEquals(name + " component " + c + " block " + x + "," + y
+                                    + " coefficient " + k, negate ? -expected : expected, actual);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    private static void assertSameCoefficients(String name, byte[] expected, byte[] actual)
+            throws IOException {
+        JpegDecoder a = decode(expected);
+        JpegDecoder b = decode(actual);
+        assertEquals(name, a.mWidth, b.mWidth);
+        assertEquals(name, a.mHeight, b.mHeight);
+        assertEquals(name, a.mComponents.length, b.mComponents.length);
+        for (int c = 0; c < a.mComponents.length; c++) {
+            assertArrayEquals(name + " component " + c,
+                    a.mComponents[c].mCoefficients, b.mComponents[c].mCoefficients);
+        }
+    }
+
+    private static JpegDecoder decode(byte[] jpeg) throws IOException {
+        JpegDecoder decoder = new JpegDecoder(jpeg, 0, jpeg.length);
+        decoder.decode();
+        return decoder;
+    }
+
+    private static int ceilDiv(int a, int b) {
+        return (a + b - 1) / b;
+    }
+
+    static byte[] readSample(String name) throws IOException {
+        InputStream is = JpegTransformerTest.class.getResourceAsStream(name);
+        assertNotNull(name, is);
+        try {
+            ByteArrayOutputStream os = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            int n;
+            while ((n = is.read(buffer)) != -1) {
+                os.write(buffer, 0, n);
+            }
+            return os.toByteArray();
+        } finally {
+            is.close();
+        }
+    }
+}